@@ -0,0 +1,580 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.io.FileDescriptor;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ISoundPool} decorator which applies all calls on one dedicated audio control thread.
+ * Every call is turned into a compact command and put into a lock-free multi-producer ring
+ * buffer, so playback control costs the calling thread a single enqueue and never waits for the
+ * native locks of the delegate.
+ * <p/>
+ * {@link #play(int, float, float, int, int, float)} returns a handle reserved on the calling
+ * thread. It's mapped to the stream ID of the delegate once the command is applied and can be
+ * used with all stream methods right away. The handles of the streams looping forever stay valid
+ * until the stream is stopped or its sound unloaded, of the other streams up to {@link
+ * #HANDLE_CAPACITY} most recent are valid. The play of a sound which isn't loaded through this
+ * pool returns 0 right away; a play rejected later by the delegate is reported to the monitor,
+ * see {@link #setRejectionMonitor(SoundPoolEx)}. Load, unload, seek and release wait for the
+ * command to be applied. If the queue is full, the caller yields until there's space. After
+ * {@link #release()} the calls are rejected like by a released SoundPool: loads and plays return
+ * 0, unloads and seeks false and the commands are dropped.
+ * <p/>
+ * Put it under SoundPoolEx (see {@link SoundPoolEx.Builder#setAsync(int)}) to track the playing
+ * status by the handles.
+ */
+public class AsyncSoundPool implements SeekableSoundPool {
+    private final static String TAG = "AsyncSoundPool";
+
+    /**
+     * The number of the handles of the finite streams kept mapped to the delegate stream IDs
+     */
+    public static final int HANDLE_CAPACITY = 4096;
+    private static final int HANDLE_MASK = HANDLE_CAPACITY - 1;
+
+    private static final int OP_PLAY = 1;
+    private static final int OP_PAUSE = 2;
+    private static final int OP_RESUME = 3;
+    private static final int OP_AUTO_PAUSE = 4;
+    private static final int OP_AUTO_RESUME = 5;
+    private static final int OP_STOP = 6;
+    private static final int OP_SET_VOLUME = 7;
+    private static final int OP_SET_PRIORITY = 8;
+    private static final int OP_SET_LOOP = 9;
+    private static final int OP_SET_RATE = 10;
+    private static final int OP_CALL = 11;
+
+    /**
+     * Interval of the control thread checks of a caller waiting for a call
+     */
+    private static final long AWAIT_CHECK_INTERVAL = 100;
+
+    /**
+     * The loaded state is tracked for the soundIDs below, the larger ones are always played
+     */
+    private static final int MAX_TRACKED_SOUND_ID = 1 << 16;
+
+    private final ISoundPool mDelegate;
+    private final int mMask;
+
+    // ring buffer of the commands, one slot per index
+    private final AtomicLongArray mSequences;
+    private final int[] mOps;
+    private final int[] mArgs0;
+    private final int[] mArgs1;
+    private final int[] mArgs2;
+    private final int[] mArgs3;
+    private final float[] mFloats0;
+    private final float[] mFloats1;
+    private final float[] mFloats2;
+    private final Call[] mCalls;
+    private final AtomicLong mTail = new AtomicLong();
+    /**
+     * Read position, owned by the control thread
+     */
+    private long mHead;
+
+    private final AtomicInteger mNextHandle = new AtomicInteger(1);
+    /**
+     * Delegate stream IDs and soundIDs by handle, owned by the control thread
+     */
+    private final SparseIntArray mHandleStreams = new SparseIntArray();
+    private final SparseIntArray mHandleSounds = new SparseIntArray();
+    /**
+     * Handles of the streams looping forever, owned by the control thread
+     */
+    private final SparseBooleanArray mLoopingHandles = new SparseBooleanArray();
+    /**
+     * Ring of the recent handles of the finite streams, owned by the control thread
+     */
+    private final int[] mFiniteHandles = new int[HANDLE_CAPACITY];
+    private int mFiniteCount;
+    /**
+     * Bitset of the loaded soundIDs, replaced by the control thread on every change
+     */
+    private volatile int[] mLoadedSounds = new int[0];
+    private volatile SoundPoolEx mRejectionMonitor;
+
+    private final Thread mThread;
+    private volatile boolean mWaiting;
+    private volatile boolean mReleased;
+
+    /**
+     * Constructor. Starts the control thread.
+     *
+     * @param delegate
+     *         the pool the commands are applied to
+     * @param capacity
+     *         the queue capacity, rounded up to a power of two
+     */
+    public AsyncSoundPool(ISoundPool delegate, int capacity) {
+        mDelegate = delegate;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mOps = new int[size];
+        mArgs0 = new int[size];
+        mArgs1 = new int[size];
+        mArgs2 = new int[size];
+        mArgs3 = new int[size];
+        mFloats0 = new float[size];
+        mFloats1 = new float[size];
+        mFloats2 = new float[size];
+        mCalls = new Call[size];
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runControlLoop();
+            }
+        }, "AsyncSoundPool");
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Claims a queue slot, waiting while the queue is full.
+     *
+     * @return the claimed position or -1 if the pool is released
+     */
+    private long claim() {
+        while (true) {
+            // the control thread quits on release, nothing would free the slots
+            if (mReleased) return -1;
+            long position = mTail.get();
+            long sequence = mSequences.get((int) position & mMask);
+            if (sequence == position) {
+                if (mTail.compareAndSet(position, position + 1)) return position;
+            } else if (sequence < position) {
+                // the queue is full, let the control thread catch up
+                Thread.yield();
+            }
+        }
+    }
+
+    private void publish(long position) {
+        // a volatile store, the sequence must be visible before mWaiting is read, otherwise the
+        // control thread may park after missing both the command and the unpark
+        mSequences.set((int) position & mMask, position + 1);
+        if (mWaiting) LockSupport.unpark(mThread);
+    }
+
+    private void enqueue(int op, int arg0, int arg1, int arg2, int arg3, float float0,
+            float float1, float float2) {
+        long position = claim();
+        if (position < 0) return;
+        int slot = (int) position & mMask;
+        mOps[slot] = op;
+        mArgs0[slot] = arg0;
+        mArgs1[slot] = arg1;
+        mArgs2[slot] = arg2;
+        mArgs3[slot] = arg3;
+        mFloats0[slot] = float0;
+        mFloats1[slot] = float1;
+        mFloats2[slot] = float2;
+        publish(position);
+    }
+
+    private void enqueue(int op, int arg0) {
+        enqueue(op, arg0, 0, 0, 0, 0f, 0f, 0f);
+    }
+
+    /**
+     * Enqueues the call and waits until the control thread applies it. The call isn't applied
+     * if the pool is released, then its result stays 0.
+     */
+    private void execute(Call call) {
+        if (Thread.currentThread() == mThread) {
+            call.run(mDelegate);
+        } else {
+            long position = claim();
+            if (position < 0) return;
+            int slot = (int) position & mMask;
+            mOps[slot] = OP_CALL;
+            mCalls[slot] = call;
+            publish(position);
+        }
+        call.await(mThread);
+    }
+
+    private void runControlLoop() {
+        while (true) {
+            int slot = (int) mHead & mMask;
+            if (mSequences.get(slot) != mHead + 1) {
+                if (mReleased) return;
+                mWaiting = true;
+                if (mSequences.get(slot) != mHead + 1) LockSupport.park(this);
+                mWaiting = false;
+                continue;
+            }
+            try {
+                apply(slot);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Command " + String.valueOf(mOps[slot]) + " failed", e);
+            }
+            mSequences.lazySet(slot, mHead + mMask + 1);
+            mHead++;
+        }
+    }
+
+    private void apply(int slot) {
+        final int handle = mArgs0[slot];
+        switch (mOps[slot]) {
+            case OP_PLAY:
+                int streamID = mDelegate.play(mArgs1[slot], mFloats0[slot], mFloats1[slot],
+                        mArgs2[slot], mArgs3[slot], mFloats2[slot]);
+                if (streamID == 0) {
+                    final SoundPoolEx monitor = mRejectionMonitor;
+                    if (monitor != null) monitor.onPlayRejected(handle);
+                    break;
+                }
+                mHandleStreams.put(handle, streamID);
+                mHandleSounds.put(handle, mArgs1[slot]);
+                if (mArgs3[slot] < 0) {
+                    mLoopingHandles.put(handle, true);
+                } else {
+                    addFiniteHandle(handle);
+                }
+                break;
+            case OP_PAUSE:
+                mDelegate.pause(toStreamID(handle));
+                break;
+            case OP_RESUME:
+                mDelegate.resume(toStreamID(handle));
+                break;
+            case OP_AUTO_PAUSE:
+                mDelegate.autoPause();
+                break;
+            case OP_AUTO_RESUME:
+                mDelegate.autoResume();
+                break;
+            case OP_STOP:
+                mDelegate.stop(toStreamID(handle));
+                removeHandle(handle);
+                break;
+            case OP_SET_VOLUME:
+                mDelegate.setVolume(toStreamID(handle), mFloats0[slot], mFloats1[slot]);
+                break;
+            case OP_SET_PRIORITY:
+                mDelegate.setPriority(toStreamID(handle), mArgs1[slot]);
+                break;
+            case OP_SET_LOOP:
+                mDelegate.setLoop(toStreamID(handle), mArgs1[slot]);
+                if (mHandleStreams.indexOfKey(handle) < 0) break;
+                if (mArgs1[slot] < 0) {
+                    mLoopingHandles.put(handle, true);
+                } else if (mLoopingHandles.get(handle)) {
+                    // the loop is let to finish, the handle is dropped like of a finite stream
+                    mLoopingHandles.delete(handle);
+                    addFiniteHandle(handle);
+                }
+                break;
+            case OP_SET_RATE:
+                mDelegate.setRate(toStreamID(handle), mFloats0[slot]);
+                break;
+            case OP_CALL:
+                Call call = mCalls[slot];
+                mCalls[slot] = null;
+                call.run(mDelegate);
+                break;
+        }
+    }
+
+    /**
+     * @return the delegate stream ID of the handle or 0 if the handle is unknown
+     */
+    private int toStreamID(int handle) {
+        return handle > 0 ? mHandleStreams.get(handle) : 0;
+    }
+
+    /**
+     * Adds the handle to the ring of the finite streams, dropping the oldest one unless it loops
+     * forever now.
+     */
+    private void addFiniteHandle(int handle) {
+        final int index = mFiniteCount++ & HANDLE_MASK;
+        final int oldest = mFiniteHandles[index];
+        if (oldest != 0 && !mLoopingHandles.get(oldest)) removeHandle(oldest);
+        mFiniteHandles[index] = handle;
+    }
+
+    private void removeHandle(int handle) {
+        mHandleStreams.delete(handle);
+        mHandleSounds.delete(handle);
+        mLoopingHandles.delete(handle);
+    }
+
+    /**
+     * Drops the handles of the unloaded sound, the delegate stops its streams.
+     */
+    private void removeHandles(int soundID) {
+        for (int i = mHandleSounds.size() - 1; i >= 0; i--) {
+            if (mHandleSounds.valueAt(i) == soundID) removeHandle(mHandleSounds.keyAt(i));
+        }
+    }
+
+    /**
+     * Records the loaded or unloaded state of the soundID, called on the control thread.
+     *
+     * @return the soundID
+     */
+    private int setLoaded(int soundID, boolean loaded) {
+        if (soundID <= 0 || soundID >= MAX_TRACKED_SOUND_ID) return soundID;
+        final int word = soundID >>> 5;
+        final int[] current = mLoadedSounds;
+        // copy on write, the callers read the bitset without a lock
+        final int[] bits = Arrays.copyOf(current, Math.max(current.length, word + 1));
+        if (loaded) {
+            bits[word] |= 1 << soundID;
+        } else {
+            bits[word] &= ~(1 << soundID);
+        }
+        mLoadedSounds = bits;
+        return soundID;
+    }
+
+    private boolean isLoaded(int soundID) {
+        if (soundID <= 0) return false;
+        if (soundID >= MAX_TRACKED_SOUND_ID) return true;
+        final int[] bits = mLoadedSounds;
+        final int word = soundID >>> 5;
+        return word < bits.length && (bits[word] & (1 << soundID)) != 0;
+    }
+
+    /**
+     * Sets the pool which is told about the plays rejected by the delegate after the handle is
+     * returned, see {@link SoundPoolEx.Builder#setAsync(int)}. The monitor is called on the
+     * control thread.
+     *
+     * @param monitor
+     *         the pool which registered the handles as streamIDs or null
+     */
+    public void setRejectionMonitor(SoundPoolEx monitor) {
+        mRejectionMonitor = monitor;
+    }
+
+    @Override
+    public int load(final String path, final int priority) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                intResult = setLoaded(delegate.load(path, priority), true);
+            }
+        };
+        execute(call);
+        return call.intResult;
+    }
+
+    @Override
+    public int load(final Context context, final int resId, final int priority) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                intResult = setLoaded(delegate.load(context, resId, priority), true);
+            }
+        };
+        execute(call);
+        return call.intResult;
+    }
+
+    @Override
+    public int load(final AssetFileDescriptor afd, final int priority) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                intResult = setLoaded(delegate.load(afd, priority), true);
+            }
+        };
+        execute(call);
+        return call.intResult;
+    }
+
+    @Override
+    public int load(final FileDescriptor fd, final long offset, final long length,
+            final int priority) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                intResult = setLoaded(delegate.load(fd, offset, length, priority), true);
+            }
+        };
+        execute(call);
+        return call.intResult;
+    }
+
+    @Override
+    public boolean unload(final int soundID) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                intResult = delegate.unload(soundID) ? 1 : 0;
+                setLoaded(soundID, false);
+                removeHandles(soundID);
+            }
+        };
+        execute(call);
+        return call.intResult != 0;
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        if (mReleased || !isLoaded(soundID)) return 0;
+        // handles are positive, 0 is skipped on the wrap around
+        int handle = mNextHandle.getAndIncrement() & Integer.MAX_VALUE;
+        if (handle == 0) handle = mNextHandle.getAndIncrement() & Integer.MAX_VALUE;
+        enqueue(OP_PLAY, handle, soundID, priority, loop, leftVolume, rightVolume, rate);
+        return handle;
+    }
+
+    @Override
+    public void pause(int streamID) {
+        enqueue(OP_PAUSE, streamID);
+    }
+
+    @Override
+    public void resume(int streamID) {
+        enqueue(OP_RESUME, streamID);
+    }
+
+    @Override
+    public void autoPause() {
+        enqueue(OP_AUTO_PAUSE, 0);
+    }
+
+    @Override
+    public void autoResume() {
+        enqueue(OP_AUTO_RESUME, 0);
+    }
+
+    @Override
+    public void stop(int streamID) {
+        enqueue(OP_STOP, streamID);
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        enqueue(OP_SET_VOLUME, streamID, 0, 0, 0, leftVolume, rightVolume, 0f);
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        enqueue(OP_SET_VOLUME, streamID, 0, 0, 0, volume, volume, 0f);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        enqueue(OP_SET_PRIORITY, streamID, priority, 0, 0, 0f, 0f, 0f);
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        enqueue(OP_SET_LOOP, streamID, loop, 0, 0, 0f, 0f, 0f);
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        enqueue(OP_SET_RATE, streamID, 0, 0, 0, rate, 0f, 0f);
+    }
+
+    @Override
+    public boolean seek(final int streamID, final int position) {
+        Call call = new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                final int delegateID = toStreamID(streamID);
+                intResult = delegateID > 0 && delegate instanceof SeekableSoundPool &&
+                        ((SeekableSoundPool) delegate).seek(delegateID, position) ? 1 : 0;
+            }
+        };
+        execute(call);
+        return call.intResult != 0;
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(final SoundPool.OnLoadCompleteListener listener) {
+        execute(new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                delegate.setOnLoadCompleteListener(listener);
+            }
+        });
+    }
+
+    /**
+     * Applies the pending commands, releases the delegate and stops the control thread.
+     */
+    @Override
+    public void release() {
+        execute(new Call() {
+            @Override
+            void apply(ISoundPool delegate) {
+                delegate.release();
+                mHandleStreams.clear();
+                mHandleSounds.clear();
+                mLoopingHandles.clear();
+                mLoadedSounds = new int[0];
+                mReleased = true;
+            }
+        });
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Command which is applied by the control thread while the caller waits for it
+     */
+    private abstract static class Call {
+        int intResult;
+        private boolean mDone;
+        private RuntimeException mError;
+
+        abstract void apply(ISoundPool delegate);
+
+        final void run(ISoundPool delegate) {
+            try {
+                apply(delegate);
+            } catch (RuntimeException e) {
+                mError = e;
+            }
+            synchronized (this) {
+                mDone = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until the call is applied or the control thread quits, e.g. when the call raced
+         * with release() and was published after the last command.
+         */
+        final synchronized void await(Thread thread) {
+            boolean interrupted = false;
+            while (!mDone && thread.isAlive()) {
+                try {
+                    wait(AWAIT_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (mError != null) throw mError;
+        }
+    }
+}
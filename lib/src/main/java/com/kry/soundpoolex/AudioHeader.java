@@ -0,0 +1,342 @@
+package com.kry.soundpoolex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream parameters read from the header of WAV, Ogg (Vorbis/Opus) and MP3 files. The parser
+ * reads only small ranges of the file: the header chunks and, for Ogg, the last page.
+ */
+public final class AudioHeader {
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_WAV = 1;
+    public static final int FORMAT_OGG = 2;
+    public static final int FORMAT_MP3 = 3;
+
+    private static final int HEAD_SIZE = 4096;
+    private static final int OGG_TAIL_SIZE = 65536;
+    private static final int MAX_MP3_SYNC_SEARCH = 65536;
+
+    private static final int[][] MP3_BITRATES = {
+            // MPEG-1 Layer III
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0},
+            // MPEG-2/2.5 Layer III
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0}
+    };
+    private static final int[][] MP3_SAMPLE_RATES = {
+            {11025, 12000, 8000}, // MPEG-2.5
+            {0, 0, 0}, // reserved
+            {22050, 24000, 16000}, // MPEG-2
+            {44100, 48000, 32000} // MPEG-1
+    };
+
+    private final int format;
+    private final int duration;
+    private final int sampleRate;
+    private final int channels;
+    private final int bitrate;
+    private final int bitsPerSample;
+    private final long frames;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private AudioHeader(int format, int sampleRate, int channels, int bitrate, int bitsPerSample,
+            long frames, long dataOffset, long dataLength) {
+        this.format = format;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitrate = bitrate;
+        this.bitsPerSample = bitsPerSample;
+        this.frames = frames;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+        this.duration = (int) (frames * 1000 / sampleRate);
+    }
+
+    /**
+     * Creates the header of a sound described by the build-time metadata, e.g. of a {@link
+     * SoundBank} entry, without reading the file.
+     *
+     * @param format
+     *         one of the FORMAT_ constants
+     * @param bitrate
+     *         the bitrate in bits per second or 0 if unknown
+     * @param frames
+     *         the number of the frames
+     * @return the header or null if the sample rate or the channel count is unknown
+     */
+    static AudioHeader fromMetadata(int format, int sampleRate, int channels, int bitrate,
+            long frames) {
+        if (sampleRate <= 0 || channels <= 0) return null;
+        return new AudioHeader(format, sampleRate, channels, bitrate, 0, frames, 0, 0);
+    }
+
+    /**
+     * Reads the header of the sound stored in the range of the channel.
+     *
+     * @param channel
+     *         the channel to read from; its position is not changed
+     * @param offset
+     *         offset to the start of the sound
+     * @param length
+     *         length of the sound
+     * @return the header or null if the format is not supported or the header is malformed
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public static AudioHeader read(FileChannel channel, long offset, long length) throws
+            IOException {
+        ByteBuffer head = readRange(channel, offset, Math.min(length, HEAD_SIZE));
+        if (head.remaining() < 12) return null;
+
+        int magic = head.getInt(0);
+        if (magic == 0x52494646 && head.getInt(8) == 0x57415645) { // 'RIFF' ... 'WAVE'
+            return readWav(channel, offset, length);
+        }
+        if (magic == 0x4F676753) { // 'OggS'
+            return readOgg(channel, head, offset, length);
+        }
+        if ((magic >>> 8) == 0x494433 || (magic >>> 21) == 0x7FF) { // 'ID3' or frame sync
+            return readMp3(channel, head, offset, length);
+        }
+        return null;
+    }
+
+    private static ByteBuffer readRange(FileChannel channel, long position, long size) throws
+            IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, size));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static AudioHeader readWav(FileChannel channel, long offset, long length) throws
+            IOException {
+        int encoding = 0;
+        int channels = 0;
+        int sampleRate = 0;
+        int byteRate = 0;
+        int blockAlign = 0;
+        int bitsPerSample = 0;
+        long factFrames = -1;
+        long pos = 12;
+        while (pos + 8 <= length) {
+            ByteBuffer chunk = readRange(channel, offset + pos, 24).order(ByteOrder.LITTLE_ENDIAN);
+            if (chunk.remaining() < 8) return null;
+            int id = chunk.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            long size = chunk.order(ByteOrder.LITTLE_ENDIAN).getInt(4) & 0xFFFFFFFFL;
+            if (id == 0x666D7420) { // 'fmt '
+                if (chunk.remaining() < 24) return null;
+                encoding = chunk.getShort(8) & 0xFFFF;
+                channels = chunk.getShort(10);
+                sampleRate = chunk.getInt(12);
+                byteRate = chunk.getInt(16);
+                blockAlign = chunk.getShort(20);
+                bitsPerSample = chunk.getShort(22);
+            } else if (id == 0x66616374) { // 'fact'
+                if (chunk.remaining() >= 12) factFrames = chunk.getInt(8) & 0xFFFFFFFFL;
+            } else if (id == 0x64617461) { // 'data'
+                if (blockAlign <= 0 || sampleRate <= 0) return null;
+                long dataLength = Math.min(size, length - pos - 8);
+                // only integer PCM (plain or extensible) reports its sample size
+                boolean pcm = encoding == 1 || encoding == 0xFFFE;
+                long frames;
+                if (pcm || encoding == 3 || encoding == 6 || encoding == 7) {
+                    // PCM, float, A-law and mu-law store one frame per block
+                    frames = dataLength / blockAlign;
+                } else if (factFrames >= 0) {
+                    // a block of the compressed formats, e.g. ADPCM, holds many frames
+                    frames = factFrames;
+                } else if (byteRate > 0) {
+                    frames = dataLength * sampleRate / byteRate;
+                } else {
+                    return null;
+                }
+                return new AudioHeader(FORMAT_WAV, sampleRate, channels, byteRate * 8,
+                        pcm ? bitsPerSample : 0, frames, pos + 8, dataLength);
+            }
+            pos += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    private static AudioHeader readOgg(FileChannel channel, ByteBuffer head, long offset,
+            long length) throws IOException {
+        if (head.remaining() < 27) return null;
+        // first packet starts after the page header and its segment table
+        int packet = 27 + (head.get(26) & 0xFF);
+        if (head.remaining() < packet + 19) return null;
+
+        head.order(ByteOrder.LITTLE_ENDIAN);
+        int channels;
+        int sampleRate;
+        int preSkip = 0;
+        if (head.get(packet) == 1 && head.getInt(packet + 1) == 0x62726f76) { // 'vorb'
+            channels = head.get(packet + 11) & 0xFF;
+            sampleRate = head.getInt(packet + 12);
+        } else if (head.getLong(packet) == 0x646165487375704FL) { // 'OpusHead'
+            channels = head.get(packet + 9) & 0xFF;
+            preSkip = head.getShort(packet + 10) & 0xFFFF;
+            // Opus granule positions always count 48 kHz samples
+            sampleRate = 48000;
+        } else {
+            return null;
+        }
+        if (sampleRate <= 0) return null;
+
+        long tailSize = Math.min(length, OGG_TAIL_SIZE);
+        ByteBuffer tail = readRange(channel, offset + length - tailSize, tailSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.remaining() - 27; i >= 0; i--) {
+            if (tail.get(i) == 'O' && tail.get(i + 1) == 'g' && tail.get(i + 2) == 'g' &&
+                    tail.get(i + 3) == 'S') {
+                long granule = tail.getLong(i + 6);
+                if (granule <= preSkip) return null;
+                long frames = granule - preSkip;
+                int bitrate = (int) (length * 8 * sampleRate / frames);
+                return new AudioHeader(FORMAT_OGG, sampleRate, channels, bitrate, 0, frames, 0,
+                        length);
+            }
+        }
+        return null;
+    }
+
+    private static AudioHeader readMp3(FileChannel channel, ByteBuffer head, long offset,
+            long length) throws IOException {
+        long pos = 0;
+        if ((head.getInt(0) >>> 8) == 0x494433) { // 'ID3'
+            pos = 10 + (((head.get(6) & 0x7F) << 21) | ((head.get(7) & 0x7F) << 14) |
+                    ((head.get(8) & 0x7F) << 7) | (head.get(9) & 0x7F));
+            head = readRange(channel, offset + pos, Math.min(length - pos, HEAD_SIZE));
+        }
+
+        // search for the first frame sync
+        int sync = 0;
+        long searched = 0;
+        while (true) {
+            while (sync + 4 <= head.remaining() && !((head.get(sync) & 0xFF) == 0xFF &&
+                    (head.get(sync + 1) & 0xE0) == 0xE0)) {
+                sync++;
+            }
+            if (sync + 4 <= head.remaining()) break;
+            searched += sync;
+            if (searched >= MAX_MP3_SYNC_SEARCH || pos + searched >= length) return null;
+            head = readRange(channel, offset + pos + searched,
+                    Math.min(length - pos - searched, HEAD_SIZE));
+            sync = 0;
+        }
+        pos += searched + sync;
+        if (sync > 0) head = readRange(channel, offset + pos, Math.min(length - pos, HEAD_SIZE));
+
+        int header = head.getInt(0);
+        int version = (header >>> 19) & 0x03;
+        int layer = (header >>> 17) & 0x03;
+        int bitrateIndex = (header >>> 12) & 0x0F;
+        int sampleRateIndex = (header >>> 10) & 0x03;
+        int channelMode = (header >>> 6) & 0x03;
+        if (layer != 1 || version == 1 || sampleRateIndex == 3) return null;
+
+        boolean mpeg1 = version == 3;
+        int sampleRate = MP3_SAMPLE_RATES[version][sampleRateIndex];
+        int bitrate = MP3_BITRATES[mpeg1 ? 0 : 1][bitrateIndex] * 1000;
+        int channels = channelMode == 3 ? 1 : 2;
+        int samplesPerFrame = mpeg1 ? 1152 : 576;
+        long dataLength = length - pos;
+
+        // Xing/Info header holds the exact frame count of VBR files
+        int sideInfo = mpeg1 ? (channels == 1 ? 17 : 32) : (channels == 1 ? 9 : 17);
+        int xing = 4 + sideInfo;
+        long frameCount = -1;
+        if (xing + 12 <= head.remaining()) {
+            int tag = head.getInt(xing);
+            if ((tag == 0x58696E67 || tag == 0x496E666F) && (head.get(xing + 7) & 0x01) != 0) {
+                frameCount = head.getInt(xing + 8) & 0xFFFFFFFFL;
+            }
+        }
+        if (frameCount < 0) {
+            if (bitrate == 0) return null;
+            long samples = dataLength * 8 * sampleRate / bitrate;
+            return new AudioHeader(FORMAT_MP3, sampleRate, channels, bitrate, 0, samples, pos,
+                    dataLength);
+        }
+        long samples = frameCount * samplesPerFrame;
+        if (samples > 0) bitrate = (int) (dataLength * 8 * sampleRate / samples);
+        return new AudioHeader(FORMAT_MP3, sampleRate, channels, bitrate, 0, samples, pos,
+                dataLength);
+    }
+
+    /**
+     * @return one of the FORMAT_ constants
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the duration in milliseconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the channel count
+     */
+    public int getChannelCount() {
+        return channels;
+    }
+
+    /**
+     * @return the average bitrate in bits per second
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * @return the bits per sample of the integer PCM WAV, 0 for other formats
+     */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return the number of the sample frames (samples per channel)
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return the estimated size of the sound decoded to 16-bit PCM, in bytes
+     */
+    public long getDecodedSize() {
+        return frames * channels * 2;
+    }
+
+    /**
+     * @return offset of the encoded audio data from the start of the sound
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return length of the encoded audio data
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+}
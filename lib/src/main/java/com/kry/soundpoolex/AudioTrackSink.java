@@ -0,0 +1,51 @@
+package com.kry.soundpoolex;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * {@link PcmSink} which plays the mixed frames through a streaming {@link AudioTrack}.
+ */
+public class AudioTrackSink implements PcmSink {
+    private final int mSampleRate;
+    private final AudioTrack mTrack;
+
+    /**
+     * Constructor.
+     *
+     * @param streamType
+     *         the audio stream type as described in AudioManager For example, game applications
+     *         will normally use {@link AudioManager#STREAM_MUSIC}.
+     * @param sampleRate
+     *         the output sample rate in Hz; use the device native rate to avoid resampling
+     * @param blockFrames
+     *         the size of the blocks written by the mixer, in frames
+     */
+    public AudioTrackSink(int streamType, int sampleRate, int blockFrames) {
+        mSampleRate = sampleRate;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+        // double buffering of the mixer blocks at least
+        int bufferSize = Math.max(minBufferSize, blockFrames * 2 * 2 * 2);
+        mTrack = new AudioTrack(streamType, sampleRate, AudioFormat.CHANNEL_OUT_STEREO,
+                AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
+        mTrack.play();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public void write(short[] buffer, int frames) {
+        mTrack.write(buffer, 0, frames * 2);
+    }
+
+    @Override
+    public void release() {
+        mTrack.stop();
+        mTrack.release();
+    }
+}
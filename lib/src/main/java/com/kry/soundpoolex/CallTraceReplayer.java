@@ -0,0 +1,252 @@
+package com.kry.soundpoolex;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds a trace recorded by {@link RecordingSoundPool} into an {@link ISoundPool}, either at the
+ * original timing or as fast as possible. Recorded sound and stream IDs are mapped to the IDs
+ * returned by the target.
+ * <p/>
+ * Loads from a path are replayed as is. Resource and file descriptor loads can't be reproduced
+ * from the trace; they go to {@link #load(int, String, int, long, long, int, int)}, which a
+ * subclass overrides to supply the sounds, otherwise they are skipped and the calls with their
+ * sounds are ignored by the target.
+ */
+public class CallTraceReplayer {
+    private final static String TAG = "CallTraceReplayer";
+
+    /**
+     * Load types passed to {@link #load(int, String, int, long, long, int, int)}
+     */
+    public static final int LOAD_PATH = RecordingSoundPool.OP_LOAD_PATH;
+    public static final int LOAD_RESOURCE = RecordingSoundPool.OP_LOAD_RESOURCE;
+    public static final int LOAD_ASSET_FILE_DESCRIPTOR = RecordingSoundPool.OP_LOAD_AFD;
+    public static final int LOAD_FILE_DESCRIPTOR = RecordingSoundPool.OP_LOAD_FD;
+
+    private final ISoundPool mTarget;
+    /**
+     * Recorded to replayed IDs '<'recorded ID, target ID'>'
+     */
+    private final SparseIntArray mSounds = new SparseIntArray();
+    private final SparseIntArray mStreams = new SparseIntArray();
+    private long mOperationCount;
+
+    /**
+     * Constructor.
+     *
+     * @param target
+     *         the pool the trace is replayed into
+     */
+    public CallTraceReplayer(ISoundPool target) {
+        mTarget = target;
+    }
+
+    /**
+     * Replays the trace. The stream is not closed.
+     *
+     * @param in
+     *         the trace data
+     * @param realTime
+     *         true to keep the recorded intervals between the calls, false to replay as fast as
+     *         possible
+     * @return the wall time of the replay in nanoseconds
+     * @throws IOException
+     *         if the trace is malformed
+     * @throws InterruptedException
+     *         if the thread is interrupted while waiting for the next call
+     */
+    public long replay(InputStream in, boolean realTime) throws IOException,
+            InterruptedException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != RecordingSoundPool.MAGIC) throw new IOException("Not a call trace");
+        int version = data.readShort();
+        if (version != RecordingSoundPool.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+
+        final long start = System.nanoTime();
+        long traceTime = 0;
+        while (true) {
+            int op = data.read();
+            if (op < 0) break;
+            traceTime += readVarint(data);
+            if (realTime) {
+                long wait = traceTime * 1000 - (System.nanoTime() - start);
+                if (wait > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+            onTime(traceTime);
+            apply(op, data);
+            mOperationCount++;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void apply(int op, DataInputStream data) throws IOException {
+        switch (op) {
+            case RecordingSoundPool.OP_LOAD_PATH:
+            case RecordingSoundPool.OP_LOAD_RESOURCE:
+            case RecordingSoundPool.OP_LOAD_AFD:
+            case RecordingSoundPool.OP_LOAD_FD: {
+                int soundID = (int) readVarint(data);
+                int duration = (int) readVarint(data);
+                int priority = readSigned(data);
+                String path = null;
+                int resId = 0;
+                long offset = 0;
+                long length = 0;
+                if (op == RecordingSoundPool.OP_LOAD_PATH) {
+                    path = data.readUTF();
+                } else if (op == RecordingSoundPool.OP_LOAD_RESOURCE) {
+                    resId = data.readInt();
+                } else {
+                    offset = readVarint(data);
+                    length = readVarint(data);
+                }
+                int replayed = load(op, path, resId, offset, length, duration, priority);
+                if (soundID > 0) mSounds.put(soundID, replayed);
+                break;
+            }
+            case RecordingSoundPool.OP_UNLOAD:
+                mTarget.unload(mSounds.get((int) readVarint(data)));
+                break;
+            case RecordingSoundPool.OP_PLAY: {
+                int soundID = mSounds.get((int) readVarint(data));
+                int streamID = (int) readVarint(data);
+                float left = data.readFloat();
+                float right = data.readFloat();
+                int priority = readSigned(data);
+                int loop = readSigned(data);
+                float rate = data.readFloat();
+                int replayed = mTarget.play(soundID, left, right, priority, loop, rate);
+                if (streamID > 0) mStreams.put(streamID, replayed);
+                break;
+            }
+            case RecordingSoundPool.OP_PAUSE:
+                mTarget.pause(stream(data));
+                break;
+            case RecordingSoundPool.OP_RESUME:
+                mTarget.resume(stream(data));
+                break;
+            case RecordingSoundPool.OP_AUTO_PAUSE:
+                mTarget.autoPause();
+                break;
+            case RecordingSoundPool.OP_AUTO_RESUME:
+                mTarget.autoResume();
+                break;
+            case RecordingSoundPool.OP_STOP:
+                mTarget.stop(stream(data));
+                break;
+            case RecordingSoundPool.OP_SET_VOLUME: {
+                int streamID = stream(data);
+                float left = data.readFloat();
+                float right = data.readFloat();
+                mTarget.setVolume(streamID, left, right);
+                break;
+            }
+            case RecordingSoundPool.OP_SET_PRIORITY: {
+                int streamID = stream(data);
+                mTarget.setPriority(streamID, readSigned(data));
+                break;
+            }
+            case RecordingSoundPool.OP_SET_LOOP: {
+                int streamID = stream(data);
+                mTarget.setLoop(streamID, readSigned(data));
+                break;
+            }
+            case RecordingSoundPool.OP_SET_RATE: {
+                int streamID = stream(data);
+                mTarget.setRate(streamID, data.readFloat());
+                break;
+            }
+            case RecordingSoundPool.OP_SEEK: {
+                int streamID = stream(data);
+                int position = (int) readVarint(data);
+                if (mTarget instanceof SeekableSoundPool) {
+                    ((SeekableSoundPool) mTarget).seek(streamID, position);
+                }
+                break;
+            }
+            case RecordingSoundPool.OP_RELEASE:
+                mTarget.release();
+                break;
+            default:
+                throw new IOException("Unknown op " + op);
+        }
+    }
+
+    private int stream(DataInputStream data) throws IOException {
+        return mStreams.get((int) readVarint(data));
+    }
+
+    /**
+     * Called before every replayed call, e.g. to advance a virtual clock.
+     *
+     * @param traceTime
+     *         the time of the call since the start of the trace, in microseconds
+     */
+    protected void onTime(long traceTime) {
+    }
+
+    /**
+     * Replays the load. The default implementation replays the path loads and skips others.
+     *
+     * @param type
+     *         one of the LOAD_ constants
+     * @param path
+     *         the path of {@link #LOAD_PATH}
+     * @param resId
+     *         the resource ID of {@link #LOAD_RESOURCE}
+     * @param offset
+     *         the offset of the file descriptor loads
+     * @param length
+     *         the length of the file descriptor loads
+     * @param duration
+     *         the recorded duration or 0 if unknown
+     * @param priority
+     *         the priority of the sound
+     * @return the sound ID in the target or 0 if the load is skipped
+     */
+    protected int load(int type, String path, int resId, long offset, long length, int duration,
+            int priority) {
+        if (type == LOAD_PATH) return mTarget.load(path, priority);
+        if (BuildConfig.DEBUG) Log.v(TAG, "Load of type " + type + " skipped");
+        return 0;
+    }
+
+    /**
+     * @return the pool the trace is replayed into
+     */
+    protected ISoundPool getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * @return the number of the replayed calls
+     */
+    public long getOperationCount() {
+        return mOperationCount;
+    }
+
+    private static long readVarint(DataInputStream data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readSigned(DataInputStream data) throws IOException {
+        int value = (int) readVarint(data);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,51 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.FileDescriptor;
+
+/**
+ * Interface for SoundPool implementations which use the duration of the loaded sound, e.g.
+ * {@link HybridSoundPool} routes the sounds by it. {@link SoundPoolEx} passes the duration it
+ * probed or read from the manifest or the bank, so the implementation doesn't read the sound
+ * again. The loads are the ones of {@link ISoundPool} with the measures of the sound appended.
+ */
+public interface DurationAwareSoundPool extends ISoundPool {
+    /**
+     * @param duration
+     *         the duration in milliseconds, 0 if unknown
+     * @param decodedSize
+     *         the estimated decoded size in bytes, 0 if unknown
+     * @see ISoundPool#load(String, int)
+     */
+    int load(String path, int priority, int duration, long decodedSize);
+
+    /**
+     * @param duration
+     *         the duration in milliseconds, 0 if unknown
+     * @param decodedSize
+     *         the estimated decoded size in bytes, 0 if unknown
+     * @see ISoundPool#load(Context, int, int)
+     */
+    int load(Context context, int resId, int priority, int duration, long decodedSize);
+
+    /**
+     * @param duration
+     *         the duration in milliseconds, 0 if unknown
+     * @param decodedSize
+     *         the estimated decoded size in bytes, 0 if unknown
+     * @see ISoundPool#load(AssetFileDescriptor, int)
+     */
+    int load(AssetFileDescriptor afd, int priority, int duration, long decodedSize);
+
+    /**
+     * @param duration
+     *         the duration in milliseconds, 0 if unknown
+     * @param decodedSize
+     *         the estimated decoded size in bytes, 0 if unknown
+     * @see ISoundPool#load(FileDescriptor, long, long, int)
+     */
+    int load(FileDescriptor fd, long offset, long length, int priority, int duration,
+            long decodedSize);
+}
@@ -0,0 +1,331 @@
+package com.kry.soundpoolex;
+
+import android.annotation.TargetApi;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded duration probing with {@link MediaMetadataRetriever}. Every probe runs on a probe
+ * thread and the caller waits for it no longer than the timeout; a hung probe keeps its thread
+ * and the number of the probe threads is limited. A file descriptor probe works on a duplicate
+ * of the descriptor, closed when the probe ends, so a hung probe never reads the descriptor of
+ * the caller after the timeout (API 13+, below it the caller's descriptor is probed).
+ * <p/>
+ * Sources which failed to probe are remembered in a negative cache and are not probed again;
+ * a timed out probe may succeed on a less loaded device, so the timeouts aren't remembered.
+ * After a number of consecutive failures, the timeouts included, the circuit breaker opens and
+ * the probing is skipped for the cool-down time; the first probe after the cool-down closes the
+ * breaker on success or reopens it on failure.
+ * <p/>
+ * The outcome of a load probe is available with {@link SoundPoolEx#getProbeStatus(int)}.
+ */
+public final class DurationProber {
+    private final static String TAG = "DurationProber";
+
+    /**
+     * The sound isn't loaded
+     */
+    public static final int STATUS_UNKNOWN = -1;
+    /**
+     * The duration is probed
+     */
+    public static final int STATUS_OK = 0;
+    /**
+     * The duration is taken from the build-time metadata, no probing is done
+     */
+    public static final int STATUS_METADATA = 1;
+    /**
+     * The source is probed, but has no duration
+     */
+    public static final int STATUS_NO_DURATION = 2;
+    /**
+     * The probe failed
+     */
+    public static final int STATUS_FAILED = 3;
+    /**
+     * The probe didn't complete in time
+     */
+    public static final int STATUS_TIMEOUT = 4;
+    /**
+     * The probe is skipped, the source failed before
+     */
+    public static final int STATUS_CACHED_FAILURE = 5;
+    /**
+     * The probe is skipped, the circuit breaker is open or all the probe threads are hung
+     */
+    public static final int STATUS_CIRCUIT_OPEN = 6;
+
+    public static final int DEFAULT_TIMEOUT = 2000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_COOL_DOWN = 30000;
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 64;
+    private static final int MAX_PROBE_THREADS = 4;
+
+    private final int mTimeout;
+    private final int mFailureThreshold;
+    private final int mCoolDown;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Sources failed to probe, least recently used first
+     */
+    private final NegativeCache mNegativeCache;
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+
+    /**
+     * Constructor with the default limits.
+     */
+    public DurationProber() {
+        this(DEFAULT_TIMEOUT, DEFAULT_FAILURE_THRESHOLD, DEFAULT_COOL_DOWN,
+                DEFAULT_NEGATIVE_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timeout
+     *         the probe deadline in milliseconds
+     * @param failureThreshold
+     *         the number of the consecutive failures which opens the circuit breaker
+     * @param coolDown
+     *         the time in milliseconds the circuit breaker stays open
+     * @param negativeCacheSize
+     *         the maximum number of the remembered failed sources
+     */
+    public DurationProber(int timeout, int failureThreshold, int coolDown,
+            int negativeCacheSize) {
+        mTimeout = timeout;
+        mFailureThreshold = failureThreshold;
+        mCoolDown = coolDown;
+        mNegativeCache = new NegativeCache(negativeCacheSize);
+        mExecutor = new ThreadPoolExecutor(0, MAX_PROBE_THREADS, 10, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Extracts the duration from the probe result.
+     */
+    static int duration(long result) {
+        return (int) result;
+    }
+
+    /**
+     * Extracts the status from the probe result.
+     */
+    static int status(long result) {
+        return (int) (result >>> 32);
+    }
+
+    static long result(int status, int duration) {
+        return ((long) status << 32) | (duration & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Probes the duration of the file.
+     *
+     * @param key
+     *         the negative cache key or null if the source has no stable identity
+     * @param path
+     *         the path of the file
+     * @return the probe result, see {@link #duration(long)} and {@link #status(long)}
+     */
+    long probe(String key, final String path) {
+        return run(key, null, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+                try {
+                    mmr.setDataSource(path);
+                    return extractDuration(mmr);
+                } finally {
+                    mmr.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Probes the duration of the file range.
+     *
+     * @param key
+     *         the negative cache key or null if the source has no stable identity
+     * @param fd
+     *         the FileDescriptor of the file
+     * @param offset
+     *         the offset of the sound, in bytes
+     * @param length
+     *         the length of the sound, in bytes
+     * @return the probe result, see {@link #duration(long)} and {@link #status(long)}
+     */
+    long probe(String key, FileDescriptor fd, final long offset, final long length) {
+        // no descriptor is duplicated for a skipped probe
+        final long skipped = skip(key);
+        if (skipped != 0) return skipped;
+        final ParcelFileDescriptor dup;
+        try {
+            dup = dup(fd);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't duplicate the file descriptor: " + key, e);
+            return result(STATUS_FAILED, 0);
+        }
+        final FileDescriptor probed = dup != null ? dup.getFileDescriptor() : fd;
+        return run(key, dup, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+                try {
+                    mmr.setDataSource(probed, offset, length);
+                    return extractDuration(mmr);
+                } finally {
+                    mmr.release();
+                    close(dup);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the duplicate of the descriptor or null if the platform can't duplicate it
+     */
+    @TargetApi (Build.VERSION_CODES.HONEYCOMB_MR2)
+    private static ParcelFileDescriptor dup(FileDescriptor fd) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2) return null;
+        return ParcelFileDescriptor.dup(fd);
+    }
+
+    private static void close(ParcelFileDescriptor fd) {
+        if (fd == null) return;
+        try {
+            fd.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Can't close the file descriptor", e);
+        }
+    }
+
+    private static Integer extractDuration(MediaMetadataRetriever mmr) {
+        String durationStr = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+        return durationStr != null ? Integer.parseInt(durationStr) : 0;
+    }
+
+    /**
+     * @return the result of a skipped probe or 0 if the source may be probed
+     */
+    private synchronized long skip(String key) {
+        if (key != null && mNegativeCache.get(key) != null) return result(STATUS_CACHED_FAILURE, 0);
+        if (SystemClock.elapsedRealtime() < mOpenUntil) return result(STATUS_CIRCUIT_OPEN, 0);
+        return 0;
+    }
+
+    /**
+     * Runs the probe task with the deadline.
+     *
+     * @param fd
+     *         the descriptor the task closes, closed here if the task isn't run, or null
+     */
+    private long run(String key, ParcelFileDescriptor fd, Callable<Integer> task) {
+        final long skipped = skip(key);
+        if (skipped != 0) {
+            close(fd);
+            return skipped;
+        }
+
+        int status;
+        int duration = 0;
+        Future<Integer> future = null;
+        try {
+            future = mExecutor.submit(task);
+            duration = future.get(mTimeout, TimeUnit.MILLISECONDS);
+            status = duration > 0 ? STATUS_OK : STATUS_NO_DURATION;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "All probe threads are busy");
+            close(fd);
+            status = STATUS_CIRCUIT_OPEN;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Probe timed out: " + key);
+            future.cancel(true);
+            status = STATUS_TIMEOUT;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Probe failed: " + key, e.getCause());
+            status = STATUS_FAILED;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return result(STATUS_TIMEOUT, 0);
+        }
+
+        synchronized (this) {
+            if (status == STATUS_OK || status == STATUS_NO_DURATION) {
+                mConsecutiveFailures = 0;
+            } else {
+                if (key != null && status == STATUS_FAILED) mNegativeCache.put(key, status);
+                if (++mConsecutiveFailures >= mFailureThreshold) {
+                    mOpenUntil = SystemClock.elapsedRealtime() + mCoolDown;
+                    Log.w(TAG, "Probing suspended for " + mCoolDown + " ms after " +
+                            mConsecutiveFailures + " failures");
+                }
+            }
+        }
+        return result(status, duration);
+    }
+
+    /**
+     * Forgets the failed sources and closes the circuit breaker, e.g. after the sound files are
+     * updated.
+     */
+    public synchronized void reset() {
+        mNegativeCache.clear();
+        mConsecutiveFailures = 0;
+        mOpenUntil = 0;
+    }
+
+    /**
+     * @return true if the probing is suspended by the circuit breaker
+     */
+    public synchronized boolean isCircuitOpen() {
+        return SystemClock.elapsedRealtime() < mOpenUntil;
+    }
+
+    /**
+     * The failed sources '<'key, status'>', least recently used first, limited in size
+     */
+    private static final class NegativeCache extends LinkedHashMap<String, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int mMaxSize;
+
+        NegativeCache(int maxSize) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+}
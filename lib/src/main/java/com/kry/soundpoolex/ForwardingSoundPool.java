@@ -0,0 +1,262 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+
+import java.io.FileDescriptor;
+import java.util.List;
+
+/**
+ * {@link ISoundPool} layer which forwards every call to the next pool. Subclasses override the
+ * calls they intercept, see {@link SoundPoolInterceptor}.
+ * <p/>
+ * A layer constructed with {@link #ForwardingSoundPool(ISoundPool)} is called for every call. A
+ * layer may instead declare the calls it overrides with a mask of the {@code CALL_} flags, see
+ * {@link #ForwardingSoundPool(ISoundPool, int)}; the calls outside the mask go straight to the
+ * first pool down the chain which handles them, the layers which only forward them are skipped.
+ * The mask is explicit, so it survives the renaming of the overrides by ProGuard. Overrides
+ * should forward with {@code super} to skip the layers below as well.
+ */
+public abstract class ForwardingSoundPool implements SeekableSoundPool {
+    /**
+     * The load() calls
+     */
+    public static final int CALL_LOAD = 1;
+    public static final int CALL_UNLOAD = 1 << 1;
+    public static final int CALL_PLAY = 1 << 2;
+    public static final int CALL_PAUSE = 1 << 3;
+    public static final int CALL_RESUME = 1 << 4;
+    public static final int CALL_AUTO_PAUSE = 1 << 5;
+    public static final int CALL_AUTO_RESUME = 1 << 6;
+    public static final int CALL_STOP = 1 << 7;
+    /**
+     * Both setVolume() calls
+     */
+    public static final int CALL_SET_VOLUME = 1 << 8;
+    public static final int CALL_SET_PRIORITY = 1 << 9;
+    public static final int CALL_SET_LOOP = 1 << 10;
+    public static final int CALL_SET_RATE = 1 << 11;
+    public static final int CALL_SEEK = 1 << 12;
+    public static final int CALL_SET_LISTENER = 1 << 13;
+    public static final int CALL_RELEASE = 1 << 14;
+    public static final int CALL_ALL = (1 << 15) - 1;
+
+    protected final ISoundPool mDelegate;
+    private final int mCalls;
+
+    // the pools which handle the calls, resolved once over the layers which don't intercept them
+    private final ISoundPool mLoadTarget;
+    private final ISoundPool mUnloadTarget;
+    private final ISoundPool mPlayTarget;
+    private final ISoundPool mPauseTarget;
+    private final ISoundPool mResumeTarget;
+    private final ISoundPool mAutoPauseTarget;
+    private final ISoundPool mAutoResumeTarget;
+    private final ISoundPool mStopTarget;
+    private final ISoundPool mSetVolumeTarget;
+    private final ISoundPool mSetPriorityTarget;
+    private final ISoundPool mSetLoopTarget;
+    private final ISoundPool mSetRateTarget;
+    private final ISoundPool mSeekTarget;
+    private final ISoundPool mSetListenerTarget;
+    private final ISoundPool mReleaseTarget;
+
+    /**
+     * Constructor of a layer which is called for every call.
+     *
+     * @param delegate
+     *         the next pool of the chain
+     */
+    protected ForwardingSoundPool(ISoundPool delegate) {
+        this(delegate, CALL_ALL);
+    }
+
+    /**
+     * Constructor of a layer which intercepts only some calls. The layer must not override the
+     * calls outside the mask, the chain doesn't call it for them.
+     *
+     * @param delegate
+     *         the next pool of the chain
+     * @param calls
+     *         the calls the layer overrides, a combination of the {@code CALL_} flags
+     */
+    protected ForwardingSoundPool(ISoundPool delegate, int calls) {
+        mDelegate = delegate;
+        mCalls = calls;
+        mLoadTarget = target(delegate, CALL_LOAD);
+        mUnloadTarget = target(delegate, CALL_UNLOAD);
+        mPlayTarget = target(delegate, CALL_PLAY);
+        mPauseTarget = target(delegate, CALL_PAUSE);
+        mResumeTarget = target(delegate, CALL_RESUME);
+        mAutoPauseTarget = target(delegate, CALL_AUTO_PAUSE);
+        mAutoResumeTarget = target(delegate, CALL_AUTO_RESUME);
+        mStopTarget = target(delegate, CALL_STOP);
+        mSetVolumeTarget = target(delegate, CALL_SET_VOLUME);
+        mSetPriorityTarget = target(delegate, CALL_SET_PRIORITY);
+        mSetLoopTarget = target(delegate, CALL_SET_LOOP);
+        mSetRateTarget = target(delegate, CALL_SET_RATE);
+        mSeekTarget = target(delegate, CALL_SEEK);
+        mSetListenerTarget = target(delegate, CALL_SET_LISTENER);
+        mReleaseTarget = target(delegate, CALL_RELEASE);
+    }
+
+    /**
+     * @return the delegate, or the pool the delegate forwards the call to if it's a layer which
+     * doesn't intercept the call
+     */
+    private static ISoundPool target(ISoundPool delegate, int call) {
+        if (!(delegate instanceof ForwardingSoundPool)) return delegate;
+        final ForwardingSoundPool layer = (ForwardingSoundPool) delegate;
+        return (layer.mCalls & call) != 0 ? delegate : layer.getTarget(call);
+    }
+
+    private ISoundPool getTarget(int call) {
+        switch (call) {
+            case CALL_LOAD:
+                return mLoadTarget;
+            case CALL_UNLOAD:
+                return mUnloadTarget;
+            case CALL_PLAY:
+                return mPlayTarget;
+            case CALL_PAUSE:
+                return mPauseTarget;
+            case CALL_RESUME:
+                return mResumeTarget;
+            case CALL_AUTO_PAUSE:
+                return mAutoPauseTarget;
+            case CALL_AUTO_RESUME:
+                return mAutoResumeTarget;
+            case CALL_STOP:
+                return mStopTarget;
+            case CALL_SET_VOLUME:
+                return mSetVolumeTarget;
+            case CALL_SET_PRIORITY:
+                return mSetPriorityTarget;
+            case CALL_SET_LOOP:
+                return mSetLoopTarget;
+            case CALL_SET_RATE:
+                return mSetRateTarget;
+            case CALL_SEEK:
+                return mSeekTarget;
+            case CALL_SET_LISTENER:
+                return mSetListenerTarget;
+            default:
+                return mReleaseTarget;
+        }
+    }
+
+    /**
+     * Assembles the chain over the pool. The first interceptor of the list is the outermost
+     * layer, i.e. it is called first.
+     *
+     * @param pool
+     *         the innermost pool
+     * @param interceptors
+     *         the interceptors, may be empty
+     * @return the outermost layer or {@code pool} if no interceptor joined the chain
+     */
+    public static ISoundPool chain(ISoundPool pool, List<SoundPoolInterceptor> interceptors) {
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+            pool = interceptors.get(i).intercept(pool);
+        }
+        return pool;
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        return mLoadTarget.load(path, priority);
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        return mLoadTarget.load(context, resId, priority);
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        return mLoadTarget.load(afd, priority);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        return mLoadTarget.load(fd, offset, length, priority);
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        return mUnloadTarget.unload(soundID);
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        return mPlayTarget.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+    }
+
+    @Override
+    public void pause(int streamID) {
+        mPauseTarget.pause(streamID);
+    }
+
+    @Override
+    public void resume(int streamID) {
+        mResumeTarget.resume(streamID);
+    }
+
+    @Override
+    public void autoPause() {
+        mAutoPauseTarget.autoPause();
+    }
+
+    @Override
+    public void autoResume() {
+        mAutoResumeTarget.autoResume();
+    }
+
+    @Override
+    public void stop(int streamID) {
+        mStopTarget.stop(streamID);
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        mSetVolumeTarget.setVolume(streamID, leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        mSetVolumeTarget.setVolume(streamID, volume);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        mSetPriorityTarget.setPriority(streamID, priority);
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        mSetLoopTarget.setLoop(streamID, loop);
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        mSetRateTarget.setRate(streamID, rate);
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        return mSeekTarget instanceof SeekableSoundPool &&
+                ((SeekableSoundPool) mSeekTarget).seek(streamID, position);
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mSetListenerTarget.setOnLoadCompleteListener(listener);
+    }
+
+    @Override
+    public void release() {
+        mReleaseTarget.release();
+    }
+}
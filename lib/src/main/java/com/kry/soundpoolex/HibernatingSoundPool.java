@@ -0,0 +1,854 @@
+package com.kry.soundpoolex;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ISoundPool} backend which releases the native pool with all the decoded sounds when
+ * nothing has played for the idle timeout, and rebuilds it on demand. The release and the reloads
+ * run on a background thread.
+ * <p/>
+ * The sound IDs stay valid across the hibernation: the layer keeps the source of every sound (a
+ * duplicate of the file descriptor for the descriptor loads) and maps its own sound IDs to the
+ * IDs of the current native pool. Below API 13 the descriptors can't be duplicated, so the pool
+ * doesn't hibernate while a sound loaded from a descriptor is loaded. Stream IDs of a released
+ * pool are never reused. The durations are kept by the {@link SoundPoolEx} above, which is also
+ * the monitor of the active streams, see {@link #setActivityMonitor(SoundPoolEx)}; without a
+ * monitor the pool doesn't hibernate.
+ * <p/>
+ * A play on the hibernated pool wakes it up; the sound is reloaded first, then the other sounds
+ * from the most recently played. A looping play of a sound which isn't reloaded yet is queued: it
+ * returns a stream ID right away and starts when the reload completes, so a background loop
+ * survives the wake up. Other plays return 0 like a play of a sound which is still loading. The
+ * reloads run outside of the lock, the playback isn't blocked by the decoding. Call {@link
+ * #wakeUp()} ahead of the playback, e.g. when leaving a menu, to hide the reload.
+ * <p/>
+ * Use {@link SoundPoolEx.Builder#setIdleTimeout(long)} to put it under a SoundPoolEx.
+ */
+public class HibernatingSoundPool implements SeekableSoundPool {
+    private final static String TAG = "HibernatingSoundPool";
+
+    private static final int SOURCE_PATH = 1;
+    private static final int SOURCE_RESOURCE = 2;
+    private static final int SOURCE_FILE_DESCRIPTOR = 3;
+
+    private static final int[] NO_STREAMS = new int[0];
+
+    /**
+     * Creates the native pools.
+     */
+    public interface Factory {
+        /**
+         * @return a new pool
+         */
+        ISoundPool create();
+    }
+
+    private final Factory mFactory;
+    private final long mIdleTimeout;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private volatile SoundPoolEx mMonitor;
+    private volatile SoundPool.OnLoadCompleteListener mOnLoadCompleteListener;
+
+    // all the state below is guarded by this instance
+    /**
+     * The native pool or null when hibernated
+     */
+    private ISoundPool mPool;
+    /**
+     * Incremented with every native pool, stale load callbacks and reloads are ignored
+     */
+    private int mGeneration;
+    private boolean mWaking;
+    private boolean mCheckScheduled;
+    private boolean mReleased;
+    private boolean mAutoPaused;
+    private long mLastActivity;
+    /**
+     * Incremented with every call which uses the pool, an idle check is dropped if it changed
+     * while the monitor was queried
+     */
+    private int mActivityCount;
+    /**
+     * Number of the sounds which can't be reloaded, the pool doesn't hibernate while there are any
+     */
+    private int mPinnedSounds;
+
+    /**
+     * Sounds '<'SoundID, Sound'>'
+     */
+    private final SparseArray<Sound> mSounds = new SparseArray<>();
+    /**
+     * Native sound IDs of the current pool '<'native SoundID, SoundID'>'
+     */
+    private final SparseIntArray mNativeSounds = new SparseIntArray();
+    private int mNextSoundID = 1;
+    /**
+     * Load statuses of the native sounds which completed before the load call returned
+     * '<'native SoundID, status'>'
+     */
+    private final SparseIntArray mEarlyCompletions = new SparseIntArray();
+    /**
+     * The SoundPool passed to the native load callbacks
+     */
+    private SoundPool mCallbackPool;
+    /**
+     * Stream IDs are the native stream IDs plus the base, which moves past all the issued IDs with
+     * every new pool
+     */
+    private int mStreamBase;
+    private int mMaxStreamID;
+    /**
+     * The plays waiting for the reload of their sound
+     */
+    private final ArrayList<QueuedPlay> mQueuedPlays = new ArrayList<>();
+    /**
+     * Native stream IDs of the started queued plays '<'StreamID, native StreamID'>'
+     */
+    private final SparseIntArray mQueuedStreams = new SparseIntArray();
+    /**
+     * The queued plays take the stream IDs down from the top of the range, the IDs above are
+     * mapped by mQueuedStreams
+     */
+    private int mNextQueuedStreamID = Integer.MAX_VALUE;
+
+    private final Runnable mIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkIdle();
+        }
+    };
+
+    /**
+     * Constructor. The first native pool is created right away.
+     *
+     * @param factory
+     *         the factory of the native pools
+     * @param idleTimeout
+     *         the time in milliseconds without active streams before the pool hibernates
+     */
+    public HibernatingSoundPool(Factory factory, long idleTimeout) {
+        mFactory = factory;
+        mIdleTimeout = idleTimeout;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        synchronized (this) {
+            createPool();
+            mLastActivity = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * Sets the pool whose streams keep this pool awake, usually the SoundPoolEx above it.
+     * Playing and paused streams count as active.
+     *
+     * @param monitor
+     *         the monitor or null to disable the hibernation
+     */
+    public void setActivityMonitor(SoundPoolEx monitor) {
+        mMonitor = monitor;
+        if (monitor != null) {
+            synchronized (this) {
+                scheduleIdleCheck(mIdleTimeout);
+            }
+        }
+    }
+
+    /**
+     * @return true if the native pool is released
+     */
+    public synchronized boolean isHibernating() {
+        return mPool == null;
+    }
+
+    /**
+     * Rebuilds the native pool and reloads the sounds in the background, unless it's awake.
+     */
+    public synchronized void wakeUp() {
+        mLastActivity = SystemClock.uptimeMillis();
+        if (mPool == null) requestWakeUp();
+    }
+
+    /**
+     * Releases the native pool in the background if there are no active streams, regardless of
+     * the idle timeout.
+     */
+    public void hibernate() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                releaseIfIdle(true);
+            }
+        });
+    }
+
+    /**
+     * Creates the native pool and registers the reload of the sounds. Must be called under the
+     * lock.
+     */
+    private void createPool() {
+        mPool = mFactory.create();
+        mGeneration++;
+        mEarlyCompletions.clear();
+        final int generation = mGeneration;
+        mPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                onNativeLoadComplete(generation, soundPool, sampleId, status);
+            }
+        });
+        mStreamBase = mMaxStreamID;
+    }
+
+    private void requestWakeUp() {
+        if (mWaking || mReleased) return;
+        mWaking = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                rehydrate();
+            }
+        });
+    }
+
+    /**
+     * Creates the native pool and reloads the sounds, the most recently played first.
+     */
+    private void rehydrate() {
+        final int generation;
+        synchronized (this) {
+            mWaking = false;
+            if (mPool != null || mReleased) return;
+            createPool();
+            generation = mGeneration;
+            mLastActivity = SystemClock.uptimeMillis();
+            scheduleIdleCheck(mIdleTimeout);
+        }
+        reloadSounds(generation);
+    }
+
+    /**
+     * Reloads the sounds which aren't loaded into the pool of the generation, the most recently
+     * played first.
+     */
+    private void reloadSounds(int generation) {
+        final int[] order;
+        synchronized (this) {
+            if (mGeneration != generation || mPool == null) return;
+            // loads from now on go to the new pool directly
+            order = new int[mSounds.size()];
+            final long[] keys = new long[mSounds.size()];
+            long lastUsed = 0;
+            for (int i = 0; i < mSounds.size(); i++) {
+                lastUsed = Math.max(lastUsed, mSounds.valueAt(i).lastUsed);
+            }
+            for (int i = 0; i < mSounds.size(); i++) {
+                // ascending age, the index in the low bits
+                keys[i] = (lastUsed - mSounds.valueAt(i).lastUsed) << 20 | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < keys.length; i++) {
+                order[i] = mSounds.keyAt((int) (keys[i] & 0xFFFFF));
+            }
+        }
+        if (BuildConfig.DEBUG) Log.v(TAG, "Waking up, reloading " + order.length + " sounds");
+
+        for (int soundID : order) {
+            final ISoundPool pool;
+            final Sound sound;
+            synchronized (this) {
+                if (mGeneration != generation || mPool == null) return;
+                sound = mSounds.get(soundID);
+                if (sound == null || sound.nativeID != 0 || sound.loading) continue;
+                sound.loading = true;
+                pool = mPool;
+            }
+            loadNative(pool, generation, soundID, sound);
+        }
+    }
+
+    /**
+     * Loads the sound into the pool outside of the lock, so the playback isn't blocked by the
+     * decoding, and maps the native sound ID. The sound must be marked as loading under the lock,
+     * it isn't closed while it's loaded.
+     */
+    private void loadNative(ISoundPool pool, int generation, int soundID, Sound sound) {
+        int nativeID = 0;
+        try {
+            switch (sound.type) {
+                case SOURCE_PATH:
+                    nativeID = pool.load(sound.path, sound.priority);
+                    break;
+                case SOURCE_RESOURCE:
+                    nativeID = pool.load(sound.context, sound.resId, sound.priority);
+                    break;
+                default:
+                    // a sound without a duplicate is loaded once, from the caller's descriptor
+                    final FileDescriptor fd = sound.fd != null ? sound.fd.getFileDescriptor() :
+                            sound.callerFd;
+                    if (fd != null) {
+                        nativeID = pool.load(fd, sound.offset, sound.length, sound.priority);
+                    }
+            }
+        } finally {
+            int status = -1;
+            SoundPool soundPool = null;
+            synchronized (this) {
+                sound.loading = false;
+                sound.callerFd = null;
+                if (mSounds.get(soundID) != sound) {
+                    // unloaded or released during the load
+                    sound.close();
+                    if (generation == mGeneration && mPool != null && nativeID > 0) {
+                        mPool.unload(nativeID);
+                    }
+                } else if (generation == mGeneration && nativeID == 0) {
+                    sound.failed = true;
+                    dropQueuedPlays(soundID);
+                } else if (generation == mGeneration) {
+                    sound.nativeID = nativeID;
+                    mNativeSounds.put(nativeID, soundID);
+                    final int index = mEarlyCompletions.indexOfKey(nativeID);
+                    if (index >= 0) {
+                        final int early = mEarlyCompletions.valueAt(index);
+                        mEarlyCompletions.removeAt(index);
+                        if (onLoaded(soundID, sound, early)) {
+                            status = early;
+                            soundPool = mCallbackPool;
+                        }
+                    }
+                }
+            }
+            if (status >= 0) reportLoaded(soundPool, soundID, status);
+        }
+    }
+
+    private void onNativeLoadComplete(int generation, SoundPool soundPool, int nativeID,
+            int status) {
+        final int soundID;
+        synchronized (this) {
+            if (generation != mGeneration) return;
+            mCallbackPool = soundPool;
+            soundID = mNativeSounds.get(nativeID);
+            if (soundID == 0) {
+                // the load call hasn't returned yet, the loader completes it
+                mEarlyCompletions.put(nativeID, status);
+                return;
+            }
+            if (!onLoaded(soundID, mSounds.get(soundID), status)) return;
+        }
+        reportLoaded(soundPool, soundID, status);
+    }
+
+    /**
+     * Starts the queued plays of the loaded sound. Must be called under the lock.
+     *
+     * @return true if the load has to be reported, the reloads are not reported as the sound is
+     * already loaded for the caller
+     */
+    private boolean onLoaded(int soundID, Sound sound, int status) {
+        if (sound == null) return false;
+        if (!mAutoPaused || status != 0) startQueuedPlays(soundID, status == 0);
+        if (sound.reported) return false;
+        sound.reported = true;
+        return true;
+    }
+
+    private void reportLoaded(SoundPool soundPool, int soundID, int status) {
+        final SoundPool.OnLoadCompleteListener listener = mOnLoadCompleteListener;
+        if (listener != null) listener.onLoadComplete(soundPool, soundID, status);
+    }
+
+    /**
+     * Starts or drops the queued plays of the sound, all of them for soundID 0. Must be called
+     * under the lock with the pool awake.
+     */
+    private void startQueuedPlays(int soundID, boolean loaded) {
+        for (int i = mQueuedPlays.size() - 1; i >= 0; i--) {
+            final QueuedPlay play = mQueuedPlays.get(i);
+            if (soundID != 0 && play.soundID != soundID) continue;
+            final Sound sound = mSounds.get(play.soundID);
+            if (sound == null || sound.nativeID == 0) continue;
+            mQueuedPlays.remove(i);
+            if (!loaded) {
+                Log.w(TAG, "Sound ID: " + String.valueOf(play.soundID) + " - reload failed, " +
+                        "the queued stream " + String.valueOf(play.streamID) + " is dropped");
+                continue;
+            }
+            final int nativeStreamID = mPool.play(sound.nativeID, play.leftVolume,
+                    play.rightVolume, play.priority, play.loop, play.rate);
+            if (nativeStreamID == 0) continue;
+            if (play.paused) mPool.pause(nativeStreamID);
+            mQueuedStreams.put(play.streamID, nativeStreamID);
+        }
+    }
+
+    /**
+     * Drops the queued plays of the sound which can't be played. Must be called under the lock.
+     */
+    private void dropQueuedPlays(int soundID) {
+        for (int i = mQueuedPlays.size() - 1; i >= 0; i--) {
+            if (mQueuedPlays.get(i).soundID == soundID) mQueuedPlays.remove(i);
+        }
+    }
+
+    /**
+     * @return the queued play of the stream or null if the stream isn't waiting. Must be called
+     * under the lock.
+     */
+    private QueuedPlay findQueued(int streamID) {
+        if (streamID <= mNextQueuedStreamID) return null;
+        for (int i = 0; i < mQueuedPlays.size(); i++) {
+            if (mQueuedPlays.get(i).streamID == streamID) return mQueuedPlays.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Schedules the idle check unless one is scheduled. Must be called under the lock.
+     */
+    private void scheduleIdleCheck(long delay) {
+        if (mCheckScheduled || mMonitor == null || mPool == null || mReleased) return;
+        mCheckScheduled = true;
+        mExecutor.schedule(mIdleCheck, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkIdle() {
+        synchronized (this) {
+            mCheckScheduled = false;
+        }
+        releaseIfIdle(false);
+    }
+
+    /**
+     * Releases the native pool if there are no active streams and the idle timeout elapsed,
+     * otherwise schedules the next check. Called on the background thread.
+     */
+    private void releaseIfIdle(boolean force) {
+        final int activityCount;
+        synchronized (this) {
+            activityCount = mActivityCount;
+        }
+        final SoundPoolEx monitor = mMonitor;
+        // the monitor is queried outside of the lock, it calls this pool under its own locks
+        boolean active = monitor == null || monitor.getActiveStreams(NO_STREAMS) > 0;
+        final ISoundPool pool;
+        synchronized (this) {
+            if (mPool == null || mReleased) return;
+            // a play after the query isn't seen by the monitor yet
+            if (mActivityCount != activityCount || !mQueuedPlays.isEmpty()) active = true;
+            // a sound without a duplicate descriptor couldn't be reloaded
+            if (mPinnedSounds > 0) active = true;
+            final long idle = SystemClock.uptimeMillis() - mLastActivity;
+            if (active || (!force && idle < mIdleTimeout)) {
+                scheduleIdleCheck(active ? mIdleTimeout : mIdleTimeout - idle);
+                return;
+            }
+            pool = mPool;
+            mPool = null;
+            mGeneration++;
+            mNativeSounds.clear();
+            mQueuedStreams.clear();
+            for (int i = 0; i < mSounds.size(); i++) {
+                final Sound sound = mSounds.valueAt(i);
+                sound.nativeID = 0;
+                sound.failed = false;
+            }
+        }
+        pool.release();
+        if (BuildConfig.DEBUG) Log.v(TAG, "Hibernated, native pool released");
+    }
+
+    /**
+     * Marks the activity and returns the native pool. Must be called under the lock.
+     *
+     * @return the pool or null when hibernated
+     */
+    private ISoundPool touch() {
+        mLastActivity = SystemClock.uptimeMillis();
+        mActivityCount++;
+        return mPool;
+    }
+
+    /**
+     * Maps the stream ID to the native one. Must be called under the lock.
+     *
+     * @return the native stream ID or 0 if the stream belongs to a released pool or is queued
+     */
+    private int toNative(int streamID) {
+        if (streamID > mNextQueuedStreamID) return mQueuedStreams.get(streamID);
+        return streamID > mStreamBase ? streamID - mStreamBase : 0;
+    }
+
+    private int addSound(Sound sound) {
+        ISoundPool pool;
+        final int generation;
+        final int soundID;
+        boolean woken = false;
+        synchronized (this) {
+            if (mReleased) return 0;
+            soundID = mNextSoundID++;
+            sound.lastUsed = SystemClock.uptimeMillis();
+            mSounds.put(soundID, sound);
+            if (sound.pinned) mPinnedSounds++;
+            pool = touch();
+            if (pool == null) {
+                if (!sound.pinned) {
+                    // loaded with the other sounds
+                    requestWakeUp();
+                    return soundID;
+                }
+                // the caller's descriptor is only valid during the call, wakes up right away
+                createPool();
+                pool = mPool;
+                scheduleIdleCheck(mIdleTimeout);
+                woken = true;
+            }
+            generation = mGeneration;
+            sound.loading = true;
+        }
+        if (woken) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    reloadSounds(generation);
+                }
+            });
+        }
+        loadNative(pool, generation, soundID, sound);
+        return soundID;
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        Sound sound = new Sound(SOURCE_PATH, priority);
+        sound.path = path;
+        return addSound(sound);
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        Sound sound = new Sound(SOURCE_RESOURCE, priority);
+        sound.context = context.getApplicationContext();
+        sound.resId = resId;
+        return addSound(sound);
+    }
+
+    @TargetApi (Build.VERSION_CODES.CUPCAKE)
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        return load(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength(), priority);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        Sound sound = new Sound(SOURCE_FILE_DESCRIPTOR, priority);
+        try {
+            // the caller may close its descriptor after the load
+            sound.fd = dup(fd);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't keep the file descriptor", e);
+            return 0;
+        }
+        if (sound.fd == null) {
+            sound.callerFd = fd;
+            sound.pinned = true;
+        }
+        sound.offset = offset;
+        sound.length = length;
+        return addSound(sound);
+    }
+
+    /**
+     * @return the duplicate of the descriptor or null if the platform can't duplicate it
+     */
+    @TargetApi (Build.VERSION_CODES.HONEYCOMB_MR2)
+    private static ParcelFileDescriptor dup(FileDescriptor fd) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2) return null;
+        return ParcelFileDescriptor.dup(fd);
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        final Sound sound;
+        boolean result = false;
+        synchronized (this) {
+            sound = mSounds.get(soundID);
+            if (sound == null) return false;
+            mSounds.delete(soundID);
+            if (sound.pinned) mPinnedSounds--;
+            dropQueuedPlays(soundID);
+            final ISoundPool pool = touch();
+            if (pool != null && sound.nativeID > 0) {
+                mNativeSounds.delete(sound.nativeID);
+                result = pool.unload(sound.nativeID);
+            } else {
+                result = true;
+            }
+            // the loader closes the sound after its load call
+            if (!sound.loading) sound.close();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int play(int soundID, float leftVolume, float rightVolume, int priority,
+            int loop, float rate) {
+        final Sound sound = mSounds.get(soundID);
+        if (sound == null) return 0;
+        final ISoundPool pool = touch();
+        sound.lastUsed = mLastActivity;
+        if (pool == null) requestWakeUp();
+        if (pool == null || sound.nativeID == 0) {
+            if (loop == 0 || sound.failed) return 0;
+            // a loop would be missing for good, it's started with the reload
+            final QueuedPlay play = new QueuedPlay(mNextQueuedStreamID--, soundID);
+            play.leftVolume = leftVolume;
+            play.rightVolume = rightVolume;
+            play.priority = priority;
+            play.loop = loop;
+            play.rate = rate;
+            mQueuedPlays.add(play);
+            return play.streamID;
+        }
+        final int streamID = pool.play(sound.nativeID, leftVolume, rightVolume, priority, loop,
+                rate);
+        if (streamID == 0) return 0;
+        final int result = streamID + mStreamBase;
+        if (result > mMaxStreamID) mMaxStreamID = result;
+        return result;
+    }
+
+    @Override
+    public synchronized void pause(int streamID) {
+        final ISoundPool pool = touch();
+        final int nativeID = toNative(streamID);
+        if (pool != null && nativeID > 0) {
+            pool.pause(nativeID);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) play.paused = true;
+        }
+    }
+
+    @Override
+    public synchronized void resume(int streamID) {
+        final ISoundPool pool = touch();
+        final int nativeID = toNative(streamID);
+        if (pool != null && nativeID > 0) {
+            pool.resume(nativeID);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) play.paused = false;
+        }
+    }
+
+    @Override
+    public synchronized void autoPause() {
+        // the queued plays wait for the auto resume
+        mAutoPaused = true;
+        if (mPool != null) mPool.autoPause();
+    }
+
+    @Override
+    public synchronized void autoResume() {
+        mAutoPaused = false;
+        final ISoundPool pool = touch();
+        if (pool != null) {
+            pool.autoResume();
+            startQueuedPlays(0, true);
+        }
+    }
+
+    @Override
+    public synchronized void stop(int streamID) {
+        final int nativeID = toNative(streamID);
+        if (mPool != null && nativeID > 0) mPool.stop(nativeID);
+        if (streamID > mNextQueuedStreamID) {
+            mQueuedStreams.delete(streamID);
+            mQueuedPlays.remove(findQueued(streamID));
+        }
+    }
+
+    @Override
+    public synchronized void setVolume(int streamID, float leftVolume, float rightVolume) {
+        final int nativeID = toNative(streamID);
+        if (mPool != null && nativeID > 0) {
+            mPool.setVolume(nativeID, leftVolume, rightVolume);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) {
+                play.leftVolume = leftVolume;
+                play.rightVolume = rightVolume;
+            }
+        }
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        setVolume(streamID, volume, volume);
+    }
+
+    @Override
+    public synchronized void setPriority(int streamID, int priority) {
+        final int nativeID = toNative(streamID);
+        if (mPool != null && nativeID > 0) {
+            mPool.setPriority(nativeID, priority);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) play.priority = priority;
+        }
+    }
+
+    @Override
+    public synchronized void setLoop(int streamID, int loop) {
+        final int nativeID = toNative(streamID);
+        if (mPool != null && nativeID > 0) {
+            mPool.setLoop(nativeID, loop);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) play.loop = loop;
+        }
+    }
+
+    @Override
+    public synchronized void setRate(int streamID, float rate) {
+        final int nativeID = toNative(streamID);
+        if (mPool != null && nativeID > 0) {
+            mPool.setRate(nativeID, rate);
+        } else {
+            final QueuedPlay play = findQueued(streamID);
+            if (play != null) play.rate = rate;
+        }
+    }
+
+    @Override
+    public synchronized boolean seek(int streamID, int position) {
+        // a queued play starts from the beginning
+        final int nativeID = toNative(streamID);
+        return nativeID > 0 && mPool instanceof SeekableSoundPool &&
+                ((SeekableSoundPool) mPool).seek(nativeID, position);
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mOnLoadCompleteListener = listener;
+    }
+
+    @Override
+    public void release() {
+        final ISoundPool pool;
+        synchronized (this) {
+            mReleased = true;
+            pool = mPool;
+            mPool = null;
+            mGeneration++;
+            for (int i = 0; i < mSounds.size(); i++) {
+                // the loader closes the sound after its load call
+                if (!mSounds.valueAt(i).loading) mSounds.valueAt(i).close();
+            }
+            mSounds.clear();
+            mPinnedSounds = 0;
+            mNativeSounds.clear();
+            mQueuedPlays.clear();
+            mQueuedStreams.clear();
+        }
+        mExecutor.shutdownNow();
+        if (pool != null) pool.release();
+    }
+
+    /**
+     * Source and native state of a sound.
+     */
+    private static final class Sound {
+        final int type;
+        final int priority;
+        String path;
+        Context context;
+        int resId;
+        ParcelFileDescriptor fd;
+        /**
+         * The caller's descriptor during the first load of a sound without a duplicate
+         */
+        FileDescriptor callerFd;
+        /**
+         * True if the sound can't be reloaded, it keeps the pool awake
+         */
+        boolean pinned;
+        long offset;
+        long length;
+        /**
+         * The sound ID in the current native pool, 0 if not loaded
+         */
+        int nativeID;
+        /**
+         * True when the first load was reported to the listener
+         */
+        boolean reported;
+        /**
+         * True while a load call of the sound runs outside of the lock
+         */
+        boolean loading;
+        /**
+         * True if the load into the current pool failed
+         */
+        boolean failed;
+        long lastUsed;
+
+        Sound(int type, int priority) {
+            this.type = type;
+            this.priority = priority;
+        }
+
+        void close() {
+            if (fd == null) return;
+            try {
+                fd.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Can't close the file descriptor", e);
+            }
+        }
+    }
+
+    /**
+     * A play waiting for the reload of its sound.
+     */
+    private static final class QueuedPlay {
+        final int streamID;
+        final int soundID;
+        float leftVolume;
+        float rightVolume;
+        int priority;
+        int loop;
+        float rate;
+        boolean paused;
+
+        QueuedPlay(int streamID, int soundID) {
+            this.streamID = streamID;
+            this.soundID = soundID;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * {@link ISoundPool} implementation which routes long sounds to a streaming backend (e.g. {@link
+ * StreamingSoundPool}) and keeps short ones in a memory backend (e.g. {@link SoundPoolAdapter}).
+ * The route is chosen on load by the duration and the decoded size of the sound, see {@link
+ * #shouldStream(int, long, long)}. A {@link SoundPoolEx} over this pool passes the duration it
+ * already knows, see {@link DurationAwareSoundPool}; the other loads read the sound header.
+ * <p/>
+ * Sound and stream IDs of both backends are mapped into a single ID space: the lowest bit holds
+ * the backend. Wrap the pool into {@link SoundPoolEx#SoundPoolEx(ISoundPool)} to get the unified
+ * {@link SoundPoolEx#isPlaying(int)} and {@link SoundPoolEx#getStreamDuration(int)} for both.
+ */
+public class HybridSoundPool implements SeekableSoundPool, DurationAwareSoundPool {
+    private final static String TAG = "HybridSoundPool";
+
+    private static final int MEMORY = 0;
+    private static final int STREAMING = 1;
+
+    private final ISoundPool mMemoryPool;
+    private final ISoundPool mStreamingPool;
+    private final int mMaxMemoryDuration;
+    private final long mMaxMemorySize;
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPool
+     *         the backend for short sounds
+     * @param streamingPool
+     *         the backend for long sounds
+     * @param maxMemoryDuration
+     *         the longest duration in milliseconds kept in the memory backend
+     * @param maxMemorySize
+     *         the largest estimated decoded size in bytes kept in the memory backend
+     */
+    public HybridSoundPool(ISoundPool memoryPool, ISoundPool streamingPool, int maxMemoryDuration,
+            long maxMemorySize) {
+        mMemoryPool = memoryPool;
+        mStreamingPool = streamingPool;
+        mMaxMemoryDuration = maxMemoryDuration;
+        mMaxMemorySize = maxMemorySize;
+    }
+
+    /**
+     * Decides whether the sound is sent to the streaming backend.
+     *
+     * @param duration
+     *         the duration in milliseconds, 0 if unknown
+     * @param decodedSize
+     *         the estimated decoded size in bytes, 0 if unknown
+     * @param length
+     *         the length of the encoded sound in bytes, used if both measures are unknown
+     * @return true to stream the sound, false to keep it in memory
+     */
+    protected boolean shouldStream(int duration, long decodedSize, long length) {
+        if (duration <= 0 && decodedSize <= 0) return length > mMaxMemorySize;
+        return duration > mMaxMemoryDuration || decodedSize > mMaxMemorySize;
+    }
+
+    private int route(int duration, long decodedSize, long length) {
+        return shouldStream(duration, decodedSize, length) ? STREAMING : MEMORY;
+    }
+
+    private int route(FileDescriptor fd, long offset, long length) {
+        AudioHeader header = null;
+        FileInputStream in = new FileInputStream(fd);
+        try {
+            header = AudioHeader.read(in.getChannel(), offset, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the sound header", e);
+        }
+        // the stream is not closed, the descriptor belongs to the caller
+        if (header == null) return route(0, 0, length);
+        return route(header.getDuration(), header.getDecodedSize(), length);
+    }
+
+    private ISoundPool backend(int id) {
+        return (id & 1) == STREAMING ? mStreamingPool : mMemoryPool;
+    }
+
+    private static int toHybridID(int id, int backend) {
+        return id > 0 ? (id << 1) | backend : 0;
+    }
+
+    private static int toBackendID(int id) {
+        return id >>> 1;
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        int backend;
+        try {
+            FileInputStream in = new FileInputStream(path);
+            try {
+                backend = route(in.getFD(), 0, new File(path).length());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the sound " + path, e);
+            backend = MEMORY;
+        }
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(path, priority), backend);
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        int backend = MEMORY;
+        AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+        if (afd != null) {
+            try {
+                backend = route(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+            } finally {
+                try {
+                    afd.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Can't close the resource " + String.valueOf(resId), e);
+                }
+            }
+        }
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(context, resId, priority), backend);
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        int backend = route(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(afd, priority), backend);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        int backend = route(fd, offset, length);
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(fd, offset, length, priority), backend);
+    }
+
+    @Override
+    public int load(String path, int priority, int duration, long decodedSize) {
+        if (duration <= 0 && decodedSize <= 0) return load(path, priority);
+        int backend = route(duration, decodedSize, 0);
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(path, priority), backend);
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority, int duration, long decodedSize) {
+        if (duration <= 0 && decodedSize <= 0) return load(context, resId, priority);
+        int backend = route(duration, decodedSize, 0);
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(context, resId, priority), backend);
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority, int duration, long decodedSize) {
+        if (duration <= 0 && decodedSize <= 0) return load(afd, priority);
+        int backend = route(duration, decodedSize, afd.getLength());
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(afd, priority), backend);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority, int duration,
+            long decodedSize) {
+        if (duration <= 0 && decodedSize <= 0) return load(fd, offset, length, priority);
+        int backend = route(duration, decodedSize, length);
+        ISoundPool pool = backend == STREAMING ? mStreamingPool : mMemoryPool;
+        return toHybridID(pool.load(fd, offset, length, priority), backend);
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        return backend(soundID).unload(toBackendID(soundID));
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        int streamID = backend(soundID).play(toBackendID(soundID), leftVolume, rightVolume,
+                priority, loop, rate);
+        return toHybridID(streamID, soundID & 1);
+    }
+
+    @Override
+    public void pause(int streamID) {
+        backend(streamID).pause(toBackendID(streamID));
+    }
+
+    @Override
+    public void resume(int streamID) {
+        backend(streamID).resume(toBackendID(streamID));
+    }
+
+    @Override
+    public void autoPause() {
+        mMemoryPool.autoPause();
+        mStreamingPool.autoPause();
+    }
+
+    @Override
+    public void autoResume() {
+        mMemoryPool.autoResume();
+        mStreamingPool.autoResume();
+    }
+
+    @Override
+    public void stop(int streamID) {
+        backend(streamID).stop(toBackendID(streamID));
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        backend(streamID).setVolume(toBackendID(streamID), leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        backend(streamID).setVolume(toBackendID(streamID), volume);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        backend(streamID).setPriority(toBackendID(streamID), priority);
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        backend(streamID).setLoop(toBackendID(streamID), loop);
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        backend(streamID).setRate(toBackendID(streamID), rate);
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        final ISoundPool backend = backend(streamID);
+        return backend instanceof SeekableSoundPool &&
+                ((SeekableSoundPool) backend).seek(toBackendID(streamID), position);
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(final SoundPool.OnLoadCompleteListener listener) {
+        if (listener == null) {
+            mMemoryPool.setOnLoadCompleteListener(null);
+            mStreamingPool.setOnLoadCompleteListener(null);
+            return;
+        }
+        mMemoryPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                listener.onLoadComplete(soundPool, toHybridID(sampleId, MEMORY), status);
+            }
+        });
+        mStreamingPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                listener.onLoadComplete(soundPool, toHybridID(sampleId, STREAMING), status);
+            }
+        });
+    }
+
+    @Override
+    public void release() {
+        mMemoryPool.release();
+        mStreamingPool.release();
+    }
+}
@@ -0,0 +1,388 @@
+package com.kry.soundpoolex;
+
+import android.media.SoundPool;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Load scheduler in front of a {@link SoundPoolEx}. SoundPool decodes strictly in the submission
+ * order and ignores the load priority; the scheduler keeps the pending loads ordered by priority
+ * (the highest first, then in the order of submission) and submits them from its own thread.
+ * <p/>
+ * Pending loads can be cancelled one by one or by group, e.g. when the player leaves an area.
+ * Cancelling a load which is being submitted or decoded unloads the sound; a completed load
+ * belongs to the callback and isn't affected. The background loading is throttled by two
+ * limits: the number of the loads submitted but not decoded yet, and the CPU/IO budget, the share
+ * of the wall time the scheduler thread may spend in the load calls (probing and submitting).
+ */
+public class LoadScheduler {
+    private final static String TAG = "LoadScheduler";
+    private final static int STATUS_PENDING = Integer.MIN_VALUE;
+
+    /**
+     * Receives the results of the scheduled loads.
+     */
+    public interface Callback {
+        /**
+         * Called on the SoundPool callback thread when the sound is decoded or on the scheduler
+         * thread if the load failed.
+         *
+         * @param ticket
+         *         the ticket returned by {@link #enqueue(SoundSource, int, int, Callback)}
+         * @param soundID
+         *         the loaded sound ID or 0 if the load failed
+         * @param status
+         *         the status of the load operation (0 = success)
+         */
+        void onSoundLoaded(int ticket, int soundID, int status);
+    }
+
+    private final SoundPoolEx mPool;
+    private final int mMaxInFlight;
+    private volatile int mBudgetPercent;
+
+    private final Object mLock = new Object();
+    private final PriorityQueue<Request> mPending = new PriorityQueue<>();
+    /**
+     * Submitted loads '<'SoundID, Request'>'
+     */
+    private final SparseArray<Request> mInFlight = new SparseArray<>();
+    private int mNextTicket = 1;
+    private long mSequence;
+    private boolean mReleased;
+    /**
+     * The request in the load call of the scheduler thread or null
+     */
+    private Request mSubmitting;
+    /**
+     * True if the request in the load call was cancelled, the scheduler unloads it
+     */
+    private boolean mSubmittingCancelled;
+    /**
+     * Loads completed during the load call '<'SoundID, status'>'
+     */
+    private final SparseIntArray mEarlyCompletions = new SparseIntArray();
+    /**
+     * The task to run on the scheduler thread when no loads are pending or null
+     */
+    private Runnable mIdleTask;
+
+    private final Thread mThread;
+
+    /**
+     * Constructor. Starts the scheduler thread.
+     *
+     * @param pool
+     *         the pool to load into
+     * @param maxInFlight
+     *         the maximum number of the loads submitted to the pool but not decoded yet
+     * @param budgetPercent
+     *         the share of the wall time the scheduler may spend in the load calls, 1 to 100
+     */
+    public LoadScheduler(SoundPoolEx pool, int maxInFlight, int budgetPercent) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        mPool = pool;
+        mMaxInFlight = maxInFlight;
+        setBudget(budgetPercent);
+
+        pool.setLoadObserver(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                onLoadCompleted(sampleId, status);
+            }
+        });
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, TAG);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Changes the CPU/IO budget, e.g. lower it during gameplay and raise it on loading screens.
+     *
+     * @param budgetPercent
+     *         the share of the wall time the scheduler may spend in the load calls, 1 to 100
+     */
+    public void setBudget(int budgetPercent) {
+        if (budgetPercent < 1 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be in 1..100");
+        }
+        mBudgetPercent = budgetPercent;
+    }
+
+    /**
+     * Schedules the load.
+     *
+     * @param source
+     *         the sound source
+     * @param priority
+     *         the load priority, higher loads first
+     * @param group
+     *         the group for {@link #cancelGroup(int)}
+     * @param callback
+     *         receives the result, may be null
+     * @return a ticket of the load
+     */
+    public int enqueue(SoundSource source, int priority, int group, Callback callback) {
+        synchronized (mLock) {
+            if (mReleased) throw new IllegalStateException("LoadScheduler is released");
+            int ticket = mNextTicket++;
+            mPending.add(new Request(ticket, source, priority, group, mSequence++, callback));
+            mLock.notifyAll();
+            return ticket;
+        }
+    }
+
+    /**
+     * Runs the task on the scheduler thread once no loads are pending, outside the locks of the
+     * scheduler. A task posted before the previous one ran replaces it.
+     *
+     * @param task
+     *         the task, may enqueue loads
+     */
+    void runWhenIdle(Runnable task) {
+        synchronized (mLock) {
+            if (mReleased) return;
+            mIdleTask = task;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Cancels the load. A pending load is dropped, a load being submitted or decoded is unloaded.
+     * A completed load isn't unloaded, its sound ID was passed to the callback.
+     *
+     * @param ticket
+     *         the ticket returned by {@link #enqueue(SoundSource, int, int, Callback)}
+     * @return true if the load was pending, being submitted or in flight
+     */
+    public boolean cancel(int ticket) {
+        int soundID = 0;
+        synchronized (mLock) {
+            for (Iterator<Request> it = mPending.iterator(); it.hasNext(); ) {
+                if (it.next().ticket == ticket) {
+                    it.remove();
+                    return true;
+                }
+            }
+            if (mSubmitting != null && mSubmitting.ticket == ticket) {
+                mSubmittingCancelled = true;
+                return true;
+            }
+            for (int i = 0; i < mInFlight.size(); i++) {
+                if (mInFlight.valueAt(i).ticket == ticket) {
+                    soundID = mInFlight.keyAt(i);
+                    mInFlight.removeAt(i);
+                    mLock.notifyAll();
+                    break;
+                }
+            }
+        }
+        if (soundID == 0) return false;
+        mPool.unload(soundID);
+        return true;
+    }
+
+    /**
+     * Cancels all pending and in flight loads of the group, see {@link #cancel(int)}.
+     *
+     * @param group
+     *         the group passed to {@link #enqueue(SoundSource, int, int, Callback)}
+     * @return the number of the cancelled loads
+     */
+    public int cancelGroup(int group) {
+        int count = 0;
+        SparseIntArray unloads = new SparseIntArray();
+        synchronized (mLock) {
+            for (Iterator<Request> it = mPending.iterator(); it.hasNext(); ) {
+                if (it.next().group == group) {
+                    it.remove();
+                    count++;
+                }
+            }
+            if (mSubmitting != null && mSubmitting.group == group && !mSubmittingCancelled) {
+                mSubmittingCancelled = true;
+                count++;
+            }
+            for (int i = mInFlight.size() - 1; i >= 0; i--) {
+                if (mInFlight.valueAt(i).group == group) {
+                    unloads.put(mInFlight.keyAt(i), 0);
+                    mInFlight.removeAt(i);
+                }
+            }
+            if (unloads.size() > 0) mLock.notifyAll();
+        }
+        for (int i = 0; i < unloads.size(); i++) {
+            mPool.unload(unloads.keyAt(i));
+        }
+        return count + unloads.size();
+    }
+
+    /**
+     * @return the number of the loads waiting for submission
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Drops the pending loads and stops the scheduler thread. Loaded sounds stay loaded.
+     */
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mPending.clear();
+            mInFlight.clear();
+            mLock.notifyAll();
+        }
+        mPool.setLoadObserver(null);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            Request request;
+            Runnable idleTask = null;
+            synchronized (mLock) {
+                while (!mReleased && !(mIdleTask != null && mPending.isEmpty()) &&
+                        (mPending.isEmpty() || mInFlight.size() >= mMaxInFlight)) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mReleased) return;
+                if (mPending.isEmpty()) {
+                    idleTask = mIdleTask;
+                    mIdleTask = null;
+                    request = null;
+                } else {
+                    request = mPending.poll();
+                    mSubmitting = request;
+                    mSubmittingCancelled = false;
+                }
+            }
+            if (idleTask != null) {
+                idleTask.run();
+                continue;
+            }
+
+            long start = System.nanoTime();
+            int soundID = 0;
+            try {
+                soundID = request.source.load(mPool, request.priority);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Can't load the sound " + request.source.getKey(), e);
+            }
+            long busy = System.nanoTime() - start;
+
+            int earlyStatus = STATUS_PENDING;
+            final boolean cancelled;
+            synchronized (mLock) {
+                mSubmitting = null;
+                cancelled = mSubmittingCancelled;
+                if (soundID > 0 && !cancelled) {
+                    // the load may complete before the load call returns
+                    earlyStatus = mEarlyCompletions.get(soundID, STATUS_PENDING);
+                    if (earlyStatus == STATUS_PENDING) mInFlight.put(soundID, request);
+                }
+                mEarlyCompletions.clear();
+            }
+            if (cancelled) {
+                // cancelled during the load call, after it was taken from the pending loads
+                if (soundID > 0) mPool.unload(soundID);
+            } else if (request.callback != null) {
+                if (soundID <= 0) {
+                    request.callback.onSoundLoaded(request.ticket, 0, -1);
+                } else if (earlyStatus != STATUS_PENDING) {
+                    request.callback.onSoundLoaded(request.ticket, soundID, earlyStatus);
+                }
+            }
+
+            throttle(busy);
+        }
+    }
+
+    /**
+     * Sleeps so the time spent in the load calls doesn't exceed the budget.
+     */
+    private void throttle(long busyNanos) {
+        int budget = mBudgetPercent;
+        if (budget >= 100) return;
+        long idleMillis = busyNanos * (100 - budget) / budget / 1000000;
+        if (idleMillis <= 0) return;
+        synchronized (mLock) {
+            long until = System.currentTimeMillis() + idleMillis;
+            long left = idleMillis;
+            while (!mReleased && left > 0) {
+                try {
+                    mLock.wait(left);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                left = until - System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void onLoadCompleted(int soundID, int status) {
+        Request request;
+        synchronized (mLock) {
+            request = mInFlight.get(soundID);
+            if (request == null) {
+                if (mSubmitting != null) mEarlyCompletions.put(soundID, status);
+                return;
+            }
+            mInFlight.remove(soundID);
+            mLock.notifyAll();
+        }
+        if (request.callback != null) {
+            request.callback.onSoundLoaded(request.ticket, soundID, status);
+        }
+    }
+
+    /**
+     * Scheduled load
+     */
+    private static final class Request implements Comparable<Request> {
+        final int ticket;
+        final SoundSource source;
+        final int priority;
+        final int group;
+        final long sequence;
+        final Callback callback;
+
+        Request(int ticket, SoundSource source, int priority, int group, long sequence,
+                Callback callback) {
+            this.ticket = ticket;
+            this.source = source;
+            this.priority = priority;
+            this.group = group;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            if (priority != another.priority) return priority > another.priority ? -1 : 1;
+            return sequence < another.sequence ? -1 : sequence > another.sequence ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.kry.soundpoolex;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Span tracer of the SoundPoolEx load pipeline. Spans of every load stage are recorded into a
+ * preallocated ring buffer (the oldest spans are overwritten) and can be dumped as a Chrome
+ * trace-event JSON file, which opens in {@code chrome://tracing} and Perfetto. Tracing is
+ * disabled unless an instance is set with {@link SoundPoolEx#setLoadTracer(LoadTracer)}.
+ * <p/>
+ * The native decode is traced as an async span from the return of the delegate load call to the
+ * load complete callback.
+ */
+public final class LoadTracer {
+    /**
+     * Whole SoundPoolEx load call
+     */
+    public static final int STAGE_LOAD = 0;
+    /**
+     * Duration probing (MediaMetadataRetriever, manifest or bank lookup)
+     */
+    public static final int STAGE_PROBE = 1;
+    /**
+     * Opening of the resource or asset file descriptor
+     */
+    public static final int STAGE_OPEN_FD = 2;
+    /**
+     * The delegate load call
+     */
+    public static final int STAGE_SUBMIT = 3;
+    /**
+     * Native decode, from the delegate load call to the load complete callback
+     */
+    public static final int STAGE_DECODE = 4;
+
+    private static final String[] STAGE_NAMES = {"load", "probe", "openFd", "submit", "decode"};
+    private static final int MAX_PENDING_DECODES = 256;
+
+    private final int mMask;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final long mBaseTime = System.nanoTime();
+
+    // ring buffer of the spans
+    private final byte[] mStages;
+    private final long[] mStarts;
+    private final long[] mDurations;
+    private final int[] mSoundIds;
+    private final long[] mThreadIds;
+
+    // decodes in progress, searched linearly
+    private final int[] mPendingSoundIds = new int[MAX_PENDING_DECODES];
+    private final long[] mPendingStarts = new long[MAX_PENDING_DECODES];
+    private int mPendingCount;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *         the number of the spans kept, rounded up to a power of two
+     */
+    public LoadTracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mMask = size - 1;
+        mStages = new byte[size];
+        mStarts = new long[size];
+        mDurations = new long[size];
+        mSoundIds = new int[size];
+        mThreadIds = new long[size];
+    }
+
+    /**
+     * @return the trace timestamp in nanoseconds
+     */
+    long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the span.
+     *
+     * @param stage
+     *         one of the STAGE_ constants
+     * @param soundID
+     *         the soundID or 0 if it isn't known yet
+     * @param start
+     *         the start timestamp from {@link #now()}
+     * @param end
+     *         the end timestamp from {@link #now()}
+     */
+    void span(int stage, int soundID, long start, long end) {
+        record(stage, soundID, start, end, Thread.currentThread().getId());
+    }
+
+    private void record(int stage, int soundID, long start, long end, long threadId) {
+        int slot = mNext.getAndIncrement() & mMask;
+        mStages[slot] = (byte) stage;
+        mStarts[slot] = start - mBaseTime;
+        mDurations[slot] = end - start;
+        mSoundIds[slot] = soundID;
+        mThreadIds[slot] = threadId;
+    }
+
+    void decodeStarted(int soundID, long start) {
+        synchronized (mPendingSoundIds) {
+            if (mPendingCount == MAX_PENDING_DECODES) return;
+            mPendingSoundIds[mPendingCount] = soundID;
+            mPendingStarts[mPendingCount] = start;
+            mPendingCount++;
+        }
+    }
+
+    void decodeCompleted(int soundID) {
+        long end = now();
+        long start;
+        synchronized (mPendingSoundIds) {
+            int i = 0;
+            while (i < mPendingCount && mPendingSoundIds[i] != soundID) {
+                i++;
+            }
+            if (i == mPendingCount) return;
+            start = mPendingStarts[i];
+            mPendingCount--;
+            mPendingSoundIds[i] = mPendingSoundIds[mPendingCount];
+            mPendingStarts[i] = mPendingStarts[mPendingCount];
+        }
+        // async spans don't belong to a thread
+        record(STAGE_DECODE, soundID, start, end, -1);
+    }
+
+    /**
+     * Clears the recorded spans.
+     */
+    public void clear() {
+        mNext.set(0);
+    }
+
+    /**
+     * Writes the recorded spans as a Chrome trace-event JSON file. Spans recorded while writing
+     * may be partially included.
+     *
+     * @param file
+     *         the output file
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the recorded spans in the Chrome trace-event JSON format. The writer is not closed.
+     *
+     * @param writer
+     *         the output
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void writeChromeTrace(Writer writer) throws IOException {
+        int next = mNext.get();
+        int count = Math.min(next, mMask + 1);
+
+        writer.write("{\"traceEvents\":[\n");
+        writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1," +
+                "\"args\":{\"name\":\"SoundPoolEx\"}}");
+        for (int i = next - count; i < next; i++) {
+            int slot = i & mMask;
+            String name = STAGE_NAMES[mStages[slot]];
+            long ts = mStarts[slot] / 1000;
+            long dur = mDurations[slot] / 1000;
+            int soundID = mSoundIds[slot];
+            if (mThreadIds[slot] < 0) {
+                writer.write(",\n{\"name\":\"" + name + "\",\"cat\":\"load\",\"ph\":\"b\"," +
+                        "\"id\":" + soundID + ",\"ts\":" + ts + ",\"pid\":1,\"tid\":0," +
+                        "\"args\":{\"soundID\":" + soundID + "}}");
+                writer.write(",\n{\"name\":\"" + name + "\",\"cat\":\"load\",\"ph\":\"e\"," +
+                        "\"id\":" + soundID + ",\"ts\":" + (ts + dur) + ",\"pid\":1,\"tid\":0}");
+            } else {
+                writer.write(",\n{\"name\":\"" + name + "\",\"cat\":\"load\",\"ph\":\"X\"," +
+                        "\"ts\":" + ts + ",\"dur\":" + dur + ",\"pid\":1,\"tid\":" +
+                        mThreadIds[slot] + ",\"args\":{\"soundID\":" + soundID + "}}");
+            }
+        }
+        writer.write("\n]}\n");
+    }
+}
@@ -0,0 +1,660 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link ISoundPool} implementation with a pure Java software mixer. The sounds are kept as
+ * decoded 16-bit PCM in primitive arrays; all active voices are mixed with per-voice volume, rate
+ * (linear interpolation resampling) and loop into fixed-size blocks which are written to a {@link
+ * PcmSink}: {@link AudioTrackSink} on the device, {@link NullPcmSink} or {@link WavFileSink} on the
+ * JVM.
+ * <p/>
+ * Only integer PCM WAV sounds (8 or 16 bit, mono or stereo) can be loaded, load of other formats
+ * returns 0. Unlike SoundPool the playing state is exact, see {@link #isPlaying(int)}, and the
+ * streams can be played from any position, see {@link #seek(int, int)}.
+ * <p/>
+ * Call {@link #start()} to run the mixer thread or {@link #render(short[], int)} to drive the
+ * mixer manually, e.g. for throughput measurements. The load complete listener is called on the
+ * thread which renders, with a null SoundPool. The voices are mixed outside of the lock from a
+ * copy of their state, so the calls from the other threads don't wait for the mixing.
+ */
+public class MixerSoundPool implements SeekableSoundPool {
+    private final static String TAG = "MixerSoundPool";
+
+    private static final float MIN_RATE = 0.5f;
+    private static final float MAX_RATE = 2.0f;
+    /**
+     * Fixed point scale of the voice gains
+     */
+    private static final int GAIN_SHIFT = 14;
+    private static final float GAIN_ONE = 1 << GAIN_SHIFT;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_PLAYING = 1;
+    private static final byte STATE_PAUSED = 2;
+    private static final byte STATE_AUTO_PAUSED = 3;
+
+    private final PcmSink mSink;
+    private final int mBlockFrames;
+    private final int mMaxVoices;
+    private final Object mLock = new Object();
+
+    /**
+     * Sound IDs '<'SoundID, Sound'>'
+     */
+    private final SparseArray<Sound> mSounds = new SparseArray<>();
+    private int mNextSoundID = 1;
+    private int mNextStreamID = 1;
+    private long mPlayCounter;
+
+    // voices, one slot per simultaneous stream
+    private final int[] mVoiceStream;
+    private final int[] mVoiceSound;
+    private final byte[] mVoiceState;
+    private final short[][] mVoiceData;
+    private final int[] mVoiceChannels;
+    private final int[] mVoiceFrames;
+    /**
+     * Position in 32.32 fixed point frames
+     */
+    private final long[] mVoicePos;
+    /**
+     * Position increment per output frame in 32.32 fixed point
+     */
+    private final long[] mVoiceStep;
+    /**
+     * Ratio of the sound sample rate to the output sample rate
+     */
+    private final double[] mVoiceRatio;
+    private final int[] mVoiceLeft;
+    private final int[] mVoiceRight;
+    private final int[] mVoiceLoop;
+    private final int[] mVoicePriority;
+    private final long[] mVoiceAge;
+    /**
+     * Incremented when the stream, the position or the loop of the voice is changed outside of
+     * the mixer, the mixed state of an outdated copy is dropped
+     */
+    private final int[] mVoiceSeq;
+
+    // copies of the playing voices for the mixing outside of the lock, owned by the renderer
+    private final int[] mMixVoice;
+    private final int[] mMixSeq;
+    private final short[][] mMixData;
+    private final boolean[] mMixStereo;
+    private final int[] mMixFrames;
+    private final long[] mMixPos;
+    private final long[] mMixStep;
+    private final int[] mMixLeft;
+    private final int[] mMixRight;
+    private final int[] mMixLoop;
+    private final boolean[] mMixEnded;
+
+    private final int[] mMix;
+    private final short[] mBlock;
+
+    /**
+     * Sound IDs loaded but not reported to the listener yet
+     */
+    private int[] mPendingLoads = new int[16];
+    private int mPendingLoadCount;
+    private int[] mDispatchLoads = new int[16];
+    private volatile SoundPool.OnLoadCompleteListener mOnLoadCompleteListener;
+
+    private Thread mMixerThread;
+    private volatile boolean mRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param sink
+     *         the output of the mixer
+     * @param maxVoices
+     *         the maximum number of simultaneous streams
+     * @param blockFrames
+     *         the size of the mixed blocks, in frames
+     */
+    public MixerSoundPool(PcmSink sink, int maxVoices, int blockFrames) {
+        if (maxVoices < 1) throw new IllegalArgumentException("maxVoices must be positive");
+        if (blockFrames < 1) throw new IllegalArgumentException("blockFrames must be positive");
+        mSink = sink;
+        mMaxVoices = maxVoices;
+        mBlockFrames = blockFrames;
+
+        mVoiceStream = new int[maxVoices];
+        mVoiceSound = new int[maxVoices];
+        mVoiceState = new byte[maxVoices];
+        mVoiceData = new short[maxVoices][];
+        mVoiceChannels = new int[maxVoices];
+        mVoiceFrames = new int[maxVoices];
+        mVoicePos = new long[maxVoices];
+        mVoiceStep = new long[maxVoices];
+        mVoiceRatio = new double[maxVoices];
+        mVoiceLeft = new int[maxVoices];
+        mVoiceRight = new int[maxVoices];
+        mVoiceLoop = new int[maxVoices];
+        mVoicePriority = new int[maxVoices];
+        mVoiceAge = new long[maxVoices];
+        mVoiceSeq = new int[maxVoices];
+
+        mMixVoice = new int[maxVoices];
+        mMixSeq = new int[maxVoices];
+        mMixData = new short[maxVoices][];
+        mMixStereo = new boolean[maxVoices];
+        mMixFrames = new int[maxVoices];
+        mMixPos = new long[maxVoices];
+        mMixStep = new long[maxVoices];
+        mMixLeft = new int[maxVoices];
+        mMixRight = new int[maxVoices];
+        mMixLoop = new int[maxVoices];
+        mMixEnded = new boolean[maxVoices];
+
+        mMix = new int[blockFrames * 2];
+        mBlock = new short[blockFrames * 2];
+    }
+
+    /**
+     * Starts the mixer thread which renders blocks and writes them to the sink.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mMixerThread != null) return;
+            mRunning = true;
+            mMixerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (mRunning) {
+                        render(mBlock, mBlockFrames);
+                        mSink.write(mBlock, mBlockFrames);
+                    }
+                }
+            }, TAG);
+            mMixerThread.setPriority(Thread.MAX_PRIORITY);
+            mMixerThread.start();
+        }
+    }
+
+    /**
+     * Mixes the next block of all active voices. Must not be called concurrently, e.g. while the
+     * mixer thread runs.
+     *
+     * @param out
+     *         the buffer for the interleaved 16-bit stereo samples
+     * @param frames
+     *         the number of the frames to mix, not more than the block size
+     */
+    public void render(short[] out, int frames) {
+        if (frames > mBlockFrames) throw new IllegalArgumentException("frames > block size");
+        final int[] mix = mMix;
+        final int samples = frames * 2;
+        int voices = 0;
+        int loads;
+
+        synchronized (mLock) {
+            for (int v = 0; v < mMaxVoices; v++) {
+                if (mVoiceState[v] != STATE_PLAYING) continue;
+                mMixVoice[voices] = v;
+                mMixSeq[voices] = mVoiceSeq[v];
+                mMixData[voices] = mVoiceData[v];
+                mMixStereo[voices] = mVoiceChannels[v] == 2;
+                mMixFrames[voices] = mVoiceFrames[v];
+                mMixPos[voices] = mVoicePos[v];
+                mMixStep[voices] = mVoiceStep[v];
+                mMixLeft[voices] = mVoiceLeft[v];
+                mMixRight[voices] = mVoiceRight[v];
+                mMixLoop[voices] = mVoiceLoop[v];
+                voices++;
+            }
+
+            loads = mPendingLoadCount;
+            if (loads > 0) {
+                if (mDispatchLoads.length < loads) mDispatchLoads = new int[mPendingLoads.length];
+                System.arraycopy(mPendingLoads, 0, mDispatchLoads, 0, loads);
+                mPendingLoadCount = 0;
+            }
+        }
+
+        for (int i = 0; i < samples; i++) {
+            mix[i] = 0;
+        }
+        for (int m = 0; m < voices; m++) {
+            mixVoice(m, mix, frames);
+        }
+
+        if (voices > 0) {
+            synchronized (mLock) {
+                for (int m = 0; m < voices; m++) {
+                    final int v = mMixVoice[m];
+                    // the data reference is dropped, the sound may be unloaded
+                    mMixData[m] = null;
+                    // stopped, replaced, seeked or looped meanwhile
+                    if (mVoiceSeq[v] != mMixSeq[m] || mVoiceState[v] == STATE_FREE) continue;
+                    if (mMixEnded[m]) {
+                        freeVoice(v);
+                    } else {
+                        mVoicePos[v] = mMixPos[m];
+                        mVoiceLoop[v] = mMixLoop[m];
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < samples; i++) {
+            int sample = mix[i];
+            out[i] = (short) (sample > Short.MAX_VALUE ? Short.MAX_VALUE :
+                    sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+        }
+
+        SoundPool.OnLoadCompleteListener listener = mOnLoadCompleteListener;
+        if (listener != null) {
+            for (int i = 0; i < loads; i++) {
+                listener.onLoadComplete(null, mDispatchLoads[i], 0);
+            }
+        }
+    }
+
+    /**
+     * Mixes the copy of the voice and updates its position and loop count.
+     */
+    private void mixVoice(int m, int[] mix, int frames) {
+        final short[] data = mMixData[m];
+        final int length = mMixFrames[m];
+        final long end = (long) length << 32;
+        final long step = mMixStep[m];
+        final int left = mMixLeft[m];
+        final int right = mMixRight[m];
+        final boolean stereo = mMixStereo[m];
+        long pos = mMixPos[m];
+        int loop = mMixLoop[m];
+        mMixEnded[m] = false;
+
+        for (int i = 0, o = 0; i < frames; i++, o += 2) {
+            // a step may be longer than a short sound
+            while (pos >= end) {
+                if (loop == 0) {
+                    mMixEnded[m] = true;
+                    return;
+                }
+                if (loop > 0) loop--;
+                pos -= end;
+            }
+            int index = (int) (pos >>> 32);
+            int next = index + 1 < length ? index + 1 : (loop != 0 ? 0 : index);
+            // 15 bit fraction for the linear interpolation
+            int frac = (int) ((pos >>> 17) & 0x7FFF);
+            if (stereo) {
+                int l0 = data[index * 2];
+                int r0 = data[index * 2 + 1];
+                int l = l0 + (((data[next * 2] - l0) * frac) >> 15);
+                int r = r0 + (((data[next * 2 + 1] - r0) * frac) >> 15);
+                mix[o] += (l * left) >> GAIN_SHIFT;
+                mix[o + 1] += (r * right) >> GAIN_SHIFT;
+            } else {
+                int s0 = data[index];
+                int s = s0 + (((data[next] - s0) * frac) >> 15);
+                mix[o] += (s * left) >> GAIN_SHIFT;
+                mix[o + 1] += (s * right) >> GAIN_SHIFT;
+            }
+            pos += step;
+        }
+        mMixPos[m] = pos;
+        mMixLoop[m] = loop;
+    }
+
+    private void freeVoice(int v) {
+        mVoiceSeq[v]++;
+        mVoiceState[v] = STATE_FREE;
+        mVoiceStream[v] = 0;
+        mVoiceData[v] = null;
+    }
+
+    private int findVoice(int streamID) {
+        if (streamID <= 0) return -1;
+        for (int v = 0; v < mMaxVoices; v++) {
+            if (mVoiceStream[v] == streamID) return v;
+        }
+        return -1;
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        try {
+            FileInputStream in = new FileInputStream(path);
+            try {
+                return decode(in.getChannel(), 0, in.getChannel().size());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't load the sound " + path, e);
+            return 0;
+        }
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+        if (afd == null) return 0;
+        try {
+            return load(afd, priority);
+        } finally {
+            try {
+                afd.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Can't close the resource " + String.valueOf(resId), e);
+            }
+        }
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        return load(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength(), priority);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        try {
+            return decode(new FileInputStream(fd).getChannel(), offset, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't load the sound from " + fd.toString(), e);
+            return 0;
+        }
+    }
+
+    private int decode(FileChannel channel, long offset, long length) throws IOException {
+        AudioHeader header = AudioHeader.read(channel, offset, length);
+        int bits = header != null ? header.getBitsPerSample() : 0;
+        int channels = header != null ? header.getChannelCount() : 0;
+        if (header == null || header.getFormat() != AudioHeader.FORMAT_WAV ||
+                (bits != 8 && bits != 16) || channels < 1 || channels > 2) {
+            Log.w(TAG, "Only 8/16 bit mono/stereo PCM WAV sounds are supported");
+            return 0;
+        }
+
+        int samples = (int) header.getFrameCount() * channels;
+        ByteBuffer bytes = ByteBuffer.allocate(samples * bits / 8).order(ByteOrder.LITTLE_ENDIAN);
+        long position = offset + header.getDataOffset();
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) break;
+        }
+        bytes.flip();
+
+        short[] data = new short[samples];
+        if (bits == 16) {
+            bytes.asShortBuffer().get(data, 0, Math.min(samples, bytes.remaining() / 2));
+        } else {
+            for (int i = 0; i < samples && bytes.hasRemaining(); i++) {
+                data[i] = (short) (((bytes.get() & 0xFF) - 128) << 8);
+            }
+        }
+
+        Sound sound = new Sound(data, channels, samples / channels, header.getSampleRate());
+        synchronized (mLock) {
+            int soundID = mNextSoundID++;
+            mSounds.put(soundID, sound);
+            if (mPendingLoadCount == mPendingLoads.length) {
+                int[] pending = new int[mPendingLoads.length * 2];
+                System.arraycopy(mPendingLoads, 0, pending, 0, mPendingLoadCount);
+                mPendingLoads = pending;
+            }
+            mPendingLoads[mPendingLoadCount++] = soundID;
+            return soundID;
+        }
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        synchronized (mLock) {
+            if (mSounds.indexOfKey(soundID) < 0) return false;
+            mSounds.remove(soundID);
+            for (int v = 0; v < mMaxVoices; v++) {
+                if (mVoiceState[v] != STATE_FREE && mVoiceSound[v] == soundID) freeVoice(v);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        synchronized (mLock) {
+            Sound sound = mSounds.get(soundID);
+            if (sound == null || sound.frames == 0) return 0;
+
+            int v = allocateVoice(priority);
+            if (v < 0) return 0;
+
+            int streamID = mNextStreamID++;
+            if (mNextStreamID <= 0) mNextStreamID = 1;
+
+            mVoiceStream[v] = streamID;
+            mVoiceSound[v] = soundID;
+            mVoiceData[v] = sound.data;
+            mVoiceChannels[v] = sound.channels;
+            mVoiceFrames[v] = sound.frames;
+            mVoicePos[v] = 0;
+            mVoiceRatio[v] = (double) sound.sampleRate / mSink.getSampleRate();
+            mVoiceStep[v] = toStep(mVoiceRatio[v], rate);
+            mVoiceLeft[v] = toGain(leftVolume);
+            mVoiceRight[v] = toGain(rightVolume);
+            mVoiceLoop[v] = loop;
+            mVoicePriority[v] = priority;
+            mVoiceAge[v] = mPlayCounter++;
+            mVoiceState[v] = STATE_PLAYING;
+            return streamID;
+        }
+    }
+
+    /**
+     * Returns a free voice or steals the lowest priority and then the oldest voice if its
+     * priority doesn't exceed the given one.
+     */
+    private int allocateVoice(int priority) {
+        int victim = -1;
+        for (int v = 0; v < mMaxVoices; v++) {
+            if (mVoiceState[v] == STATE_FREE) return v;
+            if (victim < 0 || mVoicePriority[v] < mVoicePriority[victim] ||
+                    (mVoicePriority[v] == mVoicePriority[victim] &&
+                            mVoiceAge[v] < mVoiceAge[victim])) {
+                victim = v;
+            }
+        }
+        if (mVoicePriority[victim] > priority) return -1;
+        freeVoice(victim);
+        return victim;
+    }
+
+    private static long toStep(double ratio, float rate) {
+        float clamped = rate < MIN_RATE ? MIN_RATE : rate > MAX_RATE ? MAX_RATE : rate;
+        return (long) (ratio * clamped * (1L << 32));
+    }
+
+    private static int toGain(float volume) {
+        float clamped = volume < 0f ? 0f : volume > 1f ? 1f : volume;
+        return (int) (clamped * GAIN_ONE);
+    }
+
+    /**
+     * Checks whether the stream is playing. The state is exact: it turns false as soon as the
+     * mixer reaches the end of the sound.
+     *
+     * @param streamID
+     *         a streamID returned by the play() function
+     * @return true if currently playing, false if paused, stopped or finished
+     */
+    public boolean isPlaying(int streamID) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            return v >= 0 && mVoiceState[v] == STATE_PLAYING;
+        }
+    }
+
+    /**
+     * @return the number of the playing and paused voices
+     */
+    public int getActiveVoiceCount() {
+        synchronized (mLock) {
+            int count = 0;
+            for (int v = 0; v < mMaxVoices; v++) {
+                if (mVoiceState[v] != STATE_FREE) count++;
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public void pause(int streamID) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0 && mVoiceState[v] == STATE_PLAYING) mVoiceState[v] = STATE_PAUSED;
+        }
+    }
+
+    @Override
+    public void resume(int streamID) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0 && mVoiceState[v] != STATE_FREE) mVoiceState[v] = STATE_PLAYING;
+        }
+    }
+
+    @Override
+    public void autoPause() {
+        synchronized (mLock) {
+            for (int v = 0; v < mMaxVoices; v++) {
+                if (mVoiceState[v] == STATE_PLAYING) mVoiceState[v] = STATE_AUTO_PAUSED;
+            }
+        }
+    }
+
+    @Override
+    public void autoResume() {
+        synchronized (mLock) {
+            for (int v = 0; v < mMaxVoices; v++) {
+                if (mVoiceState[v] == STATE_AUTO_PAUSED) mVoiceState[v] = STATE_PLAYING;
+            }
+        }
+    }
+
+    @Override
+    public void stop(int streamID) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0) freeVoice(v);
+        }
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v < 0) return false;
+            long frame = (long) (position * mVoiceRatio[v] * mSink.getSampleRate() / 1000);
+            if (frame < 0) frame = 0;
+            if (frame >= mVoiceFrames[v]) frame = mVoiceFrames[v] - 1;
+            mVoicePos[v] = frame << 32;
+            mVoiceSeq[v]++;
+            return true;
+        }
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0) {
+                mVoiceLeft[v] = toGain(leftVolume);
+                mVoiceRight[v] = toGain(rightVolume);
+            }
+        }
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        setVolume(streamID, volume, volume);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0) mVoicePriority[v] = priority;
+        }
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0) {
+                mVoiceLoop[v] = loop;
+                mVoiceSeq[v]++;
+            }
+        }
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        synchronized (mLock) {
+            int v = findVoice(streamID);
+            if (v >= 0) mVoiceStep[v] = toStep(mVoiceRatio[v], rate);
+        }
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mOnLoadCompleteListener = listener;
+    }
+
+    @Override
+    public void release() {
+        Thread mixerThread;
+        synchronized (mLock) {
+            mRunning = false;
+            mixerThread = mMixerThread;
+            mMixerThread = null;
+        }
+        if (mixerThread != null) {
+            try {
+                mixerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (mLock) {
+            for (int v = 0; v < mMaxVoices; v++) {
+                freeVoice(v);
+            }
+            mSounds.clear();
+        }
+        mSink.release();
+    }
+
+    /**
+     * Decoded sound
+     */
+    private static final class Sound {
+        final short[] data;
+        final int channels;
+        final int frames;
+        final int sampleRate;
+
+        Sound(short[] data, int channels, int frames, int sampleRate) {
+            this.data = data;
+            this.channels = channels;
+            this.frames = frames;
+            this.sampleRate = sampleRate;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.kry.soundpoolex;
+
+/**
+ * {@link PcmSink} which discards the mixed frames. Paced sink sleeps for the duration of every
+ * block like a real output, unpaced one returns immediately, which is useful for measuring the
+ * mixer throughput.
+ */
+public class NullPcmSink implements PcmSink {
+    private final int mSampleRate;
+    private final boolean mPaced;
+    private long mFramesWritten;
+
+    /**
+     * Constructor.
+     *
+     * @param sampleRate
+     *         the output sample rate in Hz
+     * @param paced
+     *         true to sleep for the duration of the written blocks
+     */
+    public NullPcmSink(int sampleRate, boolean paced) {
+        mSampleRate = sampleRate;
+        mPaced = paced;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public void write(short[] buffer, int frames) {
+        mFramesWritten += frames;
+        if (mPaced) {
+            try {
+                Thread.sleep(frames * 1000L / mSampleRate);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the total number of the frames written
+     */
+    public long getFramesWritten() {
+        return mFramesWritten;
+    }
+
+    @Override
+    public void release() {
+    }
+}
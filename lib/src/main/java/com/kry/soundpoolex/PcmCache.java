@@ -0,0 +1,595 @@
+package com.kry.soundpoolex;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decode-once cache of the compressed sounds on the local storage. The first load of an Ogg, MP3
+ * or other compressed source decodes it with MediaCodec into a 16-bit PCM WAV file at the device
+ * sample rate; the next loads use the WAV file, which SoundPool loads without decoding, and its
+ * header gives the exact duration. See {@link SoundPoolEx#setPcmCache(PcmCache)}.
+ * <p/>
+ * Entries are keyed by the source identity and its size (and the modification time of the files,
+ * the APK version of the resources and assets), so updated sources are decoded again. The cache
+ * size is limited, the least recently used files are evicted; the order survives restarts in the
+ * file modification times. The files of the loaded sounds are pinned, see {@link #pin(File)},
+ * as the pools may load them again. WAV sources are never cached. Decoding needs API 16, on
+ * older devices the cache is a no-op.
+ */
+public final class PcmCache {
+    private final static String TAG = "PcmCache";
+
+    private static final String SUFFIX = ".wav";
+    private static final int WAV_HEADER_SIZE = 44;
+    private static final long CODEC_TIMEOUT_US = 10000;
+    /**
+     * Codec timeouts in a row after the end of the input which abort the decoding
+     */
+    private static final int MAX_CODEC_STALLS = 200;
+
+    private final File mDir;
+    private final long mMaxSize;
+    private final int mSampleRate;
+
+    /**
+     * Cached files '<'file name, size'>', least recently used first, guarded by itself
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Pin counts of the cached files '<'file name, count'>', guarded by mEntries
+     */
+    private final HashMap<String, Integer> mPins = new HashMap<>();
+    private boolean mScanned;
+    private long mSize;
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     *         the cache directory, created if missing; no other files should be stored there
+     * @param maxSize
+     *         the size limit of the cache in bytes
+     * @param sampleRate
+     *         the sample rate of the cached sounds or 0 to keep the rate of the sources
+     */
+    public PcmCache(File dir, long maxSize, int sampleRate) {
+        mDir = dir;
+        mMaxSize = maxSize;
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Creates the cache in the application cache directory, at the native output sample rate of
+     * the device (API 17, the rate of the sources on older devices).
+     *
+     * @param context
+     *         the application context
+     * @param maxSize
+     *         the size limit of the cache in bytes
+     * @return the cache
+     */
+    @TargetApi (Build.VERSION_CODES.JELLY_BEAN_MR1)
+    public static PcmCache create(Context context, long maxSize) {
+        int sampleRate = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            AudioManager audioManager = (AudioManager) context.getSystemService(
+                    Context.AUDIO_SERVICE);
+            String rate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+            if (rate != null) {
+                try {
+                    sampleRate = Integer.parseInt(rate);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Malformed output sample rate " + rate);
+                }
+            }
+        }
+        return new PcmCache(new File(context.getCacheDir(), "soundpoolex-pcm"), maxSize,
+                sampleRate);
+    }
+
+    /**
+     * Returns the cached WAV of the file, decoding it on the first request.
+     *
+     * @param path
+     *         the path to the audio file
+     * @return the WAV file or null if the source is a WAV file or can't be decoded
+     */
+    public File get(String path) {
+        final File source = new File(path);
+        final String name = fileName("path:" + path + ":" + source.length() + ":" +
+                source.lastModified());
+        File cached = lookup(name);
+        if (cached != null) return cached;
+        try {
+            RandomAccessFile file = new RandomAccessFile(source, "r");
+            try {
+                if (isPcm(file.getChannel(), 0, file.length())) return null;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the sound " + path, e);
+            return null;
+        }
+        return decode(name, path, null, 0, 0);
+    }
+
+    /**
+     * Returns the cached WAV of the file range, decoding it on the first request.
+     *
+     * @param key
+     *         the stable identity of the source, e.g. {@link SoundSource#getKey()}, which changes
+     *         with the content (SoundPoolEx adds the APK version to the keys of the APK
+     *         resources and assets), or null
+     * @param fd
+     *         a FileDescriptor object
+     * @param offset
+     *         offset to the start of the sound
+     * @param length
+     *         length of the sound
+     * @return the WAV file or null if the key is null, or the source is a WAV or can't be decoded
+     */
+    public File get(String key, FileDescriptor fd, long offset, long length) {
+        if (key == null) return null;
+        final String name = fileName(key + ":" + length);
+        File cached = lookup(name);
+        if (cached != null) return cached;
+        try {
+            // the stream isn't closed, it would close the caller's descriptor
+            if (isPcm(new FileInputStream(fd).getChannel(), offset, length)) return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the sound " + key, e);
+            return null;
+        }
+        return decode(name, null, fd, offset, length);
+    }
+
+    private static boolean isPcm(FileChannel channel, long offset, long length) throws
+            IOException {
+        AudioHeader header = AudioHeader.read(channel, offset, length);
+        return header != null && header.getFormat() == AudioHeader.FORMAT_WAV;
+    }
+
+    private File lookup(String name) {
+        synchronized (mEntries) {
+            scan();
+            if (mEntries.get(name) == null) return null;
+            final File file = new File(mDir, name);
+            if (!file.isFile()) {
+                mSize -= mEntries.remove(name);
+                return null;
+            }
+            mHits++;
+            // keeps the order for the next sessions
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                Log.w(TAG, "Can't touch " + file);
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Loads the index from the cache directory. Must be called under the lock.
+     */
+    private void scan() {
+        if (mScanned) return;
+        mScanned = true;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Can't create the cache directory " + mDir);
+            return;
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            } else if (!file.delete()) {
+                // a decoding interrupted in the previous session
+                Log.w(TAG, "Can't delete " + file);
+            }
+        }
+    }
+
+    private File decode(String name, String path, FileDescriptor fd, long offset, long length) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return null;
+        synchronized (mEntries) {
+            mMisses++;
+        }
+        final File file = new File(mDir, name);
+        final File temp = new File(mDir, name + "." + Thread.currentThread().getId() + ".tmp");
+        final long startTime = System.nanoTime();
+        boolean decoded = false;
+        try {
+            decoded = decode(path, fd, offset, length, temp);
+        } catch (IOException | RuntimeException e) {
+            // MediaCodec reports errors with IllegalStateException
+            Log.w(TAG, "Can't decode the sound " + (path != null ? path : name), e);
+        }
+        synchronized (mEntries) {
+            if (!decoded || !temp.renameTo(file)) {
+                if (temp.exists() && !temp.delete()) Log.w(TAG, "Can't delete " + temp);
+                return null;
+            }
+            final Long previous = mEntries.put(name, file.length());
+            if (previous != null) mSize -= previous;
+            mSize += file.length();
+            evict(name);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Decoded " + (path != null ? path : name) + " in " +
+                    (System.nanoTime() - startTime) / 1000000 + " ms, " + file.length() +
+                    " bytes");
+        }
+        return file;
+    }
+
+    /**
+     * Keeps the cached file from the eviction until {@link #unpin(File)}, e.g. while the sound
+     * loaded from it may be reloaded. The pins are counted.
+     *
+     * @param file
+     *         the file returned by get()
+     * @return false if the file has been evicted meanwhile and should not be used
+     */
+    public boolean pin(File file) {
+        synchronized (mEntries) {
+            final String name = file.getName();
+            if (!mEntries.containsKey(name) || !file.isFile()) return false;
+            final Integer count = mPins.get(name);
+            mPins.put(name, count != null ? count + 1 : 1);
+            return true;
+        }
+    }
+
+    /**
+     * Releases a pin of the file, the files over the size limit are evicted.
+     *
+     * @param file
+     *         the pinned file
+     */
+    public void unpin(File file) {
+        synchronized (mEntries) {
+            final String name = file.getName();
+            final Integer count = mPins.get(name);
+            if (count == null) return;
+            if (count > 1) {
+                mPins.put(name, count - 1);
+            } else {
+                mPins.remove(name);
+                evict(null);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files over the size limit, except the given one and the
+     * pinned ones. Must be called under the lock.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep) || mPins.containsKey(entry.getKey())) continue;
+            final File file = new File(mDir, entry.getKey());
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Can't delete " + file);
+                continue;
+            }
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    // the buffer arrays are the only API before 21, they still work on the later versions
+    @SuppressWarnings ("deprecation")
+    @TargetApi (Build.VERSION_CODES.JELLY_BEAN)
+    private boolean decode(String path, FileDescriptor fd, long offset, long length, File out)
+            throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            if (path != null) {
+                extractor.setDataSource(path);
+            } else {
+                extractor.setDataSource(fd, offset, length);
+            }
+            MediaFormat format = null;
+            String mime = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String trackMime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if (trackMime != null && trackMime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    mime = trackMime;
+                    break;
+                }
+            }
+            if (format == null) return false;
+
+            MediaCodec codec = MediaCodec.createDecoderByType(mime);
+            WavWriter writer = new WavWriter(out, mSampleRate);
+            try {
+                codec.configure(format, null, null, 0);
+                codec.start();
+                int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                ByteBuffer[] inputs = codec.getInputBuffers();
+                ByteBuffer[] outputs = codec.getOutputBuffers();
+                MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                boolean inputDone = false;
+                int stalls = 0;
+                while (true) {
+                    if (!inputDone) {
+                        final int input = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                        if (input >= 0) {
+                            final int size = extractor.readSampleData(inputs[input], 0);
+                            if (size < 0) {
+                                codec.queueInputBuffer(input, 0, 0, 0,
+                                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                                inputDone = true;
+                            } else {
+                                codec.queueInputBuffer(input, 0, size, extractor.getSampleTime(),
+                                        0);
+                                extractor.advance();
+                            }
+                        }
+                    }
+                    final int output = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                    if (output >= 0) {
+                        stalls = 0;
+                        ByteBuffer buffer = outputs[output];
+                        buffer.position(info.offset);
+                        buffer.limit(info.offset + info.size);
+                        writer.write(buffer, sampleRate, channels);
+                        codec.releaseOutputBuffer(output, false);
+                        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+                    } else if (output == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                        outputs = codec.getOutputBuffers();
+                    } else if (output == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        MediaFormat outputFormat = codec.getOutputFormat();
+                        sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                        channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    } else if (inputDone && ++stalls > MAX_CODEC_STALLS) {
+                        throw new IOException("Decoder stalled");
+                    }
+                }
+                codec.stop();
+                writer.finish();
+                return writer.getFrames() > 0;
+            } finally {
+                codec.release();
+                writer.close();
+            }
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16));
+                name.append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the size of the cached files in bytes
+     */
+    public long getSize() {
+        synchronized (mEntries) {
+            scan();
+            return mSize;
+        }
+    }
+
+    /**
+     * @return the number of the loads served from the cache
+     */
+    public int getHitCount() {
+        synchronized (mEntries) {
+            return mHits;
+        }
+    }
+
+    /**
+     * @return the number of the decoded sources
+     */
+    public int getMissCount() {
+        synchronized (mEntries) {
+            return mMisses;
+        }
+    }
+
+    /**
+     * Deletes all the cached files except the pinned ones.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            scan();
+            Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (mPins.containsKey(entry.getKey())) continue;
+                final File file = new File(mDir, entry.getKey());
+                if (file.exists() && !file.delete()) Log.w(TAG, "Can't delete " + file);
+                mSize -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes the decoded 16-bit PCM into a WAV file, converting it to mono or stereo and to the
+     * output sample rate with the linear interpolation.
+     */
+    private static final class WavWriter {
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(65536).order(
+                ByteOrder.LITTLE_ENDIAN);
+        private final int mOutputRate;
+        private int mSampleRate;
+        private int mChannels;
+        private long mFrames;
+
+        /**
+         * Position in the input frames, 32 bit fraction; frame -1 is the last frame of the
+         * previous buffer
+         */
+        private long mPosition;
+        private long mStep;
+        private int mLastLeft;
+        private int mLastRight;
+
+        WavWriter(File file, int outputRate) throws IOException {
+            mChannel = new FileOutputStream(file).getChannel();
+            mOutputRate = outputRate;
+            mChannel.position(WAV_HEADER_SIZE);
+        }
+
+        void write(ByteBuffer pcm, int sampleRate, int channels) throws IOException {
+            if (mChannels == 0) {
+                mChannels = Math.min(2, channels);
+                mSampleRate = mOutputRate > 0 ? mOutputRate : sampleRate;
+                mPosition = 0;
+            }
+            mStep = ((long) sampleRate << 32) / mSampleRate;
+            final ByteBuffer in = pcm.order(ByteOrder.LITTLE_ENDIAN);
+            final int base = in.position();
+            final int frameSize = channels * 2;
+            final int frames = in.remaining() / frameSize;
+            if (frames == 0) return;
+
+            if (mStep == 1L << 32) {
+                for (int i = 0; i < frames; i++) {
+                    final int offset = base + i * frameSize;
+                    putFrame(in.getShort(offset), channels > 1 ? in.getShort(offset + 2) :
+                            in.getShort(offset));
+                }
+                return;
+            }
+
+            final long end = (long) (frames - 1) << 32;
+            while (mPosition < end) {
+                final int index = (int) (mPosition >> 32);
+                // 15 bit fraction for the interpolation
+                final int frac = (int) ((mPosition >>> 17) & 0x7FFF);
+                final int left0;
+                final int right0;
+                if (index < 0) {
+                    left0 = mLastLeft;
+                    right0 = mLastRight;
+                } else {
+                    final int offset = base + index * frameSize;
+                    left0 = in.getShort(offset);
+                    right0 = channels > 1 ? in.getShort(offset + 2) : left0;
+                }
+                final int next = base + (index + 1) * frameSize;
+                final int left1 = in.getShort(next);
+                final int right1 = channels > 1 ? in.getShort(next + 2) : left1;
+                putFrame(left0 + (((left1 - left0) * frac) >> 15),
+                        right0 + (((right1 - right0) * frac) >> 15));
+                mPosition += mStep;
+            }
+            final int last = base + (frames - 1) * frameSize;
+            mLastLeft = in.getShort(last);
+            mLastRight = channels > 1 ? in.getShort(last + 2) : mLastLeft;
+            mPosition -= (long) frames << 32;
+        }
+
+        private void putFrame(int left, int right) throws IOException {
+            if (mBuffer.remaining() < 4) flush();
+            if (mChannels == 1) {
+                mBuffer.putShort((short) left);
+            } else {
+                mBuffer.putShort((short) left);
+                mBuffer.putShort((short) right);
+            }
+            mFrames++;
+        }
+
+        private void flush() throws IOException {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+
+        long getFrames() {
+            return mFrames;
+        }
+
+        void finish() throws IOException {
+            flush();
+            final int blockAlign = mChannels * 2;
+            final long dataSize = mFrames * blockAlign;
+            ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0x46464952); // 'RIFF'
+            header.putInt((int) (36 + dataSize));
+            header.putInt(0x45564157); // 'WAVE'
+            header.putInt(0x20746D66); // 'fmt '
+            header.putInt(16);
+            header.putShort((short) 1); // PCM
+            header.putShort((short) mChannels);
+            header.putInt(mSampleRate);
+            header.putInt(mSampleRate * blockAlign);
+            header.putShort((short) blockAlign);
+            header.putShort((short) 16);
+            header.putInt(0x61746164); // 'data'
+            header.putInt((int) dataSize);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += mChannel.write(header, position);
+            }
+        }
+
+        void close() throws IOException {
+            mChannel.close();
+        }
+    }
+}
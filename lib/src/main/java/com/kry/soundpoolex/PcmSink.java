@@ -0,0 +1,26 @@
+package com.kry.soundpoolex;
+
+/**
+ * Output of the {@link MixerSoundPool}: receives blocks of interleaved 16-bit stereo frames.
+ */
+public interface PcmSink {
+    /**
+     * @return the output sample rate in Hz
+     */
+    int getSampleRate();
+
+    /**
+     * Writes the block of the mixed frames. The call may block to pace the mixer to the output.
+     *
+     * @param buffer
+     *         interleaved 16-bit stereo samples
+     * @param frames
+     *         the number of the frames in the buffer
+     */
+    void write(short[] buffer, int frames);
+
+    /**
+     * Releases the output resources. The sink can no longer be used.
+     */
+    void release();
+}
@@ -0,0 +1,169 @@
+package com.kry.soundpoolex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Serialised state of a {@link SoundPoolEx}: the reloadable sounds with their probed durations
+ * and the active streams with their timelines, see
+ * {@link SoundPoolEx#writeSnapshot(OutputStream)}.
+ * <p/>
+ * The format is a header ({@code int} magic, {@code short} version), the sounds (ID, source type,
+ * path, resource ID, priority, duration, probe status) and the streams (ID, sound ID, state, loop,
+ * rate, position, remaining time, volumes, priority).
+ */
+final class PlaybackSnapshot {
+    private static final int MAGIC = 0x53505853;
+    private static final int VERSION = 1;
+
+    int soundCount;
+    int[] soundIDs = new int[16];
+    int[] types = new int[16];
+    String[] paths = new String[16];
+    int[] resIds = new int[16];
+    int[] priorities = new int[16];
+    int[] durations = new int[16];
+    int[] probeStatuses = new int[16];
+
+    int streamCount;
+    int[] streamIDs = new int[8];
+    int[] streamSounds = new int[8];
+    int[] states = new int[8];
+    int[] loops = new int[8];
+    float[] rates = new float[8];
+    int[] positions = new int[8];
+    int[] remaining = new int[8];
+    float[] leftVolumes = new float[8];
+    float[] rightVolumes = new float[8];
+    int[] streamPriorities = new int[8];
+
+    void addSound(int soundID, int type, String path, int resId, int priority, int duration,
+            int probeStatus) {
+        if (soundCount == soundIDs.length) {
+            final int size = soundCount * 2;
+            soundIDs = Arrays.copyOf(soundIDs, size);
+            types = Arrays.copyOf(types, size);
+            paths = Arrays.copyOf(paths, size);
+            resIds = Arrays.copyOf(resIds, size);
+            priorities = Arrays.copyOf(priorities, size);
+            durations = Arrays.copyOf(durations, size);
+            probeStatuses = Arrays.copyOf(probeStatuses, size);
+        }
+        soundIDs[soundCount] = soundID;
+        types[soundCount] = type;
+        paths[soundCount] = path;
+        resIds[soundCount] = resId;
+        priorities[soundCount] = priority;
+        durations[soundCount] = duration;
+        probeStatuses[soundCount] = probeStatus;
+        soundCount++;
+    }
+
+    void addStream(int streamID, int soundID, int state, int loop, float rate, int position,
+            int remainingTime, float leftVolume, float rightVolume, int priority) {
+        if (streamCount == streamIDs.length) {
+            final int size = streamCount * 2;
+            streamIDs = Arrays.copyOf(streamIDs, size);
+            streamSounds = Arrays.copyOf(streamSounds, size);
+            states = Arrays.copyOf(states, size);
+            loops = Arrays.copyOf(loops, size);
+            rates = Arrays.copyOf(rates, size);
+            positions = Arrays.copyOf(positions, size);
+            remaining = Arrays.copyOf(remaining, size);
+            leftVolumes = Arrays.copyOf(leftVolumes, size);
+            rightVolumes = Arrays.copyOf(rightVolumes, size);
+            streamPriorities = Arrays.copyOf(streamPriorities, size);
+        }
+        streamIDs[streamCount] = streamID;
+        streamSounds[streamCount] = soundID;
+        states[streamCount] = state;
+        loops[streamCount] = loop;
+        rates[streamCount] = rate;
+        positions[streamCount] = position;
+        remaining[streamCount] = remainingTime;
+        leftVolumes[streamCount] = leftVolume;
+        rightVolumes[streamCount] = rightVolume;
+        streamPriorities[streamCount] = priority;
+        streamCount++;
+    }
+
+    /**
+     * Returns the sound indexes sorted by the descending priority, the equal priorities in the
+     * load order.
+     */
+    int[] getLoadOrder() {
+        final int[] order = new int[soundCount];
+        for (int i = 0; i < soundCount; i++) {
+            // insertion sort, the sound sets are small
+            int j = i;
+            while (j > 0 && priorities[order[j - 1]] < priorities[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return order;
+    }
+
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(soundCount);
+        for (int i = 0; i < soundCount; i++) {
+            data.writeInt(soundIDs[i]);
+            data.writeByte(types[i]);
+            data.writeUTF(paths[i] != null ? paths[i] : "");
+            data.writeInt(resIds[i]);
+            data.writeInt(priorities[i]);
+            data.writeInt(durations[i]);
+            data.writeByte(probeStatuses[i]);
+        }
+        data.writeInt(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            data.writeInt(streamIDs[i]);
+            data.writeInt(streamSounds[i]);
+            data.writeByte(states[i]);
+            data.writeInt(loops[i]);
+            data.writeFloat(rates[i]);
+            data.writeInt(positions[i]);
+            data.writeInt(remaining[i]);
+            data.writeFloat(leftVolumes[i]);
+            data.writeFloat(rightVolumes[i]);
+            data.writeInt(streamPriorities[i]);
+        }
+        data.flush();
+    }
+
+    static PlaybackSnapshot read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a playback snapshot");
+        int version = data.readShort();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+        PlaybackSnapshot snapshot = new PlaybackSnapshot();
+        final int sounds = data.readInt();
+        if (sounds < 0) throw new IOException("Malformed sound count " + sounds);
+        for (int i = 0; i < sounds; i++) {
+            final int soundID = data.readInt();
+            final int type = data.readByte();
+            final String path = data.readUTF();
+            snapshot.addSound(soundID, type, path, data.readInt(), data.readInt(),
+                    data.readInt(), data.readByte());
+        }
+        final int streams = data.readInt();
+        if (streams < 0) throw new IOException("Malformed stream count " + streams);
+        for (int i = 0; i < streams; i++) {
+            snapshot.addStream(data.readInt(), data.readInt(), data.readByte(), data.readInt(),
+                    data.readFloat(), data.readInt(), data.readInt(), data.readFloat(),
+                    data.readFloat(), data.readInt());
+        }
+        return snapshot;
+    }
+}
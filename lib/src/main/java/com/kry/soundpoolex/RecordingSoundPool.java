@@ -0,0 +1,391 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link ISoundPool} decorator which records every call into a compact binary trace, to be fed
+ * back with {@link CallTraceReplayer}. Wrap a {@link SoundPoolEx} to record the calls of the
+ * application.
+ * <p/>
+ * The trace starts with a header ({@code int} magic, {@code short} version), followed by the
+ * records: an op code byte, the time since the previous record in microseconds of the monotonic
+ * clock, and the arguments. Integers are written as variable length quantities (zigzag encoded
+ * where they may be negative), floats as 4 bytes. Loads record the returned sound ID and the
+ * duration (if the delegate is a SoundPoolEx), plays the returned stream ID, so the replayer can
+ * map them.
+ * <p/>
+ * Recording never fails the call: after an I/O error the recording stops and the error is
+ * logged.
+ */
+public class RecordingSoundPool implements SeekableSoundPool, Closeable {
+    private final static String TAG = "RecordingSoundPool";
+
+    static final int MAGIC = 0x53505854;
+    static final int VERSION = 1;
+
+    static final int OP_LOAD_PATH = 1;
+    static final int OP_LOAD_RESOURCE = 2;
+    static final int OP_LOAD_AFD = 3;
+    static final int OP_LOAD_FD = 4;
+    static final int OP_UNLOAD = 5;
+    static final int OP_PLAY = 6;
+    static final int OP_PAUSE = 7;
+    static final int OP_RESUME = 8;
+    static final int OP_AUTO_PAUSE = 9;
+    static final int OP_AUTO_RESUME = 10;
+    static final int OP_STOP = 11;
+    static final int OP_SET_VOLUME = 12;
+    static final int OP_SET_PRIORITY = 13;
+    static final int OP_SET_LOOP = 14;
+    static final int OP_SET_RATE = 15;
+    static final int OP_RELEASE = 16;
+    static final int OP_SEEK = 17;
+
+    private final ISoundPool mDelegate;
+    private final DataOutputStream mOut;
+    private long mLastTime;
+    private boolean mFailed;
+
+    /**
+     * Constructor. Writes the trace header.
+     *
+     * @param delegate
+     *         the recorded pool
+     * @param out
+     *         the trace output, closed by {@link #close()}
+     * @throws IOException
+     *         if the header can't be written
+     */
+    public RecordingSoundPool(ISoundPool delegate, OutputStream out) throws IOException {
+        mDelegate = delegate;
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mOut.writeInt(MAGIC);
+        mOut.writeShort(VERSION);
+        mLastTime = System.nanoTime();
+    }
+
+    /**
+     * Starts the record. Must be called under the lock of this instance.
+     */
+    private boolean begin(int op) {
+        return begin(op, System.nanoTime());
+    }
+
+    /**
+     * Starts the record of the call started at the given time. Must be called under the lock of
+     * this instance.
+     */
+    private boolean begin(int op, long time) {
+        if (mFailed) return false;
+        // concurrent calls may be recorded out of order
+        final long delta = Math.max(0, time - mLastTime);
+        try {
+            mOut.writeByte(op);
+            writeVarint(delta / 1000);
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+        mLastTime += delta;
+        return true;
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Recording stopped", e);
+        mFailed = true;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            mOut.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        mOut.writeByte((int) value);
+    }
+
+    private void writeSigned(int value) throws IOException {
+        writeVarint(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    private void recordLoad(int soundID, int priority) throws IOException {
+        writeVarint(soundID);
+        writeVarint(mDelegate instanceof SoundPoolEx ?
+                ((SoundPoolEx) mDelegate).getDuration(soundID) : 0);
+        writeSigned(priority);
+    }
+
+    private void recordStream(int op, int streamID) {
+        synchronized (this) {
+            if (!begin(op)) return;
+            try {
+                writeVarint(streamID);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void recordOp(int op) {
+        synchronized (this) {
+            begin(op);
+        }
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        final long start = System.nanoTime();
+        final int soundID = mDelegate.load(path, priority);
+        synchronized (this) {
+            if (begin(OP_LOAD_PATH, start)) {
+                try {
+                    recordLoad(soundID, priority);
+                    mOut.writeUTF(path);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return soundID;
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        final long start = System.nanoTime();
+        final int soundID = mDelegate.load(context, resId, priority);
+        synchronized (this) {
+            if (begin(OP_LOAD_RESOURCE, start)) {
+                try {
+                    recordLoad(soundID, priority);
+                    mOut.writeInt(resId);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return soundID;
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        final long start = System.nanoTime();
+        final int soundID = mDelegate.load(afd, priority);
+        synchronized (this) {
+            if (begin(OP_LOAD_AFD, start)) {
+                try {
+                    recordLoad(soundID, priority);
+                    writeVarint(afd.getStartOffset());
+                    writeVarint(afd.getLength());
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return soundID;
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        final long start = System.nanoTime();
+        final int soundID = mDelegate.load(fd, offset, length, priority);
+        synchronized (this) {
+            if (begin(OP_LOAD_FD, start)) {
+                try {
+                    recordLoad(soundID, priority);
+                    writeVarint(offset);
+                    writeVarint(length);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return soundID;
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        recordStream(OP_UNLOAD, soundID);
+        return mDelegate.unload(soundID);
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        final long start = System.nanoTime();
+        final int streamID = mDelegate.play(soundID, leftVolume, rightVolume, priority, loop,
+                rate);
+        synchronized (this) {
+            if (begin(OP_PLAY, start)) {
+                try {
+                    writeVarint(soundID);
+                    writeVarint(streamID);
+                    mOut.writeFloat(leftVolume);
+                    mOut.writeFloat(rightVolume);
+                    writeSigned(priority);
+                    writeSigned(loop);
+                    mOut.writeFloat(rate);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return streamID;
+    }
+
+    @Override
+    public void pause(int streamID) {
+        recordStream(OP_PAUSE, streamID);
+        mDelegate.pause(streamID);
+    }
+
+    @Override
+    public void resume(int streamID) {
+        recordStream(OP_RESUME, streamID);
+        mDelegate.resume(streamID);
+    }
+
+    @Override
+    public void autoPause() {
+        recordOp(OP_AUTO_PAUSE);
+        mDelegate.autoPause();
+    }
+
+    @Override
+    public void autoResume() {
+        recordOp(OP_AUTO_RESUME);
+        mDelegate.autoResume();
+    }
+
+    @Override
+    public void stop(int streamID) {
+        recordStream(OP_STOP, streamID);
+        mDelegate.stop(streamID);
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        synchronized (this) {
+            if (begin(OP_SET_VOLUME)) {
+                try {
+                    writeVarint(streamID);
+                    mOut.writeFloat(leftVolume);
+                    mOut.writeFloat(rightVolume);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        mDelegate.setVolume(streamID, leftVolume, rightVolume);
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        setVolume(streamID, volume, volume);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        synchronized (this) {
+            if (begin(OP_SET_PRIORITY)) {
+                try {
+                    writeVarint(streamID);
+                    writeSigned(priority);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        mDelegate.setPriority(streamID, priority);
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        synchronized (this) {
+            if (begin(OP_SET_LOOP)) {
+                try {
+                    writeVarint(streamID);
+                    writeSigned(loop);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        mDelegate.setLoop(streamID, loop);
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        synchronized (this) {
+            if (begin(OP_SET_RATE)) {
+                try {
+                    writeVarint(streamID);
+                    mOut.writeFloat(rate);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        mDelegate.setRate(streamID, rate);
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        synchronized (this) {
+            if (begin(OP_SEEK)) {
+                try {
+                    writeVarint(streamID);
+                    writeVarint(position);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+        return mDelegate instanceof SeekableSoundPool &&
+                ((SeekableSoundPool) mDelegate).seek(streamID, position);
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mDelegate.setOnLoadCompleteListener(listener);
+    }
+
+    @Override
+    public void release() {
+        recordOp(OP_RELEASE);
+        mDelegate.release();
+        flush();
+    }
+
+    /**
+     * Flushes the recorded calls to the output.
+     */
+    public synchronized void flush() {
+        if (mFailed) return;
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stops the recording and closes the output. The delegate is not released.
+     *
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mFailed = true;
+        mOut.close();
+    }
+}
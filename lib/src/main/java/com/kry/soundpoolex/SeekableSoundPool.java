@@ -0,0 +1,20 @@
+package com.kry.soundpoolex;
+
+/**
+ * Interface for SoundPool implementations which can move the playback position of a stream.
+ * SoundPool itself always plays the sounds from the start. The decorators of the library
+ * implement it and forward the seeks to their delegates which implement it.
+ */
+public interface SeekableSoundPool extends ISoundPool {
+    /**
+     * Moves the playback position of the stream within the current run of the sound.
+     *
+     * @param streamID
+     *         a streamID returned by the play() function
+     * @param position
+     *         the position in milliseconds of the sound
+     * @return true if the position is changed, false if the stream doesn't exist or the
+     * delegate of a decorator can't seek
+     */
+    boolean seek(int streamID, int position);
+}
@@ -0,0 +1,226 @@
+package com.kry.soundpoolex;
+
+import android.content.res.AssetFileDescriptor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Packed sound bank: a single file holding many encoded sounds. The file starts with an index
+ * which is memory-mapped on open, the encoded sounds follow it. Each entry is loaded through
+ * {@link SoundPoolEx#load(SoundBank, int, int)} from the one open file descriptor without any
+ * metadata probing.
+ * <p/>
+ * Layout (big-endian):
+ * <pre>
+ * int    magic 'SPXB'
+ * short  version
+ * short  reserved
+ * int    entry count
+ * int    index size (header, entries and names), the offset of the first sound
+ * entry[count]:
+ *   long   offset of the sound from the start of the bank
+ *   long   length of the sound
+ *   int    duration in milliseconds
+ *   int    sample rate
+ *   short  channel count
+ *   short  format, see AudioHeader FORMAT_ constants
+ *   int    offset of the name in the names table
+ * names: (short length, UTF-8 bytes) sorted by name
+ * </pre>
+ * Build banks with {@code com.kry.soundpoolex.tools.SoundBankBuilder} of the tools module.
+ */
+public final class SoundBank implements Closeable {
+    public static final int MAGIC = 0x53505842;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int ENTRY_SIZE = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileInputStream mStream;
+    /**
+     * Owner of the file descriptor, closed with the bank, may be null
+     */
+    private final Closeable mOwner;
+    /**
+     * Offset of the bank inside the file
+     */
+    private final long mBaseOffset;
+    private final MappedByteBuffer mIndex;
+    private final int mCount;
+    private final String[] mNames;
+
+    private SoundBank(FileInputStream stream, Closeable owner, long baseOffset, long length)
+            throws IOException {
+        mStream = stream;
+        mOwner = owner;
+        mBaseOffset = baseOffset;
+
+        FileChannel channel = stream.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, baseOffset + header.position()) < 0) {
+                throw new IOException("Truncated sound bank");
+            }
+        }
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a sound bank");
+        int version = header.getShort(4);
+        if (version != VERSION) throw new IOException("Unsupported sound bank version " + version);
+        mCount = header.getInt(8);
+        int indexSize = header.getInt(12);
+        if (indexSize > length) throw new IOException("Truncated sound bank");
+
+        mIndex = channel.map(FileChannel.MapMode.READ_ONLY, baseOffset, indexSize);
+
+        int namesOffset = HEADER_SIZE + mCount * ENTRY_SIZE;
+        mNames = new String[mCount];
+        for (int i = 0; i < mCount; i++) {
+            int nameOffset = namesOffset + mIndex.getInt(entry(i) + 28);
+            int nameLength = mIndex.getShort(nameOffset) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = mIndex.get(nameOffset + 2 + j);
+            }
+            mNames[i] = new String(name, UTF_8);
+        }
+    }
+
+    /**
+     * Opens the sound bank file.
+     *
+     * @param file
+     *         the bank file
+     * @return the opened bank
+     * @throws IOException
+     *         if the file can't be read or is not a sound bank
+     */
+    public static SoundBank open(File file) throws IOException {
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            return new SoundBank(stream, null, 0, file.length());
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the sound bank stored in an uncompressed asset or a raw resource. The bank takes the
+     * ownership of the asset file descriptor and closes it in {@link #close()}.
+     *
+     * @param afd
+     *         an asset file descriptor
+     * @return the opened bank
+     * @throws IOException
+     *         if the bank can't be read
+     */
+    public static SoundBank open(AssetFileDescriptor afd) throws IOException {
+        FileInputStream stream = new FileInputStream(afd.getFileDescriptor());
+        try {
+            return new SoundBank(stream, afd, afd.getStartOffset(), afd.getLength());
+        } catch (IOException e) {
+            afd.close();
+            throw e;
+        }
+    }
+
+    private static int entry(int index) {
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    /**
+     * @return the file descriptor of the bank to load the entries from
+     */
+    public FileDescriptor getFileDescriptor() throws IOException {
+        return mStream.getFD();
+    }
+
+    /**
+     * @return the number of the entries
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the index of the entry with the given name.
+     *
+     * @param name
+     *         the entry name
+     * @return the index of the entry or -1 if the bank has no such entry
+     */
+    public int indexOf(String name) {
+        int index = Arrays.binarySearch(mNames, name);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @return the name of the entry
+     */
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * @return offset of the entry from the start of the file
+     */
+    public long getOffset(int index) {
+        return mBaseOffset + mIndex.getLong(entry(index));
+    }
+
+    /**
+     * @return length of the entry
+     */
+    public long getLength(int index) {
+        return mIndex.getLong(entry(index) + 8);
+    }
+
+    /**
+     * @return the duration of the entry in milliseconds
+     */
+    public int getDuration(int index) {
+        return mIndex.getInt(entry(index) + 16);
+    }
+
+    /**
+     * @return the sample rate of the entry in Hz
+     */
+    public int getSampleRate(int index) {
+        return mIndex.getInt(entry(index) + 20);
+    }
+
+    /**
+     * @return the channel count of the entry
+     */
+    public int getChannelCount(int index) {
+        return mIndex.getShort(entry(index) + 24);
+    }
+
+    /**
+     * @return the format of the entry, one of the AudioHeader FORMAT_ constants
+     */
+    public int getFormat(int index) {
+        return mIndex.getShort(entry(index) + 26);
+    }
+
+    /**
+     * Closes the bank file. Sounds already loaded from the bank stay loaded.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            mStream.close();
+        } finally {
+            if (mOwner != null) mOwner.close();
+        }
+    }
+}
@@ -10,13 +10,25 @@ public class SoundBundle {
     private final int streamID;
     private final int soundID;
     private final int duration;
+    private final SoundClock clock;
     private boolean playing;
     private long startPlayingTime;
     private volatile long endPlayingTime;
     private long onPauseTime;
+    /**
+     * True if the stream was paused by the auto pause, only these streams are auto resumed
+     */
+    private boolean autoPaused;
     private int loop;
     private float rate;
     private volatile int nonPlayedTime;
+    private float leftVolume = 1f;
+    private float rightVolume = 1f;
+    private int priority;
+    /**
+     * Slot of the stream handle, -1 if the stream has no handle
+     */
+    private int slot = -1;
 
     /**
      * Creates SoundBundle from soundID and stores duration into.
@@ -27,11 +39,14 @@ public class SoundBundle {
      *         a soundID returned by the SoundPoolEx.load() function
      * @param duration
      *         a duration in milliseconds
+     * @param clock
+     *         the time source of the playing timeline
      */
-    SoundBundle(int streamID, int soundID, int duration) {
+    SoundBundle(int streamID, int soundID, int duration, SoundClock clock) {
         this.streamID = streamID;
         this.soundID = soundID;
         this.duration = duration;
+        this.clock = clock;
 
         //default rate
         this.rate = 1f;
@@ -46,11 +61,25 @@ public class SoundBundle {
      *         playback rate
      */
     protected void play(int loop, float rate) {
+        play(loop, rate, clock.currentTimeMillis());
+    }
+
+    /**
+     * Stores the playing state started at the given time, e.g. shared by the layers of a group
+     *
+     * @param loop
+     *         loop mode (0 = no loop, -1 = loop forever)
+     * @param rate
+     *         playback rate
+     * @param now
+     *         the start time of the timeline, read from the clock of the bundle
+     */
+    void play(int loop, float rate, long now) {
         if (isPlaying()) stop();
         this.loop = loop;
         this.rate = rate;
         nonPlayedTime = 0;
-        startPlayingTime = System.currentTimeMillis();
+        startPlayingTime = now;
         if (loop >= 0) {
             endPlayingTime = startPlayingTime + getDuration();
         }
@@ -63,16 +92,116 @@ public class SoundBundle {
      * @return true if currently playing, false otherwise
      */
     protected boolean isPlaying() {
+        if (!playing) return false;
+        if (loop == -1) return true;
+        return isPlaying(clock.currentTimeMillis());
+    }
+
+    /**
+     * Returns the playing state at the given time of the clock, e.g. to query many bundles with
+     * a single clock read.
+     *
+     * @param now
+     *         the current time of the clock
+     * @return true if currently playing, false otherwise
+     */
+    protected boolean isPlaying(long now) {
         if (!playing) return false;
         if (loop == -1) return true;
         //check if playing time is over
-        if (System.currentTimeMillis() >= endPlayingTime) {
+        if (now >= endPlayingTime) {
             stop();
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns the paused state stored in the SoundBundle
+     *
+     * @return true if paused, false otherwise
+     */
+    protected boolean isPaused() {
+        return !playing && onPauseTime > 0;
+    }
+
+    /**
+     * Checks whether the stream is over: stopped or played to the end.
+     *
+     * @param now
+     *         the current time of the clock
+     * @return true if the stream is neither playing nor paused
+     */
+    protected boolean isFinished(long now) {
+        return !isPlaying(now) && onPauseTime == 0;
+    }
+
+    /**
+     * Returns the playing time left.
+     *
+     * @param now
+     *         the current time of the clock
+     * @return the time in milliseconds, -1 if playback mode is infinity loop, 0 if stopped
+     */
+    protected long getRemainingTime(long now) {
+        if (isPlaying(now)) return loop < 0 ? -1 : endPlayingTime - now;
+        if (!isPaused()) return 0;
+        return loop < 0 ? -1 : Math.max(0, endPlayingTime - onPauseTime);
+    }
+
+    /**
+     * Stores the stream volume in the SoundBundle
+     *
+     * @param leftVolume
+     *         left volume value (range = 0.0 to 1.0)
+     * @param rightVolume
+     *         right volume value (range = 0.0 to 1.0)
+     */
+    protected void setVolume(float leftVolume, float rightVolume) {
+        this.leftVolume = leftVolume;
+        this.rightVolume = rightVolume;
+    }
+
+    protected float getLeftVolume() {
+        return leftVolume;
+    }
+
+    protected float getRightVolume() {
+        return rightVolume;
+    }
+
+    /**
+     * Stores the stream priority in the SoundBundle
+     *
+     * @param priority
+     *         stream priority (0 = lowest priority)
+     */
+    protected void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    protected int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the playback rate
+     *
+     * @return the playback rate (1.0 = normal playback)
+     */
+    protected float getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the loop mode
+     *
+     * @return the loop mode (0 = no loop, -1 = loop forever)
+     */
+    protected int getLoop() {
+        return loop;
+    }
+
     /**
      * Stores the stopped state in the SoundBundle
      */
@@ -83,6 +212,7 @@ public class SoundBundle {
         startPlayingTime = 0;
         endPlayingTime = 0;
         onPauseTime = 0;
+        autoPaused = false;
     }
 
     /**
@@ -101,16 +231,37 @@ public class SoundBundle {
     protected void pause() {
         if (isPlaying()) {
             playing = false;
-            onPauseTime = System.currentTimeMillis();
+            onPauseTime = clock.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stores the paused state of the auto pause in the SoundBundle, a stream which isn't playing
+     * is left as is
+     */
+    protected void autoPause() {
+        if (isPlaying()) {
+            pause();
+            autoPaused = true;
         }
     }
 
+    /**
+     * Resumes the stream if it was paused by the auto pause, like SoundPool the streams paused by
+     * the caller stay paused
+     */
+    protected void autoResume() {
+        if (autoPaused) resume();
+    }
+
     /**
      * Stores the resumed (playing) state in the SoundBundle
      */
     protected void resume() {
-        if (onPauseTime > 0 && endPlayingTime > 0 && !isPlaying()) {
-            final long now = System.currentTimeMillis();
+        autoPaused = false;
+        // an infinite loop has no end time
+        if (onPauseTime > 0 && (loop < 0 || endPlayingTime > 0) && !isPlaying()) {
+            final long now = clock.currentTimeMillis();
             nonPlayedTime += (now - onPauseTime);
             if (loop >= 0) {
                 endPlayingTime = now + (endPlayingTime - onPauseTime);
@@ -148,6 +299,14 @@ public class SoundBundle {
         return streamID;
     }
 
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
     /**
      * Returns the soundID
      *
@@ -190,7 +349,7 @@ public class SoundBundle {
         //duration of the sound when the new rate
         int newSingleRunDuration = (int) (duration / newRate);
 
-        long now = System.currentTimeMillis();
+        long now = clock.currentTimeMillis();
 
         int playedTime = getPlayedTime(now);
 
@@ -247,6 +406,58 @@ public class SoundBundle {
         return (int) ((timestamp - startPlayingTime) - nonPlayedTime);
     }
 
+    /**
+     * Returns the time played from the start of the timeline, summed over the runs.
+     *
+     * @return the time in milliseconds of the sound, 0 if the sound is stopped
+     */
+    long getPlayedTime() {
+        if (startPlayingTime == 0) return 0;
+        final int playedTime = getPlayedTime(playing ? clock.currentTimeMillis() : onPauseTime);
+        return playedTime > 0 ? (long) (playedTime * rate) : 0;
+    }
+
+    /**
+     * Returns the playback position within the current run of the sound.
+     *
+     * @return the position in milliseconds of the sound, 0 if the sound is stopped or the duration
+     * is unknown
+     */
+    protected int getPosition() {
+        return getPosition(playing ? clock.currentTimeMillis() : onPauseTime);
+    }
+
+    /**
+     * Returns the playback position within the current run of the sound at the given time.
+     *
+     * @param now
+     *         the current time of the clock
+     * @return the position in milliseconds of the sound, 0 if the sound is stopped or the duration
+     * is unknown
+     */
+    protected int getPosition(long now) {
+        if (startPlayingTime == 0 || duration == 0) return 0;
+        final int singleRunDuration = getSingleRunDuration();
+        if (singleRunDuration == 0) return 0;
+        final int playedTime = getPlayedTime(playing ? now : onPauseTime);
+        if (playedTime <= 0) return 0;
+        return (int) (playedTime % singleRunDuration * rate);
+    }
+
+    /**
+     * Moves the timeline so the current run is played from the position, e.g. after the stream
+     * is restarted from the middle of the sound.
+     *
+     * @param position
+     *         the position in milliseconds of the sound
+     */
+    protected void seek(int position) {
+        if (startPlayingTime == 0 || duration == 0) return;
+        final int shift = (int) (position / rate) - (int) (getPosition() / rate);
+        startPlayingTime -= shift;
+        if (endPlayingTime > 0) endPlayingTime -= shift;
+    }
+
     public void setLoop(int loop) {
         int newLoop;
         if (loop < -1) {
@@ -0,0 +1,23 @@
+package com.kry.soundpoolex;
+
+/**
+ * Time source of the playing timelines. The default {@link #SYSTEM} clock is the wall clock; a
+ * virtual clock lets simulations run hours of playback in seconds, see {@link
+ * SoundPoolEx#setClock(SoundClock)}.
+ */
+public interface SoundClock {
+    /**
+     * Wall clock, {@link System#currentTimeMillis()}
+     */
+    SoundClock SYSTEM = new SoundClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * @return the current time in milliseconds
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,154 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Index of the sounds metadata generated at build time by the {@code generateSoundManifest} task
+ * (see {@code soundmanifest.gradle}). Raw resources are keyed as {@code raw/<entry name>}, assets
+ * by their path relative to the assets directory.
+ */
+public final class SoundManifest {
+    /**
+     * Name of the asset the manifest is generated into
+     */
+    public static final String ASSET_NAME = "soundpoolex.manifest";
+
+    private static final int MAGIC = 0x5350584D;
+    private static final int VERSION = 1;
+    private static final String RAW_PREFIX = "raw/";
+
+    /**
+     * Keys sorted in the order of the generator
+     */
+    private final String[] mKeys;
+    private final int[] mDurations;
+    private final int[] mSampleRates;
+    private final byte[] mChannels;
+    private final long[] mDecodedSizes;
+
+    private SoundManifest(int count) {
+        mKeys = new String[count];
+        mDurations = new int[count];
+        mSampleRates = new int[count];
+        mChannels = new byte[count];
+        mDecodedSizes = new long[count];
+    }
+
+    /**
+     * Reads the manifest from the application assets.
+     *
+     * @param context
+     *         the application context
+     * @return the manifest
+     * @throws IOException
+     *         if the manifest asset is missing or malformed
+     */
+    public static SoundManifest open(Context context) throws IOException {
+        InputStream in = context.getAssets().open(ASSET_NAME);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the manifest from the stream. The stream is not closed.
+     *
+     * @param in
+     *         the stream with the manifest data
+     * @return the manifest
+     * @throws IOException
+     *         if the data is malformed
+     */
+    public static SoundManifest read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a sound manifest");
+        int version = data.readShort();
+        if (version != VERSION) throw new IOException("Unsupported manifest version " + version);
+
+        int count = data.readInt();
+        SoundManifest manifest = new SoundManifest(count);
+        for (int i = 0; i < count; i++) {
+            manifest.mKeys[i] = data.readUTF();
+            manifest.mDurations[i] = data.readInt();
+            manifest.mSampleRates[i] = data.readInt();
+            manifest.mChannels[i] = data.readByte();
+            manifest.mDecodedSizes[i] = data.readLong();
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the index of the entry with the given key.
+     *
+     * @param key
+     *         {@code raw/<entry name>} or the asset path
+     * @return the index of the entry or -1 if the manifest has no such entry
+     */
+    public int indexOf(String key) {
+        int index = Arrays.binarySearch(mKeys, key);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Returns the index of the entry of the raw resource.
+     *
+     * @param context
+     *         the application context
+     * @param resId
+     *         the resource ID
+     * @return the index of the entry or -1 if the manifest has no such entry
+     */
+    public int indexOf(Context context, int resId) {
+        return indexOf(RAW_PREFIX + context.getResources().getResourceEntryName(resId));
+    }
+
+    /**
+     * @return the number of the entries
+     */
+    public int size() {
+        return mKeys.length;
+    }
+
+    /**
+     * @return the key of the entry
+     */
+    public String getKey(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * @return the duration of the entry in milliseconds
+     */
+    public int getDuration(int index) {
+        return mDurations[index];
+    }
+
+    /**
+     * @return the sample rate of the entry in Hz
+     */
+    public int getSampleRate(int index) {
+        return mSampleRates[index];
+    }
+
+    /**
+     * @return the channel count of the entry
+     */
+    public int getChannelCount(int index) {
+        return mChannels[index];
+    }
+
+    /**
+     * @return the estimated size of the entry decoded to 16-bit PCM, in bytes
+     */
+    public long getDecodedSize(int index) {
+        return mDecodedSizes[index];
+    }
+}
@@ -0,0 +1,313 @@
+package com.kry.soundpoolex;
+
+import java.util.Arrays;
+
+/**
+ * Metadata of the sounds loaded into a {@link SoundPoolEx}: the duration, the stream parameters
+ * read from the file header in the probe pass, the estimated decoded size, the source identity
+ * and the load timestamps, see {@link SoundPoolEx#getMetadata()}. The values are stored in
+ * primitive arrays indexed by an open addressing table of the soundIDs, so the queries are
+ * constant time and don't allocate.
+ * <p/>
+ * The stream parameters are read from the headers of the WAV, Ogg and MP3 sounds, or taken from
+ * the records of a {@link SoundManifest} or a {@link SoundBank}; they are 0 for other formats.
+ * The manifest doesn't record the format and the bitrate, the bitrate of a bank entry is the
+ * average of its encoded length. Thread-safe.
+ */
+public final class SoundMetadata {
+    private int[] mKeys = new int[32];
+    private int[] mDurations = new int[32];
+    private int[] mFormats = new int[32];
+    private int[] mSampleRates = new int[32];
+    private int[] mChannels = new int[32];
+    private int[] mBitrates = new int[32];
+    private long[] mDecodedSizes = new long[32];
+    private int[] mSourceTypes = new int[32];
+    private String[] mSourceNames = new String[32];
+    private int[] mResIds = new int[32];
+    private long[] mLoadTimes = new long[32];
+    private long[] mLoadCompleteTimes = new long[32];
+    private int mSize;
+    private long mTotalDecodedSize;
+
+    SoundMetadata() {
+    }
+
+    /**
+     * Registers the sound, replacing the previous metadata of the soundID.
+     *
+     * @param header
+     *         the header read in the probe pass or null
+     * @param source
+     *         the source of the sound or null
+     * @param loadTime
+     *         the time the load was submitted
+     */
+    synchronized void put(int soundID, int duration, AudioHeader header, SoundSource source,
+            long loadTime) {
+        if (soundID <= 0) return;
+        if ((mSize + 1) * 2 > mKeys.length) resize(mKeys.length * 2);
+        int slot = find(soundID);
+        if (slot < 0) {
+            slot = -slot - 1;
+            mKeys[slot] = soundID;
+            mLoadCompleteTimes[slot] = 0;
+            mSize++;
+        } else {
+            // the load completed before the registration, keeps the time
+            mTotalDecodedSize -= mDecodedSizes[slot];
+        }
+        mDurations[slot] = duration;
+        mFormats[slot] = header != null ? header.getFormat() : AudioHeader.FORMAT_UNKNOWN;
+        mSampleRates[slot] = header != null ? header.getSampleRate() : 0;
+        mChannels[slot] = header != null ? header.getChannelCount() : 0;
+        mBitrates[slot] = header != null ? header.getBitrate() : 0;
+        mDecodedSizes[slot] = header != null ? header.getDecodedSize() : 0;
+        mSourceTypes[slot] = source != null ? source.getType() : 0;
+        mSourceNames[slot] = source != null ? source.getPath() : null;
+        mResIds[slot] = source != null ? source.getResId() : 0;
+        mLoadTimes[slot] = loadTime;
+        mTotalDecodedSize += mDecodedSizes[slot];
+    }
+
+    /**
+     * Records the completion of the load. A load may complete on the loader thread before the
+     * sound is registered, then the sound is added with the time only.
+     */
+    synchronized void setLoadCompleteTime(int soundID, long time) {
+        if (soundID <= 0) return;
+        if ((mSize + 1) * 2 > mKeys.length) resize(mKeys.length * 2);
+        int slot = find(soundID);
+        if (slot < 0) {
+            slot = -slot - 1;
+            mKeys[slot] = soundID;
+            mDurations[slot] = 0;
+            mFormats[slot] = AudioHeader.FORMAT_UNKNOWN;
+            mSampleRates[slot] = 0;
+            mChannels[slot] = 0;
+            mBitrates[slot] = 0;
+            mDecodedSizes[slot] = 0;
+            mSourceTypes[slot] = 0;
+            mSourceNames[slot] = null;
+            mResIds[slot] = 0;
+            mLoadTimes[slot] = 0;
+            mSize++;
+        }
+        mLoadCompleteTimes[slot] = time;
+    }
+
+    synchronized void remove(int soundID) {
+        int slot = find(soundID);
+        if (slot < 0) return;
+        mTotalDecodedSize -= mDecodedSizes[slot];
+        mSize--;
+        // backward shift deletion keeps the probe sequences unbroken
+        final int mask = mKeys.length - 1;
+        int next = (slot + 1) & mask;
+        while (mKeys[next] != 0) {
+            final int home = hash(mKeys[next]) & mask;
+            // moves the entry if its home isn't cyclically in (slot, next]
+            if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+                move(next, slot);
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[slot] = 0;
+        mSourceNames[slot] = null;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(mKeys, 0);
+        Arrays.fill(mSourceNames, null);
+        mSize = 0;
+        mTotalDecodedSize = 0;
+    }
+
+    /**
+     * @return the slot of the soundID or -(insertion slot + 1) if it's missing
+     */
+    private int find(int soundID) {
+        final int mask = mKeys.length - 1;
+        int slot = hash(soundID) & mask;
+        while (mKeys[slot] != 0) {
+            if (mKeys[slot] == soundID) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private static int hash(int key) {
+        // the soundIDs are mostly sequential, spread them over the table
+        return key * 0x9E3779B9 >>> 16;
+    }
+
+    private void move(int from, int to) {
+        mKeys[to] = mKeys[from];
+        mDurations[to] = mDurations[from];
+        mFormats[to] = mFormats[from];
+        mSampleRates[to] = mSampleRates[from];
+        mChannels[to] = mChannels[from];
+        mBitrates[to] = mBitrates[from];
+        mDecodedSizes[to] = mDecodedSizes[from];
+        mSourceTypes[to] = mSourceTypes[from];
+        mSourceNames[to] = mSourceNames[from];
+        mResIds[to] = mResIds[from];
+        mLoadTimes[to] = mLoadTimes[from];
+        mLoadCompleteTimes[to] = mLoadCompleteTimes[from];
+    }
+
+    private void resize(int capacity) {
+        final int[] keys = mKeys;
+        final int[] durations = mDurations;
+        final int[] formats = mFormats;
+        final int[] sampleRates = mSampleRates;
+        final int[] channels = mChannels;
+        final int[] bitrates = mBitrates;
+        final long[] decodedSizes = mDecodedSizes;
+        final int[] sourceTypes = mSourceTypes;
+        final String[] sourceNames = mSourceNames;
+        final int[] resIds = mResIds;
+        final long[] loadTimes = mLoadTimes;
+        final long[] loadCompleteTimes = mLoadCompleteTimes;
+        mKeys = new int[capacity];
+        mDurations = new int[capacity];
+        mFormats = new int[capacity];
+        mSampleRates = new int[capacity];
+        mChannels = new int[capacity];
+        mBitrates = new int[capacity];
+        mDecodedSizes = new long[capacity];
+        mSourceTypes = new int[capacity];
+        mSourceNames = new String[capacity];
+        mResIds = new int[capacity];
+        mLoadTimes = new long[capacity];
+        mLoadCompleteTimes = new long[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == 0) continue;
+            final int slot = -find(keys[i]) - 1;
+            mKeys[slot] = keys[i];
+            mDurations[slot] = durations[i];
+            mFormats[slot] = formats[i];
+            mSampleRates[slot] = sampleRates[i];
+            mChannels[slot] = channels[i];
+            mBitrates[slot] = bitrates[i];
+            mDecodedSizes[slot] = decodedSizes[i];
+            mSourceTypes[slot] = sourceTypes[i];
+            mSourceNames[slot] = sourceNames[i];
+            mResIds[slot] = resIds[i];
+            mLoadTimes[slot] = loadTimes[i];
+            mLoadCompleteTimes[slot] = loadCompleteTimes[i];
+        }
+    }
+
+    /**
+     * @return true if the soundID is registered
+     */
+    public synchronized boolean contains(int soundID) {
+        return find(soundID) >= 0;
+    }
+
+    /**
+     * @return the number of the registered sounds
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the duration in milliseconds or 0 if unknown
+     */
+    public synchronized int getDuration(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mDurations[slot] : 0;
+    }
+
+    /**
+     * @return one of the AudioHeader FORMAT_ constants
+     */
+    public synchronized int getFormat(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mFormats[slot] : AudioHeader.FORMAT_UNKNOWN;
+    }
+
+    /**
+     * @return the sample rate in Hz or 0 if unknown
+     */
+    public synchronized int getSampleRate(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mSampleRates[slot] : 0;
+    }
+
+    /**
+     * @return the number of the channels or 0 if unknown
+     */
+    public synchronized int getChannelCount(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mChannels[slot] : 0;
+    }
+
+    /**
+     * @return the bitrate in bits per second or 0 if unknown
+     */
+    public synchronized int getBitrate(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mBitrates[slot] : 0;
+    }
+
+    /**
+     * @return the estimated size of the sound decoded to 16-bit PCM in bytes, 0 if unknown
+     */
+    public synchronized long getDecodedSize(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mDecodedSizes[slot] : 0;
+    }
+
+    /**
+     * @return the sum of the known decoded sizes of the registered sounds in bytes
+     */
+    public synchronized long getTotalDecodedSize() {
+        return mTotalDecodedSize;
+    }
+
+    /**
+     * @return one of the SoundSource TYPE_ constants or 0 for the file descriptor and bank loads
+     */
+    public synchronized int getSourceType(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mSourceTypes[slot] : 0;
+    }
+
+    /**
+     * @return the file path, the asset path or the URI of the source, see {@link
+     * SoundSource#getPath()}, null for other sources
+     */
+    public synchronized String getSourceName(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mSourceNames[slot] : null;
+    }
+
+    /**
+     * @return the raw resource ID of the source or 0 for other sources
+     */
+    public synchronized int getResId(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mResIds[slot] : 0;
+    }
+
+    /**
+     * @return the time the load was submitted, from the clock of the pool
+     */
+    public synchronized long getLoadTime(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mLoadTimes[slot] : 0;
+    }
+
+    /**
+     * @return the time the sound became playable, from the clock of the pool, or 0 if the load
+     * isn't completed
+     */
+    public synchronized long getLoadCompleteTime(int soundID) {
+        final int slot = find(soundID);
+        return slot >= 0 ? mLoadCompleteTimes[slot] : 0;
+    }
+}
@@ -8,6 +8,8 @@ import android.media.SoundPool;
 import android.os.Build;
 
 import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SoundPoolAdapter implements ISoundPool {
 
@@ -33,7 +35,7 @@ public class SoundPoolAdapter implements ISoundPool {
     /**
      * Constructor. Constructs a SoundPoolAdapter object from an existing SoundPool object.
      */
-    private SoundPoolAdapter(SoundPool soundPoolImpl) {
+    SoundPoolAdapter(SoundPool soundPoolImpl) {
         mSoundPoolImpl = soundPoolImpl;
     }
 
@@ -139,6 +141,7 @@ public class SoundPoolAdapter implements ISoundPool {
     @TargetApi (Build.VERSION_CODES.LOLLIPOP)
     public static class Builder {
         private final SoundPool.Builder mBuilderImpl;
+        private final List<SoundPoolInterceptor> mInterceptors = new ArrayList<>();
 
         /**
          * Constructs a new Builder with the defaults format values. If not provided, the maximum
@@ -178,10 +181,132 @@ public class SoundPoolAdapter implements ISoundPool {
             return this;
         }
 
+        /**
+         * Adds a layer over the adapter, see {@link SoundPoolInterceptor}. The layers are called
+         * in the order they are added, see {@link #build()}.
+         *
+         * @param interceptor
+         *         the interceptor
+         * @return the same Builder instance
+         */
+        public Builder addInterceptor(SoundPoolInterceptor interceptor) {
+            mInterceptors.add(interceptor);
+            return this;
+        }
+
+        /**
+         * Builds the adapter. Its calls go through the added interceptors, the first added is
+         * called first; with no layer in the chain the calls go straight to the SoundPool.
+         *
+         * @return the adapter
+         */
         public SoundPoolAdapter build() {
-            SoundPool soundPool = mBuilderImpl.build();
-            return new SoundPoolAdapter(soundPool);
+            final SoundPoolAdapter adapter = new SoundPoolAdapter(mBuilderImpl.build());
+            final ISoundPool chain = ForwardingSoundPool.chain(adapter, mInterceptors);
+            return chain == adapter ? adapter : new ChainedAdapter(adapter, chain);
         }
     }
 
+    /**
+     * Adapter which calls the interceptor chain over the plain adapter of the same SoundPool.
+     */
+    private static final class ChainedAdapter extends SoundPoolAdapter {
+        private final ISoundPool mChain;
+
+        ChainedAdapter(SoundPoolAdapter adapter, ISoundPool chain) {
+            super(adapter.mSoundPoolImpl);
+            mChain = chain;
+        }
+
+        @Override
+        public int load(String path, int priority) {
+            return mChain.load(path, priority);
+        }
+
+        @Override
+        public int load(Context context, int resId, int priority) {
+            return mChain.load(context, resId, priority);
+        }
+
+        @Override
+        public int load(AssetFileDescriptor afd, int priority) {
+            return mChain.load(afd, priority);
+        }
+
+        @Override
+        public int load(FileDescriptor fd, long offset, long length, int priority) {
+            return mChain.load(fd, offset, length, priority);
+        }
+
+        @Override
+        public boolean unload(int soundID) {
+            return mChain.unload(soundID);
+        }
+
+        @Override
+        public int play(int soundID, float leftVolume, float rightVolume, int priority,
+                int loop, float rate) {
+            return mChain.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        }
+
+        @Override
+        public void pause(int streamID) {
+            mChain.pause(streamID);
+        }
+
+        @Override
+        public void resume(int streamID) {
+            mChain.resume(streamID);
+        }
+
+        @Override
+        public void autoPause() {
+            mChain.autoPause();
+        }
+
+        @Override
+        public void autoResume() {
+            mChain.autoResume();
+        }
+
+        @Override
+        public void stop(int streamID) {
+            mChain.stop(streamID);
+        }
+
+        @Override
+        public void setVolume(int streamID, float leftVolume, float rightVolume) {
+            mChain.setVolume(streamID, leftVolume, rightVolume);
+        }
+
+        @Override
+        public void setVolume(int streamID, float volume) {
+            mChain.setVolume(streamID, volume);
+        }
+
+        @Override
+        public void setPriority(int streamID, int priority) {
+            mChain.setPriority(streamID, priority);
+        }
+
+        @Override
+        public void setLoop(int streamID, int loop) {
+            mChain.setLoop(streamID, loop);
+        }
+
+        @Override
+        public void setRate(int streamID, float rate) {
+            mChain.setRate(streamID, rate);
+        }
+
+        @Override
+        public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+            mChain.setOnLoadCompleteListener(listener);
+        }
+
+        @Override
+        public void release() {
+            mChain.release();
+        }
+    }
 }
@@ -2,33 +2,190 @@ package com.kry.soundpoolex;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
 import android.media.AudioAttributes;
 import android.media.AudioManager;
-import android.media.MediaMetadataRetriever;
 import android.media.SoundPool;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
+import android.util.Pair;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The SoundPoolEx extender adds methods {@link #getDuration(int)} and {@link #isPlaying(int)} .
  */
-public class SoundPoolEx implements ISoundPool {
+public class SoundPoolEx implements SeekableSoundPool {
     private final static String TAG = "SoundPoolEx";
-    private final SoundPool mDelegate;
+
+    /**
+     * Stream states of {@link #getStreamStates(int[])}
+     */
+    public static final int STREAM_PLAYING = 1;
+    public static final int STREAM_PAUSED = 2;
+
+    /**
+     * Layout of a stream in the {@link #getStreamStates(int[])} buffer
+     */
+    public static final int STREAM_STATE_STREAM_ID = 0;
+    public static final int STREAM_STATE_SOUND_ID = 1;
+    public static final int STREAM_STATE_STATE = 2;
+    public static final int STREAM_STATE_POSITION = 3;
+    public static final int STREAM_STATE_REMAINING = 4;
+    public static final int STREAM_STATE_LOOP = 5;
+    public static final int STREAM_STATE_SIZE = 6;
+
+    /**
+     * Handle which is never valid, returned by {@link #playHandle(int, float, float, int, int,
+     * float)} when the sound isn't played
+     */
+    public static final long INVALID_HANDLE = 0;
+
+    private static final int MIN_PRUNE_THRESHOLD = 64;
+
+    private final ISoundPool mDelegate;
     /**
-     * Sound IDs '<'SoundID, Duration'>'
+     * Sound IDs '<'SoundID, Duration'>', guarded by itself as the sounds may be loaded from a
+     * background thread, see {@link LoadScheduler}
      */
     private final SparseIntArray mSoundIds;
     /**
-     * Stream IDs '<'StreamID, SoundBundle'>'
+     * Duration probe outcomes '<'SoundID, DurationProber status'>', guarded by mSoundIds
+     */
+    private final SparseIntArray mProbeStatuses = new SparseIntArray();
+    /**
+     * Reloadable sources '<'SoundID, SoundSource'>' and their priorities, guarded by mSoundIds
+     */
+    private final SparseArray<SoundSource> mSources = new SparseArray<>();
+    private final SparseIntArray mPriorities = new SparseIntArray();
+    /**
+     * Pinned files of the sounds loaded from the {@link PcmCache} '<'SoundID, (cache, file)'>',
+     * guarded by mSoundIds
+     */
+    private final SparseArray<Pair<PcmCache, File>> mPcmPins = new SparseArray<>();
+    /**
+     * IDs of the snapshot to the restored IDs, guarded by mSoundIds
+     */
+    private final SparseIntArray mRestoredSounds = new SparseIntArray();
+    private final SparseIntArray mRestoredStreams = new SparseIntArray();
+    /**
+     * Streams of the snapshot waiting for their sounds to be loaded, guarded by mSoundIds
+     */
+    private ArrayList<PendingStream> mPendingStreams;
+    /**
+     * Loads completed while the snapshot sounds are submitted '<'SoundID, status'>', guarded by
+     * mSoundIds
+     */
+    private SparseIntArray mRestoreCompletions;
+    /**
+     * Stream IDs '<'StreamID, SoundBundle'>', guarded by itself as the states may be queried from
+     * a reader thread
      */
     private final SparseArray<SoundBundle> mStreamIds;
+    /**
+     * Size of mStreamIds which triggers the pruning of the finished streams, guarded by mStreamIds
+     */
+    private int mPruneThreshold = MIN_PRUNE_THRESHOLD;
+    /**
+     * Slots of the streams played with a handle, guarded by mStreamIds
+     */
+    private final StreamHandles mHandles = new StreamHandles();
+    /**
+     * Stream groups of {@link #playAll} '<'GroupID, StreamIDs'>', guarded by mStreamIds
+     */
+    private final SparseArray<int[]> mGroups = new SparseArray<>();
+    private int mNextGroupID = 1;
+    /**
+     * StreamIDs rejected by an {@link AsyncSoundPool} delegate before they were registered,
+     * guarded by mStreamIds
+     */
+    private final SparseBooleanArray mRejectedStreams = new SparseBooleanArray();
+    /**
+     * Start of the current auto pause or 0 and the total time spent auto paused before it,
+     * guarded by mStreamIds
+     */
+    private long mAutoPauseTime;
+    private long mAutoPausedTime;
+    /**
+     * Metadata of the loaded sounds, guarded by itself
+     */
+    private final SoundMetadata mMetadata = new SoundMetadata();
+    /**
+     * Build-time generated sounds metadata, may be null
+     */
+    private SoundManifest mManifest;
+    private volatile DurationProber mProber = new DurationProber();
+    /**
+     * Decoded PCM cache of the compressed sounds, null when disabled
+     */
+    private volatile PcmCache mPcmCache;
+    /**
+     * Identity of the installed APK in the PcmCache keys of its resources and assets, lazily
+     * read
+     */
+    private volatile String mApkIdentity;
+    /**
+     * Metrics recorder, null when the metrics are disabled
+     */
+    private volatile SoundPoolMetrics mMetrics;
+    /**
+     * Load pipeline tracer, null when the tracing is disabled
+     */
+    private volatile LoadTracer mTracer;
+    /**
+     * Internal load complete observer, e.g. {@link LoadScheduler}, called before the listener
+     */
+    private volatile SoundPool.OnLoadCompleteListener mLoadObserver;
+    private volatile SoundPool.OnLoadCompleteListener mOnLoadCompleteListener;
+    /**
+     * Play sequence model, null when the prediction is disabled
+     */
+    private volatile SoundPredictor mPredictor;
+    private volatile SoundClock mClock = SoundClock.SYSTEM;
+    /**
+     * True while the snapshot streams wait for their sounds
+     */
+    private volatile boolean mRestoring;
+    private final SoundPool.OnLoadCompleteListener mLoadCompleteListener =
+            new SoundPool.OnLoadCompleteListener() {
+                @Override
+                public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                    final SoundPoolMetrics metrics = mMetrics;
+                    if (metrics != null) metrics.loadCompleted(sampleId, status);
+                    final LoadTracer tracer = mTracer;
+                    if (tracer != null) tracer.decodeCompleted(sampleId);
+                    if (status == 0) {
+                        mMetadata.setLoadCompleteTime(sampleId, mClock.currentTimeMillis());
+                    }
+                    if (mRestoring) onRestoredSoundLoaded(sampleId, status);
+
+                    final SoundPool.OnLoadCompleteListener observer = mLoadObserver;
+                    if (observer != null) observer.onLoadComplete(soundPool, sampleId, status);
+                    final SoundPool.OnLoadCompleteListener listener = mOnLoadCompleteListener;
+                    if (listener != null) listener.onLoadComplete(soundPool, sampleId, status);
+                }
+            };
 
     /**
      * Constructor. Constructs a SoundPoolEx object with the following characteristics:
@@ -44,24 +201,44 @@ public class SoundPoolEx implements ISoundPool {
      */
     @Deprecated
     public SoundPoolEx(int maxStreams, int streamType, int srcQuality) {
-        mDelegate = new SoundPool(maxStreams, streamType, srcQuality);
+        mDelegate = new SoundPoolAdapter(maxStreams, streamType, srcQuality);
         mSoundIds = new SparseIntArray();
         mStreamIds = new SparseArray<>();
+        mDelegate.setOnLoadCompleteListener(mLoadCompleteListener);
     }
 
     /**
-     * Constructor. Constructs a SoundPoolEx object from an existing SoundPool object.
+     * Constructor. Constructs a SoundPoolEx object over any {@link ISoundPool} backend, e.g. the
+     * {@link HybridSoundPool}.
+     *
+     * @param delegate
+     *         the backend which plays the sounds
      */
-    private SoundPoolEx(SoundPool soundPool) {
-        mDelegate = soundPool;
+    public SoundPoolEx(ISoundPool delegate) {
+        mDelegate = delegate;
         mSoundIds = new SparseIntArray();
         mStreamIds = new SparseArray<>();
+        mDelegate.setOnLoadCompleteListener(mLoadCompleteListener);
     }
 
     @Override
     public int load(String path, int priority) {
-        int duration = calcDuration(path);
-        int soundID = mDelegate.load(path, priority);
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        final PcmCache cache = mPcmCache;
+        if (cache != null) {
+            File pcm = cache.get(path);
+            if (pcm != null && cache.pin(pcm)) {
+                return loadPcm(cache, pcm, SoundSource.fromPath(path), priority, timed, startTime);
+            }
+        }
+        final AudioHeader header = readHeader(path);
+        long probe = probeHeader(header);
+        if (probe < 0) probe = calcDuration(path);
+        final int duration = DurationProber.duration(probe);
+        final long probeTime = timed ? System.nanoTime() : 0;
+        int soundID = loadDelegate(path, priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, probeTime);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Sound loaded from the path " + path + " - OK");
@@ -69,7 +246,8 @@ public class SoundPoolEx implements ISoundPool {
                     " | duration:" + String.valueOf(duration) + " ms");
         }
 
-        mSoundIds.put(soundID, duration);
+        putSound(soundID, duration, DurationProber.status(probe), header,
+                SoundSource.fromPath(path), priority);
         return soundID;
     }
 
@@ -78,28 +256,65 @@ public class SoundPoolEx implements ISoundPool {
      *
      * @param path
      *         the path of the file you want to calc duration
-     * @return the duration in milliseconds, if no duration is available, 0 is returned.
+     * @return the probe result, see {@link DurationProber#duration(long)} and {@link
+     * DurationProber#status(long)}
      */
-    private int calcDuration(String path) {
-        int duration = 0;
-        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-        try {
-            mmr.setDataSource(path);
-            String durationStr = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            if (durationStr != null) duration = Integer.parseInt(durationStr);
-
-            if (BuildConfig.DEBUG) Log.v(TAG, "Get duration (path) - OK");
-
-        } finally {
-            mmr.release();
+    private long calcDuration(String path) {
+        long result = mProber.probe("path:" + path, path);
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Get duration (path) - status " + DurationProber.status(result));
         }
-        return duration;
+        return result;
     }
 
     @Override
     public int load(Context context, int resId, int priority) {
-        int duration = calcDuration(context, resId);
-        int soundID = mDelegate.load(context, resId, priority);
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        final PcmCache cache = mPcmCache;
+        if (cache != null) {
+            File pcm = getCachedPcm(cache, context, resId);
+            if (pcm != null && cache.pin(pcm)) {
+                return loadPcm(cache, pcm, SoundSource.fromResource(context, resId), priority,
+                        timed, startTime);
+            }
+        }
+        long probe = -1;
+        AudioHeader header = null;
+        if (mManifest != null) {
+            int index = mManifest.indexOf(context, resId);
+            if (index >= 0) {
+                probe = DurationProber.result(DurationProber.STATUS_METADATA,
+                        mManifest.getDuration(index));
+                header = getManifestHeader(mManifest, index);
+            }
+        }
+        if (probe < 0) {
+            final LoadTracer tracer = mTracer;
+            final long openTime = tracer != null ? tracer.now() : 0;
+            AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+            if (tracer != null) tracer.span(LoadTracer.STAGE_OPEN_FD, 0, openTime, tracer.now());
+            if (afd != null) {
+                header = readHeader(afd.getFileDescriptor(), afd.getStartOffset(),
+                        afd.getLength());
+                probe = probeHeader(header);
+                if (probe < 0) {
+                    probe = calcDuration("res:" + resId, afd.getFileDescriptor(),
+                            afd.getStartOffset(), afd.getLength());
+                }
+                try {
+                    afd.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                probe = DurationProber.result(DurationProber.STATUS_FAILED, 0);
+            }
+        }
+        final int duration = DurationProber.duration(probe);
+        final long probeTime = timed ? System.nanoTime() : 0;
+        int soundID = loadDelegate(context, resId, priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, probeTime);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Sound loaded from the resource ID " + String.valueOf(resId) + " - OK");
@@ -107,15 +322,27 @@ public class SoundPoolEx implements ISoundPool {
                     " | duration:" + String.valueOf(duration) + " ms");
         }
 
-        mSoundIds.put(soundID, duration);
+        putSound(soundID, duration, DurationProber.status(probe), header,
+                SoundSource.fromResource(context, resId), priority);
         return soundID;
     }
 
     @TargetApi (Build.VERSION_CODES.CUPCAKE)
     @Override
     public int load(AssetFileDescriptor afd, int priority) {
-        int duration = calcDuration(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-        final int soundID = mDelegate.load(afd, priority);
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        final AudioHeader header = readHeader(afd.getFileDescriptor(), afd.getStartOffset(),
+                afd.getLength());
+        long probe = probeHeader(header);
+        if (probe < 0) {
+            probe = calcDuration(null, afd.getFileDescriptor(), afd.getStartOffset(),
+                    afd.getLength());
+        }
+        final int duration = DurationProber.duration(probe);
+        final long probeTime = timed ? System.nanoTime() : 0;
+        final int soundID = loadDelegate(afd, priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, probeTime);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Sound loaded from an asset file descriptor " + afd.toString() + " - OK");
@@ -123,42 +350,222 @@ public class SoundPoolEx implements ISoundPool {
                     " | duration:" + String.valueOf(duration) + " ms");
         }
 
-        mSoundIds.put(soundID, duration);
+        putSound(soundID, duration, DurationProber.status(probe), header, null, priority);
         return soundID;
     }
 
+    /**
+     * Load the sound from the specified asset. The asset must be stored uncompressed in the APK.
+     * The duration is taken from the {@link SoundManifest} if the asset is listed there.
+     *
+     * @param context
+     *         the application context
+     * @param assetPath
+     *         the path of the asset relative to the assets directory
+     * @param priority
+     *         the priority of the sound. Currently has no effect. Use a value of 1 for future
+     *         compatibility.
+     * @return a sound ID. This value can be used to play or unload the sound.
+     * @throws IOException
+     *         if the asset can't be opened
+     */
+    @TargetApi (Build.VERSION_CODES.CUPCAKE)
+    public int loadAsset(Context context, String assetPath, int priority) throws IOException {
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        AssetFileDescriptor afd = context.getAssets().openFd(assetPath);
+        if (timed) traceOpenFd(startTime);
+        try {
+            final PcmCache cache = mPcmCache;
+            if (cache != null) {
+                File pcm = cache.get("asset:" + assetPath + "@" + getApkIdentity(context),
+                        afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                if (pcm != null && cache.pin(pcm)) {
+                    return loadPcm(cache, pcm, SoundSource.fromAsset(context, assetPath), priority,
+                            timed, startTime);
+                }
+            }
+            long probe = -1;
+            AudioHeader header = null;
+            if (mManifest != null) {
+                int index = mManifest.indexOf(assetPath);
+                if (index >= 0) {
+                    probe = DurationProber.result(DurationProber.STATUS_METADATA,
+                            mManifest.getDuration(index));
+                    header = getManifestHeader(mManifest, index);
+                }
+            }
+            if (probe < 0) {
+                header = readHeader(afd.getFileDescriptor(), afd.getStartOffset(),
+                        afd.getLength());
+                probe = probeHeader(header);
+            }
+            if (probe < 0) {
+                probe = calcDuration("asset:" + assetPath, afd.getFileDescriptor(),
+                        afd.getStartOffset(), afd.getLength());
+            }
+            final int duration = DurationProber.duration(probe);
+            final long probeTime = timed ? System.nanoTime() : 0;
+            int soundID = loadDelegate(afd, priority, duration, header);
+            if (timed) onLoaded(soundID, startTime, probeTime);
+
+            if (BuildConfig.DEBUG) {
+                Log.v(TAG, "Sound loaded from the asset " + assetPath + " - OK");
+                Log.v(TAG, "Sound ID: " + String.valueOf(soundID) + " " +
+                        " | duration:" + String.valueOf(duration) + " ms");
+            }
+
+            putSound(soundID, duration, DurationProber.status(probe), header,
+                    SoundSource.fromAsset(context, assetPath), priority);
+            return soundID;
+        } finally {
+            afd.close();
+        }
+    }
+
+    /**
+     * Load the sound from the content URI, e.g. a downloaded or picked sound, without copying it
+     * to a file. The descriptor of the URI is passed to the SoundPool, so the provider must serve
+     * a seekable file, not a pipe. The duration of WAV, Ogg and MP3 sounds is read from the
+     * header with small range reads, other formats are probed.
+     *
+     * @param context
+     *         the application context
+     * @param uri
+     *         the content or file URI of the sound
+     * @param priority
+     *         the priority of the sound. Currently has no effect. Use a value of 1 for future
+     *         compatibility.
+     * @return a sound ID. This value can be used to play or unload the sound.
+     * @throws IOException
+     *         if the URI can't be opened or its length is unknown
+     */
+    @TargetApi (Build.VERSION_CODES.CUPCAKE)
+    public int load(Context context, Uri uri, int priority) throws IOException {
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        if (afd == null) throw new FileNotFoundException("Can't open " + uri);
+        if (timed) traceOpenFd(startTime);
+        try {
+            final FileDescriptor fd = afd.getFileDescriptor();
+            final long offset = afd.getStartOffset();
+            // the channel isn't closed, it would close the descriptor of the afd
+            final FileChannel channel = new FileInputStream(fd).getChannel();
+            long length = afd.getLength();
+            if (length == AssetFileDescriptor.UNKNOWN_LENGTH) length = channel.size() - offset;
+            if (length <= 0) throw new IOException("Unknown length of " + uri);
+
+            final AudioHeader header = readHeader(channel, offset, length);
+            long probe = probeHeader(header);
+            if (probe < 0) probe = calcDuration("uri:" + uri, fd, offset, length);
+            final int duration = DurationProber.duration(probe);
+            final long probeTime = timed ? System.nanoTime() : 0;
+            int soundID = loadDelegate(fd, offset, length, priority, duration, header);
+            if (timed) onLoaded(soundID, startTime, probeTime);
+
+            if (BuildConfig.DEBUG) {
+                Log.v(TAG, "Sound loaded from the URI " + uri + " - OK");
+                Log.v(TAG, "Sound ID: " + String.valueOf(soundID) + " " +
+                        " | duration:" + String.valueOf(duration) + " ms");
+            }
+
+            putSound(soundID, duration, DurationProber.status(probe), header,
+                    SoundSource.fromUri(context, uri), priority);
+            return soundID;
+        } finally {
+            afd.close();
+        }
+    }
+
+    /**
+     * Reads the header of the WAV, Ogg or MP3 file with small range reads. The header gives the
+     * duration without the MediaMetadataRetriever and the stream parameters of the
+     * {@link SoundMetadata}.
+     *
+     * @return the header or null if the format isn't supported
+     */
+    private static AudioHeader readHeader(FileChannel channel, long offset, long length) {
+        try {
+            return AudioHeader.read(channel, offset, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the sound header", e);
+            return null;
+        }
+    }
+
+    private static AudioHeader readHeader(FileDescriptor fd, long offset, long length) {
+        // the channel isn't closed, it would close the descriptor of the caller
+        return readHeader(new FileInputStream(fd).getChannel(), offset, length);
+    }
+
+    private static AudioHeader readHeader(String path) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                return AudioHeader.read(file.getChannel(), 0, file.length());
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // the MediaMetadataRetriever reports the error
+            return null;
+        }
+    }
+
+    /**
+     * @return the stream parameters of the manifest entry or null if they're unknown
+     */
+    private static AudioHeader getManifestHeader(SoundManifest manifest, int index) {
+        final int channels = manifest.getChannelCount(index);
+        if (channels <= 0) return null;
+        // the manifest doesn't record the format, the frames follow from the 16-bit PCM size
+        return AudioHeader.fromMetadata(AudioHeader.FORMAT_UNKNOWN, manifest.getSampleRate(index),
+                channels, 0, manifest.getDecodedSize(index) / (channels * 2));
+    }
+
+    /**
+     * @return the probe result of the header or -1 if the duration is unknown
+     */
+    private static long probeHeader(AudioHeader header) {
+        if (header == null || header.getDuration() <= 0) return -1;
+        return DurationProber.result(DurationProber.STATUS_OK, header.getDuration());
+    }
+
     /**
      * Calculates the playback duration of the file
      *
+     * @param key
+     *         the negative cache key of the source or null if it has no stable identity
      * @param fd
      *         the FileDescriptor for the file you want to calc duration
      * @param offset
      *         the offset into the file where the data to be played starts, in bytes
      * @param length
      *         the length in bytes of the data to be played
-     * @return the duration in milliseconds, if no duration is available, 0 is returned.
+     * @return the probe result, see {@link DurationProber#duration(long)} and {@link
+     * DurationProber#status(long)}
      */
-    private int calcDuration(FileDescriptor fd, long offset, long length) {
-        int duration = 0;
-        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
-        try {
-            mmr.setDataSource(fd, offset, length);
-            String durationStr = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            if (durationStr != null) duration = Integer.parseInt(durationStr);
-
-            if (BuildConfig.DEBUG) Log.v(TAG, "Get duration (FileDescriptor) - OK");
-
-        } finally {
-            mmr.release();
+    private long calcDuration(String key, FileDescriptor fd, long offset, long length) {
+        long result = mProber.probe(key, fd, offset, length);
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Get duration (FileDescriptor) - status " + DurationProber.status(result));
         }
-        return duration;
+        return result;
     }
 
     @TargetApi (Build.VERSION_CODES.CUPCAKE)
     @Override
     public int load(FileDescriptor fd, long offset, long length, int priority) {
-        int duration = calcDuration(fd, offset, length);
-        int soundID = mDelegate.load(fd, offset, length, priority);
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        final AudioHeader header = readHeader(fd, offset, length);
+        long probe = probeHeader(header);
+        if (probe < 0) probe = calcDuration(null, fd, offset, length);
+        final int duration = DurationProber.duration(probe);
+        final long probeTime = timed ? System.nanoTime() : 0;
+        int soundID = loadDelegate(fd, offset, length, priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, probeTime);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Sound loaded from a FileDescriptor " + fd.toString() + " - OK");
@@ -166,30 +573,91 @@ public class SoundPoolEx implements ISoundPool {
                     " | duration:" + String.valueOf(duration) + " ms");
         }
 
-        mSoundIds.put(soundID, duration);
+        putSound(soundID, duration, DurationProber.status(probe), header, null, priority);
+        return soundID;
+    }
+
+    /**
+     * Load the entry of the packed sound bank. The duration is taken from the bank index, no
+     * metadata probing is done.
+     *
+     * @param bank
+     *         the opened sound bank; it must stay open until the load is completed
+     * @param index
+     *         the index of the entry in the bank
+     * @param priority
+     *         the priority of the sound. Currently has no effect. Use a value of 1 for future
+     *         compatibility.
+     * @return a sound ID. This value can be used to play or unload the sound.
+     * @throws IOException
+     *         if the bank file is closed
+     */
+    @TargetApi (Build.VERSION_CODES.CUPCAKE)
+    public int load(SoundBank bank, int index, int priority) throws IOException {
+        final boolean timed = mMetrics != null || mTracer != null;
+        final long startTime = timed ? System.nanoTime() : 0;
+        final int duration = bank.getDuration(index);
+        final long length = bank.getLength(index);
+        final int sampleRate = bank.getSampleRate(index);
+        final AudioHeader header = AudioHeader.fromMetadata(bank.getFormat(index), sampleRate,
+                bank.getChannelCount(index), duration > 0 ? (int) (length * 8000 / duration) : 0,
+                (long) duration * sampleRate / 1000);
+        int soundID = loadDelegate(bank.getFileDescriptor(), bank.getOffset(index), length,
+                priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, startTime);
+
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Sound loaded from the sound bank entry " + bank.getName(index) + " - OK");
+            Log.v(TAG, "Sound ID: " + String.valueOf(soundID) + " " +
+                    " | duration:" + String.valueOf(duration) + " ms");
+        }
+
+        putSound(soundID, duration, DurationProber.STATUS_METADATA, header, null, priority);
         return soundID;
     }
 
     @Override
     public boolean unload(int soundID) {
         boolean result = mDelegate.unload(soundID);
-        mSoundIds.delete(soundID);
+        final Pair<PcmCache, File> pin;
+        synchronized (mSoundIds) {
+            mSoundIds.delete(soundID);
+            mProbeStatuses.delete(soundID);
+            mSources.delete(soundID);
+            mPriorities.delete(soundID);
+            pin = mPcmPins.get(soundID);
+            mPcmPins.delete(soundID);
+            updateSoundCount();
+        }
+        if (pin != null) pin.first.unpin(pin.second);
+        mMetadata.remove(soundID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_UNLOADS);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Sound ID: " + String.valueOf(soundID) + " - " +
                     "successfully unload");
         }
 
-        int i = 0;
-        while (i <= mStreamIds.size() - 1) {
-            SoundBundle bundle = mStreamIds.valueAt(i);
-            if (bundle.getSoundID() == soundID) {
-                mStreamIds.remove(mStreamIds.keyAt(i));
-            } else {
-                i++;
+        synchronized (mStreamIds) {
+            boolean removed = false;
+            int i = 0;
+            while (i <= mStreamIds.size() - 1) {
+                SoundBundle bundle = mStreamIds.valueAt(i);
+                if (bundle.getSoundID() == soundID) {
+                    mHandles.release(bundle);
+                    mStreamIds.removeAt(i);
+                    removed = true;
+                } else {
+                    i++;
+                }
             }
+            if (removed) removeUnregisteredLayers();
+            updateStreamCount();
         }
 
+        final SoundPredictor predictor = mPredictor;
+        if (predictor != null) predictor.onUnload(soundID);
         return result;
     }
 
@@ -204,16 +672,248 @@ public class SoundPoolEx implements ISoundPool {
         }
 
         if (streamID > 0) {
-            SoundBundle bundle = new SoundBundle(streamID, soundID, mSoundIds.get(soundID));
-            mStreamIds.put(streamID, bundle);
-            bundle.play(loop, rate);
+            final SoundClock clock = mClock;
+            SoundBundle bundle = new SoundBundle(streamID, soundID, getDuration(soundID), clock);
+            bundle.setVolume(leftVolume, rightVolume);
+            bundle.setPriority(priority);
+            synchronized (mStreamIds) {
+                if (mStreamIds.size() >= mPruneThreshold) pruneStreams(clock.currentTimeMillis());
+                if (!consumeRejected(streamID)) {
+                    // the backend may reuse the streamID of a finished stream
+                    final SoundBundle previous = mStreamIds.get(streamID);
+                    if (previous != null) mHandles.release(previous);
+                    mStreamIds.put(streamID, bundle);
+                    bundle.play(loop, rate);
+                }
+                updateStreamCount();
+            }
+        }
+
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.increment(SoundPoolMetrics.COUNTER_PLAYS);
+            if (streamID == 0) metrics.increment(SoundPoolMetrics.COUNTER_PLAYS_REJECTED);
         }
+
+        // rejected plays aren't transitions of the play sequence
+        final SoundPredictor predictor = mPredictor;
+        if (predictor != null && streamID > 0) predictor.onPlay(soundID);
         return streamID;
     }
 
+    /**
+     * Plays the layers of a compound sound, e.g. a chord or an explosion made of a body, a tail
+     * and debris. The layers are started back to back and their streams are registered with a
+     * shared start time, read before the first layer is started, so their timelines are aligned;
+     * they can be controlled together with the returned group ID. The streams and the group are
+     * registered at once, after all the layers are started. Only the stream bundles and the
+     * arrays of the group are allocated.
+     *
+     * @param soundIDs
+     *         the soundIDs of the layers returned by the load() function
+     * @param volumes
+     *         the volumes of the layers (range = 0.0 to 1.0), as long as soundIDs
+     * @param priority
+     *         stream priority (0 = lowest priority)
+     * @param loop
+     *         loop mode (0 = no loop, -1 = loop forever)
+     * @param rate
+     *         playback rate (1.0 = normal playback, range 0.5 to 2.0)
+     * @param outStreamIDs
+     *         receives the streamIDs of the layers, 0 for the layers which failed to play; at
+     *         least as long as soundIDs
+     * @return the group ID or 0 if no layer is played
+     */
+    public int playAll(int[] soundIDs, float[] volumes, int priority, int loop, float rate,
+            int[] outStreamIDs) {
+        final int count = soundIDs.length;
+        final SoundClock clock = mClock;
+        final long now = clock.currentTimeMillis();
+        int played = 0;
+        for (int i = 0; i < count; i++) {
+            outStreamIDs[i] = mDelegate.play(soundIDs[i], volumes[i], volumes[i], priority, loop,
+                    rate);
+            if (outStreamIDs[i] > 0) played++;
+        }
+
+        final int groupID;
+        if (played > 0) {
+            final int[] group = Arrays.copyOf(outStreamIDs, count);
+            final SoundBundle[] bundles = new SoundBundle[count];
+            for (int i = 0; i < count; i++) {
+                if (group[i] <= 0) continue;
+                // the durations are read before the mStreamIds lock, the locks aren't nested
+                bundles[i] = new SoundBundle(group[i], soundIDs[i], getDuration(soundIDs[i]),
+                        clock);
+                bundles[i].setVolume(volumes[i], volumes[i]);
+                bundles[i].setPriority(priority);
+            }
+            synchronized (mStreamIds) {
+                if (mStreamIds.size() >= mPruneThreshold) pruneStreams(now);
+                for (int i = 0; i < count; i++) {
+                    if (bundles[i] == null || consumeRejected(group[i])) continue;
+                    final SoundBundle previous = mStreamIds.get(group[i]);
+                    if (previous != null) mHandles.release(previous);
+                    mStreamIds.put(group[i], bundles[i]);
+                    bundles[i].play(loop, rate, now);
+                }
+                groupID = mNextGroupID++;
+                mGroups.put(groupID, group);
+                updateStreamCount();
+            }
+        } else {
+            groupID = 0;
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Group ID: " + String.valueOf(groupID) + " - " + String.valueOf(played) +
+                    " of " + String.valueOf(count) + " layers played");
+        }
+
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.add(SoundPoolMetrics.COUNTER_PLAYS, count);
+            metrics.add(SoundPoolMetrics.COUNTER_PLAYS_REJECTED, count - played);
+        }
+
+        final SoundPredictor predictor = mPredictor;
+        if (predictor != null) {
+            for (int i = 0; i < count; i++) {
+                if (outStreamIDs[i] > 0) predictor.onPlay(soundIDs[i]);
+            }
+        }
+        return groupID;
+    }
+
+    /**
+     * @return the streamIDs of the group, 0 for the layers which failed to play, or null if the
+     * group is stopped or finished
+     */
+    private int[] getGroup(int groupID) {
+        synchronized (mStreamIds) {
+            return mGroups.get(groupID);
+        }
+    }
+
+    /**
+     * Pause the streams of the group returned by {@link #playAll}.
+     *
+     * @param groupID
+     *         a groupID returned by the playAll() function
+     */
+    public void pauseGroup(int groupID) {
+        final int[] streamIDs = getGroup(groupID);
+        if (streamIDs == null) return;
+        for (int streamID : streamIDs) {
+            if (streamID > 0) pause(streamID);
+        }
+    }
+
+    /**
+     * Resume the streams of the group returned by {@link #playAll}.
+     *
+     * @param groupID
+     *         a groupID returned by the playAll() function
+     */
+    public void resumeGroup(int groupID) {
+        final int[] streamIDs = getGroup(groupID);
+        if (streamIDs == null) return;
+        for (int streamID : streamIDs) {
+            if (streamID > 0) resume(streamID);
+        }
+    }
+
+    /**
+     * Stop the streams of the group returned by {@link #playAll}, the groupID becomes invalid.
+     *
+     * @param groupID
+     *         a groupID returned by the playAll() function
+     */
+    public void stopGroup(int groupID) {
+        final int[] streamIDs;
+        synchronized (mStreamIds) {
+            streamIDs = mGroups.get(groupID);
+            if (streamIDs == null) return;
+            mGroups.remove(groupID);
+        }
+        for (int streamID : streamIDs) {
+            if (streamID > 0 && isRegistered(streamID)) stop(streamID);
+        }
+    }
+
+    /**
+     * Checks whether any stream of the group is playing.
+     *
+     * @param groupID
+     *         a groupID returned by the playAll() function
+     * @return true if currently playing, false otherwise
+     */
+    public boolean isGroupPlaying(int groupID) {
+        final long now = mClock.currentTimeMillis();
+        synchronized (mStreamIds) {
+            final int[] streamIDs = mGroups.get(groupID);
+            if (streamIDs == null) return false;
+            for (int streamID : streamIDs) {
+                final SoundBundle bundle = streamID > 0 ? mStreamIds.get(streamID) : null;
+                if (bundle != null && bundle.isPlaying(now)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the play of the streamID was already reported rejected, see {@link
+     * #onPlayRejected(int)}. Must be called under the mStreamIds lock.
+     *
+     * @return true if the stream must not be registered
+     */
+    private boolean consumeRejected(int streamID) {
+        if (mRejectedStreams.size() == 0 || !mRejectedStreams.get(streamID)) return false;
+        mRejectedStreams.delete(streamID);
+        return true;
+    }
+
+    /**
+     * Called by an {@link AsyncSoundPool} delegate on its control thread when the delegate under
+     * it rejected the play of a returned handle. The stream is removed as if play() returned 0;
+     * if it isn't registered yet, it's skipped by the registration.
+     *
+     * @param streamID
+     *         the handle returned by the AsyncSoundPool
+     */
+    void onPlayRejected(int streamID) {
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mStreamIds.get(streamID);
+            if (bundle != null) {
+                bundle.stop();
+                mHandles.release(bundle);
+                mStreamIds.remove(streamID);
+                updateStreamCount();
+            } else {
+                mRejectedStreams.put(streamID, true);
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Stream ID: " + String.valueOf(streamID) + " - " +
+                    "is rejected by the pool");
+        }
+
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PLAYS_REJECTED);
+    }
+
+    private boolean isRegistered(int streamID) {
+        synchronized (mStreamIds) {
+            return mStreamIds.get(streamID) != null;
+        }
+    }
+
     @Override
     public void pause(int streamID) {
         mDelegate.pause(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PAUSES);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Stream ID: " + String.valueOf(streamID) + " - " +
@@ -221,12 +921,14 @@ public class SoundPoolEx implements ISoundPool {
         }
 
         if (streamID > 0) {
-            SoundBundle bundle = mStreamIds.get(streamID);
-            if (bundle != null) {
-                bundle.pause();
-            } else {
-                Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " don't " +
-                        "exists");
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) {
+                    bundle.pause();
+                } else {
+                    Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " " +
+                            "don't exists");
+                }
             }
         }
     }
@@ -234,6 +936,8 @@ public class SoundPoolEx implements ISoundPool {
     @Override
     public void resume(int streamID) {
         mDelegate.resume(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_RESUMES);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Stream ID: " + String.valueOf(streamID) + " - " +
@@ -241,12 +945,14 @@ public class SoundPoolEx implements ISoundPool {
         }
 
         if (streamID > 0) {
-            SoundBundle bundle = mStreamIds.get(streamID);
-            if (bundle != null) {
-                bundle.resume();
-            } else {
-                Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " don't " +
-                        "exists");
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) {
+                    bundle.resume();
+                } else {
+                    Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " " +
+                            "don't exists");
+                }
             }
         }
     }
@@ -255,12 +961,17 @@ public class SoundPoolEx implements ISoundPool {
     @Override
     public void autoPause() {
         mDelegate.autoPause();
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_AUTO_PAUSES);
 
         if (BuildConfig.DEBUG) Log.v(TAG, "All streams is paused (auto pause)");
 
-        for (int i = 0; i < mStreamIds.size(); i++) {
-            SoundBundle bundle = mStreamIds.valueAt(i);
-            bundle.pause();
+        synchronized (mStreamIds) {
+            if (mAutoPauseTime == 0) mAutoPauseTime = mClock.currentTimeMillis();
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                SoundBundle bundle = mStreamIds.valueAt(i);
+                bundle.autoPause();
+            }
         }
     }
 
@@ -268,18 +979,28 @@ public class SoundPoolEx implements ISoundPool {
     @Override
     public void autoResume() {
         mDelegate.autoResume();
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_AUTO_RESUMES);
 
         if (BuildConfig.DEBUG) Log.v(TAG, "All streams is resumed (auto resume)");
 
-        for (int i = 0; i < mStreamIds.size(); i++) {
-            SoundBundle bundle = mStreamIds.valueAt(i);
-            bundle.resume();
+        synchronized (mStreamIds) {
+            if (mAutoPauseTime > 0) {
+                mAutoPausedTime += mClock.currentTimeMillis() - mAutoPauseTime;
+                mAutoPauseTime = 0;
+            }
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                SoundBundle bundle = mStreamIds.valueAt(i);
+                bundle.autoResume();
+            }
         }
     }
 
     @Override
     public void stop(int streamID) {
         mDelegate.stop(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_STOPS);
 
         if (BuildConfig.DEBUG) {
             Log.v(TAG, "Stream ID: " + String.valueOf(streamID) + " - " +
@@ -287,11 +1008,17 @@ public class SoundPoolEx implements ISoundPool {
         }
 
         if (streamID > 0) {
-            SoundBundle bundle = mStreamIds.get(streamID);
-            if (bundle != null) {
-                bundle.stop();
-                mStreamIds.remove(streamID);
-            } else {
+            final SoundBundle bundle;
+            synchronized (mStreamIds) {
+                bundle = mStreamIds.get(streamID);
+                if (bundle != null) {
+                    bundle.stop();
+                    mHandles.release(bundle);
+                    mStreamIds.remove(streamID);
+                    updateStreamCount();
+                }
+            }
+            if (bundle == null) {
                 Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " don't " +
                         "exists");
             }
@@ -301,6 +1028,12 @@ public class SoundPoolEx implements ISoundPool {
     @Override
     public void setVolume(int streamID, float leftVolume, float rightVolume) {
         mDelegate.setVolume(streamID, leftVolume, rightVolume);
+        if (streamID > 0) {
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) bundle.setVolume(leftVolume, rightVolume);
+            }
+        }
     }
 
     @Override
@@ -311,6 +1044,12 @@ public class SoundPoolEx implements ISoundPool {
     @Override
     public final void setPriority(int streamID, int priority) {
         mDelegate.setPriority(streamID, priority);
+        if (streamID > 0) {
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) bundle.setPriority(priority);
+            }
+        }
     }
 
     @Override
@@ -324,12 +1063,14 @@ public class SoundPoolEx implements ISoundPool {
 
         //setLoop not working with nonzero parameter: "E/AudioTrack: setLoop invalid value"
         if (loop == 0 && streamID > 0) {
-            SoundBundle bundle = mStreamIds.get(streamID);
-            if (bundle != null) {
-                bundle.setLoop(loop);
-            } else {
-                Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " don't " +
-                        "exists");
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) {
+                    bundle.setLoop(loop);
+                } else {
+                    Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " " +
+                            "don't exists");
+                }
             }
         }
     }
@@ -344,12 +1085,14 @@ public class SoundPoolEx implements ISoundPool {
         }
 
         if (streamID > 0) {
-            SoundBundle bundle = mStreamIds.get(streamID);
-            if (bundle != null) {
-                bundle.setRate(rate);
-            } else {
-                Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " don't " +
-                        "exists");
+            synchronized (mStreamIds) {
+                SoundBundle bundle = mStreamIds.get(streamID);
+                if (bundle != null) {
+                    bundle.setRate(rate);
+                } else {
+                    Log.d(TAG, "SoundBundle for stream ID:" + String.valueOf(streamID) + " " +
+                            "don't exists");
+                }
             }
         }
     }
@@ -357,45 +1100,391 @@ public class SoundPoolEx implements ISoundPool {
     @TargetApi (Build.VERSION_CODES.FROYO)
     @Override
     public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
-        mDelegate.setOnLoadCompleteListener(listener);
+        mOnLoadCompleteListener = listener;
     }
 
     @Override
     public final void release() {
         mDelegate.release();
-        mSoundIds.clear();
-        mStreamIds.clear();
+        final ArrayList<Pair<PcmCache, File>> pins = new ArrayList<>();
+        synchronized (mSoundIds) {
+            mSoundIds.clear();
+            updateSoundCount();
+            mProbeStatuses.clear();
+            mSources.clear();
+            mPriorities.clear();
+            for (int i = 0; i < mPcmPins.size(); i++) {
+                pins.add(mPcmPins.valueAt(i));
+            }
+            mPcmPins.clear();
+            mRestoredSounds.clear();
+            mRestoredStreams.clear();
+            mPendingStreams = null;
+        }
+        for (Pair<PcmCache, File> pin : pins) {
+            pin.first.unpin(pin.second);
+        }
+        mMetadata.clear();
+        synchronized (mStreamIds) {
+            mHandles.clear();
+            mGroups.clear();
+            mStreamIds.clear();
+            mRejectedStreams.clear();
+            mPruneThreshold = MIN_PRUNE_THRESHOLD;
+            updateStreamCount();
+        }
     }
 
     /**
-     * Calculates the playback duration of the APK resource
+     * Returns the cached PCM of the APK resource, decoding it on the first request.
      *
-     * @param context
-     *         the application context
-     * @param resId
-     *         the resource ID
-     * @return the duration in milliseconds, if no duration is available, 0 is returned.
+     * @return the WAV file or null if the resource is not cached
      */
-    private int calcDuration(Context context, int resId) {
+    private File getCachedPcm(PcmCache cache, Context context, int resId) {
         AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
-        if (afd == null) return 0;
-
-        int duration = 0;
-        MediaMetadataRetriever mmr = new MediaMetadataRetriever();
+        if (afd == null) return null;
         try {
-            mmr.setDataSource(afd.getFileDescriptor());
-            afd.close();
-            String durationStr = mmr.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            if (durationStr != null) duration = Integer.parseInt(durationStr);
+            return cache.get("res:" + resId + "@" + getApkIdentity(context),
+                    afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+        } finally {
+            try {
+                afd.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-            if (BuildConfig.DEBUG) Log.v(TAG, "Get duration (resId) - OK");
+    /**
+     * Returns the version code and the update time of the installed APK. The resource IDs and
+     * the asset paths are stable across the app updates while the sounds may change, so the
+     * cache keys of the APK sounds include it.
+     */
+    private String getApkIdentity(Context context) {
+        String identity = mApkIdentity;
+        if (identity == null) {
+            try {
+                PackageInfo info = context.getPackageManager().getPackageInfo(
+                        context.getPackageName(), 0);
+                identity = info.versionCode + "-" + info.lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "Can't read the package info", e);
+                identity = "";
+            }
+            mApkIdentity = identity;
+        }
+        return identity;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            mmr.release();
+    /**
+     * Loads the WAV file of the {@link PcmCache} instead of the compressed source. The duration
+     * is exact from the WAV header, no probing is done. The file must be pinned, it stays pinned
+     * until the sound is unloaded.
+     *
+     * @param source
+     *         the original source of the sound, kept for the snapshots
+     */
+    private int loadPcm(PcmCache cache, File pcm, SoundSource source, int priority,
+            boolean timed, long startTime) {
+        final AudioHeader header = readHeader(pcm.getPath());
+        final int duration = header != null ? header.getDuration() : 0;
+        final int status = header != null ? DurationProber.STATUS_METADATA :
+                DurationProber.STATUS_FAILED;
+        if (header == null) Log.w(TAG, "Can't read the cached sound " + pcm);
+        final long probeTime = timed ? System.nanoTime() : 0;
+        int soundID = loadDelegate(pcm.getPath(), priority, duration, header);
+        if (timed) onLoaded(soundID, startTime, probeTime);
+        if (soundID <= 0) {
+            cache.unpin(pcm);
+        } else {
+            synchronized (mSoundIds) {
+                mPcmPins.put(soundID, Pair.create(cache, pcm));
+            }
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Sound loaded from the PCM cache " + pcm + " - OK");
+            Log.v(TAG, "Sound ID: " + String.valueOf(soundID) + " " +
+                    " | duration:" + String.valueOf(duration) + " ms");
+        }
+
+        putSound(soundID, duration, status, header, source, priority);
+        return soundID;
+    }
+
+    // the loads of the delegate, with the known measures if it uses them
+    private int loadDelegate(String path, int priority, int duration, AudioHeader header) {
+        if (!(mDelegate instanceof DurationAwareSoundPool)) return mDelegate.load(path, priority);
+        return ((DurationAwareSoundPool) mDelegate).load(path, priority, duration,
+                decodedSize(header));
+    }
+
+    private int loadDelegate(Context context, int resId, int priority, int duration,
+            AudioHeader header) {
+        if (!(mDelegate instanceof DurationAwareSoundPool)) {
+            return mDelegate.load(context, resId, priority);
+        }
+        return ((DurationAwareSoundPool) mDelegate).load(context, resId, priority, duration,
+                decodedSize(header));
+    }
+
+    private int loadDelegate(AssetFileDescriptor afd, int priority, int duration,
+            AudioHeader header) {
+        if (!(mDelegate instanceof DurationAwareSoundPool)) return mDelegate.load(afd, priority);
+        return ((DurationAwareSoundPool) mDelegate).load(afd, priority, duration,
+                decodedSize(header));
+    }
+
+    private int loadDelegate(FileDescriptor fd, long offset, long length, int priority,
+            int duration, AudioHeader header) {
+        if (!(mDelegate instanceof DurationAwareSoundPool)) {
+            return mDelegate.load(fd, offset, length, priority);
         }
-        return duration;
+        return ((DurationAwareSoundPool) mDelegate).load(fd, offset, length, priority, duration,
+                decodedSize(header));
+    }
+
+    private static long decodedSize(AudioHeader header) {
+        return header != null ? header.getDecodedSize() : 0;
+    }
+
+    /**
+     * Records the load timings into the metrics and the tracer.
+     */
+    private void onLoaded(int soundID, long startTime, long probeTime) {
+        final long submitTime = System.nanoTime();
+
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.increment(SoundPoolMetrics.COUNTER_LOADS);
+            metrics.record(SoundPoolMetrics.HISTOGRAM_LOAD_PROBE_US,
+                    (probeTime - startTime) / 1000);
+            metrics.record(SoundPoolMetrics.HISTOGRAM_LOAD_SUBMIT_US,
+                    (submitTime - probeTime) / 1000);
+            if (soundID > 0) metrics.loadStarted(soundID);
+        }
+
+        final LoadTracer tracer = mTracer;
+        if (tracer != null) {
+            tracer.span(LoadTracer.STAGE_PROBE, soundID, startTime, probeTime);
+            tracer.span(LoadTracer.STAGE_SUBMIT, soundID, probeTime, submitTime);
+            tracer.span(LoadTracer.STAGE_LOAD, soundID, startTime, submitTime);
+            if (soundID > 0) tracer.decodeStarted(soundID, submitTime);
+        }
+    }
+
+    private void traceOpenFd(long startTime) {
+        final LoadTracer tracer = mTracer;
+        if (tracer != null) tracer.span(LoadTracer.STAGE_OPEN_FD, 0, startTime, tracer.now());
+    }
+
+    /**
+     * Registers the duration and the metadata of the loaded sound.
+     *
+     * @param header
+     *         the header read in the probe pass or null
+     * @param source
+     *         the source to reload the sound from a snapshot or null if it can't be reloaded
+     */
+    private void putSound(int soundID, int duration, int probeStatus, AudioHeader header,
+            SoundSource source, int priority) {
+        if (probeStatus != DurationProber.STATUS_OK &&
+                probeStatus != DurationProber.STATUS_METADATA) {
+            Log.w(TAG, "Sound ID: " + String.valueOf(soundID) + " - duration is unknown, probe " +
+                    "status " + String.valueOf(probeStatus));
+        }
+        synchronized (mSoundIds) {
+            mSoundIds.put(soundID, duration);
+            mProbeStatuses.put(soundID, probeStatus);
+            if (source != null) {
+                mSources.put(soundID, source);
+                mPriorities.put(soundID, priority);
+            }
+            updateSoundCount();
+        }
+        mMetadata.put(soundID, duration, header, source, mClock.currentTimeMillis());
+    }
+
+    /**
+     * Updates the sound registry gauge of the metrics. Must be called under the mSoundIds lock.
+     */
+    private void updateSoundCount() {
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.setSoundCount(mSoundIds.size());
+    }
+
+    /**
+     * Updates the stream registry gauges of the metrics, the registry keeps the finished streams
+     * until they're pruned. Must be called under the mStreamIds lock.
+     */
+    private void updateStreamCount() {
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.setStreamCount(mStreamIds.size());
+    }
+
+    /**
+     * Removes the bundles of the finished streams, so the registry doesn't grow with every
+     * played sound. The threshold doubles with the live streams, so the pruning is amortized
+     * over the plays. Must be called under the mStreamIds lock.
+     */
+    private void pruneStreams(long now) {
+        int i = 0;
+        while (i < mStreamIds.size()) {
+            final SoundBundle bundle = mStreamIds.valueAt(i);
+            if (bundle.isFinished(now)) {
+                mHandles.release(bundle);
+                mStreamIds.removeAt(i);
+            } else {
+                i++;
+            }
+        }
+        mPruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, mStreamIds.size() * 2);
+
+        i = 0;
+        while (i < mGroups.size()) {
+            if (isGroupFinished(mGroups.valueAt(i))) {
+                mGroups.removeAt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Clears the layers of the removed streams from the groups, so the group calls don't reach a
+     * streamID reused by the pool, and drops the groups left empty. Must be called under the
+     * mStreamIds lock.
+     */
+    private void removeUnregisteredLayers() {
+        int i = 0;
+        while (i < mGroups.size()) {
+            final int[] streamIDs = mGroups.valueAt(i);
+            for (int layer = 0; layer < streamIDs.length; layer++) {
+                if (streamIDs[layer] > 0 && mStreamIds.get(streamIDs[layer]) == null) {
+                    streamIDs[layer] = 0;
+                }
+            }
+            if (isGroupFinished(streamIDs)) {
+                mGroups.removeAt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Must be called under the mStreamIds lock.
+     *
+     * @return true if no stream of the group is registered
+     */
+    private boolean isGroupFinished(int[] streamIDs) {
+        for (int streamID : streamIDs) {
+            if (streamID > 0 && mStreamIds.get(streamID) != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets the internal load complete observer which is called before the listener set with
+     * {@link #setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener)}.
+     */
+    void setLoadObserver(SoundPool.OnLoadCompleteListener observer) {
+        mLoadObserver = observer;
+    }
+
+    void setPredictor(SoundPredictor predictor) {
+        mPredictor = predictor;
+    }
+
+    SoundPoolMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets the time source of the playing timelines, e.g. a virtual clock in simulations. Streams
+     * already playing keep the previous clock.
+     *
+     * @param clock
+     *         the clock, not null
+     */
+    public void setClock(SoundClock clock) {
+        if (clock == null) throw new IllegalArgumentException("clock must not be null");
+        mClock = clock;
+    }
+
+    SoundClock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Enables the span tracing of the load pipeline, see {@link LoadTracer}.
+     *
+     * @param tracer
+     *         the tracer or null to disable the tracing
+     */
+    public void setLoadTracer(LoadTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Enables the metrics of the load and playback paths.
+     *
+     * @param metrics
+     *         the metrics recorder or null to disable the metrics
+     */
+    public void setMetrics(SoundPoolMetrics metrics) {
+        mMetrics = metrics;
+        synchronized (mSoundIds) {
+            updateSoundCount();
+        }
+        synchronized (mStreamIds) {
+            updateStreamCount();
+        }
+    }
+
+    /**
+     * Sets the duration prober, e.g. with custom limits.
+     *
+     * @param prober
+     *         the prober, not null
+     */
+    public void setDurationProber(DurationProber prober) {
+        if (prober == null) throw new IllegalArgumentException("prober must not be null");
+        mProber = prober;
+    }
+
+    /**
+     * Enables the decode-once cache of the compressed sounds: path, resource and asset sounds are
+     * decoded to PCM WAV files on the first load and loaded from the WAV files afterwards, see
+     * {@link PcmCache}. The first load decodes on the calling thread, use a {@link LoadScheduler}
+     * to keep it off the UI thread.
+     *
+     * @param cache
+     *         the cache or null to load the sources directly
+     */
+    public void setPcmCache(PcmCache cache) {
+        mPcmCache = cache;
+    }
+
+    /**
+     * Sets the build-time generated sounds metadata. Sounds listed in the manifest are loaded
+     * without the runtime duration probing.
+     *
+     * @param manifest
+     *         the manifest or null to probe every sound
+     */
+    public void setSoundManifest(SoundManifest manifest) {
+        mManifest = manifest;
+    }
+
+    /**
+     * Returns the metadata of the loaded sounds: the stream parameters read in the probe pass,
+     * the estimated decoded sizes, the sources and the load timestamps.
+     *
+     * @return the live metadata store
+     */
+    public SoundMetadata getMetadata() {
+        return mMetadata;
     }
 
     /**
@@ -405,7 +1494,21 @@ public class SoundPoolEx implements ISoundPool {
      */
     public int getDuration(int soundID) {
         if (soundID <= 0) return 0;
-        return mSoundIds.get(soundID);
+        synchronized (mSoundIds) {
+            return mSoundIds.get(soundID);
+        }
+    }
+
+    /**
+     * Gets the outcome of the duration probing of the soundID. The duration is 0 unless the
+     * status is {@link DurationProber#STATUS_OK} or {@link DurationProber#STATUS_METADATA}.
+     *
+     * @return one of the DurationProber.STATUS_ constants
+     */
+    public int getProbeStatus(int soundID) {
+        synchronized (mSoundIds) {
+            return mProbeStatuses.get(soundID, DurationProber.STATUS_UNKNOWN);
+        }
     }
 
     /**
@@ -415,8 +1518,81 @@ public class SoundPoolEx implements ISoundPool {
      * @return the duration in milliseconds, if no duration is available, 0 is returned.
      */
     public int getStreamDuration(int streamID) {
-        if (streamID <= 0 || mStreamIds.indexOfKey(streamID) < 0) return 0;
-        return mStreamIds.get(streamID).getDuration();
+        if (streamID <= 0) return 0;
+        synchronized (mStreamIds) {
+            SoundBundle bundle = mStreamIds.get(streamID);
+            return bundle != null ? bundle.getDuration() : 0;
+        }
+    }
+
+    /**
+     * Gets the playback position of the streamID within the current run of the sound, calculated
+     * from the playing timeline.
+     *
+     * @return the position in milliseconds of the sound, if no position is available, 0 is
+     * returned.
+     */
+    public int getStreamPosition(int streamID) {
+        if (streamID <= 0) return 0;
+        synchronized (mStreamIds) {
+            SoundBundle bundle = mStreamIds.get(streamID);
+            return bundle != null ? bundle.getPosition() : 0;
+        }
+    }
+
+    /**
+     * Gets the time the streamID has played, summed over the runs, e.g. to carry the timeline of
+     * a stream which is stopped and restarted later.
+     *
+     * @return the time in milliseconds of the sound, excluding the pauses, or -1 if the stream is
+     * finished or unknown
+     */
+    long getStreamPlayedTime(int streamID) {
+        if (streamID <= 0) return -1;
+        synchronized (mStreamIds) {
+            SoundBundle bundle = mStreamIds.get(streamID);
+            if (bundle == null || bundle.isFinished(mClock.currentTimeMillis())) return -1;
+            return bundle.getPlayedTime();
+        }
+    }
+
+    /**
+     * Gets the time of the clock minus the time spent auto paused, the timeline of the sounds
+     * which are played without a stream.
+     *
+     * @param now
+     *         the current time of the clock
+     */
+    long getActiveTime(long now) {
+        synchronized (mStreamIds) {
+            final long paused = mAutoPauseTime > 0 ? now - mAutoPauseTime : 0;
+            return now - mAutoPausedTime - paused;
+        }
+    }
+
+    /**
+     * Moves the playback position of the streamID. Only the delegates which implement {@link
+     * SeekableSoundPool} support it, e.g. {@link MixerSoundPool}; SoundPool always plays the
+     * sounds from the start.
+     *
+     * @param streamID
+     *         a streamID returned by the play() function
+     * @param position
+     *         the position in milliseconds of the sound
+     * @return true if the position is changed, false otherwise
+     */
+    @Override
+    public boolean seek(int streamID, int position) {
+        if (!(mDelegate instanceof SeekableSoundPool) ||
+                !((SeekableSoundPool) mDelegate).seek(streamID, position)) {
+            return false;
+        }
+
+        synchronized (mStreamIds) {
+            SoundBundle bundle = mStreamIds.get(streamID);
+            if (bundle != null) bundle.seek(position);
+        }
+        return true;
     }
 
     /**
@@ -426,8 +1602,11 @@ public class SoundPoolEx implements ISoundPool {
      * @return true if currently playing, false otherwise
      */
     public boolean isPlaying(int streamID) {
-        if (streamID <= 0 || mStreamIds.indexOfKey(streamID) < 0) return false;
-        return mStreamIds.get(streamID).isPlaying();
+        if (streamID <= 0) return false;
+        synchronized (mStreamIds) {
+            SoundBundle bundle = mStreamIds.get(streamID);
+            return bundle != null && bundle.isPlaying();
+        }
     }
 
     /**
@@ -437,24 +1616,677 @@ public class SoundPoolEx implements ISoundPool {
      * @return true if currently playing, false otherwise
      */
     public boolean isSoundPlaying(int soundID) {
-        if (soundID <= 0 || mSoundIds.get(soundID) == 0) return false;
-
-        for (int i = 0; i < mStreamIds.size(); i++) {
-            SoundBundle bundle = mStreamIds.valueAt(i);
-            if (bundle.getSoundID() == soundID) {
-                if (bundle.isPlaying()) return true;
+        if (getDuration(soundID) == 0) return false;
+
+        final long now = mClock.currentTimeMillis();
+        synchronized (mStreamIds) {
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                SoundBundle bundle = mStreamIds.valueAt(i);
+                if (bundle.getSoundID() == soundID) {
+                    if (bundle.isPlaying(now)) return true;
+                }
             }
         }
 
         return false;
     }
 
+    /**
+     * Plays the sound like {@link #play(int, float, float, int, int, float)} and returns a
+     * handle of the stream instead of the streamID. The handle methods validate and find the
+     * stream in constant time, a handle of a stopped, pruned or unloaded stream is rejected
+     * without logging.
+     *
+     * @return the handle or {@link #INVALID_HANDLE} if the sound isn't played
+     */
+    public long playHandle(int soundID, float leftVolume, float rightVolume, int priority,
+            int loop, float rate) {
+        final int streamID = play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        if (streamID == 0) return INVALID_HANDLE;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mStreamIds.get(streamID);
+            return bundle != null ? mHandles.acquire(bundle) : INVALID_HANDLE;
+        }
+    }
+
+    /**
+     * @return the streamID of the handle or 0 if the handle is invalid
+     */
+    public int getStreamID(long handle) {
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            return bundle != null ? bundle.getStreamID() : 0;
+        }
+    }
+
+    /**
+     * Checks whether the handle refers to a registered stream. A finished stream stays valid
+     * until it's pruned, use {@link #isHandlePlaying(long)} to check the playback.
+     *
+     * @return true if the handle is valid, false otherwise
+     */
+    public boolean isValid(long handle) {
+        synchronized (mStreamIds) {
+            return mHandles.get(handle) != null;
+        }
+    }
+
+    /**
+     * Checks whether the stream of the handle is playing, see {@link #isPlaying(int)}.
+     *
+     * @return true if currently playing, false otherwise or if the handle is invalid
+     */
+    public boolean isHandlePlaying(long handle) {
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            return bundle != null && bundle.isPlaying();
+        }
+    }
+
+    /**
+     * Pause the stream of the handle, see {@link #pause(int)}. Invalid handles are ignored.
+     */
+    public void pauseHandle(long handle) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            bundle.pause();
+            streamID = bundle.getStreamID();
+        }
+        mDelegate.pause(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PAUSES);
+    }
+
+    /**
+     * Resume the stream of the handle, see {@link #resume(int)}. Invalid handles are ignored.
+     */
+    public void resumeHandle(long handle) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            bundle.resume();
+            streamID = bundle.getStreamID();
+        }
+        mDelegate.resume(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_RESUMES);
+    }
+
+    /**
+     * Stop the stream of the handle and invalidate the handle, see {@link #stop(int)}. Invalid
+     * handles are ignored.
+     */
+    public void stopHandle(long handle) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            bundle.stop();
+            streamID = bundle.getStreamID();
+            mHandles.release(bundle);
+            mStreamIds.remove(streamID);
+            updateStreamCount();
+        }
+        mDelegate.stop(streamID);
+        final SoundPoolMetrics metrics = mMetrics;
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_STOPS);
+    }
+
+    /**
+     * Set the stream volume of the handle, see {@link #setVolume(int, float, float)}. Invalid
+     * handles are ignored.
+     */
+    public void setHandleVolume(long handle, float leftVolume, float rightVolume) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            bundle.setVolume(leftVolume, rightVolume);
+            streamID = bundle.getStreamID();
+        }
+        mDelegate.setVolume(streamID, leftVolume, rightVolume);
+    }
+
+    /**
+     * Set the loop mode of the handle, see {@link #setLoop(int, int)}. Invalid handles are
+     * ignored.
+     */
+    public void setHandleLoop(long handle, int loop) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            //setLoop not working with nonzero parameter: "E/AudioTrack: setLoop invalid value"
+            if (loop == 0) bundle.setLoop(loop);
+            streamID = bundle.getStreamID();
+        }
+        mDelegate.setLoop(streamID, loop);
+    }
+
+    /**
+     * Change the playback rate of the handle, see {@link #setRate(int, float)}. Invalid handles
+     * are ignored.
+     */
+    public void setHandleRate(long handle, float rate) {
+        final int streamID;
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            if (bundle == null) return;
+            bundle.setRate(rate);
+            streamID = bundle.getStreamID();
+        }
+        mDelegate.setRate(streamID, rate);
+    }
+
+    /**
+     * Gets the playback position of the handle, see {@link #getStreamPosition(int)}.
+     *
+     * @return the position in milliseconds of the sound, 0 if the handle is invalid
+     */
+    public int getHandlePosition(long handle) {
+        synchronized (mStreamIds) {
+            final SoundBundle bundle = mHandles.get(handle);
+            return bundle != null ? bundle.getPosition() : 0;
+        }
+    }
+
+    /**
+     * Checks the playing state of many streams with a single clock read, see {@link
+     * #isPlaying(int)}. Doesn't allocate, may be called from any thread.
+     *
+     * @param streamIDs
+     *         streamIDs returned by the play() function
+     * @param out
+     *         receives the playing state of every streamID, at least as long as streamIDs
+     * @return the number of the playing streams
+     */
+    public int isPlaying(int[] streamIDs, boolean[] out) {
+        final long now = mClock.currentTimeMillis();
+        int playing = 0;
+        synchronized (mStreamIds) {
+            for (int i = 0; i < streamIDs.length; i++) {
+                final SoundBundle bundle = streamIDs[i] > 0 ? mStreamIds.get(streamIDs[i]) : null;
+                out[i] = bundle != null && bundle.isPlaying(now);
+                if (out[i]) playing++;
+            }
+        }
+        return playing;
+    }
+
+    /**
+     * Gets the streams which are playing or paused, with a single clock read. Doesn't allocate,
+     * may be called from any thread.
+     *
+     * @param out
+     *         receives the streamIDs, as many as fit
+     * @return the number of the active streams, may be greater than the length of out
+     */
+    public int getActiveStreams(int[] out) {
+        final long now = mClock.currentTimeMillis();
+        int count = 0;
+        synchronized (mStreamIds) {
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                final SoundBundle bundle = mStreamIds.valueAt(i);
+                if (bundle.isPlaying(now) || bundle.isPaused()) {
+                    if (count < out.length) out[count] = bundle.getStreamID();
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Takes the snapshot of the streams which are playing or paused, with a single clock read.
+     * Every stream takes {@link #STREAM_STATE_SIZE} ints of the buffer, at the offsets
+     * STREAM_STATE_: the streamID, the soundID, {@link #STREAM_PLAYING} or {@link
+     * #STREAM_PAUSED}, the position of the current run and the remaining time in milliseconds
+     * (-1 for the infinite loop), and the loop mode. Doesn't allocate, may be called from any
+     * thread.
+     *
+     * @param out
+     *         receives the states, as many as fit
+     * @return the number of the active streams, may be greater than the states written
+     */
+    public int getStreamStates(int[] out) {
+        final long now = mClock.currentTimeMillis();
+        int count = 0;
+        synchronized (mStreamIds) {
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                final SoundBundle bundle = mStreamIds.valueAt(i);
+                final int state;
+                if (bundle.isPlaying(now)) {
+                    state = STREAM_PLAYING;
+                } else if (bundle.isPaused()) {
+                    state = STREAM_PAUSED;
+                } else {
+                    continue;
+                }
+                final int offset = count * STREAM_STATE_SIZE;
+                if (offset + STREAM_STATE_SIZE <= out.length) {
+                    out[offset + STREAM_STATE_STREAM_ID] = bundle.getStreamID();
+                    out[offset + STREAM_STATE_SOUND_ID] = bundle.getSoundID();
+                    out[offset + STREAM_STATE_STATE] = state;
+                    out[offset + STREAM_STATE_POSITION] = bundle.getPosition(now);
+                    out[offset + STREAM_STATE_REMAINING] = (int) bundle.getRemainingTime(now);
+                    out[offset + STREAM_STATE_LOOP] = bundle.getLoop();
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Saves the playback state into the Bundle, e.g. in {@code Activity.onSaveInstanceState()},
+     * see {@link #writeSnapshot(OutputStream)}.
+     *
+     * @param outState
+     *         the Bundle to save to
+     * @param key
+     *         the key of the snapshot in the Bundle
+     */
+    public void saveSnapshot(Bundle outState, String key) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeSnapshot(out);
+        } catch (IOException e) {
+            // not thrown by the byte array stream
+            throw new IllegalStateException(e);
+        }
+        outState.putByteArray(key, out.toByteArray());
+    }
+
+    /**
+     * Restores the playback state saved by {@link #saveSnapshot(Bundle, String)}, see {@link
+     * #readSnapshot(Context, InputStream)}.
+     *
+     * @param context
+     *         the application context
+     * @param savedState
+     *         the saved Bundle, may be null
+     * @param key
+     *         the key of the snapshot in the Bundle
+     * @return true if the snapshot is restored, false if the Bundle has no snapshot
+     * @throws IOException
+     *         if the snapshot is malformed
+     */
+    public boolean restoreSnapshot(Context context, Bundle savedState, String key) throws
+            IOException {
+        final byte[] data = savedState != null ? savedState.getByteArray(key) : null;
+        if (data == null) return false;
+        readSnapshot(context, new ByteArrayInputStream(data));
+        return true;
+    }
+
+    /**
+     * Saves the playback state to the file, see {@link #writeSnapshot(OutputStream)}.
+     *
+     * @param file
+     *         the output file
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void saveSnapshot(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            writeSnapshot(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Restores the playback state saved by {@link #saveSnapshot(File)}, see {@link
+     * #readSnapshot(Context, InputStream)}.
+     *
+     * @param context
+     *         the application context
+     * @param file
+     *         the snapshot file
+     * @return true if the snapshot is restored, false if the file doesn't exist
+     * @throws IOException
+     *         if the file is malformed
+     */
+    public boolean restoreSnapshot(Context context, File file) throws IOException {
+        if (!file.exists()) return false;
+        InputStream in = new FileInputStream(file);
+        try {
+            readSnapshot(context, in);
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the compact binary snapshot of the registries: the sounds loaded from a path, a
+     * resource or an asset with their probed durations, and the playing and paused streams with
+     * their timelines. Sounds loaded from a file descriptor or a sound bank can't be reloaded and
+     * are not saved. The stream is not closed.
+     *
+     * @param out
+     *         the output
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        PlaybackSnapshot snapshot = new PlaybackSnapshot();
+        synchronized (mSoundIds) {
+            for (int i = 0; i < mSources.size(); i++) {
+                final int soundID = mSources.keyAt(i);
+                final SoundSource source = mSources.valueAt(i);
+                snapshot.addSound(soundID, source.getType(), source.getPath(), source.getResId(),
+                        mPriorities.get(soundID), mSoundIds.get(soundID),
+                        mProbeStatuses.get(soundID, DurationProber.STATUS_UNKNOWN));
+            }
+        }
+        final long now = mClock.currentTimeMillis();
+        synchronized (mStreamIds) {
+            for (int i = 0; i < mStreamIds.size(); i++) {
+                final SoundBundle bundle = mStreamIds.valueAt(i);
+                final int state;
+                if (bundle.isPlaying(now)) {
+                    state = STREAM_PLAYING;
+                } else if (bundle.isPaused()) {
+                    state = STREAM_PAUSED;
+                } else {
+                    continue;
+                }
+                snapshot.addStream(bundle.getStreamID(), bundle.getSoundID(), state,
+                        bundle.getLoop(), bundle.getRate(), bundle.getPosition(now),
+                        (int) bundle.getRemainingTime(now), bundle.getLeftVolume(),
+                        bundle.getRightVolume(), bundle.getPriority());
+            }
+        }
+        snapshot.write(out);
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Snapshot saved: " + snapshot.soundCount + " sounds, " +
+                    snapshot.streamCount + " streams");
+        }
+    }
+
+    /**
+     * Restores the snapshot written by {@link #writeSnapshot(OutputStream)}, e.g. into a new pool
+     * after the Activity is recreated. The sounds are reloaded in the order of the descending
+     * priority, with the saved durations instead of the probing. The looping streams are resumed
+     * (paused ones stay paused) when their sounds are loaded, at the saved position if the
+     * backend supports seeking, otherwise from the start of the current run. One-shot streams are
+     * not resumed.
+     * <p/>
+     * The sound and stream IDs change, use {@link #getRestoredSoundID(int)} and {@link
+     * #getRestoredStreamID(int)} to map the saved IDs. The stream is not closed.
+     *
+     * @param context
+     *         the application context to reload the resources and assets
+     * @param in
+     *         the stream with the snapshot data
+     * @throws IOException
+     *         if the data is malformed
+     */
+    public void readSnapshot(Context context, InputStream in) throws IOException {
+        final PlaybackSnapshot snapshot = PlaybackSnapshot.read(in);
+
+        synchronized (mSoundIds) {
+            mRestoreCompletions = new SparseIntArray();
+        }
+        mRestoring = true;
+        // saved sound ID -> [new sound ID, saved duration]
+        final SparseArray<int[]> sounds = new SparseArray<>(snapshot.soundCount);
+        for (int index : snapshot.getLoadOrder()) {
+            int soundID;
+            try {
+                soundID = loadRestored(context, snapshot, index);
+            } catch (IOException e) {
+                Log.w(TAG, "Snapshot sound " + snapshot.paths[index] + " can't be reloaded", e);
+                soundID = 0;
+            }
+            if (soundID > 0) {
+                sounds.put(snapshot.soundIDs[index], new int[]{soundID,
+                        snapshot.durations[index]});
+            }
+        }
+
+        final SparseIntArray completions;
+        synchronized (mSoundIds) {
+            for (int i = 0; i < sounds.size(); i++) {
+                mRestoredSounds.put(sounds.keyAt(i), sounds.valueAt(i)[0]);
+            }
+            for (int i = 0; i < snapshot.streamCount; i++) {
+                final int[] sound = sounds.get(snapshot.streamSounds[i]);
+                if (sound == null || snapshot.loops[i] == 0) continue;
+                if (mPendingStreams == null) mPendingStreams = new ArrayList<>();
+                mPendingStreams.add(new PendingStream(snapshot, i, sound[0], sound[1]));
+            }
+            completions = mRestoreCompletions;
+            mRestoreCompletions = null;
+            if (mPendingStreams == null) mRestoring = false;
+        }
+        for (int i = 0; i < completions.size(); i++) {
+            onRestoredSoundLoaded(completions.keyAt(i), completions.valueAt(i));
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.v(TAG, "Snapshot restored: " + sounds.size() + " of " + snapshot.soundCount +
+                    " sounds");
+        }
+    }
+
+    /**
+     * Reloads the sound of the snapshot.
+     *
+     * @return the sound ID or 0 if the source type can't be reloaded
+     */
+    private int loadRestored(Context context, PlaybackSnapshot snapshot, int index) throws
+            IOException {
+        final int priority = snapshot.priorities[index];
+        final String path = snapshot.paths[index];
+        final SoundSource source;
+        switch (snapshot.types[index]) {
+            case SoundSource.TYPE_PATH:
+                source = SoundSource.fromPath(path);
+                break;
+            case SoundSource.TYPE_RESOURCE:
+                source = SoundSource.fromResource(context, snapshot.resIds[index]);
+                break;
+            case SoundSource.TYPE_ASSET:
+                source = SoundSource.fromAsset(context, path);
+                break;
+            case SoundSource.TYPE_URI:
+                // the content may be changed, the header is read again
+                return SoundSource.fromUri(context, Uri.parse(path)).load(this, priority);
+            default:
+                Log.w(TAG, "Snapshot sound of type " + snapshot.types[index] + " can't be " +
+                        "reloaded");
+                return 0;
+        }
+        final int probeStatus = snapshot.probeStatuses[index];
+        if (probeStatus != DurationProber.STATUS_OK &&
+                probeStatus != DurationProber.STATUS_METADATA) {
+            // the duration is unknown, probe again
+            return source.load(this, priority);
+        }
+
+        // the duration is known, only the header is read for the stream parameters
+        final SoundManifest manifest = mManifest;
+        final int soundID;
+        AudioHeader header = null;
+        switch (source.getType()) {
+            case SoundSource.TYPE_PATH:
+                header = readHeader(path);
+                soundID = loadDelegate(path, priority, snapshot.durations[index], header);
+                break;
+            case SoundSource.TYPE_RESOURCE: {
+                final int resId = snapshot.resIds[index];
+                final int entry = manifest != null ? manifest.indexOf(context, resId) : -1;
+                if (entry >= 0) {
+                    header = getManifestHeader(manifest, entry);
+                } else {
+                    AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+                    if (afd != null) {
+                        try {
+                            header = readHeader(afd.getFileDescriptor(), afd.getStartOffset(),
+                                    afd.getLength());
+                        } finally {
+                            afd.close();
+                        }
+                    }
+                }
+                soundID = loadDelegate(context, resId, priority, snapshot.durations[index],
+                        header);
+                break;
+            }
+            default:
+                final int entry = manifest != null ? manifest.indexOf(path) : -1;
+                AssetFileDescriptor afd = context.getAssets().openFd(path);
+                try {
+                    header = entry >= 0 ? getManifestHeader(manifest, entry) :
+                            readHeader(afd.getFileDescriptor(), afd.getStartOffset(),
+                                    afd.getLength());
+                    soundID = loadDelegate(afd, priority, snapshot.durations[index],
+                            header);
+                } finally {
+                    afd.close();
+                }
+        }
+        if (soundID > 0) {
+            putSound(soundID, snapshot.durations[index], probeStatus, header, source, priority);
+        }
+        return soundID;
+    }
+
+    /**
+     * Resumes the snapshot streams of the loaded sound.
+     */
+    private void onRestoredSoundLoaded(int soundID, int status) {
+        ArrayList<PendingStream> ready = null;
+        synchronized (mSoundIds) {
+            if (mRestoreCompletions != null) {
+                // the snapshot streams aren't registered yet
+                mRestoreCompletions.put(soundID, status);
+                return;
+            }
+            if (mPendingStreams == null) return;
+            int i = 0;
+            while (i < mPendingStreams.size()) {
+                final PendingStream stream = mPendingStreams.get(i);
+                if (stream.soundID != soundID) {
+                    i++;
+                    continue;
+                }
+                mPendingStreams.remove(i);
+                if (status == 0) {
+                    if (ready == null) ready = new ArrayList<>();
+                    ready.add(stream);
+                }
+            }
+            if (mPendingStreams.isEmpty()) {
+                mPendingStreams = null;
+                mRestoring = false;
+            }
+        }
+        if (ready == null) return;
+        for (PendingStream stream : ready) {
+            resumeStream(stream);
+        }
+    }
+
+    private void resumeStream(PendingStream stream) {
+        final boolean paused = stream.state == STREAM_PAUSED;
+        // paused streams are started silent and paused at once
+        final int streamID = play(stream.soundID, paused ? 0 : stream.leftVolume,
+                paused ? 0 : stream.rightVolume, stream.priority, stream.loop, stream.rate);
+        if (streamID == 0) return;
+        if (stream.position > 0) seek(streamID, stream.position);
+        if (paused) {
+            pause(streamID);
+            setVolume(streamID, stream.leftVolume, stream.rightVolume);
+        }
+        synchronized (mSoundIds) {
+            mRestoredStreams.put(stream.savedStreamID, streamID);
+        }
+    }
+
+    /**
+     * Maps the soundID of a restored snapshot to the soundID of this pool.
+     *
+     * @param soundID
+     *         the soundID when the snapshot was saved
+     * @return the soundID or 0 if the sound isn't restored
+     */
+    public int getRestoredSoundID(int soundID) {
+        synchronized (mSoundIds) {
+            return mRestoredSounds.get(soundID);
+        }
+    }
+
+    /**
+     * Maps the streamID of a restored snapshot to the streamID of this pool. The streams are
+     * resumed when their sounds are loaded.
+     *
+     * @param streamID
+     *         the streamID when the snapshot was saved
+     * @return the streamID or 0 if the stream isn't resumed (yet)
+     */
+    public int getRestoredStreamID(int streamID) {
+        synchronized (mSoundIds) {
+            return mRestoredStreams.get(streamID);
+        }
+    }
+
+    /**
+     * Looping stream of a snapshot waiting for its sound to be loaded.
+     */
+    private static final class PendingStream {
+        final int savedStreamID;
+        final int soundID;
+        final int state;
+        final int loop;
+        final float rate;
+        final int position;
+        final float leftVolume;
+        final float rightVolume;
+        final int priority;
+
+        PendingStream(PlaybackSnapshot snapshot, int index, int soundID, int duration) {
+            this.savedStreamID = snapshot.streamIDs[index];
+            this.soundID = soundID;
+            this.state = snapshot.states[index];
+            this.rate = snapshot.rates[index];
+            this.position = snapshot.positions[index];
+            this.leftVolume = snapshot.leftVolumes[index];
+            this.rightVolume = snapshot.rightVolumes[index];
+            this.priority = snapshot.streamPriorities[index];
+
+            int loop = snapshot.loops[index];
+            final int runDuration = (int) (duration / rate);
+            if (loop > 0 && runDuration > 0) {
+                // the repeats left after the current run
+                final int currentRunLeft = runDuration - (int) (position / rate);
+                loop = Math.max(0, Math.round((float) (snapshot.remaining[index] -
+                        currentRunLeft) / runDuration));
+            }
+            this.loop = loop;
+        }
+    }
+
     /**
      * Builder class for {@link SoundPoolEx} objects.
      */
     @TargetApi (Build.VERSION_CODES.LOLLIPOP)
     public static class Builder {
         private final SoundPool.Builder builder;
+        private SoundManifest manifest;
+        private int asyncCapacity;
+        private SoundPoolMetrics metrics;
+        private LoadTracer tracer;
+        private DurationProber prober;
+        private final List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        private long idleTimeout;
+        private PcmCache pcmCache;
 
         /**
          * Constructs a new Builder with the defaults format values. If not provided, the maximum
@@ -493,9 +2325,139 @@ public class SoundPoolEx implements ISoundPool {
             return this;
         }
 
+        /**
+         * Sets the build-time generated sounds metadata, see {@link SoundManifest}.
+         *
+         * @param manifest
+         *         the manifest or null to probe every sound
+         * @return the same Builder instance
+         */
+        public Builder setSoundManifest(SoundManifest manifest) {
+            this.manifest = manifest;
+            return this;
+        }
+
+        /**
+         * Enables the asynchronous mode: the SoundPool is controlled from a dedicated thread
+         * through the {@link AsyncSoundPool} command queue, so playback calls never block on the
+         * native locks. Stream IDs returned by the pool are the AsyncSoundPool handles; a play
+         * which the SoundPool rejects after the handle is returned removes the stream and counts
+         * as rejected.
+         *
+         * @param queueCapacity
+         *         the command queue capacity or 0 to call the SoundPool directly
+         * @return the same Builder instance
+         */
+        public Builder setAsync(int queueCapacity) {
+            this.asyncCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Enables the metrics of the load and playback paths, see {@link SoundPoolMetrics}.
+         *
+         * @param metrics
+         *         the metrics recorder or null to disable the metrics
+         * @return the same Builder instance
+         */
+        public Builder setMetrics(SoundPoolMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Enables the span tracing of the load pipeline, see {@link LoadTracer}.
+         *
+         * @param tracer
+         *         the tracer or null to disable the tracing
+         * @return the same Builder instance
+         */
+        public Builder setLoadTracer(LoadTracer tracer) {
+            this.tracer = tracer;
+            return this;
+        }
+
+        /**
+         * Sets the duration prober with custom limits, see {@link DurationProber}.
+         *
+         * @param prober
+         *         the prober or null to use the default one
+         * @return the same Builder instance
+         */
+        public Builder setDurationProber(DurationProber prober) {
+            this.prober = prober;
+            return this;
+        }
+
+        /**
+         * Adds a layer between the SoundPoolEx and its backend, see {@link SoundPoolInterceptor}.
+         * The layers are called in the order they are added, on the calling thread also in the
+         * asynchronous mode.
+         *
+         * @param interceptor
+         *         the interceptor
+         * @return the same Builder instance
+         */
+        public Builder addInterceptor(SoundPoolInterceptor interceptor) {
+            interceptors.add(interceptor);
+            return this;
+        }
+
+        /**
+         * Enables the idle hibernation: the native SoundPool is released after the timeout
+         * without active streams and rebuilt on the next play, see {@link
+         * HibernatingSoundPool}.
+         *
+         * @param timeout
+         *         the idle time in milliseconds or 0 to keep the SoundPool alive
+         * @return the same Builder instance
+         */
+        public Builder setIdleTimeout(long timeout) {
+            this.idleTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Enables the decode-once cache of the compressed sounds, see {@link PcmCache}.
+         *
+         * @param cache
+         *         the cache or null to load the sources directly
+         * @return the same Builder instance
+         */
+        public Builder setPcmCache(PcmCache cache) {
+            this.pcmCache = cache;
+            return this;
+        }
+
         public SoundPoolEx build() {
-            SoundPool soundPool = builder.build();
-            return new SoundPoolEx(soundPool);
+            ISoundPool delegate;
+            HibernatingSoundPool hibernating = null;
+            if (idleTimeout > 0) {
+                hibernating = new HibernatingSoundPool(new HibernatingSoundPool.Factory() {
+                    @Override
+                    public ISoundPool create() {
+                        return new SoundPoolAdapter(builder.build());
+                    }
+                }, idleTimeout);
+                delegate = hibernating;
+            } else {
+                delegate = new SoundPoolAdapter(builder.build());
+            }
+            AsyncSoundPool async = null;
+            if (asyncCapacity > 0) {
+                async = new AsyncSoundPool(delegate, asyncCapacity);
+                delegate = async;
+            }
+            delegate = ForwardingSoundPool.chain(delegate, interceptors);
+            SoundPoolEx soundPoolEx = new SoundPoolEx(delegate);
+            if (hibernating != null) hibernating.setActivityMonitor(soundPoolEx);
+            if (async != null) async.setRejectionMonitor(soundPoolEx);
+            soundPoolEx.setSoundManifest(manifest);
+            soundPoolEx.setMetrics(metrics);
+            soundPoolEx.setLoadTracer(tracer);
+            if (prober != null) soundPoolEx.setDurationProber(prober);
+            soundPoolEx.setPcmCache(pcmCache);
+            return soundPoolEx;
         }
     }
 
@@ -0,0 +1,23 @@
+package com.kry.soundpoolex;
+
+/**
+ * Factory of an {@link ISoundPool} layer, added to the call chain by the builders, see {@link
+ * SoundPoolEx.Builder#addInterceptor(SoundPoolInterceptor)}. Interceptors usually return a
+ * {@link ForwardingSoundPool} subclass which overrides only the intercepted calls.
+ * <p/>
+ * The chain is assembled once and every layer calls the next pool through a final field, so
+ * there is no per-call dispatch over a list. A layer which declares the calls it overrides skips
+ * itself for the other calls, see {@link ForwardingSoundPool#ForwardingSoundPool(ISoundPool,
+ * int)}. An interceptor of a disabled feature returns the next pool unchanged and costs nothing
+ * per call; with no layer in the chain the builders return the backend itself.
+ */
+public interface SoundPoolInterceptor {
+    /**
+     * Wraps the next pool of the chain.
+     *
+     * @param next
+     *         the pool the layer delegates to
+     * @return the layer or {@code next} itself to stay out of the chain
+     */
+    ISoundPool intercept(ISoundPool next);
+}
@@ -0,0 +1,292 @@
+package com.kry.soundpoolex;
+
+import android.os.SystemClock;
+import android.util.SparseIntArray;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead metrics of the SoundPoolEx load and playback paths. Counters and histograms are
+ * accumulated in per-thread stripes of an {@link AtomicLongArray}, so concurrent updates don't
+ * contend; {@link #snapshot()} sums the stripes. Metrics are disabled unless an instance is set
+ * with {@link SoundPoolEx#setMetrics(SoundPoolMetrics)}, which costs a single null check per call.
+ * <p/>
+ * Histograms have power of two buckets: bucket {@code i} counts values in {@code [2^(i-1),
+ * 2^i)}, bucket 0 counts zeros.
+ */
+public final class SoundPoolMetrics {
+    public static final int COUNTER_LOADS = 0;
+    public static final int COUNTER_UNLOADS = 1;
+    public static final int COUNTER_PLAYS = 2;
+    /**
+     * Plays returned streamID == 0
+     */
+    public static final int COUNTER_PLAYS_REJECTED = 3;
+    public static final int COUNTER_PAUSES = 4;
+    public static final int COUNTER_RESUMES = 5;
+    public static final int COUNTER_AUTO_PAUSES = 6;
+    public static final int COUNTER_AUTO_RESUMES = 7;
+    public static final int COUNTER_STOPS = 8;
+    /**
+     * Loads reported as failed by the load complete listener
+     */
+    public static final int COUNTER_LOADS_FAILED = 9;
+    /**
+     * Loads submitted by the {@link SoundPredictor}
+     */
+    public static final int COUNTER_PRELOADS = 10;
+    /**
+     * Plays of the sounds preloaded by the {@link SoundPredictor}
+     */
+    public static final int COUNTER_PRELOAD_HITS = 11;
+    /**
+     * On demand loads of the sounds registered in the {@link SoundPredictor}
+     */
+    public static final int COUNTER_PRELOAD_MISSES = 12;
+    private static final int COUNTERS = 13;
+
+    /**
+     * Duration probing time of a load, in microseconds
+     */
+    public static final int HISTOGRAM_LOAD_PROBE_US = 0;
+    /**
+     * Time of the delegate load call, in microseconds
+     */
+    public static final int HISTOGRAM_LOAD_SUBMIT_US = 1;
+    /**
+     * Time from the return of the delegate load call to the load complete callback (native
+     * decode), in milliseconds
+     */
+    public static final int HISTOGRAM_LOAD_DECODE_MS = 2;
+    private static final int HISTOGRAMS = 3;
+    public static final int HISTOGRAM_BUCKETS = 40;
+
+    private static final int STRIPES = 8;
+    private static final int HISTOGRAM_SIZE = HISTOGRAM_BUCKETS + 2; // buckets, count, sum
+    private static final int CELLS = COUNTERS + HISTOGRAMS * HISTOGRAM_SIZE;
+    /**
+     * Stripe stride padded to keep the stripes on different cache lines
+     */
+    private static final int STRIDE = CELLS + 8;
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * STRIDE);
+    private final AtomicLong mPeakStreams = new AtomicLong();
+    private volatile int mSoundCount;
+    private volatile int mStreamCount;
+
+    private final long mBaseTime = SystemClock.elapsedRealtime();
+    /**
+     * Load start times '<'SoundID, time from mBaseTime'>'
+     */
+    private final SparseIntArray mLoadStarts = new SparseIntArray();
+
+    private static int stripe() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+    }
+
+    private static int bucket(long value) {
+        int bucket = 64 - Long.numberOfLeadingZeros(value);
+        return bucket < HISTOGRAM_BUCKETS ? bucket : HISTOGRAM_BUCKETS - 1;
+    }
+
+    /**
+     * Increments the counter.
+     *
+     * @param counter
+     *         one of the COUNTER_ constants
+     */
+    void increment(int counter) {
+        mCells.incrementAndGet(stripe() + counter);
+    }
+
+    /**
+     * Adds to the counter.
+     *
+     * @param counter
+     *         one of the COUNTER_ constants
+     * @param delta
+     *         the value to add
+     */
+    void add(int counter, long delta) {
+        mCells.addAndGet(stripe() + counter, delta);
+    }
+
+    /**
+     * Records the value into the histogram.
+     *
+     * @param histogram
+     *         one of the HISTOGRAM_ constants
+     * @param value
+     *         a non-negative value
+     */
+    void record(int histogram, long value) {
+        if (value < 0) value = 0;
+        int base = stripe() + COUNTERS + histogram * HISTOGRAM_SIZE;
+        mCells.incrementAndGet(base + bucket(value));
+        mCells.incrementAndGet(base + HISTOGRAM_BUCKETS);
+        mCells.addAndGet(base + HISTOGRAM_BUCKETS + 1, value);
+    }
+
+    /**
+     * Updates the size of the sound registry.
+     */
+    void setSoundCount(int soundCount) {
+        mSoundCount = soundCount;
+    }
+
+    /**
+     * Updates the size of the stream registry and the peak of the concurrent streams.
+     */
+    void setStreamCount(int streamCount) {
+        mStreamCount = streamCount;
+        long peak;
+        while (streamCount > (peak = mPeakStreams.get())) {
+            if (mPeakStreams.compareAndSet(peak, streamCount)) break;
+        }
+    }
+
+    void loadStarted(int soundID) {
+        int now = (int) (SystemClock.elapsedRealtime() - mBaseTime);
+        synchronized (mLoadStarts) {
+            mLoadStarts.put(soundID, now);
+        }
+    }
+
+    void loadCompleted(int soundID, int status) {
+        int now = (int) (SystemClock.elapsedRealtime() - mBaseTime);
+        int start;
+        synchronized (mLoadStarts) {
+            int index = mLoadStarts.indexOfKey(soundID);
+            if (index < 0) return;
+            start = mLoadStarts.valueAt(index);
+            mLoadStarts.removeAt(index);
+        }
+        if (status != 0) increment(COUNTER_LOADS_FAILED);
+        record(HISTOGRAM_LOAD_DECODE_MS, now - start);
+    }
+
+    /**
+     * Takes the snapshot of the metrics. The snapshot is consistent per cell, concurrent updates
+     * may be partially included.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] cells = new long[CELLS];
+        for (int s = 0; s < STRIPES; s++) {
+            for (int i = 0; i < CELLS; i++) {
+                cells[i] += mCells.get(s * STRIDE + i);
+            }
+        }
+        return new Snapshot(cells, mPeakStreams.get(), mSoundCount, mStreamCount);
+    }
+
+    /**
+     * Resets the counters, histograms and the peak of the concurrent streams.
+     */
+    public void reset() {
+        for (int i = 0; i < mCells.length(); i++) {
+            mCells.set(i, 0);
+        }
+        mPeakStreams.set(0);
+    }
+
+    /**
+     * Immutable metrics values
+     */
+    public static final class Snapshot {
+        private final long[] mCells;
+        private final long mPeakStreams;
+        private final int mSoundCount;
+        private final int mStreamCount;
+
+        private Snapshot(long[] cells, long peakStreams, int soundCount, int streamCount) {
+            mCells = cells;
+            mPeakStreams = peakStreams;
+            mSoundCount = soundCount;
+            mStreamCount = streamCount;
+        }
+
+        /**
+         * @param counter
+         *         one of the COUNTER_ constants
+         * @return the counter value
+         */
+        public long getCounter(int counter) {
+            return mCells[counter];
+        }
+
+        /**
+         * @return the peak number of the concurrent streams: the playing and the paused ones, a
+         * finished stream counts until it's pruned from the stream registry
+         */
+        public long getPeakStreams() {
+            return mPeakStreams;
+        }
+
+        /**
+         * @return the size of the sound registry
+         */
+        public int getSoundCount() {
+            return mSoundCount;
+        }
+
+        /**
+         * @return the size of the stream registry
+         */
+        public int getStreamCount() {
+            return mStreamCount;
+        }
+
+        /**
+         * @param histogram
+         *         one of the HISTOGRAM_ constants
+         * @return the number of the recorded values
+         */
+        public long getCount(int histogram) {
+            return mCells[COUNTERS + histogram * HISTOGRAM_SIZE + HISTOGRAM_BUCKETS];
+        }
+
+        /**
+         * @param histogram
+         *         one of the HISTOGRAM_ constants
+         * @return the sum of the recorded values
+         */
+        public long getSum(int histogram) {
+            return mCells[COUNTERS + histogram * HISTOGRAM_SIZE + HISTOGRAM_BUCKETS + 1];
+        }
+
+        /**
+         * @param histogram
+         *         one of the HISTOGRAM_ constants
+         * @param bucket
+         *         the bucket index, 0 to {@link #HISTOGRAM_BUCKETS} - 1
+         * @return the number of the values in the bucket
+         */
+        public long getBucket(int histogram, int bucket) {
+            return mCells[COUNTERS + histogram * HISTOGRAM_SIZE + bucket];
+        }
+
+        /**
+         * Returns the upper bound of the bucket containing the percentile.
+         *
+         * @param histogram
+         *         one of the HISTOGRAM_ constants
+         * @param percentile
+         *         the percentile, 0 to 100
+         * @return the upper bound of the values below the percentile or 0 if nothing is recorded
+         */
+        public long getPercentile(int histogram, double percentile) {
+            long count = getCount(histogram);
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += getBucket(histogram, i);
+                if (seen >= rank) return i == 0 ? 0 : (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package com.kry.soundpoolex;
+
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Predictive preloader of a {@link SoundPoolEx}. Every play of a registered sound updates a
+ * first-order model of the play sequence: the counts of the transitions between the sounds, kept
+ * in a bounded open addressing table; when the table fills up, all counts are halved and the
+ * rare transitions are dropped. After a play, the likely next sounds are selected and preloaded
+ * when the {@link LoadScheduler} is idle, on its thread, so they are loaded within its CPU/IO
+ * budget; registered sounds beyond {@link #setMaxLoaded(int)} are unloaded by the same idle task,
+ * the least likely to follow the last play first. A play only records the transition. Rejected
+ * plays aren't recorded.
+ * <p/>
+ * Sounds are identified by their {@link SoundSource#getKey()} so the model can be saved and
+ * restored in the next session, when the sound IDs differ. Preloads use the scheduler priorities
+ * -100 to 0 (the probability in percent minus 100), so loads with a positive priority go first.
+ * <p/>
+ * The hit rate is reported through {@link SoundPoolMetrics#COUNTER_PRELOAD_HITS} and {@link
+ * SoundPoolMetrics#COUNTER_PRELOAD_MISSES}, and by {@link #getHitRate()}.
+ */
+public class SoundPredictor {
+    private final static String TAG = "SoundPredictor";
+
+    private static final int MAGIC = 0x53505044;
+    private static final int VERSION = 1;
+    /**
+     * LoadScheduler group of the preloads
+     */
+    public static final int GROUP_PRELOAD = 0x7072656C;
+    private static final int MAX_COUNT = 1 << 20;
+
+    private final SoundPoolEx mPool;
+    private final LoadScheduler mScheduler;
+    private final Object mLock = new Object();
+
+    // transition table, open addressing with linear probing
+    private final int mMask;
+    private final int mMaxSize;
+    private long[] mTransitions;
+    private int[] mCounts;
+    private int mSize;
+
+    // sounds, indexed by the key index
+    private final HashMap<String, Integer> mKeyIndexes = new HashMap<>();
+    private String[] mKeys = new String[16];
+    private SoundSource[] mSources = new SoundSource[16];
+    private int[] mSoundIds = new int[16];
+    private int[] mTickets = new int[16];
+    private boolean[] mPreloaded = new boolean[16];
+    private long[] mLastUsed = new long[16];
+    private int[] mRowTotals = new int[16];
+    /**
+     * Table slots of the transitions from the sound, indexed by the key index
+     */
+    private int[][] mRowSlots = new int[16][];
+    private int[] mRowSizes = new int[16];
+    private int mKeyCount;
+    /**
+     * Key indexes of the loaded sounds '<'SoundID, key index'>'
+     */
+    private final SparseIntArray mSoundKeys = new SparseIntArray();
+
+    private int mPreviousKey = -1;
+    /**
+     * The key index of the last play waiting for the preload of its followers or -1
+     */
+    private int mPreloadKey = -1;
+    /**
+     * The key index of the last play waiting for the unloads over the limit or -1
+     */
+    private int mEvictKey = -1;
+    private long mUseClock;
+    private volatile float mMinProbability = 0.2f;
+    private volatile int mMaxLoaded;
+    private int[] mCandidateKeys = new int[3];
+    private int[] mCandidateCounts = new int[3];
+
+    private long mHits;
+    private long mMisses;
+
+    private final LoadScheduler.Callback mPreloadCallback = new LoadScheduler.Callback() {
+        @Override
+        public void onSoundLoaded(int ticket, int soundID, int status) {
+            onPreloaded(ticket, soundID, status);
+        }
+    };
+
+    private final Runnable mIdleTask = new Runnable() {
+        @Override
+        public void run() {
+            int[] victims = null;
+            synchronized (mLock) {
+                if (mPreloadKey >= 0) preloadCandidates(mPreloadKey);
+                if (mEvictKey >= 0 && mMaxLoaded > 0 && mSoundKeys.size() > mMaxLoaded) {
+                    victims = selectVictims(mEvictKey);
+                }
+                mPreloadKey = -1;
+                mEvictKey = -1;
+            }
+            if (victims != null) {
+                for (int victim : victims) {
+                    if (victim > 0) mPool.unload(victim);
+                }
+            }
+        }
+    };
+
+    /**
+     * Constructor. Starts recording the plays of the pool.
+     *
+     * @param pool
+     *         the pool to observe
+     * @param scheduler
+     *         the scheduler of the preloads into the pool
+     * @param capacity
+     *         the maximum number of the transitions kept
+     */
+    public SoundPredictor(SoundPoolEx pool, LoadScheduler scheduler, int capacity) {
+        mPool = pool;
+        mScheduler = scheduler;
+        int size = Integer.highestOneBit(Math.max(4, capacity * 4 / 3) - 1) << 1;
+        mMask = size - 1;
+        mMaxSize = size * 3 / 4;
+        mTransitions = new long[size];
+        mCounts = new int[size];
+        pool.setPredictor(this);
+    }
+
+    /**
+     * Sets the number of the likely next sounds preloaded after a play.
+     *
+     * @param count
+     *         the number of the candidates, 0 disables the preloading
+     */
+    public void setPreloadCount(int count) {
+        synchronized (mLock) {
+            mCandidateKeys = new int[count];
+            mCandidateCounts = new int[count];
+        }
+    }
+
+    /**
+     * Sets the minimum probability of the sound to follow the last play to be preloaded.
+     *
+     * @param probability
+     *         0 to 1
+     */
+    public void setMinProbability(float probability) {
+        mMinProbability = probability;
+    }
+
+    /**
+     * Sets the maximum number of the loaded registered sounds.
+     *
+     * @param maxLoaded
+     *         the limit or 0 to never unload
+     */
+    public void setMaxLoaded(int maxLoaded) {
+        mMaxLoaded = maxLoaded;
+    }
+
+    /**
+     * Registers the sound source.
+     *
+     * @param source
+     *         the source with a stable key, see {@link SoundSource#getKey()}
+     * @return the key index of the sound
+     */
+    public int register(SoundSource source) {
+        String key = source.getKey();
+        if (key == null) throw new IllegalArgumentException("The source has no stable key");
+        synchronized (mLock) {
+            int k = keyIndex(key);
+            mSources[k] = source;
+            return k;
+        }
+    }
+
+    /**
+     * Gets the sound ID of the registered sound.
+     *
+     * @param key
+     *         the key index returned by {@link #register(SoundSource)}
+     * @return the sound ID or 0 if the sound isn't loaded
+     */
+    public int getSoundID(int key) {
+        synchronized (mLock) {
+            return mSoundIds[key];
+        }
+    }
+
+    /**
+     * Gets the sound ID of the registered sound, loading it on demand if it isn't preloaded.
+     *
+     * @param key
+     *         the key index returned by {@link #register(SoundSource)}
+     * @param priority
+     *         the priority of the sound
+     * @return the sound ID
+     * @throws IOException
+     *         if the source can't be read
+     */
+    public int load(int key, int priority) throws IOException {
+        SoundSource source;
+        int ticket;
+        synchronized (mLock) {
+            if (mSoundIds[key] > 0) return mSoundIds[key];
+            source = mSources[key];
+            ticket = mTickets[key];
+            mTickets[key] = 0;
+            mMisses++;
+        }
+        if (source == null) throw new IllegalStateException("The sound isn't registered");
+        final SoundPoolMetrics metrics = mPool.getMetrics();
+        if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PRELOAD_MISSES);
+        if (ticket > 0) mScheduler.cancel(ticket);
+
+        int soundID = source.load(mPool, priority);
+        if (soundID > 0) {
+            synchronized (mLock) {
+                putSound(key, soundID, false);
+            }
+        }
+        return soundID;
+    }
+
+    /**
+     * @return the share of the plays of the preloaded sounds among the plays of the preloaded
+     * and the loads on demand, 0 to 1
+     */
+    public float getHitRate() {
+        synchronized (mLock) {
+            long total = mHits + mMisses;
+            return total == 0 ? 0 : (float) mHits / total;
+        }
+    }
+
+    /**
+     * Stops recording the plays. Pending preloads are cancelled, loaded sounds stay loaded.
+     */
+    public void release() {
+        mPool.setPredictor(null);
+        mScheduler.cancelGroup(GROUP_PRELOAD);
+    }
+
+    void onPlay(int soundID) {
+        final boolean idle;
+        synchronized (mLock) {
+            int k = mSoundKeys.get(soundID, -1);
+            if (k < 0) return;
+            if (mPreloaded[k]) {
+                mPreloaded[k] = false;
+                mHits++;
+                final SoundPoolMetrics metrics = mPool.getMetrics();
+                if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PRELOAD_HITS);
+            }
+            mLastUsed[k] = ++mUseClock;
+            if (mPreviousKey >= 0) increment(mPreviousKey, k, 1);
+            mPreviousKey = k;
+
+            mPreloadKey = mCandidateKeys.length > 0 && mRowTotals[k] > 0 ? k : -1;
+            // the victims are selected on the scheduler thread, the scan queries the pool
+            mEvictKey = mMaxLoaded > 0 && mSoundKeys.size() > mMaxLoaded ? k : -1;
+            idle = mPreloadKey >= 0 || mEvictKey >= 0;
+        }
+        if (idle) mScheduler.runWhenIdle(mIdleTask);
+    }
+
+    void onUnload(int soundID) {
+        synchronized (mLock) {
+            int k = mSoundKeys.get(soundID, -1);
+            if (k < 0) return;
+            mSoundKeys.delete(soundID);
+            mSoundIds[k] = 0;
+            mPreloaded[k] = false;
+        }
+    }
+
+    private void onPreloaded(int ticket, int soundID, int status) {
+        synchronized (mLock) {
+            for (int k = 0; k < mKeyCount; k++) {
+                if (mTickets[k] == ticket) {
+                    mTickets[k] = 0;
+                    if (soundID > 0 && status == 0 && mSoundIds[k] == 0) {
+                        putSound(k, soundID, true);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void putSound(int k, int soundID, boolean preloaded) {
+        mSoundIds[k] = soundID;
+        mPreloaded[k] = preloaded;
+        mSoundKeys.put(soundID, k);
+    }
+
+    /**
+     * Enqueues the preloads of the likely followers of the sound. Only the row of the sound is
+     * scanned, not the whole table.
+     */
+    private void preloadCandidates(int from) {
+        final int candidates = mCandidateKeys.length;
+        final int total = mRowTotals[from];
+        if (candidates == 0 || total == 0) return;
+
+        final int[] slots = mRowSlots[from];
+        final int size = mRowSizes[from];
+        int found = 0;
+        for (int r = 0; r < size; r++) {
+            final int i = slots[r];
+            final long transition = mTransitions[i];
+            final int count = mCounts[i];
+            // insertion into the top candidates
+            int j = found < candidates ? found++ : candidates;
+            while (j > 0 && mCandidateCounts[j - 1] < count) {
+                if (j < candidates) {
+                    mCandidateKeys[j] = mCandidateKeys[j - 1];
+                    mCandidateCounts[j] = mCandidateCounts[j - 1];
+                }
+                j--;
+            }
+            if (j < candidates) {
+                mCandidateKeys[j] = toKey(transition);
+                mCandidateCounts[j] = count;
+            }
+        }
+
+        final SoundPoolMetrics metrics = mPool.getMetrics();
+        for (int c = 0; c < found; c++) {
+            final int k = mCandidateKeys[c];
+            final float probability = (float) mCandidateCounts[c] / total;
+            if (probability < mMinProbability) break;
+            if (mSoundIds[k] > 0 || mTickets[k] > 0 || mSources[k] == null) continue;
+
+            mTickets[k] = mScheduler.enqueue(mSources[k], (int) (probability * 100) - 100,
+                    GROUP_PRELOAD, mPreloadCallback);
+            if (metrics != null) metrics.increment(SoundPoolMetrics.COUNTER_PRELOADS);
+        }
+    }
+
+    /**
+     * Selects the loaded sounds to unload: the least likely to follow the sound, then the least
+     * recently used. Playing sounds are kept.
+     */
+    private int[] selectVictims(int from) {
+        int excess = mSoundKeys.size() - mMaxLoaded;
+        int[] victims = new int[excess];
+        int victimCount = 0;
+        while (victimCount < excess) {
+            int victim = -1;
+            int victimScore = 0;
+            for (int i = 0; i < mSoundKeys.size(); i++) {
+                final int k = mSoundKeys.valueAt(i);
+                if (k == from || mPool.isSoundPlaying(mSoundIds[k])) continue;
+                if (contains(victims, victimCount, mSoundIds[k])) continue;
+                final int count = count(from, k);
+                if (victim < 0 || count < victimScore ||
+                        (count == victimScore && mLastUsed[k] < mLastUsed[victim])) {
+                    victim = k;
+                    victimScore = count;
+                }
+            }
+            if (victim < 0) break;
+            victims[victimCount++] = mSoundIds[victim];
+        }
+        return victims;
+    }
+
+    private static boolean contains(int[] array, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (array[i] == value) return true;
+        }
+        return false;
+    }
+
+    private int keyIndex(String key) {
+        Integer index = mKeyIndexes.get(key);
+        if (index != null) return index;
+
+        final int k = mKeyCount++;
+        if (k == mKeys.length) {
+            final int size = k * 2;
+            mKeys = Arrays.copyOf(mKeys, size);
+            mSources = Arrays.copyOf(mSources, size);
+            mSoundIds = Arrays.copyOf(mSoundIds, size);
+            mTickets = Arrays.copyOf(mTickets, size);
+            mPreloaded = Arrays.copyOf(mPreloaded, size);
+            mLastUsed = Arrays.copyOf(mLastUsed, size);
+            mRowTotals = Arrays.copyOf(mRowTotals, size);
+            mRowSlots = Arrays.copyOf(mRowSlots, size);
+            mRowSizes = Arrays.copyOf(mRowSizes, size);
+        }
+        mKeys[k] = key;
+        mKeyIndexes.put(key, k);
+        return k;
+    }
+
+    private static long transition(int from, int to) {
+        return ((long) (from + 1) << 32) | (to + 1);
+    }
+
+    private static int fromKey(long transition) {
+        return (int) (transition >>> 32) - 1;
+    }
+
+    private static int toKey(long transition) {
+        return (int) transition - 1;
+    }
+
+    private int slot(long transition) {
+        int h = (int) (transition ^ (transition >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mMask;
+    }
+
+    private int count(int from, int to) {
+        final long transition = transition(from, to);
+        int i = slot(transition);
+        while (mTransitions[i] != 0) {
+            if (mTransitions[i] == transition) return mCounts[i];
+            i = (i + 1) & mMask;
+        }
+        return 0;
+    }
+
+    private void increment(int from, int to, int delta) {
+        final long transition = transition(from, to);
+        int i = slot(transition);
+        while (mTransitions[i] != 0 && mTransitions[i] != transition) {
+            i = (i + 1) & mMask;
+        }
+        if (mTransitions[i] == 0) {
+            if (mSize >= mMaxSize) {
+                decay();
+                increment(from, to, delta);
+                return;
+            }
+            mTransitions[i] = transition;
+            mSize++;
+            addRowSlot(from, i);
+        }
+        mCounts[i] += delta;
+        mRowTotals[from] += delta;
+        if (mCounts[i] > MAX_COUNT) decay();
+    }
+
+    private void addRowSlot(int from, int slot) {
+        int[] slots = mRowSlots[from];
+        final int size = mRowSizes[from];
+        if (slots == null) {
+            slots = mRowSlots[from] = new int[4];
+        } else if (size == slots.length) {
+            slots = mRowSlots[from] = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size] = slot;
+        mRowSizes[from] = size + 1;
+    }
+
+    /**
+     * Halves all counts and drops the transitions counted once.
+     */
+    private void decay() {
+        final long[] transitions = mTransitions;
+        final int[] counts = mCounts;
+        mTransitions = new long[transitions.length];
+        mCounts = new int[counts.length];
+        mSize = 0;
+        Arrays.fill(mRowTotals, 0);
+        Arrays.fill(mRowSizes, 0);
+        for (int i = 0; i < transitions.length; i++) {
+            final int count = counts[i] >> 1;
+            if (transitions[i] != 0 && count > 0) {
+                increment(fromKey(transitions[i]), toKey(transitions[i]), count);
+            }
+        }
+    }
+
+    /**
+     * Saves the model to the file.
+     *
+     * @param file
+     *         the output file
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void save(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the model to the stream. The stream is not closed.
+     *
+     * @param out
+     *         the output
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        synchronized (mLock) {
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            data.writeInt(mKeyCount);
+            for (int k = 0; k < mKeyCount; k++) {
+                data.writeUTF(mKeys[k]);
+            }
+            data.writeInt(mSize);
+            for (int i = 0; i <= mMask; i++) {
+                if (mTransitions[i] == 0) continue;
+                data.writeInt(fromKey(mTransitions[i]));
+                data.writeInt(toKey(mTransitions[i]));
+                data.writeInt(mCounts[i]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Restores the model saved by {@link #save(File)}, merging it with the recorded plays. A
+     * missing file is ignored.
+     *
+     * @param file
+     *         the model file
+     * @throws IOException
+     *         if the file is malformed
+     */
+    public void restore(File file) throws IOException {
+        if (!file.exists()) return;
+        InputStream in = new FileInputStream(file);
+        try {
+            read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the model written by {@link #write(OutputStream)}, merging it with the recorded
+     * plays. The stream is not closed.
+     *
+     * @param in
+     *         the stream with the model data
+     * @throws IOException
+     *         if the data is malformed
+     */
+    public void read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a sound predictor model");
+        int version = data.readShort();
+        if (version != VERSION) throw new IOException("Unsupported model version " + version);
+
+        int keyCount = data.readInt();
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = data.readUTF();
+        }
+        int count = data.readInt();
+        int[] transitions = new int[count * 3];
+        for (int i = 0; i < transitions.length; i++) {
+            transitions[i] = data.readInt();
+        }
+
+        synchronized (mLock) {
+            int[] indexes = new int[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                indexes[i] = keyIndex(keys[i]);
+            }
+            for (int i = 0; i < transitions.length; i += 3) {
+                int from = transitions[i];
+                int to = transitions[i + 1];
+                if (from < 0 || from >= keyCount || to < 0 || to >= keyCount) {
+                    throw new IOException("Malformed transition " + from + " -> " + to);
+                }
+                increment(indexes[from], indexes[to], transitions[i + 2]);
+            }
+        }
+        if (BuildConfig.DEBUG) Log.v(TAG, "Model restored: " + count + " transitions");
+    }
+}
@@ -0,0 +1,215 @@
+package com.kry.soundpoolex;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Descriptor of the sound source which can be loaded (and reloaded) into a {@link SoundPoolEx}.
+ */
+public final class SoundSource {
+    public static final int TYPE_PATH = 1;
+    public static final int TYPE_RESOURCE = 2;
+    public static final int TYPE_ASSET = 3;
+    public static final int TYPE_FILE_DESCRIPTOR = 4;
+    public static final int TYPE_BANK = 5;
+    public static final int TYPE_URI = 6;
+
+    private final int type;
+    private final String path;
+    private final Context context;
+    private final int resId;
+    private final FileDescriptor fd;
+    private final long offset;
+    private final long length;
+    private final SoundBank bank;
+    private final Uri uri;
+
+    private SoundSource(int type, String path, Context context, int resId, FileDescriptor fd,
+            long offset, long length, SoundBank bank, Uri uri) {
+        this.type = type;
+        this.path = path;
+        this.context = context;
+        this.resId = resId;
+        this.fd = fd;
+        this.offset = offset;
+        this.length = length;
+        this.bank = bank;
+        this.uri = uri;
+    }
+
+    /**
+     * @param path
+     *         the path to the audio file
+     * @return the source of the file
+     */
+    public static SoundSource fromPath(String path) {
+        return new SoundSource(TYPE_PATH, path, null, 0, null, 0, 0, null, null);
+    }
+
+    /**
+     * @param context
+     *         the application context
+     * @param resId
+     *         the raw resource ID
+     * @return the source of the APK resource
+     */
+    public static SoundSource fromResource(Context context, int resId) {
+        return new SoundSource(TYPE_RESOURCE, null, context.getApplicationContext(), resId, null,
+                0, 0, null, null);
+    }
+
+    /**
+     * @param context
+     *         the application context
+     * @param assetPath
+     *         the path of the uncompressed asset
+     * @return the source of the asset
+     */
+    public static SoundSource fromAsset(Context context, String assetPath) {
+        return new SoundSource(TYPE_ASSET, assetPath, context.getApplicationContext(), 0, null, 0,
+                0, null, null);
+    }
+
+    /**
+     * The descriptor must stay open while the source may be loaded.
+     *
+     * @param fd
+     *         a FileDescriptor object
+     * @param offset
+     *         offset to the start of the sound
+     * @param length
+     *         length of the sound
+     * @return the source of the file range
+     */
+    public static SoundSource fromFileDescriptor(FileDescriptor fd, long offset, long length) {
+        return new SoundSource(TYPE_FILE_DESCRIPTOR, null, null, 0, fd, offset, length, null, null);
+    }
+
+    /**
+     * The bank must stay open while the source may be loaded.
+     *
+     * @param bank
+     *         the opened sound bank
+     * @param index
+     *         the index of the entry in the bank
+     * @return the source of the bank entry
+     */
+    public static SoundSource fromBank(SoundBank bank, int index) {
+        return new SoundSource(TYPE_BANK, bank.getName(index), null, index, null, 0, 0, bank,
+                null);
+    }
+
+    /**
+     * @param context
+     *         the application context
+     * @param uri
+     *         the content or file URI
+     * @return the source of the URI
+     */
+    public static SoundSource fromUri(Context context, Uri uri) {
+        return new SoundSource(TYPE_URI, uri.toString(), context.getApplicationContext(), 0, null,
+                0, 0, null, uri);
+    }
+
+    /**
+     * Loads the source into the pool.
+     *
+     * @param pool
+     *         the pool to load into
+     * @param priority
+     *         the priority of the sound
+     * @return a sound ID
+     * @throws IOException
+     *         if the asset, the bank or the URI can't be read
+     */
+    public int load(SoundPoolEx pool, int priority) throws IOException {
+        switch (type) {
+            case TYPE_PATH:
+                return pool.load(path, priority);
+            case TYPE_RESOURCE:
+                return pool.load(context, resId, priority);
+            case TYPE_ASSET:
+                return pool.loadAsset(context, path, priority);
+            case TYPE_FILE_DESCRIPTOR:
+                return pool.load(fd, offset, length, priority);
+            case TYPE_BANK:
+                return pool.load(bank, resId, priority);
+            case TYPE_URI:
+                return pool.load(context, uri, priority);
+            default:
+                throw new IllegalStateException("Unknown source type " + type);
+        }
+    }
+
+    /**
+     * @return one of the TYPE_ constants
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the file path, the asset path, the bank entry name or the URI, null for other
+     * types
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the raw resource ID or the bank entry index, 0 for other types
+     */
+    public int getResId() {
+        return resId;
+    }
+
+    /**
+     * Returns the stable identity of the source which can be used as a cache key.
+     *
+     * @return the key or null for the file descriptor sources which have no stable identity
+     */
+    public String getKey() {
+        switch (type) {
+            case TYPE_PATH:
+                return "path:" + path;
+            case TYPE_RESOURCE:
+                return "res:" + context.getResources().getResourceEntryName(resId);
+            case TYPE_ASSET:
+                return "asset:" + path;
+            case TYPE_BANK:
+                return "bank:" + path;
+            case TYPE_URI:
+                return "uri:" + path;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SoundSource that = (SoundSource) o;
+
+        if (type != that.type) return false;
+        if (resId != that.resId) return false;
+        if (offset != that.offset) return false;
+        if (length != that.length) return false;
+        if (path != null ? !path.equals(that.path) : that.path != null) return false;
+        if (fd != that.fd) return false;
+        return bank == that.bank;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type;
+        result = 31 * result + (path != null ? path.hashCode() : 0);
+        result = 31 * result + resId;
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        return result;
+    }
+}
@@ -0,0 +1,337 @@
+package com.kry.soundpoolex;
+
+/**
+ * Spatial layer over a {@link SoundPoolEx}: positioned sound emitters are updated in one batch
+ * call per frame, which computes the distance attenuation and the stereo panning of every emitter
+ * and pushes only the changed volumes to the pool.
+ * <p/>
+ * Emitters quieter than the audibility threshold are virtualised: their stream is stopped to free
+ * the native voice and the emitter keeps only its timeline. When the emitter becomes audible
+ * again (with a hysteresis) the stream is restarted at the timeline position if the pool delegate
+ * can seek, see {@link SoundPoolEx#seek(int, int)}; SoundPool always plays from the start, so the
+ * restarted run is played from its beginning and the timeline is shifted accordingly. Emitters
+ * of the sounds without a known duration are never virtualised, as their end can't be tracked.
+ * <p/>
+ * The timeline of a real emitter is the timeline of its stream in the pool, so it follows the
+ * pauses of the stream; a virtual emitter doesn't advance while the pool is auto paused.
+ * <p/>
+ * Not thread-safe, all calls are expected from the game thread.
+ */
+public class SpatialEmitters {
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_REAL = 1;
+    private static final byte STATE_VIRTUAL = 2;
+
+    /**
+     * Volume changes below this are not pushed to the pool
+     */
+    private static final float VOLUME_EPSILON = 1f / 512;
+    /**
+     * Virtual emitters are restarted above the threshold multiplied by this
+     */
+    private static final float HYSTERESIS = 1.25f;
+    private static final float MIN_DISTANCE = 1e-4f;
+
+    private final SoundPoolEx mPool;
+    private final int mCapacity;
+
+    private float mRefDistance = 1f;
+    private float mMaxDistance = 100f;
+    private float mRolloff = 1f;
+    private float mThreshold = 0.01f;
+
+    // emitters, indexed by the emitter handle
+    private final byte[] mState;
+    private final int[] mSound;
+    private final int[] mStream;
+    private final float[] mVolume;
+    private final int[] mPriority;
+    private final int[] mLoop;
+    private final float[] mRate;
+    /**
+     * Duration of a single run of the sound, in milliseconds of the sound
+     */
+    private final int[] mDuration;
+    /**
+     * Real emitters: the time played before the run the stream started with, in milliseconds of
+     * the sound. Virtual emitters: the timeline start, the active time of the pool (see {@link
+     * SoundPoolEx#getActiveTime(long)}) of the sound position 0 of the first run.
+     */
+    private final long[] mTimeline;
+    private final float[] mLeft;
+    private final float[] mRight;
+    private int mHighWater;
+    private int mRealCount;
+    private int mVirtualCount;
+
+    /**
+     * Constructor.
+     *
+     * @param pool
+     *         the pool playing the emitters
+     * @param capacity
+     *         the maximum number of the emitters
+     */
+    public SpatialEmitters(SoundPoolEx pool, int capacity) {
+        mPool = pool;
+        mCapacity = capacity;
+        mState = new byte[capacity];
+        mSound = new int[capacity];
+        mStream = new int[capacity];
+        mVolume = new float[capacity];
+        mPriority = new int[capacity];
+        mLoop = new int[capacity];
+        mRate = new float[capacity];
+        mDuration = new int[capacity];
+        mTimeline = new long[capacity];
+        mLeft = new float[capacity];
+        mRight = new float[capacity];
+    }
+
+    /**
+     * Sets the inverse distance attenuation: the gain is 1 up to the reference distance, then
+     * {@code ref / (ref + rolloff * (distance - ref))}, and 0 beyond the maximum distance.
+     *
+     * @param refDistance
+     *         the reference distance, positive
+     * @param maxDistance
+     *         the distance the emitters are silent beyond
+     * @param rolloff
+     *         the rolloff factor, 0 disables the attenuation
+     */
+    public void setAttenuation(float refDistance, float maxDistance, float rolloff) {
+        if (refDistance <= 0) throw new IllegalArgumentException("refDistance must be positive");
+        mRefDistance = refDistance;
+        mMaxDistance = maxDistance;
+        mRolloff = rolloff;
+    }
+
+    /**
+     * Sets the audibility threshold, emitters with both channel volumes below it are virtualised.
+     *
+     * @param threshold
+     *         the volume threshold, 0 disables the virtualisation
+     */
+    public void setAudibilityThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * Adds the emitter. It starts playing virtual and becomes real on the next {@link
+     * #update(float, float, float, float, float, float, float[])} if audible.
+     *
+     * @param soundID
+     *         a soundID returned by the load() function
+     * @param volume
+     *         the volume of the emitter at the reference distance (range = 0.0 to 1.0)
+     * @param priority
+     *         the stream priority (0 = lowest priority)
+     * @param loop
+     *         loop mode (0 = no loop, -1 = loop forever)
+     * @param rate
+     *         playback rate (1.0 = normal playback, range 0.5 to 2.0)
+     * @return the emitter handle, the index of its position in the update array, or -1 if there
+     * is no free emitter
+     */
+    public int add(int soundID, float volume, int priority, int loop, float rate) {
+        int e = 0;
+        while (e < mCapacity && mState[e] != STATE_FREE) {
+            e++;
+        }
+        if (e == mCapacity) return -1;
+        if (e >= mHighWater) mHighWater = e + 1;
+
+        mState[e] = STATE_VIRTUAL;
+        mSound[e] = soundID;
+        mStream[e] = 0;
+        mVolume[e] = volume;
+        mPriority[e] = priority;
+        mLoop[e] = loop;
+        mRate[e] = rate;
+        mDuration[e] = mPool.getDuration(soundID);
+        mTimeline[e] = mPool.getActiveTime(mPool.getClock().currentTimeMillis());
+        mLeft[e] = 0;
+        mRight[e] = 0;
+        mVirtualCount++;
+        return e;
+    }
+
+    /**
+     * Removes the emitter and stops its stream.
+     *
+     * @param emitter
+     *         the handle returned by {@link #add(int, float, int, int, float)}
+     */
+    public void remove(int emitter) {
+        if (emitter < 0 || emitter >= mCapacity || mState[emitter] == STATE_FREE) return;
+        free(emitter);
+    }
+
+    /**
+     * Updates all emitters for the listener.
+     *
+     * @param listenerX
+     *         the listener position
+     * @param listenerY
+     *         the listener position
+     * @param listenerZ
+     *         the listener position
+     * @param rightX
+     *         the unit vector pointing to the right of the listener
+     * @param rightY
+     *         the unit vector pointing to the right of the listener
+     * @param rightZ
+     *         the unit vector pointing to the right of the listener
+     * @param positions
+     *         the emitter positions, {@code x, y, z} at {@code 3 * handle}
+     */
+    public void update(float listenerX, float listenerY, float listenerZ, float rightX,
+            float rightY, float rightZ, float[] positions) {
+        final long now = mPool.getActiveTime(mPool.getClock().currentTimeMillis());
+        final float ref = mRefDistance;
+        final float max = mMaxDistance;
+        final float rolloff = mRolloff;
+        final float threshold = mThreshold;
+
+        for (int e = 0; e < mHighWater; e++) {
+            final byte state = mState[e];
+            if (state == STATE_FREE) continue;
+
+            final int duration = mDuration[e];
+            long played = 0;
+            if (duration > 0) {
+                if (state == STATE_REAL) {
+                    final long streamPlayed = mPool.getStreamPlayedTime(mStream[e]);
+                    if (streamPlayed < 0) {
+                        free(e);
+                        continue;
+                    }
+                    played = mTimeline[e] + streamPlayed;
+                } else {
+                    played = (long) ((now - mTimeline[e]) * mRate[e]);
+                    if (mLoop[e] >= 0 && played >= (long) duration * (mLoop[e] + 1)) {
+                        free(e);
+                        continue;
+                    }
+                }
+            }
+
+            final float dx = positions[3 * e] - listenerX;
+            final float dy = positions[3 * e + 1] - listenerY;
+            final float dz = positions[3 * e + 2] - listenerZ;
+            final float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+            float gain;
+            if (distance >= max) {
+                gain = 0;
+            } else if (distance <= ref) {
+                gain = mVolume[e];
+            } else {
+                gain = mVolume[e] * ref / (ref + rolloff * (distance - ref));
+            }
+            final float pan = distance > MIN_DISTANCE ?
+                    (dx * rightX + dy * rightY + dz * rightZ) / distance : 0;
+            // equal power panning
+            final float left = gain * (float) Math.sqrt((1 - pan) * 0.5f);
+            final float right = gain * (float) Math.sqrt((1 + pan) * 0.5f);
+            final float loudness = left > right ? left : right;
+
+            if (state == STATE_REAL) {
+                if (duration > 0 && loudness < threshold) {
+                    virtualise(e, now, played);
+                } else if (Math.abs(left - mLeft[e]) > VOLUME_EPSILON ||
+                        Math.abs(right - mRight[e]) > VOLUME_EPSILON) {
+                    mPool.setVolume(mStream[e], left, right);
+                    mLeft[e] = left;
+                    mRight[e] = right;
+                }
+            } else if (loudness >= threshold * HYSTERESIS || duration == 0) {
+                restart(e, left, right, played);
+            }
+        }
+    }
+
+    private void virtualise(int e, long now, long played) {
+        mPool.stop(mStream[e]);
+        mStream[e] = 0;
+        mTimeline[e] = now - (long) (played / mRate[e]);
+        mState[e] = STATE_VIRTUAL;
+        mRealCount--;
+        mVirtualCount++;
+    }
+
+    private void restart(int e, float left, float right, long played) {
+        final int duration = mDuration[e];
+        int runs = 0;
+        int position = 0;
+        int loop = mLoop[e];
+        if (duration > 0 && played > 0) {
+            runs = (int) (played / duration);
+            position = (int) (played - (long) runs * duration);
+            if (loop > 0) loop -= runs;
+        }
+
+        final int streamID = mPool.play(mSound[e], left, right, mPriority[e], loop, mRate[e]);
+        if (streamID == 0) return;
+
+        // the stream timeline starts with the run, at the position if the pool can seek it,
+        // otherwise the run is played from its beginning
+        if (position > 0) mPool.seek(streamID, position);
+        mTimeline[e] = (long) runs * duration;
+        mStream[e] = streamID;
+        mLeft[e] = left;
+        mRight[e] = right;
+        mState[e] = STATE_REAL;
+        mVirtualCount--;
+        mRealCount++;
+    }
+
+    private void free(int e) {
+        if (mState[e] == STATE_REAL) {
+            mPool.stop(mStream[e]);
+            mRealCount--;
+        } else {
+            mVirtualCount--;
+        }
+        mState[e] = STATE_FREE;
+        mStream[e] = 0;
+        while (mHighWater > 0 && mState[mHighWater - 1] == STATE_FREE) {
+            mHighWater--;
+        }
+    }
+
+    /**
+     * Gets the stream of the emitter.
+     *
+     * @param emitter
+     *         the handle returned by {@link #add(int, float, int, int, float)}
+     * @return the streamID or 0 if the emitter is virtual or removed
+     */
+    public int getStreamID(int emitter) {
+        if (emitter < 0 || emitter >= mCapacity) return 0;
+        return mStream[emitter];
+    }
+
+    /**
+     * @return the number of the emitters playing a stream
+     */
+    public int getRealCount() {
+        return mRealCount;
+    }
+
+    /**
+     * @return the number of the virtualised emitters
+     */
+    public int getVirtualCount() {
+        return mVirtualCount;
+    }
+
+    /**
+     * Removes all emitters and stops their streams.
+     */
+    public void clear() {
+        for (int e = 0; e < mHighWater; e++) {
+            if (mState[e] != STATE_FREE) free(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.kry.soundpoolex;
+
+import java.util.Arrays;
+
+/**
+ * Slot table of the stream handles returned by {@link SoundPoolEx#playHandle(int, float, float,
+ * int, int, float)}. A handle packs the slot index in the low 32 bits and the generation of the
+ * slot in the high 32 bits; the generation is bumped when the stream is removed, so the stale
+ * handles never alias a new stream. The lookup is an array index and a compare.
+ * <p/>
+ * Not thread-safe, SoundPoolEx guards it with the mStreamIds lock.
+ */
+final class StreamHandles {
+    private SoundBundle[] mBundles = new SoundBundle[16];
+    private int[] mGenerations = new int[16];
+    private int[] mFree = new int[16];
+    private int mFreeCount;
+    private int mSize;
+
+    /**
+     * Assigns a slot to the bundle.
+     *
+     * @return the handle, never {@link SoundPoolEx#INVALID_HANDLE}
+     */
+    long acquire(SoundBundle bundle) {
+        final int slot;
+        if (mFreeCount > 0) {
+            slot = mFree[--mFreeCount];
+        } else {
+            if (mSize == mBundles.length) {
+                mBundles = Arrays.copyOf(mBundles, mSize * 2);
+                mGenerations = Arrays.copyOf(mGenerations, mSize * 2);
+            }
+            slot = mSize++;
+            mGenerations[slot] = 1;
+        }
+        mBundles[slot] = bundle;
+        bundle.setSlot(slot);
+        return handle(slot, mGenerations[slot]);
+    }
+
+    /**
+     * Frees the slot of the removed bundle, invalidating its handle. Bundles without a handle are
+     * ignored.
+     */
+    void release(SoundBundle bundle) {
+        final int slot = bundle.getSlot();
+        if (slot < 0 || mBundles[slot] != bundle) return;
+        mBundles[slot] = null;
+        bundle.setSlot(-1);
+        // generation 0 is never used, so the zero handle stays invalid
+        if (++mGenerations[slot] == 0) mGenerations[slot] = 1;
+        if (mFreeCount == mFree.length) mFree = Arrays.copyOf(mFree, mFreeCount * 2);
+        mFree[mFreeCount++] = slot;
+    }
+
+    /**
+     * @return the bundle of the handle or null if the handle is stale or malformed
+     */
+    SoundBundle get(long handle) {
+        final int slot = (int) handle;
+        if (slot < 0 || slot >= mSize || mGenerations[slot] != (int) (handle >>> 32)) return null;
+        return mBundles[slot];
+    }
+
+    /**
+     * Invalidates all the handles.
+     */
+    void clear() {
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mBundles[slot] != null) release(mBundles[slot]);
+        }
+    }
+
+    private static long handle(int slot, int generation) {
+        return ((long) generation << 32) | (slot & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,675 @@
+package com.kry.soundpoolex;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.PlaybackParams;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * {@link ISoundPool} implementation which streams the sounds through {@link MediaPlayer}
+ * instances instead of decoding them into memory. Suited for long sounds such as music and
+ * ambience, see {@link HybridSoundPool}.
+ * <p/>
+ * Every loaded sound keeps a player prepared ahead of the next play. The players are created and
+ * prepared asynchronously on the main thread, so {@link #play(int, float, float, int, int, float)}
+ * never prepares on the calling thread: it starts the prepared player, or returns the stream ID at
+ * once and starts the stream when its player is prepared. The load complete listener is called on
+ * the main thread with a null SoundPool once the first player of the sound is prepared, with a
+ * non-zero status if the preparation fails. A sound loaded from a file descriptor keeps a
+ * duplicate of it until it's unloaded, so the caller may close its descriptor after the load;
+ * below API 13, which can't duplicate descriptors, the caller's descriptor must stay open.
+ * <p/>
+ * The playback rate needs API 23 ({@link MediaPlayer#setPlaybackParams}). Below it the plays with
+ * a rate other than 1 are rejected, so the SoundPoolEx timelines don't assume a rate the stream
+ * doesn't play at, and {@link #setRate(int, float)} is ignored with a warning, see {@link
+ * #isRateSupported()}.
+ */
+public class StreamingSoundPool implements SeekableSoundPool {
+    private final static String TAG = "StreamingSoundPool";
+
+    private final int mMaxStreams;
+    private final int mStreamType;
+    private final Handler mMainHandler;
+    /**
+     * Sound IDs '<'SoundID, Source'>'
+     */
+    private final SparseArray<Source> mSounds;
+    /**
+     * Stream IDs '<'StreamID, Stream'>'. Its lock also guards the players of the sources.
+     */
+    private final SparseArray<Stream> mStreams;
+    private int mNextSoundID = 1;
+    private int mNextStreamID = 1;
+    private volatile SoundPool.OnLoadCompleteListener mOnLoadCompleteListener;
+
+    /**
+     * Constructor.
+     *
+     * @param maxStreams
+     *         the maximum number of simultaneous streams; the lowest priority and then the oldest
+     *         stream is stopped when it's exceeded
+     * @param streamType
+     *         the audio stream type as described in AudioManager For example, game applications
+     *         will normally use {@link AudioManager#STREAM_MUSIC}.
+     */
+    public StreamingSoundPool(int maxStreams, int streamType) {
+        if (maxStreams < 1) throw new IllegalArgumentException("maxStreams must be positive");
+        mMaxStreams = maxStreams;
+        mStreamType = streamType;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mSounds = new SparseArray<>();
+        mStreams = new SparseArray<>();
+    }
+
+    /**
+     * @return true if the playback rate of the streams can be changed, i.e. on API 23 and higher
+     */
+    public static boolean isRateSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        return addSource(new Source(path, null, 0, null, 0, 0));
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        return addSource(new Source(null, context.getApplicationContext(), resId, null, 0, 0));
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        return load(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength(), priority);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        final ParcelFileDescriptor dup;
+        try {
+            // the caller may close its descriptor after the load
+            dup = dup(fd);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't keep the file descriptor", e);
+            return 0;
+        }
+        Source source = new Source(null, null, 0, dup != null ? dup.getFileDescriptor() : fd,
+                offset, length);
+        source.dup = dup;
+        return addSource(source);
+    }
+
+    /**
+     * @return the duplicate of the descriptor or null if the platform can't duplicate it
+     */
+    @TargetApi (Build.VERSION_CODES.HONEYCOMB_MR2)
+    private static ParcelFileDescriptor dup(FileDescriptor fd) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2) return null;
+        return ParcelFileDescriptor.dup(fd);
+    }
+
+    private int addSource(Source source) {
+        synchronized (mSounds) {
+            source.soundID = mNextSoundID++;
+            mSounds.put(source.soundID, source);
+        }
+        synchronized (mStreams) {
+            source.preparing++;
+        }
+        preparePlayer(source);
+        return source.soundID;
+    }
+
+    /**
+     * Creates and prepares a player of the source on the main thread. The caller counts it in
+     * the preparing players of the source.
+     */
+    private void preparePlayer(final Source source) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mStreams) {
+                    if (source.released) {
+                        source.preparing--;
+                        return;
+                    }
+                }
+                final MediaPlayer player = new MediaPlayer();
+                final PlayerListener listener = new PlayerListener(source);
+                player.setOnPreparedListener(listener);
+                player.setOnErrorListener(listener);
+                player.setOnCompletionListener(listener);
+                try {
+                    source.setDataSource(player);
+                    player.setAudioStreamType(mStreamType);
+                    player.prepareAsync();
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Can't prepare sound ID: " + String.valueOf(source.soundID), e);
+                    onPlayerError(source, player);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands the prepared player to the oldest stream waiting for it or keeps it for the next play.
+     */
+    private void onPlayerPrepared(Source source, MediaPlayer player) {
+        boolean notify = false;
+        synchronized (mStreams) {
+            source.preparing--;
+            if (source.released) {
+                player.release();
+                return;
+            }
+            notify = !source.notified;
+            source.notified = true;
+            final Stream stream = findWaitingStream(source);
+            if (stream != null) {
+                attachPlayer(stream, player);
+            } else if (source.spare == null) {
+                source.spare = player;
+            } else {
+                player.release();
+            }
+        }
+        if (notify) notifyLoadComplete(source.soundID, 0);
+    }
+
+    /**
+     * Drops the failed player: the stream playing it, the spare player of the source, or a
+     * player being prepared together with the stream waiting for it.
+     */
+    private void onPlayerError(Source source, MediaPlayer player) {
+        boolean notify = false;
+        synchronized (mStreams) {
+            final int index = indexOfPlayer(player);
+            if (index >= 0) {
+                mStreams.removeAt(index);
+            } else if (source.spare == player) {
+                source.spare = null;
+            } else {
+                source.preparing--;
+                notify = !source.notified && !source.released;
+                source.notified = true;
+                final Stream stream = findWaitingStream(source);
+                if (stream != null && countWaitingStreams(source) > source.preparing) {
+                    mStreams.removeAt(mStreams.indexOfValue(stream));
+                }
+            }
+        }
+        player.release();
+        if (notify) notifyLoadComplete(source.soundID, 1);
+    }
+
+    private void notifyLoadComplete(int soundID, int status) {
+        final SoundPool.OnLoadCompleteListener listener = mOnLoadCompleteListener;
+        if (listener != null) listener.onLoadComplete(null, soundID, status);
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        final Source source;
+        synchronized (mSounds) {
+            source = mSounds.get(soundID);
+            if (source == null) return false;
+            mSounds.remove(soundID);
+        }
+        synchronized (mStreams) {
+            releaseSource(source);
+            int i = 0;
+            while (i < mStreams.size()) {
+                Stream stream = mStreams.valueAt(i);
+                if (stream.source == source) {
+                    if (stream.player != null) stream.player.release();
+                    mStreams.removeAt(i);
+                } else {
+                    i++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the spare player, the players being prepared are released once prepared. The
+     * duplicate descriptor is closed on the main thread, after the preparations already posted.
+     * Must be called under the mStreams lock.
+     */
+    private void releaseSource(final Source source) {
+        source.released = true;
+        if (source.spare != null) {
+            source.spare.release();
+            source.spare = null;
+        }
+        if (source.dup != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        source.dup.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Can't close the file descriptor", e);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        if (rate != 1f && !isRateSupported()) {
+            Log.w(TAG, "Playback rate needs API 23, sound ID: " + String.valueOf(soundID));
+            return 0;
+        }
+        final Source source;
+        synchronized (mSounds) {
+            source = mSounds.get(soundID);
+        }
+        if (source == null) return 0;
+
+        final int streamID;
+        int prepare;
+        synchronized (mStreams) {
+            if (source.released) return 0;
+            if (mStreams.size() >= mMaxStreams && !stopLowestPriorityStream(priority)) return 0;
+            streamID = mNextStreamID++;
+            Stream stream = new Stream(source, priority, loop, leftVolume, rightVolume, rate);
+            mStreams.put(streamID, stream);
+            if (source.spare != null) {
+                attachPlayer(stream, source.spare);
+                source.spare = null;
+            }
+            // a player for every waiting stream and one ahead of the next play
+            prepare = Math.max(0, countWaitingStreams(source) + 1 - source.preparing);
+            source.preparing += prepare;
+        }
+        for (int i = 0; i < prepare; i++) {
+            preparePlayer(source);
+        }
+        return streamID;
+    }
+
+    /**
+     * Gives the prepared player to the stream and starts it unless the stream is paused. Must be
+     * called under the mStreams lock.
+     */
+    private static void attachPlayer(Stream stream, MediaPlayer player) {
+        stream.player = player;
+        player.setVolume(stream.leftVolume, stream.rightVolume);
+        player.setLooping(stream.loop == -1);
+        if (stream.position > 0) player.seekTo(stream.position);
+        if (!stream.paused) startPlayer(stream);
+    }
+
+    private static void startPlayer(Stream stream) {
+        stream.player.start();
+        // setting a rate starts a paused player, so it's applied to the running ones only
+        if (stream.rate != 1f) setPlayerRate(stream.player, stream.rate);
+    }
+
+    /**
+     * @return the oldest stream of the source without a player or null
+     */
+    private Stream findWaitingStream(Source source) {
+        // stream IDs are ascending so the first one is the oldest
+        for (int i = 0; i < mStreams.size(); i++) {
+            Stream stream = mStreams.valueAt(i);
+            if (stream.source == source && stream.player == null) return stream;
+        }
+        return null;
+    }
+
+    private int countWaitingStreams(Source source) {
+        int count = 0;
+        for (int i = 0; i < mStreams.size(); i++) {
+            Stream stream = mStreams.valueAt(i);
+            if (stream.source == source && stream.player == null) count++;
+        }
+        return count;
+    }
+
+    private int indexOfPlayer(MediaPlayer player) {
+        for (int i = 0; i < mStreams.size(); i++) {
+            if (mStreams.valueAt(i).player == player) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Stops the lowest priority and then the oldest stream if its priority doesn't exceed the
+     * given one.
+     *
+     * @return true if a stream was stopped
+     */
+    private boolean stopLowestPriorityStream(int priority) {
+        int victim = -1;
+        for (int i = 0; i < mStreams.size(); i++) {
+            // stream IDs are ascending so the first one of the equal priority is the oldest
+            if (victim < 0 || mStreams.valueAt(i).priority < mStreams.valueAt(victim).priority) {
+                victim = i;
+            }
+        }
+        if (victim < 0 || mStreams.valueAt(victim).priority > priority) return false;
+        Stream stream = mStreams.valueAt(victim);
+        if (stream.player != null) stream.player.release();
+        mStreams.removeAt(victim);
+        return true;
+    }
+
+    private void onStreamCompletion(MediaPlayer player) {
+        synchronized (mStreams) {
+            final int index = indexOfPlayer(player);
+            if (index < 0) return;
+            Stream stream = mStreams.valueAt(index);
+            if (stream.loop > 0) {
+                stream.loop--;
+                player.seekTo(0);
+                player.start();
+            } else {
+                player.release();
+                mStreams.removeAt(index);
+            }
+        }
+    }
+
+    @TargetApi (Build.VERSION_CODES.M)
+    private static void setPlayerRate(MediaPlayer player, float rate) {
+        if (!isRateSupported()) return;
+        try {
+            player.setPlaybackParams(new PlaybackParams().allowDefaults().setSpeed(rate));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.w(TAG, "Can't set rate " + String.valueOf(rate), e);
+        }
+    }
+
+    @Override
+    public void pause(int streamID) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null && !stream.paused) {
+                if (stream.player != null) stream.player.pause();
+                stream.paused = true;
+            }
+        }
+    }
+
+    @Override
+    public void resume(int streamID) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null && stream.paused) {
+                stream.paused = false;
+                stream.autoPaused = false;
+                if (stream.player != null) startPlayer(stream);
+            }
+        }
+    }
+
+    @Override
+    public void autoPause() {
+        synchronized (mStreams) {
+            for (int i = 0; i < mStreams.size(); i++) {
+                Stream stream = mStreams.valueAt(i);
+                if (!stream.paused) {
+                    if (stream.player != null) stream.player.pause();
+                    stream.paused = true;
+                    stream.autoPaused = true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void autoResume() {
+        synchronized (mStreams) {
+            for (int i = 0; i < mStreams.size(); i++) {
+                Stream stream = mStreams.valueAt(i);
+                if (stream.autoPaused) {
+                    stream.paused = false;
+                    stream.autoPaused = false;
+                    if (stream.player != null) startPlayer(stream);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop(int streamID) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null) {
+                if (stream.player != null) stream.player.release();
+                mStreams.remove(streamID);
+            }
+        }
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null) {
+                stream.leftVolume = leftVolume;
+                stream.rightVolume = rightVolume;
+                if (stream.player != null) stream.player.setVolume(leftVolume, rightVolume);
+            }
+        }
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+        setVolume(streamID, volume, volume);
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null) stream.priority = priority;
+        }
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream != null) {
+                stream.loop = loop;
+                if (stream.player != null) stream.player.setLooping(loop == -1);
+            }
+        }
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        if (!isRateSupported()) {
+            if (rate != 1f) Log.w(TAG, "Playback rate needs API 23, ignored");
+            return;
+        }
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream == null) return;
+            stream.rate = rate;
+            // a paused stream gets the rate on resume
+            if (stream.player != null && !stream.paused) setPlayerRate(stream.player, rate);
+        }
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        synchronized (mStreams) {
+            Stream stream = mStreams.get(streamID);
+            if (stream == null) return false;
+            if (stream.player == null) {
+                // the player being prepared starts at the position
+                stream.position = position;
+                return true;
+            }
+            try {
+                stream.player.seekTo(position);
+                return true;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Can't seek stream ID: " + String.valueOf(streamID), e);
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mOnLoadCompleteListener = listener;
+    }
+
+    @Override
+    public void release() {
+        final Source[] sources;
+        synchronized (mSounds) {
+            sources = new Source[mSounds.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = mSounds.valueAt(i);
+            }
+            mSounds.clear();
+        }
+        synchronized (mStreams) {
+            for (Source source : sources) {
+                releaseSource(source);
+            }
+            for (int i = 0; i < mStreams.size(); i++) {
+                Stream stream = mStreams.valueAt(i);
+                if (stream.player != null) stream.player.release();
+            }
+            mStreams.clear();
+        }
+    }
+
+    /**
+     * Callbacks of the players of a source, called on the main thread
+     */
+    private final class PlayerListener implements MediaPlayer.OnPreparedListener,
+            MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener {
+        private final Source mSource;
+
+        PlayerListener(Source source) {
+            mSource = source;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            onPlayerPrepared(mSource, mp);
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Log.w(TAG, "Player error " + String.valueOf(what) + "/" + String.valueOf(extra) +
+                    " of sound ID: " + String.valueOf(mSource.soundID));
+            onPlayerError(mSource, mp);
+            return true;
+        }
+
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            onStreamCompletion(mp);
+        }
+    }
+
+    /**
+     * Source of the loaded sound
+     */
+    private static final class Source {
+        final String path;
+        final Context context;
+        final int resId;
+        final FileDescriptor fd;
+        final long offset;
+        final long length;
+        /**
+         * The duplicate of the caller's descriptor or null
+         */
+        ParcelFileDescriptor dup;
+        int soundID;
+        /**
+         * Prepared player for the next play or null. It and the fields below are guarded by the
+         * mStreams lock.
+         */
+        MediaPlayer spare;
+        /**
+         * Number of the players being prepared
+         */
+        int preparing;
+        boolean notified;
+        boolean released;
+
+        Source(String path, Context context, int resId, FileDescriptor fd, long offset,
+                long length) {
+            this.path = path;
+            this.context = context;
+            this.resId = resId;
+            this.fd = fd;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        void setDataSource(MediaPlayer player) throws IOException {
+            if (path != null) {
+                player.setDataSource(path);
+            } else if (context != null) {
+                AssetFileDescriptor afd = context.getResources().openRawResourceFd(resId);
+                if (afd == null) throw new IOException("Can't open resource " + resId);
+                try {
+                    player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(),
+                            afd.getLength());
+                } finally {
+                    afd.close();
+                }
+            } else {
+                player.setDataSource(fd, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Playing stream state
+     */
+    private static final class Stream {
+        final Source source;
+        /**
+         * The player or null while it's being prepared
+         */
+        MediaPlayer player;
+        int priority;
+        int loop;
+        float leftVolume;
+        float rightVolume;
+        float rate;
+        /**
+         * The start position in milliseconds applied when the player is attached
+         */
+        int position;
+        boolean paused;
+        boolean autoPaused;
+
+        Stream(Source source, int priority, int loop, float leftVolume, float rightVolume,
+                float rate) {
+            this.source = source;
+            this.priority = priority;
+            this.loop = loop;
+            this.leftVolume = leftVolume;
+            this.rightVolume = rightVolume;
+            this.rate = rate;
+        }
+    }
+}
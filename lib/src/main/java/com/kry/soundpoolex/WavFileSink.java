@@ -0,0 +1,79 @@
+package com.kry.soundpoolex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * {@link PcmSink} which writes the mixed frames into a 16-bit stereo WAV file. The header sizes
+ * are written on {@link #release()}.
+ */
+public class WavFileSink implements PcmSink {
+    private static final int HEADER_SIZE = 44;
+
+    private final int mSampleRate;
+    private final RandomAccessFile mFile;
+    private byte[] mBytes = new byte[0];
+    private long mDataSize;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *         the output file, it's overwritten
+     * @param sampleRate
+     *         the output sample rate in Hz
+     * @throws IOException
+     *         if the file can't be opened
+     */
+    public WavFileSink(File file, int sampleRate) throws IOException {
+        mSampleRate = sampleRate;
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mFile.write(new byte[HEADER_SIZE]);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public void write(short[] buffer, int frames) {
+        int samples = frames * 2;
+        if (mBytes.length < samples * 2) mBytes = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            mBytes[i * 2] = (byte) buffer[i];
+            mBytes[i * 2 + 1] = (byte) (buffer[i] >> 8);
+        }
+        try {
+            mFile.write(mBytes, 0, samples * 2);
+            mDataSize += samples * 2;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void release() {
+        try {
+            mFile.seek(0);
+            mFile.writeInt(0x52494646); // 'RIFF'
+            mFile.writeInt(Integer.reverseBytes((int) (36 + mDataSize)));
+            mFile.writeInt(0x57415645); // 'WAVE'
+            mFile.writeInt(0x666D7420); // 'fmt '
+            mFile.writeInt(Integer.reverseBytes(16));
+            mFile.writeShort(Short.reverseBytes((short) 1));
+            mFile.writeShort(Short.reverseBytes((short) 2));
+            mFile.writeInt(Integer.reverseBytes(mSampleRate));
+            mFile.writeInt(Integer.reverseBytes(mSampleRate * 4));
+            mFile.writeShort(Short.reverseBytes((short) 4));
+            mFile.writeShort(Short.reverseBytes((short) 16));
+            mFile.writeInt(0x64617461); // 'data'
+            mFile.writeInt(Integer.reverseBytes((int) mDataSize));
+            mFile.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Command queue of {@link AsyncSoundPool} over a fake pool.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class AsyncSoundPoolTest {
+    private static final int THREADS = 4;
+    private static final int PLAYS_PER_THREAD = 20000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private CountingSoundPool mDelegate;
+    private String mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        mDelegate = new CountingSoundPool();
+        File file = mFolder.newFile("sound.wav");
+        TestSounds.writeWav(file, 22050, 1, 200);
+        mPath = file.getPath();
+    }
+
+    @Test (timeout = 60000)
+    public void testConcurrentCommandsAreApplied() throws Exception {
+        // a small queue, so the producers fill it and the control thread parks often
+        final AsyncSoundPool pool = new AsyncSoundPool(mDelegate, 16);
+        final int soundID = pool.load(mPath, 1);
+        assertTrue(soundID > 0);
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < PLAYS_PER_THREAD; i++) {
+                        pool.play(soundID, 1f, 1f, 0, 0, 1f);
+                        // a waiting call after each burst, it hangs on a lost wakeup
+                        if (i % 1000 == 0) pool.load(mPath, 1);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pool.release();
+
+        assertEquals(THREADS * PLAYS_PER_THREAD, mDelegate.mPlays);
+    }
+
+    @Test (timeout = 10000)
+    public void testCallsAfterReleaseAreRejected() {
+        AsyncSoundPool pool = new AsyncSoundPool(mDelegate, 16);
+        int soundID = pool.load(mPath, 1);
+        pool.release();
+
+        assertEquals(0, pool.load(mPath, 1));
+        assertFalse(pool.unload(soundID));
+        assertEquals(0, pool.play(soundID, 1f, 1f, 0, 0, 1f));
+        // more commands than the queue holds, none of them may wait for a free slot
+        for (int i = 0; i < 100; i++) {
+            pool.pause(1);
+        }
+        pool.setOnLoadCompleteListener(null);
+        pool.release();
+        assertEquals(0, mDelegate.mPlays);
+    }
+
+    @Test (timeout = 10000)
+    public void testPlayOfUnloadedSoundIsRejected() {
+        AsyncSoundPool pool = new AsyncSoundPool(mDelegate, 16);
+        int soundID = pool.load(mPath, 1);
+        assertEquals(0, pool.play(soundID + 1, 1f, 1f, 0, 0, 1f));
+        assertTrue(pool.play(soundID, 1f, 1f, 0, 0, 1f) > 0);
+
+        assertTrue(pool.unload(soundID));
+        assertEquals(0, pool.play(soundID, 1f, 1f, 0, 0, 1f));
+        pool.release();
+    }
+
+    @Test (timeout = 10000)
+    public void testRejectedPlayIsReported() {
+        // one stream, the low priority play is rejected by the delegate
+        FakeSoundPool delegate = new FakeSoundPool(1, new VirtualClock(0));
+        AsyncSoundPool async = new AsyncSoundPool(delegate, 16);
+        SoundPoolEx pool = new SoundPoolEx(async);
+        async.setRejectionMonitor(pool);
+        SoundPoolMetrics metrics = new SoundPoolMetrics();
+        pool.setMetrics(metrics);
+
+        int soundID = pool.load(mPath, 1);
+        long loop = pool.playHandle(soundID, 1f, 1f, 5, -1, 1f);
+        long rejected = pool.playHandle(soundID, 1f, 1f, 0, 0, 1f);
+        // a waiting call, the plays are applied before it
+        pool.load(mPath, 1);
+
+        assertTrue(pool.isHandlePlaying(loop));
+        assertFalse(pool.isValid(rejected));
+        assertEquals(1, pool.getActiveStreams(new int[4]));
+        assertEquals(1, metrics.snapshot().getCounter(SoundPoolMetrics.COUNTER_PLAYS_REJECTED));
+        pool.release();
+    }
+
+    @Test (timeout = 30000)
+    public void testLoopHandleOutlivesFiniteHandles() {
+        FakeSoundPool delegate = new FakeSoundPool(8, new VirtualClock(0));
+        AsyncSoundPool pool = new AsyncSoundPool(delegate, 64);
+        int soundID = pool.load(mPath, 1);
+        int loop = pool.play(soundID, 1f, 1f, 5, -1, 1f);
+        for (int i = 0; i < AsyncSoundPool.HANDLE_CAPACITY * 2; i++) {
+            pool.play(soundID, 1f, 1f, 0, 0, 1f);
+        }
+        pool.load(mPath, 1);
+        // the delegate streamIDs are sequential, the loop is the first stream
+        assertTrue(delegate.isPlaying(1));
+
+        pool.stop(loop);
+        pool.load(mPath, 1);
+        assertFalse(delegate.isPlaying(1));
+        pool.release();
+    }
+
+    /**
+     * Counts the applied plays, used by the control thread only
+     */
+    private static class CountingSoundPool extends FakeSoundPool {
+        int mPlays;
+
+        CountingSoundPool() {
+            super(8, new VirtualClock(0));
+        }
+
+        @Override
+        public int play(int soundID, float leftVolume, float rightVolume, int priority,
+                int loop, float rate) {
+            mPlays++;
+            return super.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.kry.soundpoolex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Frame counts of the WAV headers.
+ */
+public class AudioHeaderTest {
+    private static final int IMA_ADPCM = 0x11;
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_ALIGN = 256;
+    private static final int FRAMES_PER_BLOCK = 505;
+    private static final int BLOCKS = 16;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private AudioHeader read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return AudioHeader.read(in.getChannel(), 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testPcmFrames() throws Exception {
+        File file = mFolder.newFile("pcm.wav");
+        TestSounds.writeWav(file, 22050, 2, 1000);
+        AudioHeader header = read(file);
+        assertNotNull(header);
+        assertEquals(22050, header.getFrameCount());
+        assertEquals(1000, header.getDuration());
+    }
+
+    @Test
+    public void testCompressedFramesFromFact() throws Exception {
+        File file = writeAdpcm(true, 4055);
+        AudioHeader header = read(file);
+        assertNotNull(header);
+        // not the number of the blocks
+        assertEquals(BLOCKS * FRAMES_PER_BLOCK, header.getFrameCount());
+        assertEquals(BLOCKS * FRAMES_PER_BLOCK * 1000 / SAMPLE_RATE, header.getDuration());
+    }
+
+    @Test
+    public void testCompressedFramesFromByteRate() throws Exception {
+        File file = writeAdpcm(false, 4055);
+        AudioHeader header = read(file);
+        assertNotNull(header);
+        assertEquals((long) BLOCKS * BLOCK_ALIGN * SAMPLE_RATE / 4055, header.getFrameCount());
+    }
+
+    @Test
+    public void testCompressedWithoutRateIsRejected() throws Exception {
+        // left to the duration prober
+        assertNull(read(writeAdpcm(false, 0)));
+    }
+
+    /**
+     * Writes a mono IMA ADPCM WAV file of silent blocks.
+     */
+    private File writeAdpcm(boolean fact, int byteRate) throws IOException {
+        File file = mFolder.newFile();
+        final int dataSize = BLOCKS * BLOCK_ALIGN;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x52494646); // 'RIFF'
+            out.writeInt(Integer.reverseBytes(4 + 28 + (fact ? 12 : 0) + 8 + dataSize));
+            out.writeInt(0x57415645); // 'WAVE'
+            out.writeInt(0x666D7420); // 'fmt '
+            out.writeInt(Integer.reverseBytes(20));
+            out.writeShort(Short.reverseBytes((short) IMA_ADPCM));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(byteRate));
+            out.writeShort(Short.reverseBytes((short) BLOCK_ALIGN));
+            out.writeShort(Short.reverseBytes((short) 4));
+            out.writeShort(Short.reverseBytes((short) 2)); // extra size
+            out.writeShort(Short.reverseBytes((short) FRAMES_PER_BLOCK));
+            if (fact) {
+                out.writeInt(0x66616374); // 'fact'
+                out.writeInt(Integer.reverseBytes(4));
+                out.writeInt(Integer.reverseBytes(BLOCKS * FRAMES_PER_BLOCK));
+            }
+            out.writeInt(0x64617461); // 'data'
+            out.writeInt(Integer.reverseBytes(dataSize));
+            out.write(new byte[dataSize]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
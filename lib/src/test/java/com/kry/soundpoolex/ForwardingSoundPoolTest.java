@@ -0,0 +1,225 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Interceptor chains of {@link ForwardingSoundPool} layers over a fake pool.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class ForwardingSoundPoolTest {
+    private VirtualClock mClock;
+    private TracingSoundPool mBackend;
+
+    @Before
+    public void setUp() {
+        mClock = new VirtualClock(1000);
+        mBackend = new TracingSoundPool(mClock);
+    }
+
+    @Test
+    public void testLayersInterceptInOrder() {
+        final List<String> calls = new ArrayList<>();
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(passThrough());
+        interceptors.add(new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return new ForwardingSoundPool(next) {
+                    @Override
+                    public int play(int soundID, float leftVolume, float rightVolume,
+                            int priority, int loop, float rate) {
+                        calls.add("outer play");
+                        return super.play(soundID, leftVolume, rightVolume, priority, loop,
+                                rate);
+                    }
+                };
+            }
+        });
+        interceptors.add(passThrough());
+        interceptors.add(new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return new ForwardingSoundPool(next) {
+                    @Override
+                    public int play(int soundID, float leftVolume, float rightVolume,
+                            int priority, int loop, float rate) {
+                        calls.add("inner play");
+                        return super.play(soundID, leftVolume, rightVolume, priority, loop,
+                                rate);
+                    }
+
+                    @Override
+                    public void stop(int streamID) {
+                        calls.add("inner stop");
+                        super.stop(streamID);
+                    }
+                };
+            }
+        });
+        interceptors.add(passThrough());
+        ISoundPool pool = ForwardingSoundPool.chain(mBackend, interceptors);
+
+        int soundID = mBackend.load(500);
+        int streamID = pool.play(soundID, 1, 1, 0, 0, 1);
+        assertTrue(streamID > 0);
+        assertTrue(mBackend.isPlaying(streamID));
+        pool.stop(streamID);
+        assertFalse(mBackend.isPlaying(streamID));
+        assertEquals("[outer play, inner play, inner stop]", calls.toString());
+    }
+
+    @Test
+    public void testEmptyChainIsBackend() {
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        assertSame(mBackend, ForwardingSoundPool.chain(mBackend, interceptors));
+        interceptors.add(new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return next;
+            }
+        });
+        assertSame(mBackend, ForwardingSoundPool.chain(mBackend, interceptors));
+    }
+
+    @Test
+    public void testUnmaskedLayersAreCalled() {
+        final List<String> calls = new ArrayList<>();
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(passThrough());
+        interceptors.add(new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return new ForwardingSoundPool(next) {
+                    @Override
+                    public void stop(int streamID) {
+                        calls.add("stop");
+                        super.stop(streamID);
+                    }
+                };
+            }
+        });
+        ISoundPool pool = ForwardingSoundPool.chain(mBackend, interceptors);
+
+        int soundID = mBackend.load(500);
+        pool.play(soundID, 1, 1, 0, 0, 1);
+        // the outer layer, the unmasked layer and the backend
+        assertEquals(3, mBackend.mPlayFrames);
+        pool.stop(1);
+        assertEquals("[stop]", calls.toString());
+    }
+
+    @Test
+    public void testPassThroughLayersAreSkipped() {
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            interceptors.add(passThrough());
+        }
+        ISoundPool pool = ForwardingSoundPool.chain(mBackend, interceptors);
+
+        int soundID = mBackend.load(500);
+        assertTrue(pool.play(soundID, 1, 1, 0, 0, 1) > 0);
+        // the outermost layer calls the backend directly
+        assertEquals(2, mBackend.mPlayFrames);
+    }
+
+    @Test
+    public void testSeekReachesBackend() {
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(passThrough());
+        SeekableSoundPool pool =
+                (SeekableSoundPool) ForwardingSoundPool.chain(mBackend, interceptors);
+
+        int soundID = mBackend.load(500);
+        int streamID = pool.play(soundID, 1, 1, 0, 0, 1);
+        assertTrue(pool.seek(streamID, 250));
+        assertEquals(250, mBackend.mSeekPosition);
+        assertFalse(pool.seek(streamID + 1, 250));
+    }
+
+    @Test
+    public void testSeekSkipsNonSeekableBackend() {
+        List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(passThrough());
+        SeekableSoundPool pool = (SeekableSoundPool) ForwardingSoundPool.chain(
+                new SoundPoolAdapter.Builder().build(), interceptors);
+        assertFalse(pool.seek(1, 250));
+        pool.release();
+    }
+
+    @Test
+    public void testAdapterBuildAppliesInterceptors() {
+        assertSame(SoundPoolAdapter.class, new SoundPoolAdapter.Builder().build().getClass());
+
+        final List<String> calls = new ArrayList<>();
+        SoundPoolAdapter.Builder builder = new SoundPoolAdapter.Builder();
+        builder.addInterceptor(new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return new ForwardingSoundPool(next, ForwardingSoundPool.CALL_STOP) {
+                    @Override
+                    public void stop(int streamID) {
+                        calls.add("stop " + streamID);
+                        super.stop(streamID);
+                    }
+                };
+            }
+        });
+        SoundPoolAdapter adapter = builder.build();
+        adapter.stop(7);
+        adapter.release();
+        assertEquals("[stop 7]", calls.toString());
+    }
+
+    private static SoundPoolInterceptor passThrough() {
+        return new SoundPoolInterceptor() {
+            @Override
+            public ISoundPool intercept(ISoundPool next) {
+                return new ForwardingSoundPool(next, 0) {
+                };
+            }
+        };
+    }
+
+    private static final class TracingSoundPool extends FakeSoundPool {
+        int mPlayFrames;
+        int mSeekPosition = -1;
+
+        TracingSoundPool(VirtualClock clock) {
+            super(4, clock);
+        }
+
+        @Override
+        public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+                float rate) {
+            // counts the play() frames on the stack: this one and the layers
+            mPlayFrames = 0;
+            for (StackTraceElement element : new Throwable().getStackTrace()) {
+                if (element.getMethodName().equals("play")) mPlayFrames++;
+            }
+            return super.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        }
+
+        @Override
+        public boolean seek(int streamID, int position) {
+            if (!super.seek(streamID, position)) return false;
+            mSeekPosition = position;
+            return true;
+        }
+    }
+}
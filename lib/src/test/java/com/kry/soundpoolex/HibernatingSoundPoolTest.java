@@ -0,0 +1,191 @@
+package com.kry.soundpoolex;
+
+import android.media.SoundPool;
+import android.os.Build;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hibernation and wake up of {@link HibernatingSoundPool} over fake native pools.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class HibernatingSoundPoolTest {
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final long WAIT_TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final VirtualClock mClock = new VirtualClock(0);
+    private final List<FakeSoundPool> mNativePools = new ArrayList<>();
+    private HibernatingSoundPool mPool;
+    private SoundPoolEx mSoundPoolEx;
+    private int mLoadReports;
+    private String mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        mPool = new HibernatingSoundPool(new HibernatingSoundPool.Factory() {
+            @Override
+            public ISoundPool create() {
+                FakeSoundPool pool = new FakeSoundPool(4, mClock);
+                synchronized (mNativePools) {
+                    mNativePools.add(pool);
+                }
+                return pool;
+            }
+        }, IDLE_TIMEOUT);
+        mSoundPoolEx = new SoundPoolEx(mPool);
+        mPool.setActivityMonitor(mSoundPoolEx);
+        mSoundPoolEx.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                synchronized (HibernatingSoundPoolTest.this) {
+                    mLoadReports++;
+                }
+            }
+        });
+
+        File file = mFolder.newFile("loop.wav");
+        TestSounds.writeWav(file, 22050, 1, 500);
+        mPath = file.getPath();
+    }
+
+    private FakeSoundPool nativePool() {
+        synchronized (mNativePools) {
+            return mNativePools.get(mNativePools.size() - 1);
+        }
+    }
+
+    private int activeNativeStreams() {
+        // the native pools are used under the lock of the hibernating pool
+        synchronized (mPool) {
+            return nativePool().getActiveStreamCount();
+        }
+    }
+
+    private void hibernate() throws InterruptedException {
+        mPool.hibernate();
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!mPool.isHibernating()) {
+            assertTrue("not hibernated", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitActiveNativeStreams(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (activeNativeStreams() != count) {
+            assertTrue("native streams " + activeNativeStreams(),
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testWakingLoopIsQueued() throws Exception {
+        int soundID = mSoundPoolEx.load(mPath, 1);
+        hibernate();
+
+        // a one-shot is dropped, a loop is started with the reload
+        assertEquals(0, mSoundPoolEx.play(soundID, 1f, 1f, 0, 0, 1f));
+        int streamID = mSoundPoolEx.play(soundID, 1f, 1f, 0, -1, 1f);
+        assertTrue(streamID > 0);
+        awaitActiveNativeStreams(1);
+        assertEquals(2, mNativePools.size());
+
+        mSoundPoolEx.stop(streamID);
+        assertEquals(0, activeNativeStreams());
+    }
+
+    @Test
+    public void testQueuedLoopIsStopped() throws Exception {
+        int soundID = mSoundPoolEx.load(mPath, 1);
+        hibernate();
+
+        synchronized (mPool) {
+            // the reload waits for the lock, the loop is stopped while queued
+            int streamID = mSoundPoolEx.play(soundID, 1f, 1f, 0, -1, 1f);
+            assertTrue(streamID > 0);
+            mSoundPoolEx.stop(streamID);
+        }
+        int other = mSoundPoolEx.play(soundID, 1f, 1f, 0, 2, 1f);
+        awaitActiveNativeStreams(1);
+        assertTrue(other > 0);
+    }
+
+    @Test
+    public void testReloadIsNotReported() throws Exception {
+        int soundID = mSoundPoolEx.load(mPath, 1);
+        hibernate();
+        mPool.wakeUp();
+        // the loop starts when the reload completes
+        mSoundPoolEx.play(soundID, 1f, 1f, 0, -1, 1f);
+        awaitActiveNativeStreams(1);
+        synchronized (this) {
+            assertEquals(1, mLoadReports);
+        }
+    }
+
+    @Test
+    @Config (shadows = ShadowWrappingParcelFileDescriptor.class)
+    public void testDescriptorSoundIsReloaded() throws Exception {
+        final int soundID;
+        try (FileInputStream in = new FileInputStream(mPath)) {
+            soundID = mSoundPoolEx.load(in.getFD(), 0, new File(mPath).length(), 1);
+        }
+        assertTrue(soundID > 0);
+        hibernate();
+        // reloaded from the duplicate, the caller's descriptor is closed
+        mSoundPoolEx.play(soundID, 1f, 1f, 0, -1, 1f);
+        awaitActiveNativeStreams(1);
+    }
+
+    @Test
+    public void testDescriptorSoundKeepsPoolAwakeWithoutDup() throws Exception {
+        final int pathID = mSoundPoolEx.load(mPath, 1);
+        hibernate();
+        final int sdk = Build.VERSION.SDK_INT;
+        ReflectionHelpers.setStaticField(Build.VERSION.class, "SDK_INT",
+                Build.VERSION_CODES.GINGERBREAD_MR1);
+        final int soundID;
+        try (FileInputStream in = new FileInputStream(mPath)) {
+            // loaded right away, the descriptor is only valid during the call
+            soundID = mSoundPoolEx.load(in.getFD(), 0, new File(mPath).length(), 1);
+        } finally {
+            ReflectionHelpers.setStaticField(Build.VERSION.class, "SDK_INT", sdk);
+        }
+        assertFalse(mPool.isHibernating());
+        final int streamID = mSoundPoolEx.play(soundID, 1f, 1f, 0, 0, 1f);
+        assertTrue(streamID > 0);
+        mSoundPoolEx.stop(streamID);
+
+        mPool.hibernate();
+        Thread.sleep(100);
+        assertFalse(mPool.isHibernating());
+        mSoundPoolEx.unload(soundID);
+        hibernate();
+        assertTrue(mSoundPoolEx.play(pathID, 1f, 1f, 0, -1, 1f) > 0);
+        awaitActiveNativeStreams(1);
+    }
+}
@@ -0,0 +1,148 @@
+package com.kry.soundpoolex;
+
+import android.media.SoundPool;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Routing of {@link HybridSoundPool} over fake memory and streaming backends.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class HybridSoundPoolTest {
+    private static final int MAX_MEMORY_DURATION = 1000;
+    private static final int MAX_MEMORY_SIZE = 100000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private FakeSoundPool mMemory;
+    private FakeSoundPool mStreaming;
+    private HybridSoundPool mPool;
+    private String mShort;
+    private String mLong;
+    private String mLarge;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new VirtualClock(0);
+        mMemory = new FakeSoundPool(4, mClock);
+        mStreaming = new FakeSoundPool(4, mClock);
+        mPool = new HybridSoundPool(mMemory, mStreaming, MAX_MEMORY_DURATION, MAX_MEMORY_SIZE);
+
+        mShort = writeWav("short.wav", 22050, 1, 200);
+        mLong = writeWav("long.wav", 8000, 1, 3000);
+        // short, but too large decoded: 48 kHz stereo
+        mLarge = writeWav("large.wav", 48000, 2, 800);
+    }
+
+    private String writeWav(String name, int sampleRate, int channels, int duration)
+            throws Exception {
+        File file = mFolder.newFile(name);
+        TestSounds.writeWav(file, sampleRate, channels, duration);
+        return file.getPath();
+    }
+
+    @Test
+    public void routesByDurationAndDecodedSize() {
+        int shortID = mPool.load(mShort, 1);
+        int longID = mPool.load(mLong, 1);
+        int largeID = mPool.load(mLarge, 1);
+
+        assertEquals(0, shortID & 1);
+        assertEquals(1, longID & 1);
+        assertEquals(1, largeID & 1);
+
+        int shortStream = mPool.play(shortID, 1f, 1f, 0, 0, 1f);
+        int longStream = mPool.play(longID, 1f, 1f, 0, 0, 1f);
+        assertEquals(0, shortStream & 1);
+        assertEquals(1, longStream & 1);
+        assertTrue(mMemory.isPlaying(shortStream >>> 1));
+        assertTrue(mStreaming.isPlaying(longStream >>> 1));
+        assertEquals(1, mMemory.getActiveStreamCount());
+        assertEquals(1, mStreaming.getActiveStreamCount());
+    }
+
+    @Test
+    public void forwardsStreamCallsToOwningBackend() {
+        int shortStream = mPool.play(mPool.load(mShort, 1), 1f, 1f, 0, -1, 1f);
+        int longStream = mPool.play(mPool.load(mLong, 1), 1f, 1f, 0, -1, 1f);
+
+        mPool.pause(longStream);
+        assertTrue(mMemory.isPlaying(shortStream >>> 1));
+        assertFalse(mStreaming.isPlaying(longStream >>> 1));
+
+        mPool.resume(longStream);
+        mPool.stop(shortStream);
+        assertFalse(mMemory.isPlaying(shortStream >>> 1));
+        assertTrue(mStreaming.isPlaying(longStream >>> 1));
+
+        mPool.autoPause();
+        assertFalse(mStreaming.isPlaying(longStream >>> 1));
+        mPool.autoResume();
+        assertTrue(mStreaming.isPlaying(longStream >>> 1));
+    }
+
+    @Test
+    public void mapsLoadCompleteIds() {
+        final List<Integer> completed = new ArrayList<>();
+        mPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                completed.add(sampleId);
+            }
+        });
+
+        int shortID = mPool.load(mShort, 1);
+        int longID = mPool.load(mLong, 1);
+
+        assertEquals(2, completed.size());
+        assertEquals(shortID, (int) completed.get(0));
+        assertEquals(longID, (int) completed.get(1));
+    }
+
+    @Test
+    public void routesByKnownDuration() {
+        // the passed measures win over the header, which isn't read again
+        assertEquals(1, mPool.load(mShort, 1, 5000, 0) & 1);
+        assertEquals(0, mPool.load(mLong, 1, 500, 1000) & 1);
+        // unknown measures fall back to the header
+        assertEquals(1, mPool.load(mLong, 1, 0, 0) & 1);
+    }
+
+    @Test
+    public void unifiesTimelinesInSoundPoolEx() {
+        SoundPoolEx pool = new SoundPoolEx(mPool);
+        pool.setClock(mClock);
+        int shortID = pool.load(mShort, 1);
+        int longID = pool.load(mLong, 1);
+        assertEquals(200, pool.getDuration(shortID));
+        assertEquals(3000, pool.getDuration(longID));
+
+        int shortStream = pool.play(shortID, 1f, 1f, 0, 0, 1f);
+        int longStream = pool.play(longID, 1f, 1f, 0, 0, 1f);
+        mClock.advance(500);
+        assertFalse(pool.isPlaying(shortStream));
+        assertTrue(pool.isPlaying(longStream));
+        mClock.advance(3000);
+        assertFalse(pool.isPlaying(longStream));
+    }
+}
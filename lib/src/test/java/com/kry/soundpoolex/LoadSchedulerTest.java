@@ -0,0 +1,114 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cancellation of the {@link LoadScheduler} loads.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class LoadSchedulerTest {
+    private static final long WAIT_TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private BlockingSoundPool mDelegate;
+    private SoundPoolEx mPool;
+    private LoadScheduler mScheduler;
+    private String mPath;
+    private final AtomicInteger mCallbacks = new AtomicInteger();
+    private final LoadScheduler.Callback mCallback = new LoadScheduler.Callback() {
+        @Override
+        public void onSoundLoaded(int ticket, int soundID, int status) {
+            mCallbacks.incrementAndGet();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDelegate = new BlockingSoundPool();
+        mPool = new SoundPoolEx(mDelegate);
+        mScheduler = new LoadScheduler(mPool, 4, 100);
+        File file = mFolder.newFile("sound.wav");
+        TestSounds.writeWav(file, 22050, 1, 200);
+        mPath = file.getPath();
+    }
+
+    @Test
+    public void testCancelDuringSubmission() throws Exception {
+        int ticket = mScheduler.enqueue(SoundSource.fromPath(mPath), 0, 1, mCallback);
+        assertTrue(mDelegate.mEntered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // neither pending nor in flight, the scheduler thread is in the load call
+        assertTrue(mScheduler.cancel(ticket));
+        mDelegate.mRelease.countDown();
+        assertTrue(mDelegate.mUnloaded.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        mScheduler.release();
+        assertEquals(0, mCallbacks.get());
+    }
+
+    @Test
+    public void testCancelGroupDuringSubmission() throws Exception {
+        mScheduler.enqueue(SoundSource.fromPath(mPath), 1, 7, mCallback);
+        mScheduler.enqueue(SoundSource.fromPath(mPath), 0, 7, mCallback);
+        assertTrue(mDelegate.mEntered.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        assertEquals(2, mScheduler.cancelGroup(7));
+        mDelegate.mRelease.countDown();
+        assertTrue(mDelegate.mUnloaded.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+        mScheduler.release();
+        assertEquals(0, mCallbacks.get());
+        assertEquals(1, mDelegate.mLoads.get());
+    }
+
+    /**
+     * Blocks the first load call until released
+     */
+    private static class BlockingSoundPool extends FakeSoundPool {
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final CountDownLatch mUnloaded = new CountDownLatch(1);
+        final AtomicInteger mLoads = new AtomicInteger();
+
+        BlockingSoundPool() {
+            super(4, new VirtualClock(0));
+        }
+
+        @Override
+        public synchronized int load(String path, int priority) {
+            mLoads.incrementAndGet();
+            mEntered.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.load(path, priority);
+        }
+
+        @Override
+        public synchronized boolean unload(int soundID) {
+            boolean result = super.unload(soundID);
+            if (result) mUnloaded.countDown();
+            return result;
+        }
+    }
+}
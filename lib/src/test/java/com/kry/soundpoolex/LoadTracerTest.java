@@ -0,0 +1,158 @@
+package com.kry.soundpoolex;
+
+import android.media.SoundPool;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Chrome trace dumps of the {@link LoadTracer} spans of the SoundPoolEx loads.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class LoadTracerTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private DeferredSoundPool mDelegate;
+    private SoundPoolEx mPool;
+    private String mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = mFolder.newFile("shot.wav");
+        TestSounds.writeWav(file, 22050, 1, 300);
+        mPath = file.getPath();
+        mDelegate = new DeferredSoundPool(new VirtualClock(0));
+        mPool = new SoundPoolEx(mDelegate);
+    }
+
+    @Test
+    public void testDecodeSpansAreBalanced() throws Exception {
+        LoadTracer tracer = new LoadTracer(64);
+        mPool.setLoadTracer(tracer);
+        int first = mPool.load(mPath, 1);
+        // the second decode never completes, it isn't dumped
+        mPool.load(mPath, 1);
+        mDelegate.complete(first);
+        mPool.load(mPath, 1);
+
+        JSONArray events = dump(tracer);
+        Map<String, Integer> phases = countPhases(events);
+        assertEquals(Integer.valueOf(1), phases.get("M"));
+        assertEquals(Integer.valueOf(1), phases.get("b"));
+        assertEquals(Integer.valueOf(1), phases.get("e"));
+        // load, probe and submit of every load
+        assertEquals(Integer.valueOf(9), phases.get("X"));
+        assertBalanced(events);
+
+        boolean decoded = false;
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if (event.getString("ph").equals("b")) {
+                assertEquals("decode", event.getString("name"));
+                assertEquals(first, event.getInt("id"));
+                decoded = true;
+            } else if (event.getString("ph").equals("X")) {
+                assertTrue(event.getLong("dur") >= 0);
+            }
+        }
+        assertTrue(decoded);
+    }
+
+    @Test
+    public void testOverwrittenRingStaysBalanced() throws Exception {
+        LoadTracer tracer = new LoadTracer(8);
+        mPool.setLoadTracer(tracer);
+        for (int i = 0; i < 20; i++) {
+            mDelegate.complete(mPool.load(mPath, 1));
+        }
+        JSONArray events = dump(tracer);
+        // the metadata event and the 8 newest spans, a decode is a b/e pair
+        Map<String, Integer> phases = countPhases(events);
+        int spans = phases.get("X") + phases.get("b");
+        assertEquals(8, spans);
+        assertEquals(phases.get("b"), phases.get("e"));
+        assertBalanced(events);
+
+        tracer.clear();
+        assertEquals(1, dump(tracer).length());
+    }
+
+    private static JSONArray dump(LoadTracer tracer) throws Exception {
+        StringWriter writer = new StringWriter();
+        tracer.writeChromeTrace(writer);
+        return new JSONObject(writer.toString()).getJSONArray("traceEvents");
+    }
+
+    private static Map<String, Integer> countPhases(JSONArray events) throws Exception {
+        Map<String, Integer> phases = new HashMap<>();
+        for (String phase : new String[] {"M", "X", "b", "e"}) {
+            phases.put(phase, 0);
+        }
+        for (int i = 0; i < events.length(); i++) {
+            String phase = events.getJSONObject(i).getString("ph");
+            phases.put(phase, phases.get(phase) + 1);
+        }
+        return phases;
+    }
+
+    /**
+     * Every async begin is followed by the end of the same name and id, not earlier than it.
+     */
+    private static void assertBalanced(JSONArray events) throws Exception {
+        Map<String, Long> open = new HashMap<>();
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            String phase = event.getString("ph");
+            if (!phase.equals("b") && !phase.equals("e")) continue;
+            String key = event.getString("name") + ":" + event.getInt("id");
+            if (phase.equals("b")) {
+                assertTrue("nested " + key, open.put(key, event.getLong("ts")) == null);
+            } else {
+                Long begin = open.remove(key);
+                assertTrue("unmatched end " + key, begin != null);
+                assertTrue(event.getLong("ts") >= begin);
+            }
+        }
+        assertTrue("unmatched begins " + open.keySet(), open.isEmpty());
+    }
+
+    /**
+     * Reports the loads when the test completes them, like the native decoder.
+     */
+    private static final class DeferredSoundPool extends FakeSoundPool {
+        private SoundPool.OnLoadCompleteListener mListener;
+
+        DeferredSoundPool(VirtualClock clock) {
+            super(4, clock);
+        }
+
+        @Override
+        public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+            mListener = listener;
+        }
+
+        void complete(int soundID) {
+            mListener.onLoadComplete(null, soundID, 0);
+        }
+    }
+}
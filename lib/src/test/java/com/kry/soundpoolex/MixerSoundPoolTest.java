@@ -0,0 +1,124 @@
+package com.kry.soundpoolex;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Voices of {@link MixerSoundPool} rendered manually into a {@link NullPcmSink}.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class MixerSoundPoolTest {
+    private static final String TAG = "MixerSoundPoolTest";
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_FRAMES = 256;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MixerSoundPool mPool;
+    private final short[] mBlock = new short[BLOCK_FRAMES * 2];
+
+    @Before
+    public void setUp() {
+        mPool = new MixerSoundPool(new NullPcmSink(SAMPLE_RATE, false), 64, BLOCK_FRAMES);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.release();
+    }
+
+    private int load(int sampleRate, int channels, int duration) throws Exception {
+        File file = mFolder.newFile();
+        TestSounds.writeWav(file, sampleRate, channels, duration);
+        return mPool.load(file.getPath(), 1);
+    }
+
+    @Test
+    public void testLoopWrapsShortSoundManyTimesPerFrame() throws Exception {
+        mPool.release();
+        mPool = new MixerSoundPool(new NullPcmSink(750, false), 4, BLOCK_FRAMES);
+        // 3 frames at 4x the output rate, played at 2x: a step of 8 frames wraps twice
+        final int soundID = load(3000, 1, 1);
+        final int twice = mPool.play(soundID, 1f, 1f, 0, 1, 2f);
+        final int looping = mPool.play(soundID, 1f, 1f, 0, -1, 2f);
+
+        mPool.render(mBlock, 4);
+        // the 6 frames of the two plays end in the second output frame
+        assertFalse(mPool.isPlaying(twice));
+        assertTrue(mPool.isPlaying(looping));
+        for (int i = 0; i < 100; i++) {
+            mPool.render(mBlock, BLOCK_FRAMES);
+        }
+        assertTrue(mPool.isPlaying(looping));
+        assertEquals(1, mPool.getActiveVoiceCount());
+    }
+
+    @Test
+    public void testChangesDuringMixAreKept() throws Exception {
+        final int soundID = load(SAMPLE_RATE, 2, 100);
+        final int streamID = mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        mPool.render(mBlock, BLOCK_FRAMES);
+        mPool.pause(streamID);
+        mPool.render(mBlock, BLOCK_FRAMES);
+        assertFalse(mPool.isPlaying(streamID));
+        mPool.resume(streamID);
+
+        // 100 ms are 4800 frames, the sound ends in the 19th block
+        for (int i = 1; i < 18; i++) {
+            mPool.render(mBlock, BLOCK_FRAMES);
+        }
+        assertTrue(mPool.isPlaying(streamID));
+        assertTrue(mPool.seek(streamID, 0));
+        mPool.render(mBlock, BLOCK_FRAMES);
+        mPool.render(mBlock, BLOCK_FRAMES);
+        assertTrue(mPool.isPlaying(streamID));
+        mPool.stop(streamID);
+        assertEquals(0, mPool.getActiveVoiceCount());
+    }
+
+    @Test
+    public void testVoicesPerCore() throws Exception {
+        final int voices = 32;
+        final int blocks = 400;
+        final int soundID = load(SAMPLE_RATE / 2, 2, 500);
+        for (int v = 0; v < voices; v++) {
+            // resampled, the interpolating path
+            assertTrue(mPool.play(soundID, 0.5f, 0.5f, 0, -1, 1f + v * 0.01f) > 0);
+        }
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // warm up
+        for (int i = 0; i < blocks; i++) {
+            mPool.render(mBlock, BLOCK_FRAMES);
+        }
+        final long start = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < blocks; i++) {
+            mPool.render(mBlock, BLOCK_FRAMES);
+        }
+        final long cpuTime = Math.max(1, threads.getCurrentThreadCpuTime() - start);
+        final double audioTime = (double) blocks * BLOCK_FRAMES / SAMPLE_RATE * 1e9;
+        final double voicesPerCore = voices * audioTime / cpuTime;
+        Log.i(TAG, String.format("%d voices: %.0f voices per core", voices, voicesPerCore));
+
+        assertEquals(voices, mPool.getActiveVoiceCount());
+        // a loose bound, the mixer keeps up with the voices in real time on one core
+        assertTrue("voices per core " + voicesPerCore, voicesPerCore > voices);
+    }
+}
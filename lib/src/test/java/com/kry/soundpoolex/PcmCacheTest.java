@@ -0,0 +1,94 @@
+package com.kry.soundpoolex;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Eviction of the pinned files of {@link PcmCache}. The decoding needs MediaCodec, the cached
+ * files are written in the cache directory before the index is scanned.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class PcmCacheTest {
+    private static final int FILE_SIZE = 1000;
+    private static final long SOURCE_LENGTH = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+    private File mSource;
+    private PcmCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = mFolder.newFolder("pcm");
+        mSource = mFolder.newFile("source.ogg");
+        // over the limit with two files, the eviction waits for the next decode or unpin
+        mCache = new PcmCache(mDir, FILE_SIZE * 3 / 2, 0);
+    }
+
+    @Test
+    public void testPinnedFileIsNotEvicted() throws Exception {
+        cached("pinned");
+        cached("other");
+        File pinned = get("pinned");
+        File other = get("other");
+        assertNotNull(pinned);
+        assertNotNull(other);
+        assertTrue(mCache.pin(pinned));
+        assertTrue(mCache.pin(other));
+        assertEquals(2 * FILE_SIZE, mCache.getSize());
+
+        // the least recently used pinned file stays, the other one goes when unpinned
+        mCache.unpin(other);
+        assertTrue(pinned.isFile());
+        assertFalse(other.isFile());
+        assertEquals(FILE_SIZE, mCache.getSize());
+        assertFalse(mCache.pin(other));
+
+        mCache.clear();
+        assertTrue(pinned.isFile());
+        mCache.unpin(pinned);
+        mCache.clear();
+        assertFalse(pinned.isFile());
+        assertEquals(0, mCache.getSize());
+    }
+
+    private File get(String key) throws Exception {
+        try (FileInputStream in = new FileInputStream(mSource)) {
+            return mCache.get(key, in.getFD(), 0, SOURCE_LENGTH);
+        }
+    }
+
+    /**
+     * Writes the cached file of the key as the decoding would name it.
+     */
+    private void cached(String key) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+                (key + ":" + SOURCE_LENGTH).getBytes("UTF-8"));
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16));
+            name.append(Character.forDigit(b & 0xF, 16));
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(mDir, name + ".wav"))) {
+            out.write(new byte[FILE_SIZE]);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.kry.soundpoolex;
+
+import android.os.ParcelFileDescriptor;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.Resetter;
+import org.robolectric.shadows.ShadowParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds the wrapping constructor and dup() missing in the Robolectric shadow. ContentResolver wraps
+ * the descriptors returned by content providers, see {@link SoundPoolExUriTest}. The JVM can't
+ * dup(2), so a duplicate is another open of the file through /proc/self/fd, which outlives the
+ * close of the original descriptor as well; the duplicates are kept for the assertions.
+ */
+@Implements (ParcelFileDescriptor.class)
+public class ShadowWrappingParcelFileDescriptor extends ShadowParcelFileDescriptor {
+    private static final List<ParcelFileDescriptor> sDuplicates = new ArrayList<>();
+
+    private ParcelFileDescriptor mWrapped;
+
+    @Implementation
+    public static ParcelFileDescriptor dup(FileDescriptor orig) throws IOException {
+        final int fd;
+        try {
+            Field field = FileDescriptor.class.getDeclaredField("fd");
+            field.setAccessible(true);
+            fd = field.getInt(orig);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e);
+        }
+        ParcelFileDescriptor dup = ParcelFileDescriptor.open(new File("/proc/self/fd/" + fd),
+                ParcelFileDescriptor.MODE_READ_ONLY);
+        sDuplicates.add(dup);
+        return dup;
+    }
+
+    /**
+     * @return the duplicates made since the last reset, in order
+     */
+    public static List<ParcelFileDescriptor> getDuplicates() {
+        return sDuplicates;
+    }
+
+    @Resetter
+    public static void reset() {
+        sDuplicates.clear();
+    }
+
+    public void __constructor__(ParcelFileDescriptor wrapped) {
+        mWrapped = wrapped;
+    }
+
+    @Implementation
+    @Override
+    public FileDescriptor getFileDescriptor() {
+        return mWrapped != null ? mWrapped.getFileDescriptor() : super.getFileDescriptor();
+    }
+
+    @Implementation
+    public long getStatSize() {
+        if (mWrapped != null) return mWrapped.getStatSize();
+        try {
+            // the stream isn't closed, it would close the descriptor
+            return new FileInputStream(getFileDescriptor()).getChannel().size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Implementation
+    @Override
+    public void close() throws IOException {
+        if (mWrapped != null) {
+            mWrapped.close();
+        } else {
+            super.close();
+        }
+    }
+}
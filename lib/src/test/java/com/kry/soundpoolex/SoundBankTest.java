@@ -0,0 +1,79 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.SoundBankBuilder;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundBankTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsBuiltBank() throws Exception {
+        File click = mFolder.newFile("click.wav");
+        TestSounds.writeWav(click, 22050, 1, 200);
+        File music = mFolder.newFile("music.wav");
+        TestSounds.writeWav(music, 44100, 2, 1500);
+        File bankFile = mFolder.newFile("sounds.bank");
+        new SoundBankBuilder().add(music).add(click).write(bankFile);
+
+        SoundBank bank = SoundBank.open(bankFile);
+        try {
+            assertEquals(2, bank.size());
+            int index = bank.indexOf("click");
+            assertEquals("click", bank.getName(index));
+            assertEquals(200, bank.getDuration(index));
+            assertEquals(22050, bank.getSampleRate(index));
+            assertEquals(1, bank.getChannelCount(index));
+            assertEquals(AudioHeader.FORMAT_WAV, bank.getFormat(index));
+            assertEquals(click.length(), bank.getLength(index));
+
+            index = bank.indexOf("music");
+            assertEquals(1500, bank.getDuration(index));
+            assertEquals(2, bank.getChannelCount(index));
+            assertEquals(music.length(), bank.getLength(index));
+            assertEquals(bank.getOffset(bank.indexOf("click")) + click.length(),
+                    bank.getOffset(index));
+        } finally {
+            bank.close();
+        }
+    }
+
+    @Test
+    public void loadsMetadataOfEntry() throws Exception {
+        File music = mFolder.newFile("music.wav");
+        TestSounds.writeWav(music, 44100, 2, 1500);
+        File bankFile = mFolder.newFile("sounds.bank");
+        new SoundBankBuilder().add(music).write(bankFile);
+
+        VirtualClock clock = new VirtualClock(0);
+        SoundPoolEx pool = new SoundPoolEx(new FakeSoundPool(4, clock));
+        pool.setClock(clock);
+        SoundBank bank = SoundBank.open(bankFile);
+        try {
+            int soundID = pool.load(bank, bank.indexOf("music"), 1);
+            SoundMetadata metadata = pool.getMetadata();
+            assertEquals(1500, metadata.getDuration(soundID));
+            assertEquals(AudioHeader.FORMAT_WAV, metadata.getFormat(soundID));
+            assertEquals(44100, metadata.getSampleRate(soundID));
+            assertEquals(2, metadata.getChannelCount(soundID));
+            assertEquals(44100 * 3 / 2 * 2 * 2, metadata.getDecodedSize(soundID));
+            assertEquals(music.length() * 8000 / 1500, metadata.getBitrate(soundID));
+        } finally {
+            bank.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.SoundManifestBuilder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundManifestTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsBuiltManifest() throws Exception {
+        File raw = mFolder.newFolder("raw");
+        TestSounds.writeWav(new File(raw, "shot.wav"), 22050, 1, 200);
+        File assets = mFolder.newFolder("assets");
+        File music = new File(assets, "music");
+        music.mkdir();
+        TestSounds.writeWav(new File(music, "theme.wav"), 44100, 2, 1500);
+        FileOutputStream text = new FileOutputStream(new File(assets, "readme.txt"));
+        text.write("not a sound".getBytes("UTF-8"));
+        text.close();
+
+        File output = new File(mFolder.getRoot(), "out/soundpoolex.manifest");
+        SoundManifestBuilder builder = new SoundManifestBuilder()
+                .addRawDir(raw)
+                .addAssetsDir(assets)
+                .addRawDir(new File(mFolder.getRoot(), "missing"));
+        builder.write(output);
+
+        SoundManifest manifest;
+        InputStream in = new FileInputStream(output);
+        try {
+            manifest = SoundManifest.read(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(2, manifest.size());
+        assertEquals(-1, manifest.indexOf("readme.txt"));
+
+        int index = manifest.indexOf("raw/shot");
+        assertEquals(200, manifest.getDuration(index));
+        assertEquals(22050, manifest.getSampleRate(index));
+        assertEquals(1, manifest.getChannelCount(index));
+        assertEquals(4410 * 2, manifest.getDecodedSize(index));
+
+        index = manifest.indexOf("music/theme.wav");
+        assertEquals(1500, manifest.getDuration(index));
+        assertEquals(44100, manifest.getSampleRate(index));
+        assertEquals(2, manifest.getChannelCount(index));
+    }
+}
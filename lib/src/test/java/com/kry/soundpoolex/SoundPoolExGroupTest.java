@@ -0,0 +1,96 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stream groups of {@link SoundPoolEx#playAll(int[], float[], int, int, float, int[])}.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundPoolExGroupTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private CountingSoundPool mDelegate;
+    private SoundPoolEx mPool;
+    private int mBody;
+    private int mTail;
+
+    @Before
+    public void setUp() throws Exception {
+        File body = mFolder.newFile("body.wav");
+        TestSounds.writeWav(body, 22050, 1, 800);
+        File tail = mFolder.newFile("tail.wav");
+        TestSounds.writeWav(tail, 22050, 1, 1200);
+        mClock = new VirtualClock(1000);
+        mDelegate = new CountingSoundPool(mClock);
+        mPool = new SoundPoolEx(mDelegate);
+        mPool.setClock(mClock);
+        mBody = mPool.load(body.getPath(), 1);
+        mTail = mPool.load(tail.getPath(), 1);
+    }
+
+    @Test
+    public void testLayersShareStartTime() {
+        int[] streamIDs = new int[2];
+        int groupID = mPool.playAll(new int[] {mBody, mTail}, new float[] {1f, 0.5f}, 0, 0, 1f,
+                streamIDs);
+        assertTrue(groupID > 0);
+
+        mClock.advance(300);
+        assertEquals(300, mPool.getStreamPosition(streamIDs[0]));
+        assertEquals(300, mPool.getStreamPosition(streamIDs[1]));
+        mClock.advance(500);
+        assertFalse(mPool.isPlaying(streamIDs[0]));
+        assertTrue(mPool.isGroupPlaying(groupID));
+    }
+
+    @Test
+    public void testUnloadClearsLayers() {
+        int[] streamIDs = new int[2];
+        int groupID = mPool.playAll(new int[] {mBody, mTail}, new float[] {1f, 1f}, 0, 0, 1f,
+                streamIDs);
+
+        mPool.unload(mBody);
+        mPool.pauseGroup(groupID);
+        assertEquals(1, mDelegate.mPauses);
+        assertEquals(streamIDs[1], mDelegate.mLastPaused);
+
+        mPool.unload(mTail);
+        mPool.pauseGroup(groupID);
+        assertEquals(1, mDelegate.mPauses);
+        assertFalse(mPool.isGroupPlaying(groupID));
+    }
+
+    private static final class CountingSoundPool extends FakeSoundPool {
+        int mPauses;
+        int mLastPaused;
+
+        CountingSoundPool(VirtualClock clock) {
+            super(4, clock);
+        }
+
+        @Override
+        public void pause(int streamID) {
+            mPauses++;
+            mLastPaused = streamID;
+            super.pause(streamID);
+        }
+    }
+}
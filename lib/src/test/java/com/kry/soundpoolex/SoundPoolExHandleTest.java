@@ -0,0 +1,120 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stream handles of {@link SoundPoolEx#playHandle(int, float, float, int, int, float)}: slot
+ * reuse with a new generation and the rejection of the stale handles.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundPoolExHandleTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private FakeSoundPool mDelegate;
+    private SoundPoolEx mPool;
+    private int mSoundID;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = mFolder.newFile("loop.wav");
+        TestSounds.writeWav(file, 22050, 1, 500);
+        mClock = new VirtualClock(1000);
+        mDelegate = new FakeSoundPool(4, mClock);
+        mPool = new SoundPoolEx(mDelegate);
+        mPool.setClock(mClock);
+        mSoundID = mPool.load(file.getPath(), 1);
+    }
+
+    @Test
+    public void testStaleHandleDoesNotAliasReusedSlot() {
+        final long stale = mPool.playHandle(mSoundID, 1f, 1f, 0, -1, 1f);
+        final int staleStreamID = mPool.getStreamID(stale);
+        mPool.stopHandle(stale);
+        assertFalse(mPool.isValid(stale));
+        assertEquals(0, mPool.getStreamID(stale));
+
+        // the freed slot is reused by the next handle with a new generation
+        final long handle = mPool.playHandle(mSoundID, 1f, 1f, 0, -1, 1f);
+        assertEquals((int) stale, (int) handle);
+        assertNotEquals(stale, handle);
+        final int streamID = mPool.getStreamID(handle);
+        assertNotEquals(staleStreamID, streamID);
+
+        // the calls with the stale handle don't reach the new stream
+        mPool.pauseHandle(stale);
+        mPool.stopHandle(stale);
+        mPool.setHandleRate(stale, 2f);
+        assertFalse(mPool.isHandlePlaying(stale));
+        assertTrue(mPool.isHandlePlaying(handle));
+        assertTrue(mDelegate.isPlaying(streamID));
+        mClock.advance(300);
+        assertEquals(300, mPool.getHandlePosition(handle));
+        assertEquals(0, mPool.getHandlePosition(stale));
+
+        mPool.pauseHandle(handle);
+        assertFalse(mDelegate.isPlaying(streamID));
+        mPool.resumeHandle(handle);
+        assertTrue(mDelegate.isPlaying(streamID));
+    }
+
+    @Test
+    public void testHandlesAreInvalidatedWithStreams() {
+        assertFalse(mPool.isValid(SoundPoolEx.INVALID_HANDLE));
+        final long first = mPool.playHandle(mSoundID, 1f, 1f, 0, 0, 1f);
+        final long second = mPool.playHandle(mSoundID, 1f, 1f, 0, -1, 1f);
+        assertNotEquals(first, second);
+        assertTrue(mPool.isValid(first));
+
+        // a finished stream stays valid until it's removed
+        mClock.advance(1000);
+        assertTrue(mPool.isValid(first));
+        assertFalse(mPool.isHandlePlaying(first));
+        assertTrue(mPool.isHandlePlaying(second));
+
+        mPool.unload(mSoundID);
+        assertFalse(mPool.isValid(first));
+        assertFalse(mPool.isValid(second));
+        assertEquals(SoundPoolEx.INVALID_HANDLE, mPool.playHandle(mSoundID, 1f, 1f, 0, 0, 1f));
+    }
+
+    @Test
+    public void testReusedStreamIDInvalidatesHandle() {
+        // a backend which reuses the streamID of a finished stream
+        mPool = new SoundPoolEx(new FakeSoundPool(4, mClock) {
+            @Override
+            public int play(int soundID, float leftVolume, float rightVolume, int priority,
+                    int loop, float rate) {
+                return super.play(soundID, leftVolume, rightVolume, priority, loop, rate) > 0 ?
+                        7 : 0;
+            }
+        });
+        mPool.setClock(mClock);
+        final int soundID = mPool.load(mFolder.getRoot().getPath() + "/loop.wav", 1);
+        final long first = mPool.playHandle(soundID, 1f, 1f, 0, 0, 1f);
+        mClock.advance(1000);
+        final long second = mPool.playHandle(soundID, 1f, 1f, 0, 0, 1f);
+
+        assertFalse(mPool.isValid(first));
+        assertTrue(mPool.isValid(second));
+        assertEquals(7, mPool.getStreamID(second));
+    }
+}
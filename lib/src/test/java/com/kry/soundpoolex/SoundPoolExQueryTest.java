@@ -0,0 +1,134 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The bulk stream queries of {@link SoundPoolEx} agree with the single stream queries.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundPoolExQueryTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private SoundPoolEx mPool;
+    private int mShort;
+    private int mLong;
+
+    // streams in every state, and the IDs which are never streams
+    private int mFinished;
+    private int mPlaying;
+    private int mPaused;
+    private int mLooping;
+    private int mStopped;
+    private int[] mStreamIDs;
+
+    @Before
+    public void setUp() throws Exception {
+        File shortFile = mFolder.newFile("short.wav");
+        TestSounds.writeWav(shortFile, 22050, 1, 500);
+        File longFile = mFolder.newFile("long.wav");
+        TestSounds.writeWav(longFile, 22050, 1, 2000);
+        mClock = new VirtualClock(1000);
+        mPool = new SoundPoolEx(new FakeSoundPool(8, mClock));
+        mPool.setClock(mClock);
+        mShort = mPool.load(shortFile.getPath(), 1);
+        mLong = mPool.load(longFile.getPath(), 1);
+
+        mFinished = mPool.play(mShort, 1f, 1f, 0, 0, 1f);
+        mPlaying = mPool.play(mLong, 1f, 1f, 0, 0, 1f);
+        mPaused = mPool.play(mLong, 1f, 1f, 0, 0, 1f);
+        mLooping = mPool.play(mShort, 1f, 1f, 0, -1, 1f);
+        mStopped = mPool.play(mShort, 1f, 1f, 0, -1, 1f);
+        mClock.advance(300);
+        mPool.pause(mPaused);
+        mPool.stop(mStopped);
+        mClock.advance(400);
+        mStreamIDs = new int[] {mFinished, mPlaying, mPaused, mLooping, mStopped, 0, 999};
+    }
+
+    @Test
+    public void testIsPlayingMatchesSingleQueries() {
+        final boolean[] out = new boolean[mStreamIDs.length];
+        final int playing = mPool.isPlaying(mStreamIDs, out);
+        int expected = 0;
+        for (int i = 0; i < mStreamIDs.length; i++) {
+            assertEquals("stream " + mStreamIDs[i], mPool.isPlaying(mStreamIDs[i]), out[i]);
+            if (out[i]) expected++;
+        }
+        assertEquals(expected, playing);
+        assertEquals(2, playing);
+        assertTrue(out[1] && out[3]);
+    }
+
+    @Test
+    public void testActiveStreamsArePlayingOrPaused() {
+        final int[] out = new int[8];
+        final int count = mPool.getActiveStreams(out);
+        assertEquals(3, count);
+        final int[] active = Arrays.copyOf(out, count);
+        Arrays.sort(active);
+        final int[] expected = {mPlaying, mPaused, mLooping};
+        Arrays.sort(expected);
+        assertTrue(Arrays.equals(expected, active));
+        for (int streamID : active) {
+            assertTrue(mPool.isPlaying(streamID) || streamID == mPaused);
+        }
+
+        // the count doesn't depend on the room in the buffer
+        final int[] small = new int[1];
+        assertEquals(3, mPool.getActiveStreams(small));
+        assertTrue(Arrays.binarySearch(expected, small[0]) >= 0);
+    }
+
+    @Test
+    public void testStreamStatesMatchSingleQueries() {
+        final int[] out = new int[8 * SoundPoolEx.STREAM_STATE_SIZE];
+        final int count = mPool.getStreamStates(out);
+        assertEquals(3, count);
+        for (int i = 0; i < count; i++) {
+            final int offset = i * SoundPoolEx.STREAM_STATE_SIZE;
+            final int streamID = out[offset + SoundPoolEx.STREAM_STATE_STREAM_ID];
+            final int state = out[offset + SoundPoolEx.STREAM_STATE_STATE];
+            assertEquals(mPool.isPlaying(streamID), state == SoundPoolEx.STREAM_PLAYING);
+            assertEquals(streamID == mPaused, state == SoundPoolEx.STREAM_PAUSED);
+            assertEquals(mPool.getStreamPosition(streamID),
+                    out[offset + SoundPoolEx.STREAM_STATE_POSITION]);
+            assertEquals(streamID == mLooping ? mShort : mLong,
+                    out[offset + SoundPoolEx.STREAM_STATE_SOUND_ID]);
+            final int remaining = out[offset + SoundPoolEx.STREAM_STATE_REMAINING];
+            if (streamID == mLooping) {
+                assertEquals(-1, out[offset + SoundPoolEx.STREAM_STATE_LOOP]);
+                assertEquals(-1, remaining);
+            } else {
+                assertEquals(0, out[offset + SoundPoolEx.STREAM_STATE_LOOP]);
+                assertEquals(mPool.getStreamDuration(streamID) -
+                        mPool.getStreamPosition(streamID), remaining);
+            }
+        }
+
+        // only the whole states which fit are written
+        final int[] small = new int[SoundPoolEx.STREAM_STATE_SIZE + 1];
+        Arrays.fill(small, -7);
+        assertEquals(3, mPool.getStreamStates(small));
+        assertEquals(-7, small[SoundPoolEx.STREAM_STATE_SIZE]);
+        assertFalse(small[SoundPoolEx.STREAM_STATE_STREAM_ID] == -7);
+    }
+}
@@ -0,0 +1,182 @@
+package com.kry.soundpoolex;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip of the {@link SoundPoolEx} snapshots into a new pool: the sounds of a path and a
+ * content URI are reloaded and the looping streams are resumed at their positions.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21,
+        shadows = ShadowWrappingParcelFileDescriptor.class)
+public class SoundPoolExSnapshotTest {
+    private static final String AUTHORITY = "com.kry.soundpoolex.test.snapshot";
+    private static final Uri THEME = Uri.parse("content://" + AUTHORITY + "/theme");
+    private static final String KEY = "sounds";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private String mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        File engine = mFolder.newFile("engine.wav");
+        TestSounds.writeWav(engine, 22050, 1, 1000);
+        mPath = engine.getPath();
+        File theme = mFolder.newFile("theme.wav");
+        TestSounds.writeWav(theme, 44100, 2, 1500);
+
+        ThemeProvider provider = new ThemeProvider(theme);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+        mClock = new VirtualClock(1000);
+    }
+
+    private SoundPoolEx newPool() {
+        SoundPoolEx pool = new SoundPoolEx(new FakeSoundPool(4, mClock));
+        pool.setClock(mClock);
+        return pool;
+    }
+
+    @Test
+    public void testLoopAndUriSoundRoundTrip() throws Exception {
+        SoundPoolEx saved = newPool();
+        final int engine = saved.load(mPath, 2);
+        final int theme = saved.load(RuntimeEnvironment.application, THEME, 1);
+        final int loop = saved.play(engine, 0.5f, 0.25f, 3, -1, 1f);
+        final int pausedLoop = saved.play(theme, 1f, 1f, 0, -1, 1f);
+        mClock.advance(1300);
+        saved.pause(pausedLoop);
+        final int oneShot = saved.play(theme, 1f, 1f, 0, 0, 1f);
+        mClock.advance(100);
+        assertEquals(400, saved.getStreamPosition(loop));
+        assertEquals(1300, saved.getStreamPosition(pausedLoop));
+
+        Bundle state = new Bundle();
+        saved.saveSnapshot(state, KEY);
+        saved.release();
+
+        SoundPoolEx restored = newPool();
+        assertTrue(restored.restoreSnapshot(RuntimeEnvironment.application, state, KEY));
+        final int restoredEngine = restored.getRestoredSoundID(engine);
+        final int restoredTheme = restored.getRestoredSoundID(theme);
+        assertTrue(restoredEngine > 0);
+        assertTrue(restoredTheme > 0);
+        assertEquals(1000, restored.getDuration(restoredEngine));
+        assertEquals(1500, restored.getDuration(restoredTheme));
+        SoundMetadata metadata = restored.getMetadata();
+        assertEquals(SoundSource.TYPE_URI, metadata.getSourceType(restoredTheme));
+        assertEquals(THEME.toString(), metadata.getSourceName(restoredTheme));
+
+        // the loops are resumed at their positions, the one-shot isn't
+        final int restoredLoop = restored.getRestoredStreamID(loop);
+        assertTrue(restored.isPlaying(restoredLoop));
+        assertEquals(400, restored.getStreamPosition(restoredLoop));
+        final int restoredPaused = restored.getRestoredStreamID(pausedLoop);
+        assertTrue(restoredPaused > 0);
+        assertFalse(restored.isPlaying(restoredPaused));
+        assertEquals(1300, restored.getStreamPosition(restoredPaused));
+        assertEquals(0, restored.getRestoredStreamID(oneShot));
+        assertEquals(2, restored.getActiveStreams(new int[4]));
+
+        mClock.advance(700);
+        assertEquals(100, restored.getStreamPosition(restoredLoop));
+        restored.resume(restoredPaused);
+        mClock.advance(100);
+        assertEquals(1400, restored.getStreamPosition(restoredPaused));
+
+        // the restored pool saves the same sounds again
+        Bundle again = new Bundle();
+        restored.saveSnapshot(again, KEY);
+        SoundPoolEx third = newPool();
+        assertTrue(third.restoreSnapshot(RuntimeEnvironment.application, again, KEY));
+        assertTrue(third.getRestoredSoundID(restoredTheme) > 0);
+        assertTrue(third.isPlaying(third.getRestoredStreamID(restoredLoop)));
+    }
+
+    @Test
+    public void testMissingSnapshotIsIgnored() throws Exception {
+        SoundPoolEx pool = newPool();
+        assertFalse(pool.restoreSnapshot(RuntimeEnvironment.application, (Bundle) null, KEY));
+        assertFalse(pool.restoreSnapshot(RuntimeEnvironment.application, new Bundle(), KEY));
+    }
+
+    private static final class ThemeProvider extends ContentProvider {
+        private final File mTheme;
+
+        ThemeProvider(File theme) {
+            mTheme = theme;
+        }
+
+        @Override
+        public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws
+                FileNotFoundException {
+            if (!uri.equals(THEME)) throw new FileNotFoundException(uri.toString());
+            return new AssetFileDescriptor(ParcelFileDescriptor.open(mTheme,
+                    ParcelFileDescriptor.MODE_READ_ONLY), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return "audio/x-wav";
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
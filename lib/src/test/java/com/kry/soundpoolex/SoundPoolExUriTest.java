@@ -0,0 +1,182 @@
+package com.kry.soundpoolex;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SoundPoolEx#load(android.content.Context, Uri, int)} against a stand-in content provider
+ * which serves a sound packed at an offset of a larger file and a whole file of unknown length.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21,
+        shadows = ShadowWrappingParcelFileDescriptor.class)
+public class SoundPoolExUriTest {
+    private static final String AUTHORITY = "com.kry.soundpoolex.test.sounds";
+    private static final Uri PACKED = Uri.parse("content://" + AUTHORITY + "/packed");
+    private static final Uri WHOLE = Uri.parse("content://" + AUTHORITY + "/whole");
+    private static final Uri MISSING = Uri.parse("content://" + AUTHORITY + "/missing");
+    private static final int PACKED_OFFSET = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private SoundPoolEx mPool;
+
+    @Before
+    public void setUp() throws Exception {
+        File sound = mFolder.newFile("shot.wav");
+        TestSounds.writeWav(sound, 22050, 1, 200);
+        File packed = mFolder.newFile("packed.bin");
+        OutputStream out = new FileOutputStream(packed);
+        try {
+            out.write(new byte[PACKED_OFFSET]);
+            InputStream in = new FileInputStream(sound);
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            // trailing data of the next packed entry
+            out.write(new byte[5000]);
+        } finally {
+            out.close();
+        }
+        File whole = mFolder.newFile("theme.wav");
+        TestSounds.writeWav(whole, 44100, 2, 1500);
+
+        SoundProvider provider = new SoundProvider(packed, sound.length(), whole);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+
+        mClock = new VirtualClock(0);
+        mPool = new SoundPoolEx(new FakeSoundPool(4, mClock));
+        mPool.setClock(mClock);
+    }
+
+    @Test
+    public void loadsRangeOfProviderFile() throws Exception {
+        int soundID = mPool.load(RuntimeEnvironment.application, PACKED, 1);
+
+        assertTrue(soundID > 0);
+        assertEquals(200, mPool.getDuration(soundID));
+        SoundMetadata metadata = mPool.getMetadata();
+        assertEquals(SoundSource.TYPE_URI, metadata.getSourceType(soundID));
+        assertEquals(PACKED.toString(), metadata.getSourceName(soundID));
+        assertEquals(22050, metadata.getSampleRate(soundID));
+        assertEquals(1, metadata.getChannelCount(soundID));
+
+        int streamID = mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        assertTrue(mPool.isPlaying(streamID));
+        mClock.advance(250);
+        assertFalse(mPool.isPlaying(streamID));
+    }
+
+    @Test
+    public void loadsFileOfUnknownLength() throws Exception {
+        int soundID = mPool.load(RuntimeEnvironment.application, WHOLE, 1);
+
+        assertTrue(soundID > 0);
+        assertEquals(1500, mPool.getDuration(soundID));
+        assertEquals(2, mPool.getMetadata().getChannelCount(soundID));
+    }
+
+    @Test (expected = FileNotFoundException.class)
+    public void failsOnMissingUri() throws Exception {
+        mPool.load(RuntimeEnvironment.application, MISSING, 1);
+    }
+
+    private static final class SoundProvider extends ContentProvider {
+        private final File mPacked;
+        private final long mPackedLength;
+        private final File mWhole;
+
+        SoundProvider(File packed, long packedLength, File whole) {
+            mPacked = packed;
+            mPackedLength = packedLength;
+            mWhole = whole;
+        }
+
+        @Override
+        public AssetFileDescriptor openAssetFile(Uri uri, String mode) throws
+                FileNotFoundException {
+            if (uri.equals(PACKED)) {
+                return new AssetFileDescriptor(ParcelFileDescriptor.open(mPacked,
+                        ParcelFileDescriptor.MODE_READ_ONLY), PACKED_OFFSET, mPackedLength);
+            }
+            if (uri.equals(WHOLE)) {
+                return new AssetFileDescriptor(ParcelFileDescriptor.open(mWhole,
+                        ParcelFileDescriptor.MODE_READ_ONLY), 0,
+                        AssetFileDescriptor.UNKNOWN_LENGTH);
+            }
+            throw new FileNotFoundException(uri.toString());
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return "audio/x-wav";
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Registry gauges of {@link SoundPoolMetrics} kept by a {@link SoundPoolEx}.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundPoolMetricsTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SoundPoolEx mPool;
+    private String mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = mFolder.newFile("click.wav");
+        TestSounds.writeWav(file, 22050, 1, 100);
+        mPath = file.getPath();
+        VirtualClock clock = new VirtualClock(1000);
+        mPool = new SoundPoolEx(new FakeSoundPool(8, clock));
+        mPool.setClock(clock);
+    }
+
+    @Test
+    public void testGaugesFollowRegistry() {
+        int first = mPool.load(mPath, 1);
+        SoundPoolMetrics metrics = new SoundPoolMetrics();
+        mPool.setMetrics(metrics);
+        assertEquals(1, metrics.snapshot().getSoundCount());
+
+        int second = mPool.load(mPath, 1);
+        int stream = mPool.play(first, 1f, 1f, 0, 0, 1f);
+        mPool.play(first, 1f, 1f, 0, 0, 1f);
+        mPool.playAll(new int[] {first, second}, new float[] {1f, 1f}, 0, 0, 1f, new int[2]);
+        SoundPoolMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getSoundCount());
+        assertEquals(4, snapshot.getStreamCount());
+        assertEquals(4, snapshot.getPeakStreams());
+
+        mPool.stop(stream);
+        mPool.unload(second);
+        snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getSoundCount());
+        assertEquals(2, snapshot.getStreamCount());
+        assertEquals(4, snapshot.getPeakStreams());
+
+        mPool.release();
+        snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getSoundCount());
+        assertEquals(0, snapshot.getStreamCount());
+    }
+}
@@ -0,0 +1,151 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Play sequence model and preloads of the {@link SoundPredictor}.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoundPredictorTest {
+    private static final long WAIT_TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private SoundPoolEx mPool;
+    private LoadScheduler mScheduler;
+    private SoundPredictor mPredictor;
+    private int mReload;
+    private int mEject;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new VirtualClock(1000);
+        mPool = new SoundPoolEx(new SynchronizedSoundPool(1, mClock));
+        mPool.setClock(mClock);
+        mScheduler = new LoadScheduler(mPool, 4, 100);
+        mPredictor = new SoundPredictor(mPool, mScheduler, 64);
+        mReload = mPredictor.register(SoundSource.fromPath(newSound("reload.wav")));
+        mEject = mPredictor.register(SoundSource.fromPath(newSound("eject.wav")));
+    }
+
+    @After
+    public void tearDown() {
+        mPredictor.release();
+        mScheduler.release();
+    }
+
+    @Test
+    public void testRejectedPlaysAreNotRecorded() throws Exception {
+        int reload = mPredictor.load(mReload, 1);
+        int eject = mPredictor.load(mEject, 1);
+        assertTrue(mPool.play(reload, 1f, 1f, 5, 0, 1f) > 0);
+        // the only stream is taken by a higher priority
+        assertEquals(0, mPool.play(eject, 1f, 1f, 0, 0, 1f));
+        assertTrue(mPool.play(reload, 1f, 1f, 5, 0, 1f) > 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mPredictor.write(out);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        data.readInt();
+        data.readShort();
+        int keyCount = data.readInt();
+        for (int i = 0; i < keyCount; i++) {
+            data.readUTF();
+        }
+        assertEquals(1, data.readInt());
+        assertEquals(mReload, data.readInt());
+        assertEquals(mReload, data.readInt());
+        assertEquals(1, data.readInt());
+    }
+
+    @Test
+    public void testPreloadsFollowerWhenIdle() throws Exception {
+        int reload = mPredictor.load(mReload, 1);
+        int eject = mPredictor.load(mEject, 1);
+        mPool.play(reload, 1f, 1f, 0, 0, 1f);
+        mPool.play(eject, 1f, 1f, 0, 0, 1f);
+        mPool.unload(eject);
+        assertEquals(0, mPredictor.getSoundID(mEject));
+
+        mPool.play(reload, 1f, 1f, 0, 0, 1f);
+        long until = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (mPredictor.getSoundID(mEject) == 0 && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        eject = mPredictor.getSoundID(mEject);
+        assertTrue(eject > 0);
+        assertTrue(mPool.play(eject, 1f, 1f, 0, 0, 1f) > 0);
+        // two loads on demand and one preloaded play
+        assertEquals(1f / 3, mPredictor.getHitRate(), 0.001f);
+    }
+
+    @Test
+    public void testUnloadsOverLimitWhenIdle() throws Exception {
+        mPredictor.setMaxLoaded(1);
+        int reload = mPredictor.load(mReload, 1);
+        mPool.play(reload, 1f, 1f, 0, 0, 1f);
+        int eject = mPredictor.load(mEject, 1);
+        mClock.advance(1000);
+
+        // the sound played last is kept, the finished one is unloaded by the idle task
+        assertTrue(mPool.play(eject, 1f, 1f, 0, 0, 1f) > 0);
+        long until = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (mPredictor.getSoundID(mReload) != 0 && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mPredictor.getSoundID(mReload));
+        assertEquals(eject, mPredictor.getSoundID(mEject));
+    }
+
+    private String newSound(String name) throws Exception {
+        File file = mFolder.newFile(name);
+        TestSounds.writeWav(file, 22050, 1, 200);
+        return file.getPath();
+    }
+
+    /**
+     * The fake pool shared by the test and the scheduler thread
+     */
+    private static class SynchronizedSoundPool extends FakeSoundPool {
+        SynchronizedSoundPool(int maxStreams, VirtualClock clock) {
+            super(maxStreams, clock);
+        }
+
+        @Override
+        public synchronized int load(String path, int priority) {
+            return super.load(path, priority);
+        }
+
+        @Override
+        public synchronized boolean unload(int soundID) {
+            return super.unload(soundID);
+        }
+
+        @Override
+        public synchronized int play(int soundID, float leftVolume, float rightVolume,
+                int priority, int loop, float rate) {
+            return super.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        }
+    }
+}
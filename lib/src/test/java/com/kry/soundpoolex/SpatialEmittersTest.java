@@ -0,0 +1,114 @@
+package com.kry.soundpoolex;
+
+import com.kry.soundpoolex.tools.FakeSoundPool;
+import com.kry.soundpoolex.tools.VirtualClock;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Emitter timelines of {@link SpatialEmitters} across the pauses of the pool.
+ */
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SpatialEmittersTest {
+    private static final float[] NEAR = {1, 0, 0};
+    private static final float[] FAR = {1000, 0, 0};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private VirtualClock mClock;
+    private FakeSoundPool mDelegate;
+    private SoundPoolEx mPool;
+    private int mSoundID;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = mFolder.newFile("engine.wav");
+        TestSounds.writeWav(file, 22050, 1, 1000);
+        mClock = new VirtualClock(1000);
+        mDelegate = new FakeSoundPool(4, mClock);
+        mPool = new SoundPoolEx(mDelegate);
+        mPool.setClock(mClock);
+        mSoundID = mPool.load(file.getPath(), 1);
+        assertEquals(1000, mPool.getDuration(mSoundID));
+    }
+
+    @Test
+    public void testRealEmitterFollowsAutoPause() {
+        SpatialEmitters emitters = new SpatialEmitters(mPool, 1);
+        int emitter = emitters.add(mSoundID, 1f, 0, 0, 1f);
+        update(emitters, NEAR);
+        assertEquals(1, emitters.getRealCount());
+
+        mClock.advance(500);
+        mPool.autoPause();
+        mClock.advance(5000);
+        mPool.autoResume();
+        update(emitters, NEAR);
+        assertEquals(1, emitters.getRealCount());
+        assertTrue(mDelegate.isPlaying(emitters.getStreamID(emitter)));
+
+        mClock.advance(600);
+        update(emitters, NEAR);
+        assertEquals(0, emitters.getRealCount());
+        assertEquals(0, emitters.getVirtualCount());
+    }
+
+    @Test
+    public void testVirtualEmitterHoldsDuringAutoPause() {
+        SpatialEmitters emitters = new SpatialEmitters(mPool, 1);
+        int emitter = emitters.add(mSoundID, 1f, 0, 0, 1f);
+        update(emitters, NEAR);
+        mClock.advance(200);
+        update(emitters, FAR);
+        assertEquals(1, emitters.getVirtualCount());
+
+        mClock.advance(100);
+        mPool.autoPause();
+        mClock.advance(5000);
+        mPool.autoResume();
+        mClock.advance(100);
+        update(emitters, FAR);
+        assertEquals(1, emitters.getVirtualCount());
+
+        update(emitters, NEAR);
+        assertEquals(1, emitters.getRealCount());
+        int streamID = emitters.getStreamID(emitter);
+        // restarted at the position the emitter has played, the pause excluded
+        assertEquals(400, mPool.getStreamPosition(streamID));
+        mClock.advance(599);
+        assertTrue(mDelegate.isPlaying(streamID));
+        mClock.advance(1);
+        update(emitters, NEAR);
+        assertEquals(0, emitters.getRealCount());
+    }
+
+    @Test
+    public void testSeekThroughAsyncDelegate() {
+        AsyncSoundPool async = new AsyncSoundPool(mDelegate, 16);
+        SoundPoolEx pool = new SoundPoolEx(async);
+        pool.setClock(mClock);
+        int soundID = pool.load(mFolder.getRoot().getPath() + "/engine.wav", 1);
+        int streamID = pool.play(soundID, 1f, 1f, 0, 0, 1f);
+
+        assertTrue(pool.seek(streamID, 300));
+        assertEquals(300, pool.getStreamPosition(streamID));
+        pool.release();
+    }
+
+    private static void update(SpatialEmitters emitters, float[] position) {
+        emitters.update(0, 0, 0, 1, 0, 0, position);
+    }
+}
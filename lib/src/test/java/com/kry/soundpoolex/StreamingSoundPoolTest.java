@@ -0,0 +1,201 @@
+package com.kry.soundpoolex;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.SoundPool;
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowMediaPlayer;
+import org.robolectric.shadows.ShadowMediaPlayer.MediaInfo;
+import org.robolectric.shadows.ShadowMediaPlayer.State;
+import org.robolectric.shadows.util.DataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class StreamingSoundPoolTest {
+    private static final String MUSIC = "/sdcard/music.ogg";
+    private static final String BROKEN = "/sdcard/broken.ogg";
+    private static final int PREPARATION_DELAY = 100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<ShadowMediaPlayer> mPlayers = new ArrayList<>();
+    private final List<int[]> mLoads = new ArrayList<>();
+    private StreamingSoundPool mPool;
+
+    @Before
+    public void setUp() {
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(MUSIC),
+                new MediaInfo(60000, PREPARATION_DELAY));
+        ShadowMediaPlayer.addException(DataSource.toDataSource(BROKEN),
+                new IOException("Unsupported"));
+        ShadowMediaPlayer.setCreateListener(new ShadowMediaPlayer.CreateListener() {
+            @Override
+            public void onCreate(MediaPlayer player, ShadowMediaPlayer shadow) {
+                mPlayers.add(shadow);
+            }
+        });
+        mPool = new StreamingSoundPool(2, AudioManager.STREAM_MUSIC);
+        mPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                mLoads.add(new int[]{sampleId, status});
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mPool.release();
+        ShadowMediaPlayer.resetStaticState();
+    }
+
+    @Test
+    public void loadCompletesWhenPlayerIsPrepared() {
+        int soundID = mPool.load(MUSIC, 1);
+        assertEquals(0, mLoads.size());
+        assertEquals(State.PREPARING, mPlayers.get(0).getState());
+
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        assertEquals(1, mLoads.size());
+        assertEquals(soundID, mLoads.get(0)[0]);
+        assertEquals(0, mLoads.get(0)[1]);
+    }
+
+    @Test
+    public void failedLoadReportsError() {
+        int soundID = mPool.load(BROKEN, 1);
+
+        assertEquals(1, mLoads.size());
+        assertEquals(soundID, mLoads.get(0)[0]);
+        assertTrue(mLoads.get(0)[1] != 0);
+    }
+
+    @Test
+    public void playStartsPreparedPlayerAndPreparesNext() {
+        int soundID = mPool.load(MUSIC, 1);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+
+        int streamID = mPool.play(soundID, 0.5f, 0.5f, 0, -1, 1f);
+        assertTrue(streamID > 0);
+        ShadowMediaPlayer player = mPlayers.get(0);
+        assertEquals(State.STARTED, player.getState());
+        assertTrue(player.isLooping());
+        assertEquals(0.5f, player.getLeftVolume(), 0f);
+        // the player of the next play is prepared ahead
+        assertEquals(2, mPlayers.size());
+        assertEquals(State.PREPARING, mPlayers.get(1).getState());
+    }
+
+    @Test
+    public void playBeforePreparationStartsLater() {
+        int soundID = mPool.load(MUSIC, 1);
+
+        int streamID = mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        assertTrue(streamID > 0);
+        for (ShadowMediaPlayer player : mPlayers) {
+            assertEquals(State.PREPARING, player.getState());
+        }
+
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        assertEquals(State.STARTED, mPlayers.get(0).getState());
+    }
+
+    @Test
+    public void pausedWaitingStreamStartsOnResume() {
+        int soundID = mPool.load(MUSIC, 1);
+        int streamID = mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        mPool.pause(streamID);
+
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        assertEquals(State.PREPARED, mPlayers.get(0).getState());
+
+        mPool.resume(streamID);
+        assertEquals(State.STARTED, mPlayers.get(0).getState());
+    }
+
+    @Test
+    public void stoppedWaitingStreamLeavesPlayerForNextPlay() {
+        int soundID = mPool.load(MUSIC, 1);
+        int streamID = mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        mPool.stop(streamID);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+
+        mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+        int started = 0;
+        for (ShadowMediaPlayer player : mPlayers) {
+            if (player.getState() == State.STARTED) started++;
+        }
+        assertEquals(1, started);
+    }
+
+    @Test
+    public void rateIsRejectedBelowM() {
+        int soundID = mPool.load(MUSIC, 1);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+
+        assertEquals(0, mPool.play(soundID, 1f, 1f, 0, 0, 1.5f));
+        assertTrue(mPool.play(soundID, 1f, 1f, 0, 0, 1f) > 0);
+    }
+
+    @Test
+    public void unloadReleasesPlayers() {
+        int soundID = mPool.load(MUSIC, 1);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        mPool.play(soundID, 1f, 1f, 0, 0, 1f);
+
+        mPool.unload(soundID);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        for (ShadowMediaPlayer player : mPlayers) {
+            assertEquals(State.END, player.getState());
+        }
+    }
+
+    @Test
+    @Config (shadows = ShadowWrappingParcelFileDescriptor.class)
+    public void descriptorSoundOutlivesCallerDescriptor() throws IOException {
+        File file = mFolder.newFile("ambience.ogg");
+        AssetFileDescriptor afd = new AssetFileDescriptor(ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_READ_ONLY), 0, 1000);
+        // the player is prepared once the duplicate is known to the shadow player
+        ShadowLooper.pauseMainLooper();
+        int soundID = mPool.load(afd, 1);
+        // the caller closes its descriptor right after the load, as SoundPoolEx does
+        afd.close();
+
+        ParcelFileDescriptor dup = ShadowWrappingParcelFileDescriptor.getDuplicates().get(0);
+        assertTrue(dup.getFileDescriptor().valid());
+        ShadowMediaPlayer.addMediaInfo(DataSource.toDataSource(dup.getFileDescriptor(), 0, 1000),
+                new MediaInfo(60000, PREPARATION_DELAY));
+        ShadowLooper.unPauseMainLooper();
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        assertEquals(1, mLoads.size());
+        assertEquals(0, mLoads.get(0)[1]);
+        assertTrue(mPool.play(soundID, 1f, 1f, 0, 0, 1f) > 0);
+        assertEquals(State.STARTED, mPlayers.get(0).getState());
+
+        mPool.unload(soundID);
+        ShadowLooper.idleMainLooper(PREPARATION_DELAY);
+        assertFalse(dup.getFileDescriptor().valid());
+    }
+}
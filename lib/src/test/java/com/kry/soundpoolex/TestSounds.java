@@ -0,0 +1,45 @@
+package com.kry.soundpoolex;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Sound files for the tests.
+ */
+public final class TestSounds {
+    private TestSounds() {
+    }
+
+    /**
+     * Writes a silent 16-bit PCM WAV file.
+     *
+     * @param duration
+     *         the duration in milliseconds
+     */
+    public static void writeWav(File file, int sampleRate, int channels, int duration)
+            throws IOException {
+        final int blockAlign = channels * 2;
+        final int dataSize = (int) ((long) sampleRate * duration / 1000) * blockAlign;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x52494646); // 'RIFF'
+            out.writeInt(Integer.reverseBytes(36 + dataSize));
+            out.writeInt(0x57415645); // 'WAVE'
+            out.writeInt(0x666D7420); // 'fmt '
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1)); // PCM
+            out.writeShort(Short.reverseBytes((short) channels));
+            out.writeInt(Integer.reverseBytes(sampleRate));
+            out.writeInt(Integer.reverseBytes(sampleRate * blockAlign));
+            out.writeShort(Short.reverseBytes((short) blockAlign));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeInt(0x64617461); // 'data'
+            out.writeInt(Integer.reverseBytes(dataSize));
+            out.write(new byte[dataSize]);
+        } finally {
+            out.close();
+        }
+    }
+}
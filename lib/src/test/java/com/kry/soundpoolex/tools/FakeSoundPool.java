@@ -0,0 +1,352 @@
+package com.kry.soundpoolex.tools;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+
+import com.kry.soundpoolex.AudioHeader;
+import com.kry.soundpoolex.ISoundPool;
+import com.kry.soundpoolex.SeekableSoundPool;
+import com.kry.soundpoolex.SoundClock;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Fake {@link ISoundPool} for simulations on the JVM. Nothing is decoded or played: the sound
+ * durations are read from the file headers (see {@link AudioHeader}) and the streams follow the
+ * SoundPool semantics on a {@link SoundClock}: the stream limit with the priority-then-age
+ * stealing, loops, rate, pause and auto pause. Unlike SoundPool, the streams can be seeked. The
+ * exact playing state is the ground truth for the SoundPoolEx timelines, see {@link
+ * #isPlaying(int)}.
+ * <p/>
+ * Loads complete synchronously, the listener is called from the load call with a null
+ * SoundPool. Not thread-safe.
+ */
+public class FakeSoundPool implements SeekableSoundPool {
+    private static final float MIN_RATE = 0.5f;
+    private static final float MAX_RATE = 2.0f;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_PLAYING = 1;
+    private static final byte STATE_PAUSED = 2;
+    private static final byte STATE_AUTO_PAUSED = 3;
+
+    private final SoundClock mClock;
+    private final int mMaxStreams;
+    private SoundPool.OnLoadCompleteListener mOnLoadCompleteListener;
+
+    /**
+     * Sound durations indexed by the sound ID, -1 for unloaded
+     */
+    private int[] mDurations = new int[64];
+    private int mNextSoundID = 1;
+    private int mNextStreamID = 1;
+    private long mPlayCounter;
+
+    // streams, one slot per simultaneous stream
+    private final int[] mStream;
+    private final int[] mSound;
+    private final byte[] mState;
+    private final int[] mPriority;
+    private final int[] mLoop;
+    private final float[] mRate;
+    private final long[] mAge;
+    /**
+     * End time of the stream or Long.MAX_VALUE for the infinite loop
+     */
+    private final long[] mEndTime;
+    private final long[] mPauseTime;
+
+    /**
+     * Constructor.
+     *
+     * @param maxStreams
+     *         the maximum number of simultaneous streams
+     * @param clock
+     *         the time source
+     */
+    public FakeSoundPool(int maxStreams, SoundClock clock) {
+        mClock = clock;
+        mMaxStreams = maxStreams;
+        mStream = new int[maxStreams];
+        mSound = new int[maxStreams];
+        mState = new byte[maxStreams];
+        mPriority = new int[maxStreams];
+        mLoop = new int[maxStreams];
+        mRate = new float[maxStreams];
+        mAge = new long[maxStreams];
+        mEndTime = new long[maxStreams];
+        mPauseTime = new long[maxStreams];
+        Arrays.fill(mDurations, -1);
+    }
+
+    @Override
+    public int load(String path, int priority) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                return addSound(AudioHeader.read(file.getChannel(), 0, file.length()));
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public int load(Context context, int resId, int priority) {
+        return load(context.getResources().openRawResourceFd(resId), priority);
+    }
+
+    @Override
+    public int load(AssetFileDescriptor afd, int priority) {
+        return load(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength(), priority);
+    }
+
+    @Override
+    public int load(FileDescriptor fd, long offset, long length, int priority) {
+        try {
+            // the stream isn't closed, it would close the caller's descriptor
+            return addSound(AudioHeader.read(new FileInputStream(fd).getChannel(), offset,
+                    length));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Registers the sound of the given duration without a file, e.g. to replay a recording.
+     *
+     * @param duration
+     *         the duration in milliseconds
+     * @return a sound ID
+     */
+    public int load(int duration) {
+        final int soundID = mNextSoundID++;
+        if (soundID >= mDurations.length) {
+            final int size = mDurations.length;
+            mDurations = Arrays.copyOf(mDurations, size * 2);
+            Arrays.fill(mDurations, size, size * 2, -1);
+        }
+        mDurations[soundID] = duration;
+        if (mOnLoadCompleteListener != null) {
+            mOnLoadCompleteListener.onLoadComplete(null, soundID, 0);
+        }
+        return soundID;
+    }
+
+    private int addSound(AudioHeader header) {
+        if (header == null) return 0;
+        return load(header.getDuration());
+    }
+
+    @Override
+    public boolean unload(int soundID) {
+        if (soundID <= 0 || soundID >= mDurations.length || mDurations[soundID] < 0) return false;
+        mDurations[soundID] = -1;
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mState[s] != STATE_FREE && mSound[s] == soundID) mState[s] = STATE_FREE;
+        }
+        return true;
+    }
+
+    @Override
+    public int play(int soundID, float leftVolume, float rightVolume, int priority, int loop,
+            float rate) {
+        if (soundID <= 0 || soundID >= mDurations.length || mDurations[soundID] < 0) return 0;
+        final long now = mClock.currentTimeMillis();
+
+        int slot = -1;
+        int victim = -1;
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mState[s] == STATE_FREE || (mState[s] == STATE_PLAYING && mEndTime[s] <= now)) {
+                slot = s;
+                break;
+            }
+            if (victim < 0 || mPriority[s] < mPriority[victim] ||
+                    (mPriority[s] == mPriority[victim] && mAge[s] < mAge[victim])) {
+                victim = s;
+            }
+        }
+        if (slot < 0) {
+            if (mPriority[victim] > priority) return 0;
+            slot = victim;
+        }
+
+        final int streamID = mNextStreamID++;
+        final float clamped = clampRate(rate);
+        mStream[slot] = streamID;
+        mSound[slot] = soundID;
+        mState[slot] = STATE_PLAYING;
+        mPriority[slot] = priority;
+        mLoop[slot] = loop;
+        mRate[slot] = clamped;
+        mAge[slot] = mPlayCounter++;
+        mEndTime[slot] = loop < 0 ? Long.MAX_VALUE :
+                now + (long) (mDurations[soundID] / clamped) * (loop + 1);
+        return streamID;
+    }
+
+    private static float clampRate(float rate) {
+        return rate < MIN_RATE ? MIN_RATE : rate > MAX_RATE ? MAX_RATE : rate;
+    }
+
+    private int findStream(int streamID) {
+        if (streamID <= 0) return -1;
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mStream[s] == streamID && mState[s] != STATE_FREE) return s;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the exact playing state of the stream.
+     *
+     * @param streamID
+     *         a streamID returned by the play() function
+     * @return true if the stream is playing, false if paused, stopped, stolen or finished
+     */
+    public boolean isPlaying(int streamID) {
+        final int s = findStream(streamID);
+        return s >= 0 && mState[s] == STATE_PLAYING && mClock.currentTimeMillis() < mEndTime[s];
+    }
+
+    /**
+     * @return the number of the playing and paused streams
+     */
+    public int getActiveStreamCount() {
+        final long now = mClock.currentTimeMillis();
+        int count = 0;
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mState[s] == STATE_PAUSED || mState[s] == STATE_AUTO_PAUSED ||
+                    (mState[s] == STATE_PLAYING && now < mEndTime[s])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void pause(int streamID) {
+        final int s = findStream(streamID);
+        if (s >= 0 && mState[s] == STATE_PLAYING) pause(s, STATE_PAUSED);
+    }
+
+    private void pause(int s, byte state) {
+        final long now = mClock.currentTimeMillis();
+        if (now >= mEndTime[s]) {
+            mState[s] = STATE_FREE;
+            return;
+        }
+        mState[s] = state;
+        mPauseTime[s] = now;
+    }
+
+    @Override
+    public void resume(int streamID) {
+        final int s = findStream(streamID);
+        if (s >= 0 && mState[s] == STATE_PAUSED) resumeSlot(s);
+    }
+
+    private void resumeSlot(int s) {
+        if (mEndTime[s] != Long.MAX_VALUE) {
+            mEndTime[s] += mClock.currentTimeMillis() - mPauseTime[s];
+        }
+        mState[s] = STATE_PLAYING;
+    }
+
+    @Override
+    public void autoPause() {
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mState[s] == STATE_PLAYING) pause(s, STATE_AUTO_PAUSED);
+        }
+    }
+
+    @Override
+    public void autoResume() {
+        for (int s = 0; s < mMaxStreams; s++) {
+            if (mState[s] == STATE_AUTO_PAUSED) resumeSlot(s);
+        }
+    }
+
+    @Override
+    public void stop(int streamID) {
+        final int s = findStream(streamID);
+        if (s >= 0) mState[s] = STATE_FREE;
+    }
+
+    @Override
+    public void setVolume(int streamID, float leftVolume, float rightVolume) {
+    }
+
+    @Override
+    public void setVolume(int streamID, float volume) {
+    }
+
+    @Override
+    public void setPriority(int streamID, int priority) {
+        final int s = findStream(streamID);
+        if (s >= 0) mPriority[s] = priority;
+    }
+
+    @Override
+    public void setLoop(int streamID, int loop) {
+        final int s = findStream(streamID);
+        if (s < 0) return;
+        final long now = mClock.currentTimeMillis();
+        final long time = mState[s] == STATE_PLAYING ? now : mPauseTime[s];
+        final long runDuration = (long) (mDurations[mSound[s]] / mRate[s]);
+        if (loop < 0) {
+            mEndTime[s] = Long.MAX_VALUE;
+        } else if (runDuration > 0) {
+            // the current run is finished, then the new number of repeats
+            final long remaining = mEndTime[s] == Long.MAX_VALUE ? runDuration :
+                    (mEndTime[s] - time) % runDuration;
+            mEndTime[s] = time + remaining + runDuration * loop;
+        }
+        mLoop[s] = loop;
+    }
+
+    @Override
+    public void setRate(int streamID, float rate) {
+        final int s = findStream(streamID);
+        if (s < 0) return;
+        final float clamped = clampRate(rate);
+        if (mEndTime[s] != Long.MAX_VALUE) {
+            final long time = mState[s] == STATE_PLAYING ? mClock.currentTimeMillis() :
+                    mPauseTime[s];
+            mEndTime[s] = time + (long) ((mEndTime[s] - time) * mRate[s] / clamped);
+        }
+        mRate[s] = clamped;
+    }
+
+    @Override
+    public boolean seek(int streamID, int position) {
+        final int s = findStream(streamID);
+        if (s < 0) return false;
+        final long time = mState[s] == STATE_PLAYING ? mClock.currentTimeMillis() : mPauseTime[s];
+        if (time >= mEndTime[s]) return false;
+        final long runDuration = (long) (mDurations[mSound[s]] / mRate[s]);
+        if (mEndTime[s] == Long.MAX_VALUE || runDuration <= 0) return true;
+        // the runs after the current one are kept
+        final long later = (mEndTime[s] - time - 1) / runDuration * runDuration;
+        mEndTime[s] = time + later + runDuration - (long) (position / mRate[s]);
+        return true;
+    }
+
+    @Override
+    public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        mOnLoadCompleteListener = listener;
+    }
+
+    @Override
+    public void release() {
+        Arrays.fill(mDurations, -1);
+        Arrays.fill(mState, STATE_FREE);
+    }
+}
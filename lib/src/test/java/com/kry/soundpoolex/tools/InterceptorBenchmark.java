@@ -0,0 +1,317 @@
+package com.kry.soundpoolex.tools;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.SoundPool;
+
+import com.kry.soundpoolex.ForwardingSoundPool;
+import com.kry.soundpoolex.ISoundPool;
+import com.kry.soundpoolex.SoundPoolInterceptor;
+
+import java.io.FileDescriptor;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the per-call cost of the {@link SoundPoolInterceptor} chain on the JVM against a
+ * no-op backend standing in for the SoundPool: direct calls, an empty chain, a chain of disabled
+ * interceptors, chains of pass-through layers, and a stack of distinct layers which intercept
+ * different calls, the shape of a real stack.
+ * <p/>
+ * Every scenario measures play() and setVolume() calls in rounds and reports the median in
+ * nanoseconds per call. The direct scenario calls the concrete backend type, the others call
+ * through the ISoundPool interface, so they aren't comparable with it; the empty and the disabled
+ * chains return the backend itself, see {@link ForwardingSoundPool#chain}. The JIT
+ * profiles are shared by the scenarios of one JVM, run each scenario in its own JVM:
+ * <pre>
+ * java -cp &lt;test classpath&gt; com.kry.soundpoolex.tools.InterceptorBenchmark mixed
+ * </pre>
+ * Not a unit test, the timings depend on the machine and the JIT.
+ */
+public final class InterceptorBenchmark {
+    static final String[] SCENARIOS = {"direct", "empty", "disabled", "layers1", "layers4",
+            "mixed"};
+
+    private int mCalls = 10000000;
+    private int mRounds = 10;
+    private long mSink;
+
+    /**
+     * Runs the scenarios given as the arguments, all of them if none.
+     */
+    public static void main(String[] args) {
+        final InterceptorBenchmark benchmark = new InterceptorBenchmark();
+        for (String scenario : args.length > 0 ? args : SCENARIOS) {
+            benchmark.run(scenario, System.out);
+        }
+    }
+
+    public void setCalls(int calls) {
+        mCalls = calls;
+    }
+
+    public void setRounds(int rounds) {
+        mRounds = rounds;
+    }
+
+    /**
+     * Runs the scenario.
+     *
+     * @param scenario
+     *         one of direct, empty, disabled, layers1, layers4 and mixed
+     * @param out
+     *         the report output
+     */
+    public void run(String scenario, PrintStream out) {
+        final NullSoundPool backend = new NullSoundPool();
+        final List<SoundPoolInterceptor> interceptors = new ArrayList<>();
+        switch (scenario) {
+            case "direct":
+                runDirect(backend, out);
+                return;
+            case "disabled":
+                for (int i = 0; i < 4; i++) {
+                    interceptors.add(new SoundPoolInterceptor() {
+                        @Override
+                        public ISoundPool intercept(ISoundPool next) {
+                            return next;
+                        }
+                    });
+                }
+                break;
+            case "layers1":
+            case "layers4":
+                final int layers = scenario.equals("layers1") ? 1 : 4;
+                for (int i = 0; i < layers; i++) {
+                    interceptors.add(new SoundPoolInterceptor() {
+                        @Override
+                        public ISoundPool intercept(ISoundPool next) {
+                            return new ForwardingSoundPool(next) {
+                            };
+                        }
+                    });
+                }
+                break;
+            case "mixed":
+                // the outer layers don't intercept play(), the inner ones don't intercept
+                // setVolume(), so both calls cross layers of other types
+                interceptors.add(new SoundPoolInterceptor() {
+                    @Override
+                    public ISoundPool intercept(ISoundPool next) {
+                        return new StopLayer(next);
+                    }
+                });
+                interceptors.add(new SoundPoolInterceptor() {
+                    @Override
+                    public ISoundPool intercept(ISoundPool next) {
+                        return new VolumeLayer(next);
+                    }
+                });
+                interceptors.add(new SoundPoolInterceptor() {
+                    @Override
+                    public ISoundPool intercept(ISoundPool next) {
+                        return new PlayLayer(next);
+                    }
+                });
+                interceptors.add(new SoundPoolInterceptor() {
+                    @Override
+                    public ISoundPool intercept(ISoundPool next) {
+                        return new PauseLayer(next);
+                    }
+                });
+                break;
+            case "empty":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        final ISoundPool pool = ForwardingSoundPool.chain(backend, interceptors);
+        final long[] play = new long[mRounds];
+        final long[] volume = new long[mRounds];
+        for (int r = 0; r < mRounds; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < mCalls; i++) {
+                mSink += pool.play(i & 63, 1, 1, 0, 0, 1);
+            }
+            play[r] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < mCalls; i++) {
+                pool.setVolume(i & 63, 0.5f, 0.5f);
+            }
+            volume[r] = System.nanoTime() - start;
+        }
+        report(scenario, play, volume, out);
+    }
+
+    /**
+     * The direct calls through the concrete backend type.
+     */
+    private void runDirect(NullSoundPool backend, PrintStream out) {
+        final long[] play = new long[mRounds];
+        final long[] volume = new long[mRounds];
+        for (int r = 0; r < mRounds; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < mCalls; i++) {
+                mSink += backend.play(i & 63, 1, 1, 0, 0, 1);
+            }
+            play[r] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < mCalls; i++) {
+                backend.setVolume(i & 63, 0.5f, 0.5f);
+            }
+            volume[r] = System.nanoTime() - start;
+        }
+        report("direct", play, volume, out);
+    }
+
+    private void report(String scenario, long[] play, long[] volume, PrintStream out) {
+        Arrays.sort(play);
+        Arrays.sort(volume);
+        // the first rounds are the warm-up, the median ignores them
+        out.printf("%-9s play %.2f ns/call  setVolume %.2f ns/call%n", scenario,
+                (double) play[mRounds / 2] / mCalls, (double) volume[mRounds / 2] / mCalls);
+    }
+
+    private static final class PlayLayer extends ForwardingSoundPool {
+        long mPlays;
+
+        PlayLayer(ISoundPool delegate) {
+            super(delegate, ForwardingSoundPool.CALL_PLAY);
+        }
+
+        @Override
+        public int play(int soundID, float leftVolume, float rightVolume, int priority,
+                int loop, float rate) {
+            mPlays++;
+            return super.play(soundID, leftVolume, rightVolume, priority, loop, rate);
+        }
+    }
+
+    private static final class VolumeLayer extends ForwardingSoundPool {
+        float mLastVolume;
+
+        VolumeLayer(ISoundPool delegate) {
+            super(delegate, ForwardingSoundPool.CALL_SET_VOLUME);
+        }
+
+        @Override
+        public void setVolume(int streamID, float leftVolume, float rightVolume) {
+            mLastVolume = leftVolume;
+            super.setVolume(streamID, leftVolume, rightVolume);
+        }
+    }
+
+    private static final class StopLayer extends ForwardingSoundPool {
+        StopLayer(ISoundPool delegate) {
+            super(delegate, ForwardingSoundPool.CALL_STOP);
+        }
+
+        @Override
+        public void stop(int streamID) {
+            super.stop(streamID);
+        }
+    }
+
+    private static final class PauseLayer extends ForwardingSoundPool {
+        PauseLayer(ISoundPool delegate) {
+            super(delegate, ForwardingSoundPool.CALL_PAUSE);
+        }
+
+        @Override
+        public void pause(int streamID) {
+            super.pause(streamID);
+        }
+    }
+
+    /**
+     * Backend which does nothing but keeps the calls observable in fields, so the JIT can't
+     * drop them.
+     */
+    private static final class NullSoundPool implements ISoundPool {
+        private int mNextStreamID;
+        long mVolumeCalls;
+
+        @Override
+        public int load(String path, int priority) {
+            return 0;
+        }
+
+        @Override
+        public int load(Context context, int resId, int priority) {
+            return 0;
+        }
+
+        @Override
+        public int load(AssetFileDescriptor afd, int priority) {
+            return 0;
+        }
+
+        @Override
+        public int load(FileDescriptor fd, long offset, long length, int priority) {
+            return 0;
+        }
+
+        @Override
+        public boolean unload(int soundID) {
+            return false;
+        }
+
+        @Override
+        public int play(int soundID, float leftVolume, float rightVolume, int priority,
+                int loop, float rate) {
+            return ++mNextStreamID + soundID;
+        }
+
+        @Override
+        public void pause(int streamID) {
+        }
+
+        @Override
+        public void resume(int streamID) {
+        }
+
+        @Override
+        public void autoPause() {
+        }
+
+        @Override
+        public void autoResume() {
+        }
+
+        @Override
+        public void stop(int streamID) {
+        }
+
+        @Override
+        public void setVolume(int streamID, float leftVolume, float rightVolume) {
+            mVolumeCalls += streamID;
+        }
+
+        @Override
+        public void setVolume(int streamID, float volume) {
+            mVolumeCalls += streamID;
+        }
+
+        @Override
+        public void setPriority(int streamID, int priority) {
+        }
+
+        @Override
+        public void setLoop(int streamID, int loop) {
+        }
+
+        @Override
+        public void setRate(int streamID, float rate) {
+        }
+
+        @Override
+        public void setOnLoadCompleteListener(SoundPool.OnLoadCompleteListener listener) {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.kry.soundpoolex.tools;
+
+/**
+ * JUnit category of the long soak runs. They're excluded from the test tasks unless the build runs
+ * with {@code -Psoak}, which runs only them.
+ */
+public interface Soak {
+}
@@ -0,0 +1,471 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.SoundBank;
+import com.kry.soundpoolex.SoundPoolEx;
+import com.kry.soundpoolex.SoundPoolMetrics;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * JVM soak and stress harness: drives a {@link SoundPoolEx} over a {@link FakeSoundPool} with
+ * synthetic production traffic on a {@link VirtualClock}, so hours of playback are simulated in
+ * seconds. Traffic profiles can be combined: bursty short effects, long loops, constant pause and
+ * resume, and load/unload churn of the sound set.
+ * <p/>
+ * Every report interval of the simulated time it prints the registry sizes, the heap usage after
+ * GC, the allocation rate of the driving thread (if the JVM can measure it), the latency
+ * percentiles of every operation, and the mismatches of {@link SoundPoolEx#isPlaying(int)} with
+ * the ground truth of the fake backend.
+ * <p/>
+ * The harness needs the Android framework classes used by SoundPoolEx, it runs under Robolectric,
+ * see {@link SoakHarnessTest}.
+ */
+public final class SoakHarness {
+    public static final int PROFILE_SFX = 1;
+    public static final int PROFILE_LOOPS = 2;
+    public static final int PROFILE_PAUSE = 4;
+    public static final int PROFILE_CHURN = 8;
+    public static final int PROFILE_ALL = 15;
+
+    private static final int OP_LOAD = 0;
+    private static final int OP_UNLOAD = 1;
+    private static final int OP_PLAY = 2;
+    private static final int OP_STOP = 3;
+    private static final int OP_PAUSE = 4;
+    private static final int OP_RESUME = 5;
+    private static final int OP_AUTO_PAUSE = 6;
+    private static final int OP_AUTO_RESUME = 7;
+    private static final int OP_IS_PLAYING = 8;
+    private static final int OP_SET_VOLUME = 9;
+    private static final String[] OP_NAMES = {"load", "unload", "play", "stop", "pause", "resume",
+            "autoPause", "autoResume", "isPlaying", "setVolume"};
+    private static final int BUCKETS = 64;
+
+    private static final int SHORT_SOUNDS = 16;
+    private static final int LONG_SOUNDS = 6;
+    private static final int SAMPLE_RATE = 8000;
+    private static final int TRACKED_STREAMS = 512;
+    private static final int MAX_LOOPS = 8;
+    private static final int CHECK_INTERVAL = 100;
+
+    private long mDuration = 60 * 60 * 1000;
+    private long mReportInterval = 10 * 60 * 1000;
+    private int mTick = 10;
+    private int mProfiles = PROFILE_ALL;
+    private long mSeed = 1;
+    private int mMaxStreams = 16;
+
+    // run state
+    private VirtualClock mClock;
+    private FakeSoundPool mFake;
+    private SoundPoolEx mPool;
+    private Random mRandom;
+    private final long[][] mLatencies = new long[OP_NAMES.length][BUCKETS];
+    private final long[] mMaxLatencies = new long[OP_NAMES.length];
+    private final int[] mTracked = new int[TRACKED_STREAMS];
+    private int mTrackedNext;
+    private final int[] mLoops = new int[MAX_LOOPS];
+    private int[] mSoundIds;
+    private long mBurstEnd;
+    private long mChecks;
+    private long mFalsePositives;
+    private long mFalseNegatives;
+    private long mOperations;
+
+    /**
+     * @param duration
+     *         the simulated time in milliseconds
+     * @return the same harness instance
+     */
+    public SoakHarness setDuration(long duration) {
+        mDuration = duration;
+        return this;
+    }
+
+    /**
+     * @param interval
+     *         the simulated time between the reports in milliseconds
+     * @return the same harness instance
+     */
+    public SoakHarness setReportInterval(long interval) {
+        mReportInterval = interval;
+        return this;
+    }
+
+    /**
+     * @param profiles
+     *         a combination of the PROFILE_ flags
+     * @return the same harness instance
+     */
+    public SoakHarness setProfiles(int profiles) {
+        mProfiles = profiles;
+        return this;
+    }
+
+    /**
+     * @param seed
+     *         the seed of the traffic generator
+     * @return the same harness instance
+     */
+    public SoakHarness setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * @param maxStreams
+     *         the stream limit of the fake backend
+     * @return the same harness instance
+     */
+    public SoakHarness setMaxStreams(int maxStreams) {
+        mMaxStreams = maxStreams;
+        return this;
+    }
+
+    /**
+     * Runs the simulation.
+     *
+     * @param workDir
+     *         the directory for the generated sounds
+     * @param out
+     *         the report output
+     * @throws IOException
+     *         if the sounds can't be generated
+     */
+    public void run(File workDir, PrintStream out) throws IOException {
+        File bankFile = generateBank(workDir);
+        SoundBank bank = SoundBank.open(bankFile);
+        try {
+            mClock = new VirtualClock(0);
+            mFake = new FakeSoundPool(mMaxStreams, mClock);
+            mPool = new SoundPoolEx(mFake);
+            mPool.setClock(mClock);
+            SoundPoolMetrics metrics = new SoundPoolMetrics();
+            mPool.setMetrics(metrics);
+            mRandom = new Random(mSeed);
+
+            mSoundIds = new int[bank.size()];
+            for (int i = 0; i < bank.size(); i++) {
+                mSoundIds[i] = load(bank, i);
+            }
+
+            out.println("time      sounds streams heapKB  allocB/s   ops  isPlaying(fp/fn/checks)");
+            AllocationCounter allocations = new AllocationCounter();
+            long lastAllocated = allocations.get();
+            long lastReport = 0;
+            long nextCheck = CHECK_INTERVAL;
+            while (mClock.currentTimeMillis() < mDuration) {
+                final long now = mClock.currentTimeMillis();
+                if ((mProfiles & PROFILE_SFX) != 0) stepSfx(now);
+                if ((mProfiles & PROFILE_LOOPS) != 0) stepLoops();
+                if ((mProfiles & PROFILE_PAUSE) != 0) stepPause();
+                if ((mProfiles & PROFILE_CHURN) != 0) stepChurn(bank);
+                if (now >= nextCheck) {
+                    checkPlaying();
+                    nextCheck += CHECK_INTERVAL;
+                }
+
+                mClock.advance(mTick);
+                if (mClock.currentTimeMillis() - lastReport >= mReportInterval) {
+                    final long allocated = allocations.get();
+                    report(out, metrics.snapshot(), allocated < 0 ? -1 :
+                            (allocated - lastAllocated) * 1000 /
+                                    (mClock.currentTimeMillis() - lastReport));
+                    lastAllocated = allocations.get();
+                    lastReport = mClock.currentTimeMillis();
+                }
+            }
+            printLatencies(out);
+        } finally {
+            bank.close();
+        }
+    }
+
+    private int load(SoundBank bank, int index) throws IOException {
+        final long start = System.nanoTime();
+        final int soundID = mPool.load(bank, index, 1);
+        record(OP_LOAD, start);
+        return soundID;
+    }
+
+    private boolean chance(double perSecond) {
+        return mRandom.nextDouble() < perSecond * mTick / 1000;
+    }
+
+    private void track(int streamID) {
+        if (streamID <= 0) return;
+        mTracked[mTrackedNext] = streamID;
+        mTrackedNext = (mTrackedNext + 1) % TRACKED_STREAMS;
+    }
+
+    private int randomTracked() {
+        return mTracked[mRandom.nextInt(TRACKED_STREAMS)];
+    }
+
+    /**
+     * Bursts of 2 to 6 short effects per 100 ms, half a second long, every 4 seconds on average.
+     */
+    private void stepSfx(long now) {
+        if (now >= mBurstEnd && chance(0.25)) mBurstEnd = now + 500;
+        if (now < mBurstEnd && chance(20 + mRandom.nextInt(5) * 10)) {
+            final int soundID = mSoundIds[mRandom.nextInt(SHORT_SOUNDS)];
+            if (soundID == 0) return;
+            final long start = System.nanoTime();
+            final int streamID = mPool.play(soundID, 1f, 1f, mRandom.nextInt(3), 0,
+                    0.5f + mRandom.nextFloat() * 1.5f);
+            record(OP_PLAY, start);
+            track(streamID);
+            if (streamID > 0 && mRandom.nextInt(4) == 0) {
+                final long volumeStart = System.nanoTime();
+                mPool.setVolume(streamID, mRandom.nextFloat(), mRandom.nextFloat());
+                record(OP_SET_VOLUME, volumeStart);
+            }
+        }
+    }
+
+    /**
+     * Long sounds looped forever, started and stopped every 20 seconds on average.
+     */
+    private void stepLoops() {
+        if (chance(0.05)) {
+            final int slot = mRandom.nextInt(MAX_LOOPS);
+            if (mLoops[slot] == 0) {
+                final int soundID = mSoundIds[SHORT_SOUNDS + mRandom.nextInt(LONG_SOUNDS)];
+                if (soundID == 0) return;
+                final long start = System.nanoTime();
+                mLoops[slot] = mPool.play(soundID, 0.5f, 0.5f, 5, -1, 1f);
+                record(OP_PLAY, start);
+                track(mLoops[slot]);
+            }
+        }
+        if (chance(0.05)) {
+            final int slot = mRandom.nextInt(MAX_LOOPS);
+            if (mLoops[slot] != 0) {
+                final long start = System.nanoTime();
+                mPool.stop(mLoops[slot]);
+                record(OP_STOP, start);
+                mLoops[slot] = 0;
+            }
+        }
+    }
+
+    /**
+     * Pause and resume of random streams 5 times a second, auto pause every minute.
+     */
+    private void stepPause() {
+        if (chance(5)) {
+            final int streamID = randomTracked();
+            if (streamID > 0) {
+                final long start = System.nanoTime();
+                mPool.pause(streamID);
+                record(OP_PAUSE, start);
+            }
+        }
+        if (chance(5)) {
+            final int streamID = randomTracked();
+            if (streamID > 0) {
+                final long start = System.nanoTime();
+                mPool.resume(streamID);
+                record(OP_RESUME, start);
+            }
+        }
+        if (chance(1.0 / 60)) {
+            long start = System.nanoTime();
+            mPool.autoPause();
+            record(OP_AUTO_PAUSE, start);
+            start = System.nanoTime();
+            mPool.autoResume();
+            record(OP_AUTO_RESUME, start);
+        }
+    }
+
+    /**
+     * Unload and reload of a random sound twice a second.
+     */
+    private void stepChurn(SoundBank bank) throws IOException {
+        if (!chance(2)) return;
+        final int index = mRandom.nextInt(mSoundIds.length);
+        if (mSoundIds[index] != 0) {
+            final long start = System.nanoTime();
+            mPool.unload(mSoundIds[index]);
+            record(OP_UNLOAD, start);
+            mSoundIds[index] = 0;
+            for (int i = 0; i < MAX_LOOPS; i++) {
+                if (mLoops[i] != 0 && !mFake.isPlaying(mLoops[i])) mLoops[i] = 0;
+            }
+        } else {
+            mSoundIds[index] = load(bank, index);
+        }
+    }
+
+    /**
+     * Compares the SoundPoolEx playing state of the tracked streams with the ground truth.
+     */
+    private void checkPlaying() {
+        for (int i = 0; i < TRACKED_STREAMS; i++) {
+            final int streamID = mTracked[i];
+            if (streamID == 0) continue;
+            final long start = System.nanoTime();
+            final boolean playing = mPool.isPlaying(streamID);
+            record(OP_IS_PLAYING, start);
+            final boolean truth = mFake.isPlaying(streamID);
+            mChecks++;
+            if (playing && !truth) mFalsePositives++;
+            if (!playing && truth) mFalseNegatives++;
+        }
+    }
+
+    /**
+     * @return the number of the isPlaying() checks of the last run
+     */
+    public long getCheckCount() {
+        return mChecks;
+    }
+
+    /**
+     * @return the number of the checks of the last run where SoundPoolEx reported a stream
+     * playing while the backend didn't play it
+     */
+    public long getFalsePositiveCount() {
+        return mFalsePositives;
+    }
+
+    /**
+     * @return the number of the checks of the last run where SoundPoolEx reported a playing
+     * stream as not playing
+     */
+    public long getFalseNegativeCount() {
+        return mFalseNegatives;
+    }
+
+    private void record(int op, long start) {
+        final long latency = System.nanoTime() - start;
+        mLatencies[op][64 - Long.numberOfLeadingZeros(latency)]++;
+        if (latency > mMaxLatencies[op]) mMaxLatencies[op] = latency;
+        mOperations++;
+    }
+
+    private void report(PrintStream out, SoundPoolMetrics.Snapshot snapshot, long allocationRate) {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long heap = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+        final long minutes = mClock.currentTimeMillis() / 60000;
+        out.println(String.format("%3d:%02d  %7d %7d %7d %9d %7d  %d/%d/%d", minutes / 60,
+                minutes % 60, snapshot.getSoundCount(), snapshot.getStreamCount(), heap,
+                allocationRate, mOperations, mFalsePositives, mFalseNegatives, mChecks));
+    }
+
+    private void printLatencies(PrintStream out) {
+        out.println();
+        out.println("operation        count     p50ns     p99ns   p99.9ns     maxns");
+        for (int op = 0; op < OP_NAMES.length; op++) {
+            long count = 0;
+            for (long c : mLatencies[op]) {
+                count += c;
+            }
+            if (count == 0) continue;
+            out.println(String.format("%-12s %9d %9d %9d %9d %9d", OP_NAMES[op], count,
+                    percentile(op, count, 50), percentile(op, count, 99),
+                    percentile(op, count, 99.9), mMaxLatencies[op]));
+        }
+    }
+
+    /**
+     * @return the upper bound of the power of two bucket containing the percentile
+     */
+    private long percentile(int op, long count, double percentile) {
+        final long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mLatencies[op][i];
+            if (seen >= rank) return i == 0 ? 0 : (1L << i) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Generates the silent 8 kHz mono WAV sounds and packs them into a bank: short effects of
+     * 50 to 800 ms and long sounds of 5 to 60 seconds.
+     */
+    private static File generateBank(File workDir) throws IOException {
+        SoundBankBuilder builder = new SoundBankBuilder();
+        for (int i = 0; i < SHORT_SOUNDS + LONG_SOUNDS; i++) {
+            final int duration = i < SHORT_SOUNDS ? 50 + i * 50 :
+                    5000 + (i - SHORT_SOUNDS) * 11000;
+            File file = new File(workDir, "sound" + i + ".wav");
+            writeSilence(file, duration);
+            builder.add(String.format("%02d", i), file);
+        }
+        File bankFile = new File(workDir, "soak.bank");
+        builder.write(bankFile);
+        return bankFile;
+    }
+
+    static void writeSilence(File file, int duration) throws IOException {
+        final int dataSize = SAMPLE_RATE * duration / 1000;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x52494646); // 'RIFF'
+            out.writeInt(Integer.reverseBytes(36 + dataSize));
+            out.writeInt(0x57415645); // 'WAVE'
+            out.writeInt(0x666D7420); // 'fmt '
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1)); // PCM
+            out.writeShort(Short.reverseBytes((short) 1)); // mono
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE)); // byte rate
+            out.writeShort(Short.reverseBytes((short) 1)); // block align
+            out.writeShort(Short.reverseBytes((short) 8)); // bits per sample
+            out.writeInt(0x64617461); // 'data'
+            out.writeInt(Integer.reverseBytes(dataSize));
+            byte[] silence = new byte[dataSize];
+            Arrays.fill(silence, (byte) 0x80);
+            out.write(silence);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Allocated bytes of the current thread through com.sun.management.ThreadMXBean, which is
+     * looked up reflectively as it's missing on Android.
+     */
+    private static final class AllocationCounter {
+        private final Object mBean;
+        private final Method mMethod;
+
+        AllocationCounter() {
+            Object bean = null;
+            Method method = null;
+            try {
+                bean = Class.forName("java.lang.management.ManagementFactory")
+                        .getMethod("getThreadMXBean").invoke(null);
+                method = Class.forName("com.sun.management.ThreadMXBean")
+                        .getMethod("getThreadAllocatedBytes", long.class);
+            } catch (Exception e) {
+                method = null;
+            }
+            mBean = bean;
+            mMethod = method;
+        }
+
+        /**
+         * @return the allocated bytes or -1 if unavailable
+         */
+        long get() {
+            if (mMethod == null) return -1;
+            try {
+                return (Long) mMethod.invoke(mBean, Thread.currentThread().getId());
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
+}
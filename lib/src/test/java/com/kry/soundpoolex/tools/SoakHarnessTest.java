@@ -0,0 +1,61 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.BuildConfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class SoakHarnessTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void playingStateMatchesBackend() throws Exception {
+        // a stream limit above the peak of the traffic, nothing is stolen behind SoundPoolEx
+        SoakHarness harness = new SoakHarness()
+                .setDuration(2 * 60 * 1000)
+                .setReportInterval(60 * 1000)
+                .setProfiles(SoakHarness.PROFILE_ALL)
+                .setMaxStreams(64)
+                .setSeed(7);
+        harness.run(mFolder.getRoot(), new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        assertTrue(harness.getCheckCount() > 0);
+        assertEquals(0, harness.getFalsePositiveCount());
+        assertEquals(0, harness.getFalseNegativeCount());
+    }
+
+    @Test
+    @Category (Soak.class)
+    public void playingStateFollowsBackend() throws Exception {
+        SoakHarness harness = new SoakHarness()
+                .setDuration(30 * 60 * 1000)
+                .setReportInterval(10 * 60 * 1000)
+                .setProfiles(SoakHarness.PROFILE_ALL)
+                .setSeed(7);
+        harness.run(mFolder.getRoot(), System.out);
+
+        final long checks = harness.getCheckCount();
+        assertTrue(checks > 0);
+        // only the streams stolen by the backend at the stream limit disagree
+        assertTrue(harness.getFalsePositiveCount() < checks / 100000);
+        assertEquals(0, harness.getFalseNegativeCount());
+    }
+}
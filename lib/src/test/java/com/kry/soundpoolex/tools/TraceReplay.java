@@ -0,0 +1,121 @@
+package com.kry.soundpoolex.tools;
+
+import android.util.SparseArray;
+
+import com.kry.soundpoolex.CallTraceReplayer;
+import com.kry.soundpoolex.RecordingSoundPool;
+import com.kry.soundpoolex.SoundPoolEx;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Replays a call trace recorded on a device by {@link RecordingSoundPool} into a
+ * {@link SoundPoolEx} over a {@link FakeSoundPool}, as a repeatable benchmark. The virtual clock
+ * follows the trace time, so the SoundPoolEx timelines see the recorded intervals also in the
+ * fast mode.
+ * <p/>
+ * The recorded sounds aren't available on the JVM: every load is replaced by a silent WAV of the
+ * recorded duration. The trace is replayed the given number of times, each into a new pool, and
+ * the wall time of every iteration is printed with the median. Runs under Robolectric, see
+ * {@link TraceReplayTest}.
+ */
+public final class TraceReplay {
+    private int mIterations = 10;
+    private boolean mRealTime;
+    private int mMaxStreams = 16;
+
+    public void setIterations(int iterations) {
+        mIterations = iterations;
+    }
+
+    public void setRealTime(boolean realTime) {
+        mRealTime = realTime;
+    }
+
+    public void setMaxStreams(int maxStreams) {
+        mMaxStreams = maxStreams;
+    }
+
+    /**
+     * Replays the trace.
+     *
+     * @param trace
+     *         the recorded trace
+     * @param workDir
+     *         the directory for the generated sounds
+     * @param out
+     *         the report output
+     * @throws IOException
+     *         if the trace can't be read or the sounds can't be generated
+     * @throws InterruptedException
+     *         if interrupted in the real time mode
+     */
+    public void run(File trace, File workDir, PrintStream out) throws IOException,
+            InterruptedException {
+        final long[] times = new long[mIterations];
+        long operations = 0;
+        for (int i = 0; i < mIterations; i++) {
+            final VirtualClock clock = new VirtualClock(0);
+            final SoundPoolEx pool = new SoundPoolEx(new FakeSoundPool(mMaxStreams, clock));
+            pool.setClock(clock);
+            Replayer replayer = new Replayer(pool, clock, workDir);
+            InputStream in = new FileInputStream(trace);
+            try {
+                times[i] = replayer.replay(in, mRealTime);
+            } finally {
+                in.close();
+            }
+            pool.release();
+            operations = replayer.getOperationCount();
+            out.printf("iteration %d: %.3f ms%n", i + 1, times[i] / 1e6);
+        }
+        Arrays.sort(times);
+        final long median = times[times.length / 2];
+        out.printf("%d calls, median %.3f ms, %.0f ns/call%n", operations, median / 1e6,
+                operations == 0 ? 0.0 : (double) median / operations);
+    }
+
+    private static final class Replayer extends CallTraceReplayer {
+        private final VirtualClock mClock;
+        private final File mWorkDir;
+        /**
+         * Generated sounds '<'duration, file'>'
+         */
+        private final SparseArray<File> mFiles = new SparseArray<>();
+        private long mLastTime;
+
+        Replayer(SoundPoolEx pool, VirtualClock clock, File workDir) {
+            super(pool);
+            mClock = clock;
+            mWorkDir = workDir;
+        }
+
+        @Override
+        protected void onTime(long traceTime) {
+            final long millis = traceTime / 1000;
+            mClock.advance(millis - mLastTime);
+            mLastTime = millis;
+        }
+
+        @Override
+        protected int load(int type, String path, int resId, long offset, long length,
+                int duration, int priority) {
+            File file = mFiles.get(duration);
+            if (file == null) {
+                file = new File(mWorkDir, "silence" + duration + ".wav");
+                try {
+                    if (!file.isFile()) SoakHarness.writeSilence(file, duration);
+                } catch (IOException e) {
+                    return 0;
+                }
+                mFiles.put(duration, file);
+            }
+            return getTarget().load(file.getPath(), priority);
+        }
+    }
+}
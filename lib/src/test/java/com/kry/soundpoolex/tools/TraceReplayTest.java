@@ -0,0 +1,55 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.BuildConfig;
+import com.kry.soundpoolex.RecordingSoundPool;
+import com.kry.soundpoolex.SoundPoolEx;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith (RobolectricGradleTestRunner.class)
+@Config (constants = BuildConfig.class, sdk = 21)
+public class TraceReplayTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordedTrace() throws Exception {
+        File sound = mFolder.newFile("sound.wav");
+        SoakHarness.writeSilence(sound, 300);
+        File trace = mFolder.newFile("calls.trace");
+
+        VirtualClock clock = new VirtualClock(0);
+        SoundPoolEx pool = new SoundPoolEx(new FakeSoundPool(4, clock));
+        pool.setClock(clock);
+        RecordingSoundPool recorder = new RecordingSoundPool(pool, new FileOutputStream(trace));
+        int soundID = recorder.load(sound.getPath(), 1);
+        int streamID = recorder.play(soundID, 1f, 1f, 0, 0, 1f);
+        recorder.pause(streamID);
+        recorder.resume(streamID);
+        recorder.stop(streamID);
+        recorder.unload(soundID);
+        recorder.close();
+        pool.release();
+
+        TraceReplay replay = new TraceReplay();
+        replay.setIterations(3);
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        replay.run(trace, mFolder.newFolder(), new PrintStream(report, true));
+
+        String output = report.toString();
+        assertTrue(output, output.contains("iteration 3:"));
+        assertTrue(output, output.contains("6 calls"));
+    }
+}
@@ -0,0 +1,35 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.SoundClock;
+
+/**
+ * Manually advanced {@link SoundClock} for simulations.
+ */
+public final class VirtualClock implements SoundClock {
+    private volatile long mTime;
+
+    /**
+     * Constructor.
+     *
+     * @param startTime
+     *         the initial time in milliseconds
+     */
+    public VirtualClock(long startTime) {
+        mTime = startTime;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return mTime;
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param millis
+     *         the time step in milliseconds
+     */
+    public void advance(long millis) {
+        mTime += millis;
+    }
+}
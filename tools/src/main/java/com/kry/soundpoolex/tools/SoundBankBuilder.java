@@ -0,0 +1,175 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.AudioHeader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM tool that packs sound files into a bank read by {@code com.kry.soundpoolex.SoundBank}.
+ * Entries are named after the file names without extensions.
+ * <p/>
+ * Usage: {@code java com.kry.soundpoolex.tools.SoundBankBuilder <output> <sound files...>}
+ */
+public final class SoundBankBuilder {
+    // the layout of SoundBank, the library tests read the built banks back
+    static final int MAGIC = 0x53505842;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SoundBankBuilder <output> <sound files...>");
+            System.exit(1);
+        }
+        SoundBankBuilder builder = new SoundBankBuilder();
+        for (int i = 1; i < args.length; i++) {
+            builder.add(new File(args[i]));
+        }
+        builder.write(new File(args[0]));
+    }
+
+    /**
+     * Adds the sound file to the bank. The file is named after its name without extension.
+     *
+     * @param file
+     *         the sound file
+     * @return the same builder instance
+     * @throws IOException
+     *         if the file can't be read
+     */
+    public SoundBankBuilder add(File file) throws IOException {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return add(dot > 0 ? name.substring(0, dot) : name, file);
+    }
+
+    /**
+     * Adds the sound file to the bank under the given name.
+     *
+     * @param name
+     *         the entry name
+     * @param file
+     *         the sound file
+     * @return the same builder instance
+     * @throws IOException
+     *         if the file can't be read
+     */
+    public SoundBankBuilder add(String name, File file) throws IOException {
+        for (Entry entry : mEntries) {
+            if (entry.name.equals(name)) throw new IllegalArgumentException("Duplicate " + name);
+        }
+
+        AudioHeader header;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            header = AudioHeader.read(in.getChannel(), 0, file.length());
+        } finally {
+            in.close();
+        }
+        if (header == null) {
+            System.err.println("Warning: unknown format of " + file + ", duration is set to 0");
+        }
+        mEntries.add(new Entry(name, file, header));
+        return this;
+    }
+
+    /**
+     * Writes the bank file.
+     *
+     * @param output
+     *         the bank file
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void write(File output) throws IOException {
+        Collections.sort(mEntries);
+
+        int count = mEntries.size();
+        byte[][] names = new byte[count][];
+        int namesSize = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = mEntries.get(i).name.getBytes(UTF_8);
+            if (names[i].length > 0xFFFF) throw new IllegalArgumentException("Name is too long");
+            namesSize += 2 + names[i].length;
+        }
+        int indexSize = HEADER_SIZE + count * ENTRY_SIZE + namesSize;
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(count);
+            out.writeInt(indexSize);
+
+            long offset = indexSize;
+            int nameOffset = 0;
+            for (int i = 0; i < count; i++) {
+                Entry entry = mEntries.get(i);
+                long length = entry.file.length();
+                out.writeLong(offset);
+                out.writeLong(length);
+                out.writeInt(entry.header != null ? entry.header.getDuration() : 0);
+                out.writeInt(entry.header != null ? entry.header.getSampleRate() : 0);
+                out.writeShort(entry.header != null ? entry.header.getChannelCount() : 0);
+                out.writeShort(entry.header != null ? entry.header.getFormat() :
+                        AudioHeader.FORMAT_UNKNOWN);
+                out.writeInt(nameOffset);
+                offset += length;
+                nameOffset += 2 + names[i].length;
+            }
+            for (byte[] name : names) {
+                out.writeShort(name.length);
+                out.write(name);
+            }
+
+            byte[] buffer = new byte[65536];
+            for (Entry entry : mEntries) {
+                InputStream in = new FileInputStream(entry.file);
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String name;
+        final File file;
+        final AudioHeader header;
+
+        Entry(String name, File file, AudioHeader header) {
+            this.name = name;
+            this.file = file;
+            this.header = header;
+        }
+
+        @Override
+        public int compareTo(Entry another) {
+            return name.compareTo(another.name);
+        }
+    }
+}
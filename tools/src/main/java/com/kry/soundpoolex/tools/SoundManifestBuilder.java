@@ -0,0 +1,182 @@
+package com.kry.soundpoolex.tools;
+
+import com.kry.soundpoolex.AudioHeader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM tool that writes the sound manifest read by {@code com.kry.soundpoolex.SoundManifest}: the
+ * header metadata of the sounds in the raw resource and the assets directories, read by the same
+ * {@link AudioHeader} parser as the runtime probing. Files of unknown formats are skipped and are
+ * probed at runtime. The generateSoundManifest task of {@code soundmanifest.gradle} runs it.
+ * <p/>
+ * Usage: {@code java com.kry.soundpoolex.tools.SoundManifestBuilder <output> [--raw <dir>]...
+ * [--assets <dir>]...}
+ */
+public final class SoundManifestBuilder {
+    // the layout of SoundManifest, the library tests read the built manifests back
+    static final int MAGIC = 0x5350584D;
+    static final int VERSION = 1;
+
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length % 2 != 1) {
+            System.err.println("Usage: SoundManifestBuilder <output> [--raw <dir>]... " +
+                    "[--assets <dir>]...");
+            System.exit(1);
+        }
+        SoundManifestBuilder builder = new SoundManifestBuilder();
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--raw":
+                    builder.addRawDir(new File(args[i + 1]));
+                    break;
+                case "--assets":
+                    builder.addAssetsDir(new File(args[i + 1]));
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        builder.write(new File(args[0]));
+        System.out.println("SoundPoolEx manifest: " + builder.size() + " sounds");
+    }
+
+    /**
+     * Adds the sounds of a raw resource directory, keyed as {@code raw/<entry name>}.
+     *
+     * @param dir
+     *         the raw directory, may be missing
+     * @return the same builder instance
+     * @throws IOException
+     *         if a file can't be read
+     */
+    public SoundManifestBuilder addRawDir(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return this;
+        for (File file : files) {
+            if (!file.isFile()) continue;
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            add("raw/" + (dot > 0 ? name.substring(0, dot) : name), file);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the sounds of an assets directory and its subdirectories, keyed by the asset path.
+     *
+     * @param dir
+     *         the assets directory, may be missing
+     * @return the same builder instance
+     * @throws IOException
+     *         if a file can't be read
+     */
+    public SoundManifestBuilder addAssetsDir(File dir) throws IOException {
+        addAssets(dir, "");
+        return this;
+    }
+
+    private void addAssets(File dir, String prefix) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addAssets(file, prefix + file.getName() + "/");
+            } else if (file.isFile()) {
+                add(prefix + file.getName(), file);
+            }
+        }
+    }
+
+    /**
+     * Adds the sound under the given key. Files of unknown formats are skipped.
+     *
+     * @param key
+     *         {@code raw/<entry name>} or the asset path
+     * @param file
+     *         the sound file
+     * @return true if the sound was added
+     * @throws IOException
+     *         if the file can't be read
+     */
+    public boolean add(String key, File file) throws IOException {
+        AudioHeader header;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            header = AudioHeader.read(in.getChannel(), 0, file.length());
+        } finally {
+            in.close();
+        }
+        if (header == null) return false;
+        for (Entry entry : mEntries) {
+            if (entry.key.equals(key)) throw new IllegalArgumentException("Duplicate " + key);
+        }
+        mEntries.add(new Entry(key, header));
+        return true;
+    }
+
+    /**
+     * @return the number of the added sounds
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Writes the manifest file.
+     *
+     * @param output
+     *         the manifest file, its directory is created if missing
+     * @throws IOException
+     *         if an I/O error occurs
+     */
+    public void write(File output) throws IOException {
+        // SoundManifest looks the keys up by binary search
+        Collections.sort(mEntries);
+
+        File dir = output.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries) {
+                out.writeUTF(entry.key);
+                out.writeInt(entry.header.getDuration());
+                out.writeInt(entry.header.getSampleRate());
+                out.writeByte(entry.header.getChannelCount());
+                out.writeLong(entry.header.getDecodedSize());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String key;
+        final AudioHeader header;
+
+        Entry(String key, AudioHeader header) {
+            this.key = key;
+            this.header = header;
+        }
+
+        @Override
+        public int compareTo(Entry another) {
+            return key.compareTo(another.key);
+        }
+    }
+}